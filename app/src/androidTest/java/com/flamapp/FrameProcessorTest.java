@@ -0,0 +1,305 @@
+package com.flamapp;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the native FrameProcessor on device against synthetic frames.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameProcessorTest {
+
+    @Before
+    public void loadNative() {
+        assertTrue("native-lib failed to load: " + FrameProcessor.getNativeLoadError(),
+                FrameProcessor.isNativeAvailable());
+    }
+
+    private static ByteBuffer syntheticPlane(int width, int height, int rowStride) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                // vertical bars, plenty of edges
+                plane.put(r * rowStride + c, (byte) (((c / 16) & 1) == 0 ? 20 : 230));
+            }
+        }
+        return plane;
+    }
+
+    @Test
+    public void noWorkspaceReallocationsAfterWarmUp() {
+        int width = 640, height = 480, rowStride = 704;
+        ByteBuffer in = syntheticPlane(width, height, rowStride);
+        ByteBuffer out = FrameProcessor.allocateOutput(width, height);
+
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config())) {
+            assertTrue(processor.process(in, rowStride, 1, out));
+            long afterWarmUp = FrameProcessor.nativeWorkspaceReallocations();
+            for (int i = 0; i < 50; i++) {
+                assertTrue(processor.process(in, rowStride, 1, out));
+            }
+            assertEquals(afterWarmUp, FrameProcessor.nativeWorkspaceReallocations());
+        }
+    }
+
+    @Test
+    public void instanceMatchesLegacyPath() {
+        int width = 320, height = 240;
+        ByteBuffer in = syntheticPlane(width, height, width);
+        byte[] inBytes = new byte[width * height];
+        in.get(inBytes);
+        in.rewind();
+
+        byte[] expected = FrameProcessor.processGrayFrame(inBytes, width, height);
+        ByteBuffer out = FrameProcessor.allocateOutput(width, height);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config())) {
+            assertTrue(processor.process(in, width, 1, out));
+        }
+        byte[] actual = new byte[width * height];
+        out.get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void filterChainRunsInOneCallWithResizedOutput() {
+        int width = 640, height = 480;
+        ByteBuffer in = syntheticPlane(width, height, width);
+        FilterChain chain = new FilterChain().scale(0.5).gaussianBlur(3).canny(80, 150).dilate(3, 1);
+        try (FrameProcessor processor = FrameProcessor.create(width, height,
+                new FrameProcessor.Config().setFilterChain(chain))) {
+            assertEquals(320, processor.getOutputWidth());
+            assertEquals(240, processor.getOutputHeight());
+            ByteBuffer out = FrameProcessor.allocateOutput(320, 240);
+            assertTrue(processor.process(in, width, 1, out));
+            long afterWarmUp = FrameProcessor.nativeWorkspaceReallocations();
+            for (int i = 0; i < 20; i++) assertTrue(processor.process(in, width, 1, out));
+            assertEquals(afterWarmUp, FrameProcessor.nativeWorkspaceReallocations());
+        }
+    }
+
+    @Test
+    public void switchingChainsKeepsFrameSize() {
+        int width = 320, height = 240;
+        ByteBuffer in = syntheticPlane(width, height, width);
+        ByteBuffer out = FrameProcessor.allocateOutput(width, height);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config())) {
+            assertTrue(processor.process(in, width, 1, out));
+            processor.setFilterChain(new FilterChain().sobel(1, 0, 3, 1).threshold(40, 255, FilterChain.THRESH_BINARY));
+            assertTrue(processor.process(in, width, 1, out));
+            processor.setFilterChain(new FilterChain().equalizeHistogram().morphClose(5, FilterChain.MORPH_ELLIPSE));
+            assertTrue(processor.process(in, width, 1, out));
+        }
+    }
+
+    // Java fallback against OpenCV on a noisy natural-ish frame: edges may differ on a handful of
+    // ties, but nowhere near a visible amount
+    @Test
+    public void javaBackendMatchesNativeWithinTolerance() {
+        int width = 640, height = 480;
+        ByteBuffer in = ByteBuffer.allocateDirect(width * height);
+        java.util.Random random = new java.util.Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double v = 128 + 90 * Math.sin(x / 23.0) * Math.cos(y / 17.0) + random.nextGaussian() * 6;
+                in.put(y * width + x, (byte) Math.max(0, Math.min(255, (int) v)));
+            }
+        }
+        ByteBuffer nativeOut = FrameProcessor.allocateOutput(width, height);
+        ByteBuffer javaOut = FrameProcessor.allocateOutput(width, height);
+        FrameProcessor.Config config = new FrameProcessor.Config();
+        try (FrameProcessor nativeProcessor = FrameProcessor.create(width, height,
+                     config.setBackend(FrameProcessor.Backend.NATIVE));
+             FrameProcessor javaProcessor = FrameProcessor.create(width, height,
+                     new FrameProcessor.Config().setBackend(FrameProcessor.Backend.JAVA))) {
+            assertTrue(nativeProcessor.process(in, width, 1, nativeOut));
+            assertTrue(javaProcessor.process(in, width, 1, javaOut));
+        }
+        int mismatches = 0;
+        for (int i = 0; i < width * height; i++) {
+            if (nativeOut.get(i) != javaOut.get(i)) mismatches++;
+        }
+        assertTrue("mismatching pixels: " + mismatches, mismatches <= width * height / 1000);
+    }
+
+    @Test
+    public void rejectsUndersizedOutput() {
+        int width = 64, height = 64;
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config())) {
+            assertFalse(processor.process(syntheticPlane(width, height, width), width, 1,
+                    ByteBuffer.allocateDirect(width * height - 1)));
+        }
+    }
+
+    // Every colour mode of the fused pixel pass against the gray output run through the table
+    @Test
+    public void pixelOutputMatchesGrayOutputThroughTheColorTable() {
+        int width = 320, height = 240, rowStride = 384;
+        ByteBuffer in = syntheticPlane(width, height, rowStride);
+        ColorOutput[] outputs = {
+                ColorOutput.gray(),
+                ColorOutput.heatMap().withFormat(ColorOutput.Format.RGB_565),
+                ColorOutput.edgeOverlay(0xFFFF0000, 0.5),
+        };
+        ByteBuffer gray = FrameProcessor.allocateOutput(width, height);
+        try (FrameProcessor processor = FrameProcessor.create(width, height,
+                new FrameProcessor.Config().setBackend(FrameProcessor.Backend.NATIVE))) {
+            assertTrue(processor.process(in, rowStride, 1, gray));
+            for (ColorOutput output : outputs) {
+                processor.setColorOutput(output);
+                int bpp = output.getFormat().bytesPerPixel;
+                ByteBuffer pixels = FrameProcessor.allocatePixels(width, height, output.getFormat());
+                assertTrue(processor.processToPixels(in, rowStride, 1, pixels));
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int v = gray.get(y * width + x) & 0xFF;
+                        int camera = in.get(y * rowStride + x) & 0xFF;
+                        int expected = output.isOverlay() && v == 0
+                                ? output.encodedBackground()[camera]
+                                : output.encodedColors()[v];
+                        int i = (y * width + x) * bpp;
+                        int actual = bpp == 4 ? pixels.getInt(i) : pixels.getShort(i) & 0xFFFF;
+                        assertEquals("pixel " + x + "," + y, expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pixelOutputWritesStraightIntoBitmaps() {
+        int width = 320, height = 240;
+        ByteBuffer in = syntheticPlane(width, height, width);
+        android.graphics.Bitmap bitmap = android.graphics.Bitmap.createBitmap(width, height,
+                android.graphics.Bitmap.Config.ARGB_8888);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.NATIVE).setColorOutput(ColorOutput.gray()))) {
+            ByteBuffer gray = FrameProcessor.allocateOutput(width, height);
+            assertTrue(processor.process(in, width, 1, gray));
+            long afterWarmUp = FrameProcessor.nativeWorkspaceReallocations();
+            assertTrue(new BitmapOutput().render(processor, in, width, 1, bitmap));
+            assertEquals(afterWarmUp, FrameProcessor.nativeWorkspaceReallocations());
+            for (int y = 0; y < height; y += 7) {
+                for (int x = 0; x < width; x += 5) {
+                    int v = gray.get(y * width + x) & 0xFF;
+                    assertEquals(0xFF000000 | (v << 16) | (v << 8) | v, bitmap.getPixel(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void stripedOutputIsBitIdenticalToOneThread() {
+        int width = 640, height = 480, rowStride = 704;
+        ByteBuffer in = syntheticPlane(width, height, rowStride);
+        // noise on top of the bars, so hysteresis has weak edges to follow across stripes
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < in.capacity(); i++) {
+            in.put(i, (byte) ((in.get(i) & 0xFF) + random.nextInt(40) - 20));
+        }
+        FilterChain[] chains = {
+                new FilterChain().gaussianBlur(3).canny(80, 150),
+                new FilterChain().gaussianBlur(5).morphClose(5, 0).sobel(1, 0, 3, 1).dilate(3, 2),
+                new FilterChain().equalizeHistogram().gaussianBlur(3).canny(30, 90).erode(3, 1),
+                new FilterChain().scale(0.5).threshold(0, 255, 8 /* THRESH_OTSU */).morphOpen(3, 0),
+        };
+        for (int c = 0; c < chains.length; c++) {
+            FrameProcessor.Config config = new FrameProcessor.Config()
+                    .setBackend(FrameProcessor.Backend.NATIVE).setFilterChain(chains[c]);
+            try (FrameProcessor single = FrameProcessor.create(width, height, config);
+                 FrameProcessor striped = FrameProcessor.create(width, height, config)) {
+                assertEquals(4, striped.setNativeThreads(4, true));
+                ByteBuffer expected = FrameProcessor.allocateOutput(single.getOutputWidth(), single.getOutputHeight());
+                ByteBuffer actual = FrameProcessor.allocateOutput(single.getOutputWidth(), single.getOutputHeight());
+                assertTrue(single.process(in, rowStride, 1, expected));
+                assertTrue(striped.process(in, rowStride, 1, actual));
+                assertEquals("chain " + c, expected, actual);
+
+                // and no workspace reallocations once the stripes are warm
+                long afterWarmUp = FrameProcessor.nativeWorkspaceReallocations();
+                for (int i = 0; i < 10; i++) assertTrue(striped.process(in, rowStride, 1, actual));
+                assertEquals(afterWarmUp, FrameProcessor.nativeWorkspaceReallocations());
+            }
+        }
+    }
+
+    @Test
+    public void nativeEdgeMapMatchesPackedOutput() {
+        int width = 641, height = 480, rowStride = 704;
+        ByteBuffer in = syntheticPlane(width, height, rowStride);
+        for (int threads : new int[]{1, 4}) {
+            try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                    .setBackend(FrameProcessor.Backend.NATIVE))) {
+                processor.setNativeThreads(threads, false);
+                ByteBuffer edges = FrameProcessor.allocateOutput(width, height);
+                assertTrue(processor.process(in, rowStride, 1, edges));
+                EdgeMap map = new EdgeMap(width, height);
+                assertTrue(processor.processToEdgeMap(in, rowStride, 1, map));
+                assertEquals("threads " + threads, EdgeMap.fromPlane(edges, width, height, width), map);
+                assertTrue(map.popcount() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void nativeYuvOverlayMatchesJavaConversion() {
+        int width = 321, height = 241, rowStride = 384;
+        int chromaWidth = 161, chromaHeight = 121, chromaStride = 192;
+        ByteBuffer y = syntheticPlane(width, height, rowStride);
+        ByteBuffer u = ByteBuffer.allocateDirect(chromaStride * chromaHeight);
+        ByteBuffer v = ByteBuffer.allocateDirect(chromaStride * chromaHeight);
+        ByteBuffer vu = ByteBuffer.allocateDirect(chromaStride * 2 * chromaHeight);
+        for (int r = 0; r < chromaHeight; r++) {
+            for (int c = 0; c < chromaWidth; c++) {
+                // the full chroma range, so every clamp is hit
+                byte cb = (byte) (c * 255 / (chromaWidth - 1));
+                byte cr = (byte) (255 - r * 255 / (chromaHeight - 1));
+                u.put(r * chromaStride + c, cb);
+                v.put(r * chromaStride + c, cr);
+                vu.put(r * chromaStride * 2 + c * 2, cr);
+                vu.put(r * chromaStride * 2 + c * 2 + 1, cb);
+            }
+        }
+        ByteBuffer nv21U = ((ByteBuffer) vu.duplicate().position(1)).slice();
+        ColorOutput overlay = ColorOutput.edgeOverlay(0xFFFF0000, 0.7);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.NATIVE).setColorOutput(overlay))) {
+            ByteBuffer gray = FrameProcessor.allocateOutput(width, height);
+            assertTrue(processor.process(y, rowStride, 1, gray));
+            ByteBuffer planar = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+            ByteBuffer interleaved = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+            assertTrue(processor.processYuvToPixels(y, rowStride, 1, u, v, chromaStride, 1, planar));
+            assertTrue(processor.processYuvToPixels(y, rowStride, 1, nv21U, vu, chromaStride * 2, 2, interleaved));
+            assertEquals(planar, interleaved);
+            for (int r = 0; r < height; r++) {
+                for (int c = 0; c < width; c++) {
+                    int edge = gray.get(r * width + c) & 0xFF;
+                    int chroma = (r / 2) * chromaStride + c / 2;
+                    int expected = edge != 0
+                            ? overlay.encodedColors()[edge]
+                            : JavaFrameEngine.yuvBackground(y.get(r * rowStride + c) & 0xFF,
+                                    u.get(chroma) & 0xFF, v.get(chroma) & 0xFF, overlay.encodedBackground());
+                    assertEquals("pixel " + c + "," + r, expected, planar.getInt((r * width + c) * 4));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void loaderWarmsUpTheNativeBackend() throws Exception {
+        NativeLoader loader = NativeLoader.start(1280, 720, new FrameProcessor.Config()
+                .setColorOutput(ColorOutput.gray())
+                .setIncremental(32, 6)
+                .setNativeThreads(4, true));
+        NativeLoader.Result result = loader.ready().get(30, java.util.concurrent.TimeUnit.SECONDS);
+        assertNull(result.error);
+        assertEquals(FrameProcessor.Backend.NATIVE, result.backend);
+        assertTrue(result.firstFrameNanos > 0 && result.lastFrameNanos > 0);
+    }
+}
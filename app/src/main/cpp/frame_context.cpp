@@ -0,0 +1,718 @@
+#include "frame_context.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstdlib>
+#include <cstring>
+#include <opencv2/imgproc.hpp>
+
+namespace flamapp {
+
+namespace {
+std::atomic<int64_t> gWorkspaceReallocations{0};
+
+bool isMorphology(int op) {
+    return op == OP_DILATE || op == OP_ERODE || op == OP_MORPH_OPEN || op == OP_MORPH_CLOSE;
+}
+
+// How far a step reads around an output pixel; -1 if its output depends on the whole frame.
+// Mirrors FilterChain.stepReach().
+int stepReach(const FilterStep& step) {
+    const int k = static_cast<int>(step.p[0]);
+    const int iterations = std::max(1, static_cast<int>(step.p[1]));
+    switch (step.op) {
+        case OP_GAUSSIAN_BLUR:
+            return k / 2;
+        case OP_CANNY:
+            return 2 + kCannyHysteresisReach;
+        case OP_SOBEL:
+            return std::max(1, static_cast<int>(step.p[2]) / 2);
+        case OP_THRESHOLD:
+            // Otsu / triangle flags pick the threshold from the whole frame
+            return (static_cast<int>(step.p[2]) & ~0x7) != 0 ? -1 : 0;
+        case OP_DILATE:
+        case OP_ERODE:
+            return k / 2 * iterations;
+        case OP_MORPH_OPEN:
+        case OP_MORPH_CLOSE:
+            return 2 * (k / 2) * iterations;
+        default:
+            return -1;
+    }
+}
+
+cv::Rect grow(const cv::Rect& r, int by) {
+    return cv::Rect(r.x - by, r.y - by, r.width + 2 * by, r.height + 2 * by);
+}
+
+// Samples start half a step into a tile, or mid-tile for edge tiles thinner than that
+int sampleOffset(int extent) {
+    return std::min(kChangeSampleStep / 2, (extent - 1) / 2);
+}
+
+// Pixel expansion kernels, one output row each. Kept as plain indexed loops over restrict
+// pointers so the compiler can vectorise them: the gray ramp is a widening multiply, the
+// table lookups are unrolled loads the CPU can overlap.
+constexpr uint32_t kOpaqueGray = 0xFF000000u;
+
+void grayRow8888(const uint8_t* __restrict v, uint32_t* __restrict out, int n) {
+    for (int i = 0; i < n; ++i) out[i] = kOpaqueGray | (static_cast<uint32_t>(v[i]) * 0x010101u);
+}
+
+template <typename Pixel>
+void lutRow(const uint8_t* __restrict v, const uint32_t* __restrict lut, Pixel* __restrict out, int n) {
+    int i = 0;
+    for (; i + 4 <= n; i += 4) {
+        out[i] = static_cast<Pixel>(lut[v[i]]);
+        out[i + 1] = static_cast<Pixel>(lut[v[i + 1]]);
+        out[i + 2] = static_cast<Pixel>(lut[v[i + 2]]);
+        out[i + 3] = static_cast<Pixel>(lut[v[i + 3]]);
+    }
+    for (; i < n; ++i) out[i] = static_cast<Pixel>(lut[v[i]]);
+}
+
+template <typename Pixel>
+void overlayRow(const uint8_t* __restrict v, const uint8_t* __restrict camera,
+                const uint32_t* __restrict colors, const uint32_t* __restrict background,
+                Pixel* __restrict out, int n) {
+    for (int i = 0; i < n; ++i) {
+        // both lookups are cheap, selecting afterwards keeps the loop branch-free
+        const uint32_t fg = colors[v[i]];
+        const uint32_t bg = background[camera[i]];
+        out[i] = static_cast<Pixel>(v[i] ? fg : bg);
+    }
+}
+
+// overlayRow over the colour picture. Camera pixels are converted from Y + subsampled chroma
+// (full-range BT.601, 16-bit fixed point); the chroma terms are worked out once per pixel pair,
+// and clamping plus the background curve are folded into one table per channel (YuvTables), so
+// a pixel costs three lookups and two ORs on top of the gray overlay.
+void overlayYuvRow(const uint8_t* __restrict v, const uint8_t* __restrict y,
+                   const uint8_t* __restrict cu, const uint8_t* __restrict cv, int chromaStep,
+                   const uint32_t* __restrict colors, const YuvTables& tables,
+                   uint32_t* __restrict out, int n) {
+    const uint32_t* __restrict red = tables.red + YuvTables::kOffset;
+    const uint32_t* __restrict green = tables.green + YuvTables::kOffset;
+    const uint32_t* __restrict blue = tables.blue + YuvTables::kOffset;
+    for (int x = 0; x < n; x += 2) {
+        const int c = (x >> 1) * chromaStep;
+        const int u = cu[c] - 128;
+        const int w = cv[c] - 128;
+        const int dr = (kCrToR * w + (1 << 15)) >> 16;
+        const int dg = (-kCbToG * u - kCrToG * w + (1 << 15)) >> 16;
+        const int db = (kCbToB * u + (1 << 15)) >> 16;
+        const int end = std::min(n, x + 2);
+        for (int i = x; i < end; ++i) {
+            const int luma = y[i];
+            const uint32_t bg = red[luma + dr] | green[luma + dg] | blue[luma + db];
+            out[i] = v[i] ? colors[v[i]] : bg;
+        }
+    }
+}
+
+// One edge-map row: 8 result bytes per load, a bit per byte (nonzero = 1), 64 pixels per word.
+// Sets each byte's top bit when any of its bits is set (no carry crosses bytes), then one
+// multiply gathers the eight top bits, in order, into the highest byte. Loads assume a
+// little-endian CPU, which every Android ABI is. Mirrors EdgeMap.gather().
+void packBitsRow(const uint8_t* __restrict v, uint64_t* __restrict words, int n) {
+    for (int x0 = 0; x0 < n; x0 += 64) {
+        const int end = std::min(n, x0 + 64);
+        uint64_t bits = 0;
+        int x = x0;
+        for (; x + 8 <= end; x += 8) {
+            uint64_t b;
+            std::memcpy(&b, v + x, sizeof(b));
+            const uint64_t t = (((b & 0x7F7F7F7F7F7F7F7Full) + 0x7F7F7F7F7F7F7F7Full) | b)
+                    & 0x8080808080808080ull;
+            bits |= ((t * 0x0002040810204081ull) >> 56) << (x - x0);
+        }
+        for (; x < end; ++x) bits |= static_cast<uint64_t>(v[x] != 0) << (x - x0);
+        words[x0 >> 6] = bits;
+    }
+}
+}  // namespace
+
+std::vector<FilterStep> defaultSteps() {
+    std::vector<FilterStep> steps(2);
+    steps[0].op = OP_GAUSSIAN_BLUR;
+    steps[0].p[0] = 3;
+    steps[1].op = OP_CANNY;
+    steps[1].p[0] = 80;
+    steps[1].p[1] = 150;
+    return steps;
+}
+
+int64_t workspaceReallocations() {
+    return gWorkspaceReallocations.load(std::memory_order_relaxed);
+}
+
+FrameContext::FrameContext(int width, int height, std::vector<FilterStep> steps)
+        : width_(width), height_(height), steps_(std::move(steps)) {
+    compile();
+}
+
+void FrameContext::setPlan(std::vector<FilterStep> steps) {
+    steps_ = std::move(steps);
+    compile();
+}
+
+void FrameContext::ensure(cv::Mat& m, int rows, int cols, int type) {
+    if (m.rows == rows && m.cols == cols && m.type() == type) return;
+    m.create(rows, cols, type);
+    gWorkspaceReallocations.fetch_add(1, std::memory_order_relaxed);
+}
+
+bool FrameContext::track(const cv::Mat& m, const uint8_t* before) {
+    if (m.data == before) return true;
+    gWorkspaceReallocations.fetch_add(1, std::memory_order_relaxed);
+    return false;
+}
+
+// Works out every step's output size and sizes the shared workspaces once
+void FrameContext::compile() {
+    int w = width_;
+    int h = height_;
+    size_t maxArea = 0;
+    int maxGradW = 0;
+    int maxGradH = 0;
+    for (FilterStep& step : steps_) {
+        switch (step.op) {
+            case OP_GAUSSIAN_BLUR:
+                CV_Assert(step.p[0] <= 1 || (static_cast<int>(step.p[0]) & 1) == 1);
+                break;
+            case OP_CANNY:
+            case OP_SOBEL:
+                // gradients are computed at this step's input size
+                maxGradW = std::max(maxGradW, w);
+                maxGradH = std::max(maxGradH, h);
+                break;
+            case OP_THRESHOLD:
+            case OP_EQUALIZE_HIST:
+                break;
+            case OP_DILATE:
+            case OP_ERODE:
+            case OP_MORPH_OPEN:
+            case OP_MORPH_CLOSE: {
+                const int k = std::max(1, static_cast<int>(step.p[0]));
+                step.kernel = cv::getStructuringElement(static_cast<int>(step.p[2]), cv::Size(k, k));
+                break;
+            }
+            case OP_RESIZE:
+                if (step.p[0] > 0 && step.p[1] > 0) {
+                    w = static_cast<int>(step.p[0]);
+                    h = static_cast<int>(step.p[1]);
+                } else {
+                    CV_Assert(step.p[2] > 0);
+                    w = std::max(1, static_cast<int>(std::lround(w * step.p[2])));
+                    h = std::max(1, static_cast<int>(std::lround(h * step.p[2])));
+                }
+                break;
+            default:
+                CV_Error(cv::Error::StsBadArg, "Unknown filter op");
+        }
+        step.outWidth = w;
+        step.outHeight = h;
+        maxArea = std::max(maxArea, static_cast<size_t>(w) * h);
+    }
+    outWidth_ = w;
+    outHeight_ = h;
+
+    halo_ = 0;
+    hasCanny_ = false;
+    for (const FilterStep& step : steps_) hasCanny_ = hasCanny_ || step.op == OP_CANNY;
+    for (const FilterStep& step : steps_) {
+        const int reach = stepReach(step);
+        if (reach < 0) {
+            halo_ = -1;
+            break;
+        }
+        halo_ += reach;
+    }
+    // the cached result belongs to the previous plan
+    cacheValid_ = false;
+
+    if (maxArea > 0) {
+        ensure(work_.ping, 1, static_cast<int>(maxArea), CV_8UC1);
+        ensure(work_.pong, 1, static_cast<int>(maxArea), CV_8UC1);
+    }
+    if (maxGradW > 0) {
+        ensure(work_.dx, maxGradH, maxGradW, CV_16SC1);
+        ensure(work_.dy, maxGradH, maxGradW, CV_16SC1);
+    }
+    if (color_.bytesPerPixel > 0) {
+        CV_Assert(!color_.overlay || (outWidth_ == width_ && outHeight_ == height_));
+    }
+    // every result path (pixels, edge map, incremental cache) runs the plan into result_, so
+    // it always has the plan's output size; runPlan needs its target allocated up front
+    ensure(result_, outHeight_, outWidth_, CV_8UC1);
+    compileStripes();
+}
+
+void FrameContext::compileStripes() {
+    stripes_ = pool_ ? std::max(1, std::min(pool_->threads(), height_ / kMinStripeRows)) : 1;
+    if (stripes_ == 1) {
+        stripeWork_.clear();
+        return;
+    }
+    // The tallest stripe plus its halo rows, over every striped stage: runs of local steps
+    // (halo = their summed reach) and Canny gradients (halo 1), at that stage's input size
+    int rows = 0;
+    int cols = 0;
+    int w = width_;
+    int h = height_;
+    int halo = 0;
+    for (const FilterStep& step : steps_) {
+        const int reach = stepReach(step);
+        const int stripeRows = (h + stripes_ - 1) / stripes_;
+        if (step.op == OP_CANNY) {
+            rows = std::max(rows, stripeRows + 2);
+            cols = std::max(cols, w);
+            halo = 0;
+        } else if (reach >= 0) {
+            halo += reach;
+            rows = std::max(rows, std::min(h, stripeRows + 2 * halo));
+            cols = std::max(cols, w);
+        } else {
+            halo = 0;
+        }
+        w = step.outWidth;
+        h = step.outHeight;
+    }
+    stripeWork_.resize(stripes_);
+    if (rows == 0) return;
+    for (Workspace& ws : stripeWork_) {
+        ensure(ws.ping, 1, rows * cols, CV_8UC1);
+        ensure(ws.pong, 1, rows * cols, CV_8UC1);
+        ensure(ws.dx, rows, cols, CV_16SC1);
+        ensure(ws.dy, rows, cols, CV_16SC1);
+    }
+}
+
+void FrameContext::setThreads(int threads, bool pinBigCores) {
+    CV_Assert(threads >= 1);
+    // the old workers are joined before new ones start
+    pool_.reset();
+    if (threads > 1) pool_ = std::make_unique<WorkerPool>(threads, pinBigCores);
+    compileStripes();
+}
+
+void FrameContext::setIncremental(int tileSize, int threshold) {
+    CV_Assert(tileSize == 0 || tileSize >= kChangeSampleStep);
+    CV_Assert(threshold >= 0);
+    if (tileSize != tileSize_) {
+        tileSize_ = tileSize;
+        tilesX_ = tileSize > 0 ? (width_ + tileSize - 1) / tileSize : 0;
+        tilesY_ = tileSize > 0 ? (height_ + tileSize - 1) / tileSize : 0;
+        changed_.assign(static_cast<size_t>(tilesX_) * tilesY_, 0);
+        cacheValid_ = false;
+    }
+    threshold_ = threshold;
+    if (tileSize_ > 0) {
+        ensure(reference_, height_, width_, CV_8UC1);
+        ensure(result_, outHeight_, outWidth_, CV_8UC1);
+    }
+    lastUnchanged_ = false;
+    approximateRuns_ = 0;
+    stats_ = IncrementalStats();
+}
+
+void FrameContext::setColorPlan(const ColorPlan& plan) {
+    CV_Assert(plan.bytesPerPixel == 0 || plan.bytesPerPixel == 2 || plan.bytesPerPixel == 4);
+    CV_Assert(!plan.overlay || (outWidth_ == width_ && outHeight_ == height_));
+    color_ = plan;
+    grayRamp_ = plan.bytesPerPixel == 4 && !plan.overlay;
+    for (int v = 0; grayRamp_ && v < 256; ++v) {
+        grayRamp_ = plan.colors[v] == (kOpaqueGray | (static_cast<uint32_t>(v) * 0x010101u));
+    }
+    // background curve = its red byte (8888 memory order), clamped at both ends
+    const uint32_t alpha = plan.background[0] & 0xFF000000u;
+    for (int i = 0; i < YuvTables::kSize; ++i) {
+        const uint32_t c = plan.background[std::min(255, std::max(0, i - YuvTables::kOffset))] & 0xFFu;
+        yuv_.red[i] = alpha | c;
+        yuv_.green[i] = c << 8;
+        yuv_.blue[i] = c << 16;
+    }
+    compile();
+}
+
+bool FrameContext::runStep(const FilterStep& step, const cv::Mat& src, cv::Mat& dst, Workspace& ws) {
+    const uint8_t* before = dst.data;
+    switch (step.op) {
+        case OP_GAUSSIAN_BLUR: {
+            const int k = static_cast<int>(step.p[0]);
+            if (k > 1) {
+                cv::GaussianBlur(src, dst, cv::Size(k, k), step.p[1]);
+            } else {
+                src.copyTo(dst);
+            }
+            break;
+        }
+        case OP_CANNY: {
+            // Same gradients Canny(image) computes internally (aperture 3, replicated border),
+            // but into our own workspaces
+            cv::Mat dx = ws.dx(cv::Rect(0, 0, src.cols, src.rows));
+            cv::Mat dy = ws.dy(cv::Rect(0, 0, src.cols, src.rows));
+            const uint8_t* dxBefore = dx.data;
+            const uint8_t* dyBefore = dy.data;
+            cv::Sobel(src, dx, CV_16S, 1, 0, 3, 1, 0, cv::BORDER_REPLICATE);
+            cv::Sobel(src, dy, CV_16S, 0, 1, 3, 1, 0, cv::BORDER_REPLICATE);
+            if (!track(dx, dxBefore) || !track(dy, dyBefore)) return false;
+            cv::Canny(dx, dy, dst, step.p[0], step.p[1]);
+            break;
+        }
+        case OP_SOBEL: {
+            cv::Mat grad = ws.dx(cv::Rect(0, 0, src.cols, src.rows));
+            const uint8_t* gradBefore = grad.data;
+            cv::Sobel(src, grad, CV_16S, static_cast<int>(step.p[0]), static_cast<int>(step.p[1]),
+                      static_cast<int>(step.p[2]), step.p[3] > 0 ? step.p[3] : 1.0);
+            if (!track(grad, gradBefore)) return false;
+            cv::convertScaleAbs(grad, dst);
+            break;
+        }
+        case OP_THRESHOLD:
+            cv::threshold(src, dst, step.p[0], step.p[1], static_cast<int>(step.p[2]));
+            break;
+        case OP_DILATE:
+            cv::dilate(src, dst, step.kernel, cv::Point(-1, -1), std::max(1, static_cast<int>(step.p[1])));
+            break;
+        case OP_ERODE:
+            cv::erode(src, dst, step.kernel, cv::Point(-1, -1), std::max(1, static_cast<int>(step.p[1])));
+            break;
+        case OP_MORPH_OPEN:
+        case OP_MORPH_CLOSE:
+            cv::morphologyEx(src, dst, step.op == OP_MORPH_OPEN ? cv::MORPH_OPEN : cv::MORPH_CLOSE,
+                             step.kernel, cv::Point(-1, -1), std::max(1, static_cast<int>(step.p[1])));
+            break;
+        case OP_RESIZE:
+            // INTER_AREA when shrinking keeps thin edges, linear when enlarging
+            cv::resize(src, dst, dst.size(), 0, 0,
+                       dst.cols < src.cols ? cv::INTER_AREA : cv::INTER_LINEAR);
+            break;
+        case OP_EQUALIZE_HIST:
+            cv::equalizeHist(src, dst);
+            break;
+        default:
+            return false;
+    }
+    return track(dst, before);
+}
+
+cv::Mat FrameContext::wrapInput(const uint8_t* in, int rowStride, int pixelStride) {
+    const int w = width_;
+    const int h = height_;
+    if (pixelStride == 1) {
+        // Wrap the plane in place, the row padding is just the Mat step
+        return cv::Mat(h, w, CV_8UC1, const_cast<uint8_t*>(in), static_cast<size_t>(rowStride));
+    }
+    // Interleaved plane: gather every pixelStride-th byte
+    ensure(packed_, h, w, CV_8UC1);
+    for (int r = 0; r < h; ++r) {
+        const uint8_t* src = in + static_cast<size_t>(r) * rowStride;
+        uint8_t* dst = packed_.ptr<uint8_t>(r);
+        for (int c = 0; c < w; ++c) dst[c] = src[c * pixelStride];
+    }
+    return packed_;
+}
+
+bool FrameContext::process(const uint8_t* in, int rowStride, int pixelStride, uint8_t* out) {
+    // The final step writes straight into the caller's buffer
+    cv::Mat result(outHeight_, outWidth_, CV_8UC1, out);
+    if (tileSize_ == 0) return runPlan(wrapInput(in, rowStride, pixelStride), result);
+
+    if (!runIncremental(wrapInput(in, rowStride, pixelStride))) return false;
+    result_.copyTo(result);
+    return true;
+}
+
+bool FrameContext::processToPixels(const uint8_t* in, int rowStride, int pixelStride,
+                                   uint8_t* pixels, size_t rowBytes) {
+    if (color_.bytesPerPixel == 0) return false;
+    const cv::Mat gray = wrapInput(in, rowStride, pixelStride);
+    if (!(tileSize_ > 0 ? runIncremental(gray) : runPlan(gray, result_))) return false;
+    writePixels(result_, gray, nullptr, pixels, rowBytes);
+    return true;
+}
+
+bool FrameContext::processYuvToPixels(const uint8_t* y, int rowStride, int pixelStride,
+                                      const ChromaPlanes& chroma, uint8_t* pixels, size_t rowBytes) {
+    if (color_.bytesPerPixel == 0 || (color_.overlay && color_.bytesPerPixel != 4)) return false;
+    const cv::Mat gray = wrapInput(y, rowStride, pixelStride);
+    if (!(tileSize_ > 0 ? runIncremental(gray) : runPlan(gray, result_))) return false;
+    writePixels(result_, gray, color_.overlay ? &chroma : nullptr, pixels, rowBytes);
+    return true;
+}
+
+void FrameContext::writePixels(const cv::Mat& result, const cv::Mat& gray, const ChromaPlanes* chroma,
+                               uint8_t* pixels, size_t rowBytes) {
+    if (stripes_ == 1) {
+        writeRows(result, gray, chroma, pixels, rowBytes, 0, result.rows);
+        return;
+    }
+    pool_->run(stripes_, [&](int s) {
+        writeRows(result, gray, chroma, pixels, rowBytes,
+                  stripeStart(result.rows, s), stripeStart(result.rows, s + 1));
+    });
+}
+
+void FrameContext::writeRows(const cv::Mat& result, const cv::Mat& gray, const ChromaPlanes* chroma,
+                             uint8_t* pixels, size_t rowBytes, int r0, int r1) const {
+    const int w = result.cols;
+    for (int r = r0; r < r1; ++r) {
+        const uint8_t* v = result.ptr<uint8_t>(r);
+        uint8_t* row = pixels + static_cast<size_t>(r) * rowBytes;
+        if (color_.bytesPerPixel == 4) {
+            auto* out = reinterpret_cast<uint32_t*>(row);
+            if (chroma != nullptr) {
+                const size_t c = static_cast<size_t>(r >> 1) * chroma->rowStride;
+                overlayYuvRow(v, gray.ptr<uint8_t>(r), chroma->u + c, chroma->v + c, chroma->pixelStride,
+                              color_.colors, yuv_, out, w);
+            } else if (color_.overlay) {
+                overlayRow(v, gray.ptr<uint8_t>(r), color_.colors, color_.background, out, w);
+            } else if (grayRamp_) {
+                grayRow8888(v, out, w);
+            } else {
+                lutRow(v, color_.colors, out, w);
+            }
+        } else {
+            auto* out = reinterpret_cast<uint16_t*>(row);
+            if (color_.overlay) {
+                overlayRow(v, gray.ptr<uint8_t>(r), color_.colors, color_.background, out, w);
+            } else {
+                lutRow(v, color_.colors, out, w);
+            }
+        }
+    }
+}
+
+bool FrameContext::processToResult(const uint8_t* in, int rowStride, int pixelStride) {
+    const cv::Mat gray = wrapInput(in, rowStride, pixelStride);
+    return tileSize_ > 0 ? runIncremental(gray) : runPlan(gray, result_);
+}
+
+void FrameContext::packBits(uint64_t* words, int wordsPerRow) {
+    if (stripes_ == 1) {
+        packRows(words, wordsPerRow, 0, result_.rows);
+        return;
+    }
+    pool_->run(stripes_, [&](int s) {
+        packRows(words, wordsPerRow, stripeStart(result_.rows, s), stripeStart(result_.rows, s + 1));
+    });
+}
+
+void FrameContext::packRows(uint64_t* words, int wordsPerRow, int r0, int r1) const {
+    const int w = result_.cols;
+    for (int r = r0; r < r1; ++r) {
+        packBitsRow(result_.ptr<uint8_t>(r), words + static_cast<size_t>(r) * wordsPerRow, w);
+    }
+}
+
+bool FrameContext::runPlan(const cv::Mat& gray, cv::Mat& result) {
+    if (steps_.empty()) {
+        const uint8_t* before = result.data;
+        gray.copyTo(result);
+        return result.data == before;
+    }
+    if (stripes_ > 1) return runStriped(gray, result);
+
+    // Steps alternate between ping and pong, never running in place; the Mats below are
+    // headers over preallocated storage, so nothing is allocated per frame
+    cv::Mat src = gray;
+    const size_t last = steps_.size() - 1;
+    for (size_t i = 0; i <= last; ++i) {
+        FilterStep& step = steps_[i];
+        cv::Mat dst = (i == last)
+                ? result
+                : cv::Mat(step.outHeight, step.outWidth, CV_8UC1, (i & 1) ? work_.pong.data : work_.ping.data);
+        if (!runStep(step, src, dst, work_)) return false;
+        src = dst;
+    }
+    return true;
+}
+
+bool FrameContext::runStriped(const cv::Mat& gray, cv::Mat& result) {
+    // Stages: a run of local steps, a Canny, or a single whole-frame step. Stage outputs
+    // alternate between the full-frame ping and pong like single steps do in runPlan.
+    cv::Mat src = gray;
+    const size_t count = steps_.size();
+    int stage = 0;
+    for (size_t i = 0; i < count;) {
+        size_t end = i;
+        int halo = 0;
+        while (end < count && steps_[end].op != OP_CANNY && stepReach(steps_[end]) >= 0) {
+            halo += stepReach(steps_[end]);
+            ++end;
+        }
+        const size_t last = std::max(end, i + 1) - 1;
+        const FilterStep& tail = steps_[last];
+        cv::Mat dst = (last == count - 1)
+                ? result
+                : cv::Mat(tail.outHeight, tail.outWidth, CV_8UC1,
+                          (stage++ & 1) ? work_.pong.data : work_.ping.data);
+        bool ok;
+        if (end > i) {
+            ok = runSegment(i, end, halo, src, dst);
+        } else if (steps_[i].op == OP_CANNY) {
+            ok = runCannyStriped(steps_[i], src, dst);
+        } else {
+            ok = runStep(steps_[i], src, dst, work_);
+        }
+        if (!ok) return false;
+        src = dst;
+        i = last + 1;
+    }
+    return true;
+}
+
+bool FrameContext::runSegment(size_t first, size_t last, int halo, const cv::Mat& src, cv::Mat& dst) {
+    std::atomic<bool> ok{true};
+    pool_->run(stripes_, [&](int s) {
+        const int y0 = stripeStart(src.rows, s);
+        const int y1 = stripeStart(src.rows, s + 1);
+        if (y0 == y1) return;
+        // Rows past the halo can't reach [y0, y1), rows inside it are computed twice (once per
+        // neighbouring stripe) but only the stripe's own copy is kept. At the frame edges the
+        // stripe edge is the frame edge, so borders extrapolate exactly as in a full-frame run.
+        const int top = std::max(0, y0 - halo);
+        const int bottom = std::min(src.rows, y1 + halo);
+        Workspace& ws = stripeWork_[s];
+        cv::Mat in = src.rowRange(top, bottom);
+        for (size_t i = first; i < last; ++i) {
+            cv::Mat out(bottom - top, src.cols, CV_8UC1, ((i - first) & 1) ? ws.pong.data : ws.ping.data);
+            if (!runStep(steps_[i], in, out, ws)) {
+                ok = false;
+                return;
+            }
+            in = out;
+        }
+        cv::Mat target = dst.rowRange(y0, y1);
+        in.rowRange(y0 - top, y1 - top).copyTo(target);
+    });
+    return ok;
+}
+
+bool FrameContext::runCannyStriped(const FilterStep& step, const cv::Mat& src, cv::Mat& dst) {
+    // Hysteresis can follow an edge across the whole frame, so only the gradients are split:
+    // the same Sobel calls as runStep, one stripe (plus a row each side) at a time
+    cv::Mat dx = work_.dx(cv::Rect(0, 0, src.cols, src.rows));
+    cv::Mat dy = work_.dy(cv::Rect(0, 0, src.cols, src.rows));
+    std::atomic<bool> ok{true};
+    pool_->run(stripes_, [&](int s) {
+        const int y0 = stripeStart(src.rows, s);
+        const int y1 = stripeStart(src.rows, s + 1);
+        if (y0 == y1) return;
+        const int top = std::max(0, y0 - 1);
+        const int bottom = std::min(src.rows, y1 + 1);
+        Workspace& ws = stripeWork_[s];
+        const cv::Mat in = src.rowRange(top, bottom);
+        cv::Mat gx = ws.dx(cv::Rect(0, 0, src.cols, bottom - top));
+        cv::Mat gy = ws.dy(cv::Rect(0, 0, src.cols, bottom - top));
+        const uint8_t* gxBefore = gx.data;
+        const uint8_t* gyBefore = gy.data;
+        cv::Sobel(in, gx, CV_16S, 1, 0, 3, 1, 0, cv::BORDER_REPLICATE);
+        cv::Sobel(in, gy, CV_16S, 0, 1, 3, 1, 0, cv::BORDER_REPLICATE);
+        if (!track(gx, gxBefore) || !track(gy, gyBefore)) {
+            ok = false;
+            return;
+        }
+        cv::Mat dxRows = dx.rowRange(y0, y1);
+        cv::Mat dyRows = dy.rowRange(y0, y1);
+        gx.rowRange(y0 - top, y1 - top).copyTo(dxRows);
+        gy.rowRange(y0 - top, y1 - top).copyTo(dyRows);
+    });
+    if (!ok) return false;
+    const uint8_t* before = dst.data;
+    cv::Canny(dx, dy, dst, step.p[0], step.p[1]);
+    return track(dst, before);
+}
+
+int FrameContext::detectChanges(const cv::Mat& gray) {
+    const int64_t threshold = threshold_;
+    int count = 0;
+    for (int ty = 0; ty < tilesY_; ++ty) {
+        const int y0 = ty * tileSize_;
+        const int y1 = std::min(height_, y0 + tileSize_);
+        for (int tx = 0; tx < tilesX_; ++tx) {
+            const int x0 = tx * tileSize_;
+            const int x1 = std::min(width_, x0 + tileSize_);
+            int64_t sad = 0;
+            int64_t samples = 0;
+            for (int y = y0 + sampleOffset(y1 - y0); y < y1; y += kChangeSampleStep) {
+                const uint8_t* a = gray.ptr<uint8_t>(y);
+                const uint8_t* b = reference_.ptr<uint8_t>(y);
+                for (int x = x0 + sampleOffset(x1 - x0); x < x1; x += kChangeSampleStep) {
+                    sad += std::abs(static_cast<int>(a[x]) - static_cast<int>(b[x]));
+                    ++samples;
+                }
+            }
+            const bool moved = sad > threshold * samples;
+            changed_[static_cast<size_t>(ty) * tilesX_ + tx] = moved;
+            count += moved;
+        }
+    }
+    return count;
+}
+
+bool FrameContext::runRegion(const cv::Mat& gray, const cv::Rect& outer, const cv::Rect& inner) {
+    // same ping-pong as runPlan, at the region's size (incremental plans never resize)
+    cv::Mat src = gray(outer);
+    for (size_t i = 0; i < steps_.size(); ++i) {
+        cv::Mat dst(outer.height, outer.width, CV_8UC1, (i & 1) ? work_.pong.data : work_.ping.data);
+        if (!runStep(steps_[i], src, dst, work_)) return false;
+        src = dst;
+    }
+    // the halo is only there to feed the kernels, the cache takes the inside
+    cv::Mat target = result_(inner);
+    src(inner - outer.tl()).copyTo(target);
+    return true;
+}
+
+bool FrameContext::runIncremental(const cv::Mat& gray) {
+    const int tiles = tilesX_ * tilesY_;
+    ++stats_.frames;
+    stats_.tilesChecked += tiles;
+    const int changed = cacheValid_ ? detectChanges(gray) : tiles;
+    // the scene settled with approximate regions in the cache: one full run puts it right
+    lastUnchanged_ = changed == 0 && approximateRuns_ == 0;
+    if (lastUnchanged_) {
+        ++stats_.unchangedFrames;
+        return true;
+    }
+
+    // past half the frame the halos cost more than they save
+    if (halo_ < 0 || changed == 0 || changed * 2 > tiles || approximateRuns_ >= kCannyRefreshRuns) {
+        cacheValid_ = runPlan(gray, result_);
+        if (!cacheValid_) return false;
+        gray.copyTo(reference_);
+        stats_.tilesReprocessed += tiles;
+        approximateRuns_ = 0;
+        return true;
+    }
+    if (hasCanny_) ++approximateRuns_;
+
+    // runs of changed tiles along a tile row go through the plan as one region
+    const cv::Rect frame(0, 0, width_, height_);
+    for (int ty = 0; ty < tilesY_; ++ty) {
+        const uint8_t* row = &changed_[static_cast<size_t>(ty) * tilesX_];
+        for (int tx = 0; tx < tilesX_; ++tx) {
+            if (!row[tx]) continue;
+            int last = tx;
+            while (last + 1 < tilesX_ && row[last + 1]) ++last;
+            const cv::Rect tiles = cv::Rect(tx * tileSize_, ty * tileSize_,
+                                            (last - tx + 1) * tileSize_, tileSize_) & frame;
+            // results within the halo of a changed pixel move too, and those need a halo of input
+            const cv::Rect inner = grow(tiles, halo_) & frame;
+            const cv::Rect outer = grow(inner, halo_) & frame;
+            if (!runRegion(gray, outer, inner)) {
+                cacheValid_ = false;
+                return false;
+            }
+            cv::Mat reference = reference_(tiles);
+            gray(tiles).copyTo(reference);
+            stats_.tilesReprocessed += last - tx + 1;
+            tx = last;
+        }
+    }
+    return true;
+}
+
+}  // namespace flamapp
@@ -0,0 +1,243 @@
+#pragma once
+
+#include <atomic>
+#include <cstdint>
+#include <memory>
+#include <vector>
+#include <opencv2/core.hpp>
+
+#include "worker_pool.h"
+
+namespace flamapp {
+
+// Operation codes, must match the OP_* constants in FilterChain.java
+enum FilterOp : int {
+    OP_GAUSSIAN_BLUR = 1,   // p0 kernel size (odd), p1 sigma
+    OP_CANNY = 2,           // p0 low threshold, p1 high threshold
+    OP_SOBEL = 3,           // p0 dx order, p1 dy order, p2 kernel size, p3 scale
+    OP_THRESHOLD = 4,       // p0 threshold, p1 max value, p2 cv::ThresholdTypes
+    OP_DILATE = 5,          // p0 kernel size, p1 iterations, p2 cv::MorphShapes
+    OP_ERODE = 6,           // same as dilate
+    OP_MORPH_OPEN = 7,      // same as dilate
+    OP_MORPH_CLOSE = 8,     // same as dilate
+    OP_RESIZE = 9,          // p0 width, p1 height; or p0 = p1 = 0 and p2 = scale factor
+    OP_EQUALIZE_HIST = 10,  // no parameters
+};
+
+constexpr int kParamsPerOp = 4;
+
+// Margin a tiled run gives Canny beyond its 3x3 gradient + suppression, so hysteresis can follow
+// a weak edge a little way past a tile. Must match FilterChain.CANNY_HYSTERESIS_REACH.
+constexpr int kCannyHysteresisReach = 8;
+
+// Hysteresis can follow an edge further than that: after this many tiled Canny runs (or on the
+// first still frame after one) the whole frame is rerun. Must match FilterChain.CANNY_REFRESH_RUNS.
+constexpr int kCannyRefreshRuns = 30;
+
+// Tiles are compared on every kChangeSampleStep-th pixel of every kChangeSampleStep-th row
+// (TileChanges.SAMPLE_STEP)
+constexpr int kChangeSampleStep = 4;
+
+// Incremental processing counters, as FrameProcessor.IncrementalStats reports them
+struct IncrementalStats {
+    int64_t frames = 0;
+    int64_t unchangedFrames = 0;    // no tile over the threshold, no step ran
+    int64_t tilesChecked = 0;
+    int64_t tilesReprocessed = 0;
+};
+
+// One operation of a compiled plan
+struct FilterStep {
+    int op = 0;
+    double p[kParamsPerOp] = {0, 0, 0, 0};
+    int outWidth = 0;     // size this step produces
+    int outHeight = 0;
+    cv::Mat kernel;       // structuring element for morphology, built once at compile time
+};
+
+// Display pixel output, built from ColorOutput.java. Table entries are the little-endian values
+// a pixel holds in memory (R G B A bytes for 8888, 5:6:5 for 565).
+struct ColorPlan {
+    int bytesPerPixel = 0;         // 4 (RGBA_8888), 2 (RGB_565), 0 = no pixel output
+    bool overlay = false;          // background[] (indexed by camera value) where the result is 0
+    uint32_t colors[256] = {};
+    uint32_t background[256] = {};
+};
+
+// U and V planes of a YUV_420_888 frame, 2x2 subsampled against the Y plane, any strides:
+// planar (I420) is pixelStride 1, interleaved (NV21 / NV12) pixelStride 2 with u and v one
+// byte apart
+struct ChromaPlanes {
+    const uint8_t* u = nullptr;
+    const uint8_t* v = nullptr;
+    int rowStride = 0;
+    int pixelStride = 0;
+};
+
+// Full-range BT.601 (JFIF, what camera YUV_420_888 is) in 16-bit fixed point; must match
+// JavaFrameEngine.yuvBackground
+constexpr int kCrToR = 91881;    // 1.402
+constexpr int kCbToG = 22554;    // 0.344136
+constexpr int kCrToG = 46802;    // 0.714136
+constexpr int kCbToB = 116130;   // 1.772
+
+// Colour overlay background per channel, indexed by luma + chroma term (-227..480 with the
+// constants above) + kOffset: clamps to 0..255, applies the background curve and places the
+// result in its 8888 byte, red carrying the alpha
+struct YuvTables {
+    static constexpr int kOffset = 256;
+    static constexpr int kSize = 768;
+    uint32_t red[kSize] = {};
+    uint32_t green[kSize] = {};
+    uint32_t blue[kSize] = {};
+};
+
+// Default chain: GaussianBlur(3x3) -> Canny(80, 150)
+std::vector<FilterStep> defaultSteps();
+
+// Number of times any context replaced one of its cv::Mat workspaces since load (ensure() / track()).
+// Stays flat once every context has seen its first frame; OpenCV's own temporaries aren't counted.
+int64_t workspaceReallocations();
+
+// Stripes are never thinner than this; below it the halo rows cost more than the split saves
+constexpr int kMinStripeRows = 16;
+
+// Persistent per-stream processing state: owns the compiled filter plan and every intermediate
+// buffer it needs, so the steady-state hot path never touches the heap. Not thread-safe,
+// one caller at a time.
+class FrameContext {
+public:
+    // Throws cv::Exception if the plan is invalid for this frame size
+    FrameContext(int width, int height, std::vector<FilterStep> steps);
+
+    int width() const { return width_; }
+    int height() const { return height_; }
+    int outputWidth() const { return outWidth_; }
+    int outputHeight() const { return outHeight_; }
+
+    // Recompiles for a new chain (allocations allowed here, not per frame)
+    void setPlan(std::vector<FilterStep> steps);
+
+    // in: 8-bit plane with the given strides, out: packed outputWidth*outputHeight bytes
+    bool process(const uint8_t* in, int rowStride, int pixelStride, uint8_t* out);
+
+    // Throws cv::Exception for an overlay on a plan that changes the frame size
+    void setColorPlan(const ColorPlan& plan);
+    int pixelBytes() const { return color_.bytesPerPixel; }
+
+    // Runs the plan and writes display pixels: outputHeight rows of rowBytes bytes.
+    // The colour lookup is fused into the same call, there is no separate gray plane for the
+    // caller to expand.
+    bool processToPixels(const uint8_t* in, int rowStride, int pixelStride,
+                         uint8_t* pixels, size_t rowBytes);
+
+    // Colour frames: the plan runs on the Y plane as above, and where an overlay plan shows the
+    // camera, the pixel is converted from Y + chroma (BT.601 full range, as camera YUV is)
+    // in the same pass, each channel through the overlay's background curve. Needs 4-byte pixels
+    // for an overlay; other plans ignore the chroma.
+    bool processYuvToPixels(const uint8_t* y, int rowStride, int pixelStride, const ChromaPlanes& chroma,
+                            uint8_t* pixels, size_t rowBytes);
+
+    // Edge map output in two halves, so the JNI side can pin the Java word array for the
+    // packing only: processToResult runs the plan (incrementally if enabled) into result_,
+    // packBits then packs result_ 1 bit per pixel (nonzero = 1), row y at words + y * wordsPerRow,
+    // pixel x at bit x % 64 of word x / 64, bits past the width cleared (EdgeMap.java's layout).
+    bool processToResult(const uint8_t* in, int rowStride, int pixelStride);
+    void packBits(uint64_t* words, int wordsPerRow);
+
+    // Incremental mode: only tiles whose sampled mean absolute difference from the cached
+    // input exceeds threshold are rerun (grown by the plan's halo, the reach of a changed
+    // pixel), the cached result covers the rest. tileSize 0 turns it off; counters restart.
+    void setIncremental(int tileSize, int threshold);
+    bool lastFrameUnchanged() const { return lastUnchanged_; }
+    const IncrementalStats& incrementalStats() const { return stats_; }
+
+    // Splits full-frame runs into horizontal stripes on a persistent pool of this many threads
+    // (the caller included; 1 = everything on the caller). Runs of local steps go through the
+    // plan stripe by stripe, each stripe reading the segment's halo rows around it; Canny
+    // computes its gradients in stripes and suppression + hysteresis on the whole frame, and
+    // whole-frame steps (histogram, Otsu, resize) run on the caller. The output is the same,
+    // bit for bit, as with one thread. Incremental tile runs stay on the caller.
+    void setThreads(int threads, bool pinBigCores);
+    int threads() const { return pool_ ? pool_->threads() : 1; }
+    bool pinned() const { return pool_ && pool_->pinned(); }
+
+private:
+    // Scratch for one lane of work: step ping-pong storage plus 16-bit gradients
+    struct Workspace {
+        cv::Mat ping;
+        cv::Mat pong;
+        cv::Mat dx;
+        cv::Mat dy;
+    };
+
+    // create() that counts real allocations
+    static void ensure(cv::Mat& m, int rows, int cols, int type);
+    // counts an allocation if an OpenCV call replaced the buffer behind m
+    static bool track(const cv::Mat& m, const uint8_t* before);
+
+    void compile();
+    // Sizes the per-stripe workspaces for the current plan and pool
+    void compileStripes();
+    bool runStep(const FilterStep& step, const cv::Mat& src, cv::Mat& dst, Workspace& ws);
+    // header over the input plane, gathered into packed_ when pixelStride != 1
+    cv::Mat wrapInput(const uint8_t* in, int rowStride, int pixelStride);
+    bool runPlan(const cv::Mat& gray, cv::Mat& result);
+    // runPlan across the pool, see setThreads()
+    bool runStriped(const cv::Mat& gray, cv::Mat& result);
+    // Steps [first, last) (all local) over every stripe of src into dst; halo: their summed reach
+    bool runSegment(size_t first, size_t last, int halo, const cv::Mat& src, cv::Mat& dst);
+    bool runCannyStriped(const FilterStep& step, const cv::Mat& src, cv::Mat& dst);
+    int stripeStart(int rows, int stripe) const {
+        return static_cast<int>(static_cast<int64_t>(rows) * stripe / stripes_);
+    }
+    // Incremental path: brings result_ up to date with gray
+    bool runIncremental(const cv::Mat& gray);
+    // Runs the (size-preserving) plan over gray(outer), stores its inner part in result_;
+    // outer must hold inner plus the plan's halo (clamped at the frame edges)
+    bool runRegion(const cv::Mat& gray, const cv::Rect& outer, const cv::Rect& inner);
+    // Flags changed_ tiles against reference_, returns how many changed
+    int detectChanges(const cv::Mat& gray);
+    // chroma: null for gray frames
+    void writePixels(const cv::Mat& result, const cv::Mat& gray, const ChromaPlanes* chroma,
+                     uint8_t* pixels, size_t rowBytes);
+    void writeRows(const cv::Mat& result, const cv::Mat& gray, const ChromaPlanes* chroma,
+                   uint8_t* pixels, size_t rowBytes, int r0, int r1) const;
+    void packRows(uint64_t* words, int wordsPerRow, int r0, int r1) const;
+
+    const int width_;
+    const int height_;
+    std::vector<FilterStep> steps_;
+    int outWidth_ = 0;
+    int outHeight_ = 0;
+
+    cv::Mat packed_;   // gathered input when pixelStride != 1
+    // Full-frame workspace: ping-pong storage sized for the largest step output (steps alternate
+    // between headers over the two), and 16-bit gradients for Canny / Sobel so OpenCV doesn't
+    // allocate its own
+    Workspace work_;
+
+    std::unique_ptr<WorkerPool> pool_;   // null = single-threaded
+    int stripes_ = 1;                    // stripes per frame, 1 = no striping
+    std::vector<Workspace> stripeWork_;  // one per stripe, sized for the stripe plus its halo
+
+    ColorPlan color_;
+    bool grayRamp_ = false;   // colours are the plain gray ramp, expanded arithmetically
+    YuvTables yuv_;           // overlay background for colour frames, built with the plan
+    cv::Mat result_;          // plan output for pixels / edge maps (and the incremental cache), always allocated
+
+    int tileSize_ = 0;        // 0 = incremental mode off
+    int threshold_ = 0;
+    int halo_ = -1;           // plan reach in pixels, -1 if it has a whole-frame step
+    bool hasCanny_ = false;   // tiled runs are approximate, see kCannyRefreshRuns
+    int approximateRuns_ = 0; // tiled Canny runs since the cache was last computed in full
+    int tilesX_ = 0;
+    int tilesY_ = 0;
+    std::vector<uint8_t> changed_;
+    cv::Mat reference_;       // input behind each tile of the cached result
+    bool cacheValid_ = false;
+    bool lastUnchanged_ = false;
+    IncrementalStats stats_;
+};
+
+}  // namespace flamapp
@@ -1,7 +1,12 @@
 #include <jni.h>
+#include <android/bitmap.h>
+#include <memory>
 #include <string>
+#include <system_error>
 #include <opencv2/opencv.hpp>
 
+#include "frame_context.h"
+
 extern "C"
 JNIEXPORT jstring JNICALL
 Java_com_flamapp_MainActivity_stringFromJNI(JNIEnv* env, jobject /* this */) {
@@ -52,6 +57,9 @@ Java_com_flamapp_FrameProcessor_processGrayFrame(JNIEnv* env, jclass /* cls */,
         // On error, release and return null
         env->ReleaseByteArrayElements(input, inBytes, JNI_ABORT);
         return nullptr;
+    } catch (const std::exception& e) {
+        env->ReleaseByteArrayElements(input, inBytes, JNI_ABORT);
+        return nullptr;
     }
 
     // Prepare the jbyteArray to return
@@ -75,3 +83,436 @@ Java_com_flamapp_FrameProcessor_processGrayFrame(JNIEnv* env, jclass /* cls */,
 
     return outArray;
 }
+
+// ---------------------------------------------------
+// Direct-buffer helpers shared by the zero-copy entry points
+// ---------------------------------------------------
+namespace {
+
+// Resolves the plane / output addresses and checks they are large enough for a w x h input
+// and outSize output bytes. The last row of a plane is usually not padded out to rowStride.
+bool resolveBuffers(JNIEnv* env, jobject input, jobject output, int w, int h, int rs, int ps,
+                    jlong outSize, uint8_t** inPtr, uint8_t** outPtr) {
+    if (input == nullptr || output == nullptr) return false;
+    if (w <= 0 || h <= 0 || ps <= 0 || rs < (w - 1) * ps + 1) return false;
+
+    *inPtr = static_cast<uint8_t*>(env->GetDirectBufferAddress(input));
+    *outPtr = static_cast<uint8_t*>(env->GetDirectBufferAddress(output));
+    if (*inPtr == nullptr || *outPtr == nullptr) return false;
+
+    const jlong needIn = static_cast<jlong>(rs) * (h - 1) + static_cast<jlong>(w - 1) * ps + 1;
+    if (env->GetDirectBufferCapacity(input) < needIn) return false;
+    if (env->GetDirectBufferCapacity(output) < outSize) return false;
+    return true;
+}
+
+// Resolves the U / V planes of a w x h YUV_420_888 frame ((w + 1) / 2 x (h + 1) / 2 samples)
+bool resolveChroma(JNIEnv* env, jobject u, jobject v, int w, int h, int rs, int ps,
+                   flamapp::ChromaPlanes* chroma) {
+    if (u == nullptr || v == nullptr) return false;
+    const int cw = (w + 1) / 2;
+    const int ch = (h + 1) / 2;
+    if (ps <= 0 || rs < (cw - 1) * ps + 1) return false;
+
+    chroma->u = static_cast<const uint8_t*>(env->GetDirectBufferAddress(u));
+    chroma->v = static_cast<const uint8_t*>(env->GetDirectBufferAddress(v));
+    if (chroma->u == nullptr || chroma->v == nullptr) return false;
+    const jlong need = static_cast<jlong>(rs) * (ch - 1) + static_cast<jlong>(cw - 1) * ps + 1;
+    if (env->GetDirectBufferCapacity(u) < need || env->GetDirectBufferCapacity(v) < need) return false;
+    chroma->rowStride = rs;
+    chroma->pixelStride = ps;
+    return true;
+}
+
+// Decodes FilterChain's flat encoding: one op code per step, kParamsPerOp doubles per step
+bool readSteps(JNIEnv* env, jintArray ops, jdoubleArray params,
+               std::vector<flamapp::FilterStep>* steps) {
+    if (ops == nullptr || params == nullptr) return false;
+    const jsize count = env->GetArrayLength(ops);
+    if (env->GetArrayLength(params) < count * flamapp::kParamsPerOp) return false;
+
+    std::vector<jint> opCodes(count);
+    std::vector<jdouble> values(count * flamapp::kParamsPerOp);
+    env->GetIntArrayRegion(ops, 0, count, opCodes.data());
+    env->GetDoubleArrayRegion(params, 0, count * flamapp::kParamsPerOp, values.data());
+
+    steps->resize(count);
+    for (jsize i = 0; i < count; ++i) {
+        flamapp::FilterStep& step = (*steps)[i];
+        step.op = opCodes[i];
+        for (int k = 0; k < flamapp::kParamsPerOp; ++k) {
+            step.p[k] = values[i * flamapp::kParamsPerOp + k];
+        }
+    }
+    return true;
+}
+
+}  // namespace
+
+// ---------------------------------------------------
+// Zero-copy variant: reads the Y plane straight out of the Image.Plane direct ByteBuffer
+// (honouring rowStride / pixelStride) and writes edges into a caller-owned direct ByteBuffer.
+// Java signature (static native):
+// public static native boolean processGrayFrameDirect(ByteBuffer input, int width, int height,
+//                                                     int rowStride, int pixelStride, ByteBuffer output);
+// ---------------------------------------------------
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_processGrayFrameDirect(JNIEnv* env, jclass /* cls */,
+                                                       jobject input, jint width, jint height,
+                                                       jint rowStride, jint pixelStride,
+                                                       jobject output) {
+    uint8_t* inPtr = nullptr;
+    uint8_t* outPtr = nullptr;
+    if (!resolveBuffers(env, input, output, width, height, rowStride, pixelStride,
+                        static_cast<jlong>(width) * height, &inPtr, &outPtr)) {
+        return JNI_FALSE;
+    }
+
+    // One default-parameter context per calling thread, rebuilt only when the resolution changes
+    thread_local std::unique_ptr<flamapp::FrameContext> ctx;
+    try {
+        // building the context allocates and can throw too; nothing may escape through JNI
+        if (!ctx || ctx->width() != width || ctx->height() != height) {
+            ctx.reset(new flamapp::FrameContext(width, height, flamapp::defaultSteps()));
+        }
+        return ctx->process(inPtr, rowStride, pixelStride, outPtr) ? JNI_TRUE : JNI_FALSE;
+    } catch (const cv::Exception& e) {
+        return JNI_FALSE;
+    } catch (const std::exception& e) {
+        return JNI_FALSE;
+    }
+}
+
+// ---------------------------------------------------
+// Instance API: FrameProcessor.create(...) / process(...) / close()
+// The jlong handle is a FrameContext* owned by the Java object.
+// ---------------------------------------------------
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_flamapp_FrameProcessor_nativeCreate(JNIEnv* env, jclass /* cls */,
+                                             jint width, jint height,
+                                             jintArray ops, jdoubleArray params) {
+    try {
+        std::vector<flamapp::FilterStep> steps;
+        if (!readSteps(env, ops, params, &steps)) return 0;
+        return reinterpret_cast<jlong>(new flamapp::FrameContext(width, height, std::move(steps)));
+    } catch (const cv::Exception& e) {
+        return 0;
+    } catch (const std::exception& e) {
+        return 0;
+    }
+}
+
+// Swaps the filter chain of a live context; workspaces are resized here, not per frame
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_nativeSetFilterChain(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                     jintArray ops, jdoubleArray params) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr) return JNI_FALSE;
+    try {
+        std::vector<flamapp::FilterStep> steps;
+        if (!readSteps(env, ops, params, &steps)) return JNI_FALSE;
+        ctx->setPlan(std::move(steps));
+        return JNI_TRUE;
+    } catch (const cv::Exception& e) {
+        return JNI_FALSE;
+    } catch (const std::exception& e) {
+        return JNI_FALSE;
+    }
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_nativeProcess(JNIEnv* env, jclass /* cls */, jlong handle,
+                                              jobject input, jint rowStride, jint pixelStride,
+                                              jobject output) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr) return JNI_FALSE;
+
+    uint8_t* inPtr = nullptr;
+    uint8_t* outPtr = nullptr;
+    const jlong outSize = static_cast<jlong>(ctx->outputWidth()) * ctx->outputHeight();
+    if (!resolveBuffers(env, input, output, ctx->width(), ctx->height(), rowStride, pixelStride,
+                        outSize, &inPtr, &outPtr)) {
+        return JNI_FALSE;
+    }
+
+    try {
+        return ctx->process(inPtr, rowStride, pixelStride, outPtr) ? JNI_TRUE : JNI_FALSE;
+    } catch (const cv::Exception& e) {
+        return JNI_FALSE;
+    } catch (const std::exception& e) {
+        return JNI_FALSE;
+    }
+}
+
+// ---------------------------------------------------
+// Fused pixel output: FrameProcessor.setColorOutput(...) / processToPixels(...)
+// ---------------------------------------------------
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_nativeSetColorOutput(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                     jint bytesPerPixel, jintArray colors,
+                                                     jintArray background) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr) return JNI_FALSE;
+
+    flamapp::ColorPlan plan;
+    plan.bytesPerPixel = bytesPerPixel;
+    if (bytesPerPixel != 0) {
+        if (colors == nullptr || env->GetArrayLength(colors) != 256) return JNI_FALSE;
+        env->GetIntArrayRegion(colors, 0, 256, reinterpret_cast<jint*>(plan.colors));
+        if (background != nullptr) {
+            if (env->GetArrayLength(background) != 256) return JNI_FALSE;
+            env->GetIntArrayRegion(background, 0, 256, reinterpret_cast<jint*>(plan.background));
+            plan.overlay = true;
+        }
+    }
+    try {
+        ctx->setColorPlan(plan);
+        return JNI_TRUE;
+    } catch (const cv::Exception& e) {
+        return JNI_FALSE;
+    } catch (const std::exception& e) {
+        return JNI_FALSE;
+    }
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_nativeProcessToPixels(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                      jobject input, jint rowStride, jint pixelStride,
+                                                      jobject pixels, jint rowBytes) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr || ctx->pixelBytes() == 0) return JNI_FALSE;
+    if (rowBytes < ctx->outputWidth() * ctx->pixelBytes()) return JNI_FALSE;
+
+    uint8_t* inPtr = nullptr;
+    uint8_t* outPtr = nullptr;
+    const jlong outSize = static_cast<jlong>(rowBytes) * (ctx->outputHeight() - 1)
+            + static_cast<jlong>(ctx->outputWidth()) * ctx->pixelBytes();
+    if (!resolveBuffers(env, input, pixels, ctx->width(), ctx->height(), rowStride, pixelStride,
+                        outSize, &inPtr, &outPtr)) {
+        return JNI_FALSE;
+    }
+
+    try {
+        return ctx->processToPixels(inPtr, rowStride, pixelStride, outPtr,
+                                    static_cast<size_t>(rowBytes)) ? JNI_TRUE : JNI_FALSE;
+    } catch (const cv::Exception& e) {
+        return JNI_FALSE;
+    } catch (const std::exception& e) {
+        return JNI_FALSE;
+    }
+}
+
+// Colour frame: Y plane + chroma planes as Image.Plane hands them out, into display pixels
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_nativeProcessYuvToPixels(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                         jobject y, jint rowStride, jint pixelStride,
+                                                         jobject u, jobject v, jint uvRowStride,
+                                                         jint uvPixelStride, jobject pixels, jint rowBytes) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr || ctx->pixelBytes() == 0) return JNI_FALSE;
+    if (rowBytes < ctx->outputWidth() * ctx->pixelBytes()) return JNI_FALSE;
+
+    uint8_t* inPtr = nullptr;
+    uint8_t* outPtr = nullptr;
+    const jlong outSize = static_cast<jlong>(rowBytes) * (ctx->outputHeight() - 1)
+            + static_cast<jlong>(ctx->outputWidth()) * ctx->pixelBytes();
+    flamapp::ChromaPlanes chroma;
+    if (!resolveBuffers(env, y, pixels, ctx->width(), ctx->height(), rowStride, pixelStride,
+                        outSize, &inPtr, &outPtr)
+            || !resolveChroma(env, u, v, ctx->width(), ctx->height(), uvRowStride, uvPixelStride, &chroma)) {
+        return JNI_FALSE;
+    }
+
+    try {
+        return ctx->processYuvToPixels(inPtr, rowStride, pixelStride, chroma, outPtr,
+                                       static_cast<size_t>(rowBytes)) ? JNI_TRUE : JNI_FALSE;
+    } catch (const cv::Exception& e) {
+        return JNI_FALSE;
+    } catch (const std::exception& e) {
+        return JNI_FALSE;
+    }
+}
+
+// Runs the plan, then packs the result into an EdgeMap's long[] 1 bit per pixel. The array is
+// pinned only for the pack, not while the plan runs.
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_nativeProcessToEdgeMap(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                       jobject input, jint rowStride, jint pixelStride,
+                                                       jlongArray words, jint wordsPerRow) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr || input == nullptr || words == nullptr) return JNI_FALSE;
+    if (wordsPerRow != (ctx->outputWidth() + 63) / 64
+            || env->GetArrayLength(words) < static_cast<jsize>(wordsPerRow) * ctx->outputHeight()) {
+        return JNI_FALSE;
+    }
+
+    const auto* inPtr = static_cast<const uint8_t*>(env->GetDirectBufferAddress(input));
+    const jlong needIn = static_cast<jlong>(rowStride) * (ctx->height() - 1)
+            + static_cast<jlong>(ctx->width() - 1) * pixelStride + 1;
+    if (inPtr == nullptr || pixelStride <= 0 || rowStride < (ctx->width() - 1) * pixelStride + 1
+            || env->GetDirectBufferCapacity(input) < needIn) {
+        return JNI_FALSE;
+    }
+
+    try {
+        if (!ctx->processToResult(inPtr, rowStride, pixelStride)) return JNI_FALSE;
+    } catch (const cv::Exception& e) {
+        return JNI_FALSE;
+    } catch (const std::exception& e) {
+        return JNI_FALSE;
+    }
+    auto* out = static_cast<uint64_t*>(env->GetPrimitiveArrayCritical(words, nullptr));
+    if (out == nullptr) return JNI_FALSE;
+    ctx->packBits(out, wordsPerRow);
+    env->ReleasePrimitiveArrayCritical(words, out, 0);
+    return JNI_TRUE;
+}
+
+namespace {
+
+// Locks the bitmap and runs the fused pass straight into its pixels; chroma null for gray frames
+jboolean processToBitmap(JNIEnv* env, flamapp::FrameContext* ctx, jobject input, jint rowStride,
+                         jint pixelStride, const flamapp::ChromaPlanes* chroma, jobject bitmap) {
+    AndroidBitmapInfo info;
+    if (AndroidBitmap_getInfo(env, bitmap, &info) != ANDROID_BITMAP_RESULT_SUCCESS) return JNI_FALSE;
+    const int bitmapBytes = info.format == ANDROID_BITMAP_FORMAT_RGBA_8888 ? 4
+            : info.format == ANDROID_BITMAP_FORMAT_RGB_565 ? 2 : 0;
+    if (bitmapBytes != ctx->pixelBytes()
+            || static_cast<int>(info.width) != ctx->outputWidth()
+            || static_cast<int>(info.height) != ctx->outputHeight()) {
+        return JNI_FALSE;
+    }
+
+    const auto* inPtr = static_cast<const uint8_t*>(env->GetDirectBufferAddress(input));
+    const jlong needIn = static_cast<jlong>(rowStride) * (ctx->height() - 1)
+            + static_cast<jlong>(ctx->width() - 1) * pixelStride + 1;
+    if (inPtr == nullptr || pixelStride <= 0 || rowStride < (ctx->width() - 1) * pixelStride + 1
+            || env->GetDirectBufferCapacity(input) < needIn) {
+        return JNI_FALSE;
+    }
+
+    void* pixels = nullptr;
+    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) return JNI_FALSE;
+    bool ok = false;
+    try {
+        auto* out = static_cast<uint8_t*>(pixels);
+        ok = chroma != nullptr
+                ? ctx->processYuvToPixels(inPtr, rowStride, pixelStride, *chroma, out, info.stride)
+                : ctx->processToPixels(inPtr, rowStride, pixelStride, out, info.stride);
+    } catch (const cv::Exception& e) {
+        ok = false;
+    } catch (const std::exception& e) {
+        ok = false;
+    }
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return ok ? JNI_TRUE : JNI_FALSE;
+}
+
+}  // namespace
+
+// Straight into a Bitmap's pixels (BitmapOutput.render): no Java-side pixel buffer at all
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_BitmapOutput_nativeProcessToBitmap(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                    jobject input, jint rowStride, jint pixelStride,
+                                                    jobject bitmap) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr || ctx->pixelBytes() == 0 || input == nullptr || bitmap == nullptr) {
+        return JNI_FALSE;
+    }
+    return processToBitmap(env, ctx, input, rowStride, pixelStride, nullptr, bitmap);
+}
+
+// Colour frame straight into a Bitmap (BitmapOutput.renderYuv)
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_BitmapOutput_nativeProcessYuvToBitmap(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                       jobject y, jint rowStride, jint pixelStride,
+                                                       jobject u, jobject v, jint uvRowStride,
+                                                       jint uvPixelStride, jobject bitmap) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr || ctx->pixelBytes() == 0 || y == nullptr || bitmap == nullptr) {
+        return JNI_FALSE;
+    }
+    flamapp::ChromaPlanes chroma;
+    if (!resolveChroma(env, u, v, ctx->width(), ctx->height(), uvRowStride, uvPixelStride, &chroma)) {
+        return JNI_FALSE;
+    }
+    return processToBitmap(env, ctx, y, rowStride, pixelStride, &chroma, bitmap);
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_nativeSetIncremental(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                     jint tileSize, jint threshold) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr) return JNI_FALSE;
+    try {
+        ctx->setIncremental(tileSize, threshold);
+        return JNI_TRUE;
+    } catch (const cv::Exception& e) {
+        return JNI_FALSE;
+    } catch (const std::exception& e) {
+        return JNI_FALSE;
+    }
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_flamapp_FrameProcessor_nativeLastFrameUnchanged(JNIEnv* env, jclass /* cls */, jlong handle) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    return ctx != nullptr && ctx->lastFrameUnchanged() ? JNI_TRUE : JNI_FALSE;
+}
+
+// out: frames, unchanged frames, tiles checked, tiles reprocessed
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_flamapp_FrameProcessor_nativeIncrementalStats(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                       jlongArray out) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr || out == nullptr || env->GetArrayLength(out) < 4) return;
+    const flamapp::IncrementalStats& stats = ctx->incrementalStats();
+    const jlong values[4] = {stats.frames, stats.unchangedFrames, stats.tilesChecked, stats.tilesReprocessed};
+    env->SetLongArrayRegion(out, 0, 4, values);
+}
+
+// Returns the thread count in use, 0 if the pool could not be started
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_flamapp_FrameProcessor_nativeSetThreads(JNIEnv* env, jclass /* cls */, jlong handle,
+                                                 jint threads, jboolean pinBigCores) {
+    auto* ctx = reinterpret_cast<flamapp::FrameContext*>(handle);
+    if (ctx == nullptr) return 0;
+    try {
+        ctx->setThreads(threads, pinBigCores == JNI_TRUE);
+        return ctx->threads();
+    } catch (const cv::Exception& e) {
+        return 0;
+    } catch (const std::system_error& e) {
+        // thread creation failed; fall back to the caller's thread
+        ctx->setThreads(1, false);
+        return 0;
+    } catch (const std::exception& e) {
+        return 0;
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_flamapp_FrameProcessor_nativeDestroy(JNIEnv* env, jclass /* cls */, jlong handle) {
+    delete reinterpret_cast<flamapp::FrameContext*>(handle);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_flamapp_FrameProcessor_nativeWorkspaceReallocations(JNIEnv* env, jclass /* cls */) {
+    return static_cast<jlong>(flamapp::workspaceReallocations());
+}
@@ -0,0 +1,147 @@
+#include "worker_pool.h"
+
+#include <algorithm>
+#include <cstdio>
+
+#if defined(__linux__)
+#include <sched.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#endif
+
+namespace flamapp {
+
+namespace {
+#if defined(__linux__)
+long maxFrequency(int cpu) {
+    char path[96];
+    std::snprintf(path, sizeof(path), "/sys/devices/system/cpu/cpu%d/cpufreq/cpuinfo_max_freq", cpu);
+    FILE* file = std::fopen(path, "r");
+    if (file == nullptr) return 0;
+    long khz = 0;
+    if (std::fscanf(file, "%ld", &khz) != 1) khz = 0;
+    std::fclose(file);
+    return khz;
+}
+
+// Affinity for the calling thread only (bionic has no pthread_setaffinity_np)
+void pinCurrentThread(const std::vector<int>& cores) {
+    cpu_set_t set;
+    CPU_ZERO(&set);
+    for (int cpu : cores) CPU_SET(cpu, &set);
+    // best effort: the scheduler may refuse, the thread then runs anywhere
+    sched_setaffinity(static_cast<pid_t>(syscall(SYS_gettid)), sizeof(set), &set);
+}
+#endif
+}  // namespace
+
+std::vector<int> WorkerPool::bigCores() {
+    std::vector<int> cores;
+#if defined(__linux__)
+    const long cpus = sysconf(_SC_NPROCESSORS_CONF);
+    std::vector<long> khz;
+    for (int cpu = 0; cpu < cpus && cpu < CPU_SETSIZE; ++cpu) khz.push_back(maxFrequency(cpu));
+    if (khz.empty()) return cores;
+    const long fastest = *std::max_element(khz.begin(), khz.end());
+    const long slowest = *std::min_element(khz.begin(), khz.end());
+    // no frequency information (slowest 0 with fastest 0) or a homogeneous CPU: nothing to prefer
+    if (fastest == slowest) return cores;
+    // everything but the LITTLE cluster: on prime + big + little designs both faster tiers count
+    for (int cpu = 0; cpu < static_cast<int>(khz.size()); ++cpu) {
+        if (khz[cpu] > slowest) cores.push_back(cpu);
+    }
+#endif
+    return cores;
+}
+
+WorkerPool::WorkerPool(int threads, bool pinBigCores) {
+    if (pinBigCores) cores_ = bigCores();
+    const int workers = std::max(1, threads) - 1;
+    workers_.reserve(workers);
+    try {
+        for (int i = 0; i < workers; ++i) workers_.emplace_back(&WorkerPool::workerMain, this);
+    } catch (...) {
+        // no destructor runs for a half-built pool: joinable threads would terminate the process
+        // and the ones started would keep using this
+        shutdown();
+        throw;
+    }
+}
+
+WorkerPool::~WorkerPool() {
+    shutdown();
+}
+
+void WorkerPool::shutdown() {
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        stop_ = true;
+    }
+    wake_.notify_all();
+    for (std::thread& worker : workers_) worker.join();
+}
+
+void WorkerPool::runTasks(int count, TaskFn fn, void* task) {
+    if (count <= 0) return;
+    if (workers_.empty() || count == 1) {
+        for (int i = 0; i < count; ++i) fn(task, i);
+        return;
+    }
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        fn_ = fn;
+        task_ = task;
+        count_ = count;
+        next_.store(0, std::memory_order_relaxed);
+        busy_ = static_cast<int>(workers_.size());
+        error_ = nullptr;
+        ++generation_;
+    }
+    wake_.notify_all();
+    drain();
+
+    std::exception_ptr error;
+    {
+        std::unique_lock<std::mutex> lock(mutex_);
+        done_.wait(lock, [this] { return busy_ == 0; });
+        fn_ = nullptr;
+        task_ = nullptr;
+        error = error_;
+        error_ = nullptr;
+    }
+    if (error) std::rethrow_exception(error);
+}
+
+void WorkerPool::drain() {
+    for (int i = next_.fetch_add(1, std::memory_order_relaxed); i < count_;
+         i = next_.fetch_add(1, std::memory_order_relaxed)) {
+        try {
+            fn_(task_, i);
+        } catch (...) {
+            std::lock_guard<std::mutex> lock(mutex_);
+            if (!error_) error_ = std::current_exception();
+        }
+    }
+}
+
+void WorkerPool::workerMain() {
+#if defined(__linux__)
+    if (!cores_.empty()) pinCurrentThread(cores_);
+#endif
+    uint64_t seen = 0;
+    for (;;) {
+        {
+            std::unique_lock<std::mutex> lock(mutex_);
+            wake_.wait(lock, [&] { return stop_ || generation_ != seen; });
+            if (stop_) return;
+            seen = generation_;
+        }
+        drain();
+        {
+            std::lock_guard<std::mutex> lock(mutex_);
+            if (--busy_ == 0) done_.notify_one();
+        }
+    }
+}
+
+}  // namespace flamapp
@@ -0,0 +1,70 @@
+#pragma once
+
+#include <atomic>
+#include <condition_variable>
+#include <cstdint>
+#include <exception>
+#include <mutex>
+#include <thread>
+#include <type_traits>
+#include <vector>
+
+namespace flamapp {
+
+// Persistent threads for splitting a frame across cores. Threads are started once and sleep
+// between runs, so a frame costs a wake-up per parallel section, no thread creation and no
+// allocation. The calling thread takes part in every run: a pool of n threads starts n - 1.
+// run() is for one caller at a time (the FrameContext that owns the pool).
+class WorkerPool {
+public:
+    // threads: parallelism including the caller, >= 1. pinBigCores: workers only run on the
+    // fastest cores of a big.LITTLE CPU; ignored where all cores are alike or affinity is
+    // unavailable (see pinned()).
+    WorkerPool(int threads, bool pinBigCores);
+    ~WorkerPool();
+
+    WorkerPool(const WorkerPool&) = delete;
+    WorkerPool& operator=(const WorkerPool&) = delete;
+
+    int threads() const { return static_cast<int>(workers_.size()) + 1; }
+    bool pinned() const { return !cores_.empty(); }
+
+    // Calls task(i) for every i in [0, count) across the pool and returns when all are done.
+    // The first exception a task throws is rethrown here, after the others finished.
+    template <typename Task>
+    void run(int count, Task&& task) {
+        using T = std::remove_reference_t<Task>;
+        runTasks(count, [](void* t, int i) { (*static_cast<T*>(t))(i); }, &task);
+    }
+
+    // CPUs with the highest maximum frequency, empty if they are all the same or unknown
+    static std::vector<int> bigCores();
+
+private:
+    using TaskFn = void (*)(void*, int);
+
+    void runTasks(int count, TaskFn fn, void* task);
+    void workerMain();
+    // Stops and joins the workers started so far
+    void shutdown();
+    // Claims and runs tasks until none are left
+    void drain();
+
+    std::vector<int> cores_;
+    std::vector<std::thread> workers_;
+
+    std::mutex mutex_;
+    std::condition_variable wake_;
+    std::condition_variable done_;
+    uint64_t generation_ = 0;   // bumped per run, workers wait for it to move
+    bool stop_ = false;
+    int busy_ = 0;              // workers not yet finished with the current run
+
+    TaskFn fn_ = nullptr;
+    void* task_ = nullptr;
+    int count_ = 0;
+    std::atomic<int> next_{0};
+    std::exception_ptr error_;
+};
+
+}  // namespace flamapp
@@ -0,0 +1,68 @@
+package com.flamapp;
+
+import android.graphics.Bitmap;
+
+// FrameOutput into pooled Bitmaps, for FrameRenderer. Processed pixels are written straight into
+// the bitmap through BitmapOutput; a bitmap is out from the process stage until the renderer has
+// replaced it on screen.
+public final class BitmapFrameOutput implements FrameOutput {
+
+    // ARGB_8888 only: RGB_565 effects would need a pool per config
+    private final BufferPool<Bitmap> pool = new BufferPool<>("bitmaps",
+            (w, h) -> Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888), Bitmap::recycle, 4, 2);
+    // process thread only
+    private final BitmapOutput bitmapOutput = new BitmapOutput();
+
+    @Override
+    public boolean process(FrameProcessor processor, Frame frame, int divisor) {
+        Bitmap bmp = attach(frame, processor.getOutputWidth(), processor.getOutputHeight());
+        // colour only at full size: the chroma of a downscaled frame would need its own strides
+        if (frame.hasChroma && divisor == 1 && processor.getColorOutput().isOverlay()) {
+            return bitmapOutput.renderYuv(processor, frame.gray, frame.width, 1,
+                    frame.u, frame.v, frame.chromaRowStride, frame.chromaPixelStride, bmp);
+        }
+        return bitmapOutput.render(processor, frame.gray, frame.width * divisor, divisor, bmp);
+    }
+
+    @Override
+    public void showRaw(Frame frame) {
+        Bitmap bmp = attach(frame, frame.width, frame.height);
+        frame.toArgb(frame.gray);
+        bmp.setPixels(frame.argb, 0, frame.width, 0, 0, frame.width, frame.height);
+    }
+
+    @Override
+    public void release(Frame frame) {
+        Object attachment = frame.attachment;
+        if (attachment instanceof Bitmap) {
+            frame.attachment = null;
+            pool.release((Bitmap) attachment);
+        }
+    }
+
+    @Override
+    public void trimTo(int width, int height) {
+        pool.trimTo(width, height);
+    }
+
+    public BufferPool.Stats getPoolStats() {
+        return pool.getStats();
+    }
+
+    // Returns the number of bitmaps never handed back, see BufferPool.close()
+    public int close() {
+        return pool.close();
+    }
+
+    private Bitmap attach(Frame frame, int width, int height) {
+        Object current = frame.attachment;
+        if (current instanceof Bitmap) {
+            Bitmap bmp = (Bitmap) current;
+            if (bmp.getWidth() == width && bmp.getHeight() == height) return bmp;
+            release(frame);
+        }
+        Bitmap bmp = pool.acquire(width, height);
+        frame.attachment = bmp;
+        return bmp;
+    }
+}
@@ -0,0 +1,87 @@
+package com.flamapp;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+// Runs a FrameProcessor with its ColorOutput straight into a Bitmap.
+// Native backend: one JNI call locks the bitmap and the fused colour pass writes its pixels in
+// place. Java backend: pixels go to a reusable direct buffer and into the bitmap with a single
+// copyPixelsFromBuffer (a memcpy, no per-pixel Java loop over the bitmap).
+// One instance per processing thread; the scratch buffer is reused across frames.
+public final class BitmapOutput {
+
+    private ByteBuffer scratch;
+
+    // bitmap: ARGB_8888 or RGB_565 matching the processor's ColorOutput, output-sized, mutable
+    public boolean render(FrameProcessor processor, ByteBuffer input, int rowStride, int pixelStride,
+                          Bitmap bitmap) {
+        ColorOutput color = checkBitmap(processor, bitmap);
+        long handle = processor.nativeHandle();
+        if (handle != 0) {
+            return nativeProcessToBitmap(handle, input, rowStride, pixelStride, bitmap);
+        }
+        ByteBuffer pixels = scratchFor(bitmap, color);
+        if (!processor.processToPixels(input, rowStride, pixelStride, pixels)) return false;
+        copyToBitmap(pixels, bitmap);
+        return true;
+    }
+
+    // Colour frame (FrameProcessor.processYuvToPixels) into the bitmap, same rules as render()
+    public boolean renderYuv(FrameProcessor processor, ByteBuffer y, int rowStride, int pixelStride,
+                             ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride, Bitmap bitmap) {
+        ColorOutput color = checkBitmap(processor, bitmap);
+        if (color.isOverlay() && color.getFormat() != ColorOutput.Format.ARGB_8888) {
+            throw new IllegalStateException("Colour overlay needs ARGB_8888 output");
+        }
+        long handle = processor.nativeHandle();
+        if (handle != 0) {
+            return nativeProcessYuvToBitmap(handle, y, rowStride, pixelStride, u, v, uvRowStride, uvPixelStride,
+                    bitmap);
+        }
+        ByteBuffer pixels = scratchFor(bitmap, color);
+        if (!processor.processYuvToPixels(y, rowStride, pixelStride, u, v, uvRowStride, uvPixelStride, pixels)) {
+            return false;
+        }
+        copyToBitmap(pixels, bitmap);
+        return true;
+    }
+
+    public static Bitmap.Config configFor(ColorOutput.Format format) {
+        return format == ColorOutput.Format.RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    private static ColorOutput checkBitmap(FrameProcessor processor, Bitmap bitmap) {
+        ColorOutput color = processor.getColorOutput();
+        if (color == null) throw new IllegalStateException("No ColorOutput set");
+        if (bitmap.getConfig() != configFor(color.getFormat())
+                || bitmap.getWidth() != processor.getOutputWidth()
+                || bitmap.getHeight() != processor.getOutputHeight()) {
+            throw new IllegalArgumentException("Bitmap doesn't match the processor output: "
+                    + bitmap.getWidth() + "x" + bitmap.getHeight() + " " + bitmap.getConfig());
+        }
+        return color;
+    }
+
+    private ByteBuffer scratchFor(Bitmap bitmap, ColorOutput color) {
+        int bytes = bitmap.getWidth() * bitmap.getHeight() * color.getFormat().bytesPerPixel;
+        if (scratch == null || scratch.capacity() != bytes) {
+            scratch = FrameProcessor.allocatePixels(bitmap.getWidth(), bitmap.getHeight(), color.getFormat());
+        }
+        return scratch;
+    }
+
+    private static void copyToBitmap(ByteBuffer pixels, Bitmap bitmap) {
+        pixels.rewind();
+        bitmap.copyPixelsFromBuffer(pixels);
+    }
+
+    // Matches Java_com_flamapp_BitmapOutput_nativeProcessToBitmap; only called with a live
+    // native handle, so the library is loaded by then
+    private static native boolean nativeProcessToBitmap(long handle, ByteBuffer input, int rowStride,
+                                                        int pixelStride, Bitmap bitmap);
+
+    private static native boolean nativeProcessYuvToBitmap(long handle, ByteBuffer y, int rowStride,
+                                                           int pixelStride, ByteBuffer u, ByteBuffer v,
+                                                           int uvRowStride, int uvPixelStride, Bitmap bitmap);
+}
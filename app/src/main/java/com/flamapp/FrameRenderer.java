@@ -0,0 +1,200 @@
+package com.flamapp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.Choreographer;
+import android.view.TextureView;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Draws processed frames into the TextureView from its own thread, paced by vsync.
+// present() puts a frame (its Bitmap in Frame.attachment) into a FrameMailbox and asks the
+// render thread's Choreographer for the next vsync; at the vsync the newest frame is drawn,
+// older ones that never made it to a vsync are skipped. Nothing runs while no frames arrive.
+// The scale transform is only recomputed when the bitmap or surface size changes, and the
+// frame path allocates nothing (TextureView reuses its Canvas, Handler its Messages).
+public final class FrameRenderer implements Choreographer.FrameCallback {
+
+    private static final String TAG = "FrameRenderer";
+
+    // Point-in-time counters, for the overlay and the metrics export
+    public static final class Stats {
+        public final long published;
+        public final long presented;
+        // published frames a newer one replaced before they reached a vsync
+        public final long skipped;
+        // present() -> unlockCanvasAndPost
+        public final FrameMetrics.StageLatency display;
+        // sensor exposure (or acquisition) -> unlockCanvasAndPost
+        public final FrameMetrics.StageLatency endToEnd;
+
+        Stats(long published, long presented, long skipped, LatencyHistogram display, LatencyHistogram endToEnd) {
+            this.published = published;
+            this.presented = presented;
+            this.skipped = skipped;
+            this.display = new FrameMetrics.StageLatency("display", display);
+            this.endToEnd = new FrameMetrics.StageLatency("presentedEndToEnd", endToEnd);
+        }
+
+        public String toJson() {
+            return "{\"published\":" + published
+                    + ",\"presented\":" + presented
+                    + ",\"skipped\":" + skipped
+                    + ",\"displayP50Ns\":" + display.p50
+                    + ",\"displayP99Ns\":" + display.p99
+                    + ",\"displayMaxNs\":" + display.max
+                    + ",\"endToEndP50Ns\":" + endToEnd.p50
+                    + ",\"endToEndP99Ns\":" + endToEnd.p99 + "}";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "presented=%d skipped=%d display p50/p99=%.1f/%.1fms",
+                    presented, skipped, display.p50 / 1e6, display.p99 / 1e6);
+        }
+    }
+
+    private final TextureView view;
+    private final FrameMailbox<Frame> mailbox;
+    private final FrameMetrics metrics;
+    private final LatencyHistogram displayLatency = new LatencyHistogram();
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+    private final AtomicLong presented = new AtomicLong();
+    // a vsync callback is posted (or about to be); cleared as it runs
+    private final AtomicBoolean vsyncRequested = new AtomicBoolean();
+
+    // render thread only
+    private final Matrix transform = new Matrix();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private int bitmapWidth;
+    private int bitmapHeight;
+    private int surfaceWidth;
+    private int surfaceHeight;
+    private Choreographer choreographer;
+
+    private HandlerThread thread;
+    private volatile Handler handler;
+    private final Runnable requestVsync = () -> choreographer.postFrameCallback(this);
+    private final Runnable redraw = this::drawFront;
+
+    // releaser gets every frame the renderer is done with, drawn or skipped; errors are
+    // counted in metrics
+    public FrameRenderer(TextureView view, FrameMailbox.Releaser<Frame> releaser, FrameMetrics metrics) {
+        this.view = view;
+        this.mailbox = new FrameMailbox<>(releaser);
+        this.metrics = metrics;
+    }
+
+    public void start() {
+        if (thread != null) return;
+        displayLatency.reset();
+        endToEndLatency.reset();
+        thread = new HandlerThread("Render", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        Handler h = new Handler(thread.getLooper());
+        // Choreographer is per looper thread, so it has to be fetched on the render thread
+        h.post(() -> choreographer = Choreographer.getInstance());
+        handler = h;
+        // frames published while stopped
+        if (mailbox.hasPending()) scheduleVsync();
+    }
+
+    // Hands a frame over for display; never blocks. The frame belongs to the renderer from
+    // here on, its marks must be recorded before the call.
+    public void present(Frame frame) {
+        mailbox.publish(frame);
+        scheduleVsync();
+    }
+
+    // Draws the frame on screen again, e.g. after the surface changed size
+    public void redraw() {
+        Handler h = handler;
+        if (h != null) h.post(redraw);
+    }
+
+    // Waits for the render thread to finish and releases the frames it still holds
+    public void stop() {
+        HandlerThread t = thread;
+        if (t == null) return;
+        // runs after anything already queued, including a pending vsync request
+        handler.post(() -> {
+            choreographer.removeFrameCallback(this);
+            mailbox.clear();
+        });
+        handler = null;
+        t.quitSafely();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        vsyncRequested.set(false);
+    }
+
+    public Stats getStats() {
+        return new Stats(mailbox.publishedCount(), presented.get(), mailbox.skippedCount(),
+                displayLatency, endToEndLatency);
+    }
+
+    private void scheduleVsync() {
+        Handler h = handler;
+        if (h != null && vsyncRequested.compareAndSet(false, true)) h.post(requestVsync);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // cleared before taking, so a frame published from here on asks for the next vsync
+        vsyncRequested.set(false);
+        Frame frame = mailbox.takeLatest();
+        if (frame == null || !draw(frame)) return;
+        long now = FrameMetrics.now();
+        presented.incrementAndGet();
+        long posted = frame.marks[FrameMetrics.RENDER_POSTED];
+        if (posted != 0) displayLatency.record(now - posted);
+        long captured = frame.marks[FrameMetrics.SENSOR] != 0
+                ? frame.marks[FrameMetrics.SENSOR] : frame.marks[FrameMetrics.ACQUIRED];
+        if (captured != 0) endToEndLatency.record(now - captured);
+    }
+
+    private void drawFront() {
+        Frame front = mailbox.front();
+        if (front != null) draw(front);
+    }
+
+    // Returns true once the frame is posted to the surface
+    private boolean draw(Frame frame) {
+        Bitmap bmp = (Bitmap) frame.attachment;
+        if (bmp == null || !view.isAvailable()) return false;
+        Canvas canvas = null;
+        try {
+            canvas = view.lockCanvas();
+            if (canvas == null) return false;
+            updateTransform(bmp.getWidth(), bmp.getHeight(), canvas.getWidth(), canvas.getHeight());
+            canvas.drawBitmap(bmp, transform, paint);
+        } catch (Exception ex) {
+            metrics.recordError();
+            AppLog.w(TAG, "draw failed", ex);
+        } finally {
+            if (canvas != null) view.unlockCanvasAndPost(canvas);
+        }
+        return canvas != null;
+    }
+
+    // Stretches the bitmap over the whole surface
+    private void updateTransform(int bw, int bh, int sw, int sh) {
+        if (bw == bitmapWidth && bh == bitmapHeight && sw == surfaceWidth && sh == surfaceHeight) return;
+        bitmapWidth = bw;
+        bitmapHeight = bh;
+        surfaceWidth = sw;
+        surfaceHeight = sh;
+        transform.setScale((float) sw / bw, (float) sh / bh);
+    }
+}
@@ -4,9 +4,7 @@ import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.ImageFormat;
-import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
@@ -21,6 +19,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.SystemClock;
+import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 import android.view.TextureView;
@@ -39,13 +38,37 @@ import androidx.core.content.ContextCompat;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
     private static final int CAMERA_REQUEST = 100;
+    // metrics.jsonl gets a snapshot line this often, and is rotated past this size
+    private static final long METRICS_EXPORT_PERIOD_MS = 5000;
+    private static final long METRICS_FILE_MAX_BYTES = 1 << 20;
+    // Incremental processing: 32 px tiles whose sampled mean difference from the cached picture
+    // stays within the threshold (0-255, above sensor noise) reuse the previous result
+    private static final int INCREMENTAL_TILE_SIZE = 32;
+    private static final int CHANGE_THRESHOLD = 6;
+    // Frames saved per long-press
+    private static final int SAVE_BURST_FRAMES = 3;
+    // Native stripes: the camera, render and UI threads need cores too, so at most 4
+    private static final int NATIVE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    // Launch extra: record this many camera frames for off-device replay (FrameReplaySource),
+    //   adb shell am start -n com.flamapp/.MainActivity --ei record_frames 600
+    // then adb pull the file from the app's external files dir, recordings/
+    private static final String EXTRA_RECORD_FRAMES = "record_frames";
+    // Launch extra: stream processed frames to the web viewer on this (loopback) port,
+    //   adb shell am start -n com.flamapp/.MainActivity --ei stream_port 8080
+    //   adb forward tcp:8080 tcp:8080, then open web/index.html
+    private static final String EXTRA_STREAM_PORT = "stream_port";
+    // Native warm-up size: the governor's starting level (~720p)
+    private static final int WARM_UP_WIDTH = 1280;
+    private static final int WARM_UP_HEIGHT = 720;
 
     private TextureView cameraView;
     private TextView debugText;
@@ -63,24 +86,130 @@ public class MainActivity extends AppCompatActivity {
     private long lastFpsTime = 0;
     private float currentFps = 0f;
 
-    // --- Save-on-next-frame flag ---
-    private volatile boolean saveNextProcessedFrame = false;
+    // Processing (effects, governor downscale, backend fallback, metrics) on its own thread,
+    // the same FrameSession the headless LoadDriver runs; this activity only feeds it camera
+    // frames and puts what comes out on screen. Native when OpenCV loads, Java otherwise.
+    private FrameSession session;
+    // processed frames are written straight into pooled bitmaps
+    private final BitmapFrameOutput bitmapOutput = new BitmapFrameOutput();
+    // Loads and warms up the native library in the background from onCreate; frames are shown
+    // unprocessed until it is ready instead of blocking on the load
+    private NativeLoader nativeLoader;
+    // Cold start -> first processed frame; per process, so a recreated activity doesn't restart it
+    private static StartupTimeline startup;
+
+    // acquire (camera thread) -> process (session, straight to bitmap pixels) -> render thread
+    // Draws the newest processed frame at each vsync from its own thread; frames it never got
+    // to are skipped
+    private FrameRenderer renderer;
+
+    // The session's per-stage latency histograms and drop/error counts, exported while it runs
+    private MetricsExporter metricsExporter;
+    // image timestamps share SystemClock.elapsedRealtimeNanos()'s clock (else sensor latency is unknown)
+    private volatile boolean sensorClockIsRealtime;
+
+    // Y planes appended to a mapped file from the acquire stage; camera thread only
+    private FrameRecorder recorder;
+    private int recordFramesLeft;
+
+    // Effects cycled by tapping the view; all keep the frame size so Frame buffers fit.
+    // EFFECT_COLORS[i] is how effect i is coloured, applied in the same native pass.
+    private static final FilterChain[] EFFECTS = {
+            FilterChain.defaultEdges(),
+            new FilterChain().gaussianBlur(5).canny(50, 120).dilate(3, 1),
+            new FilterChain().gaussianBlur(3).sobel(1, 1, 3, 1),
+            new FilterChain().equalizeHistogram().threshold(0, 255,
+                    FilterChain.THRESH_BINARY | FilterChain.THRESH_OTSU),
+            FilterChain.defaultEdges(),
+    };
+    private static final ColorOutput[] EFFECT_COLORS = {
+            ColorOutput.gray(),
+            ColorOutput.gray(),
+            ColorOutput.heatMap(),
+            ColorOutput.gray(),
+            // green edges over the dimmed camera picture, in colour (chroma from the YUV image)
+            ColorOutput.edgeOverlay(0xFF00FF00, 0.6),
+    };
+    // UI thread
+    private int effectIndex = 0;
+
+    // Long-press saves: raw planes queued from the process stage, processed + encoded in the
+    // background
+    private FrameSaveService saveService;
+
+    // Live stream to the web viewer, null unless launched with EXTRA_STREAM_PORT; the session's
+    // sink copies the bitmap into streamPixels only when a viewer wants the frame
+    private FrameStreamServer streamServer;
+    private ByteBuffer streamPixels;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        AppLog.setSink((level, tag, message, error) ->
+                Log.println(level, "Flamapp/" + tag,
+                        error == null ? message : message + "\n" + Log.getStackTraceString(error)));
+
+        if (startup == null) {
+            long sinceProcessStart = SystemClock.elapsedRealtime() - android.os.Process.getStartElapsedRealtime();
+            startup = new StartupTimeline(FrameMetrics.now() - sinceProcessStart * 1_000_000L);
+        }
+        startup.mark(StartupTimeline.Milestone.ACTIVITY_CREATED);
+        session = new FrameSession(new FrameSession.Config()
+                .setEffect(EFFECTS[effectIndex], EFFECT_COLORS[effectIndex])
+                .setIncremental(INCREMENTAL_TILE_SIZE, CHANGE_THRESHOLD)
+                .setNativeThreads(NATIVE_THREADS, true), bitmapOutput, this::presentFrame);
+        // in parallel with the camera opening below
+        nativeLoader = NativeLoader.start(WARM_UP_WIDTH, WARM_UP_HEIGHT, session.processorConfig());
+        nativeLoader.whenReady(result -> {
+            long now = FrameMetrics.now();
+            startup.mark(StartupTimeline.Milestone.NATIVE_LOADED, now - result.warmUpNanos);
+            startup.mark(StartupTimeline.Milestone.NATIVE_WARM, now);
+        });
+        session.setNativeLoader(nativeLoader);
+        session.setStartupTimeline(startup);
+
         cameraView = findViewById(R.id.camera_view);
         debugText = findViewById(R.id.debug_text);
+        renderer = new FrameRenderer(cameraView, session::release, session.getMetrics());
+
+        // Tap to switch effect; the chain is swapped in place, no new native entry point per effect
+        cameraView.setOnClickListener(view -> {
+            effectIndex = (effectIndex + 1) % EFFECTS.length;
+            session.setEffect(EFFECTS[effectIndex], EFFECT_COLORS[effectIndex]);
+            Toast.makeText(this, "Effect " + (effectIndex + 1) + "/" + EFFECTS.length, Toast.LENGTH_SHORT).show();
+        });
+
+        saveService = new FrameSaveService(new FrameSaveService.Config()
+                .setEncoder(FrameSaveService.Format.JPEG, MainActivity::encodeJpeg)
+                .setThreadFactory(r -> new Thread(() -> {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "FrameSave")),
+                this::openPictureStream, this::onFramesSaved);
+        session.setSaveService(saveService);
 
-        // Long-press to save next processed frame
+        // Long-press to save a burst of the next processed frames
         cameraView.setOnLongClickListener(view -> {
-            saveNextProcessedFrame = true;
-            Toast.makeText(this, "Will save next processed frame", Toast.LENGTH_SHORT).show();
+            saveService.requestSave(SAVE_BURST_FRAMES);
+            Toast.makeText(this, "Saving the next " + SAVE_BURST_FRAMES + " frames", Toast.LENGTH_SHORT).show();
             return true;
         });
 
+        recordFramesLeft = Math.max(0, getIntent().getIntExtra(EXTRA_RECORD_FRAMES, 0));
+        int streamPort = getIntent().getIntExtra(EXTRA_STREAM_PORT, 0);
+        if (streamPort > 0) {
+            streamServer = new FrameStreamServer(new FrameStreamServer.Config().setPort(streamPort));
+            try {
+                streamServer.start();
+            } catch (IOException e) {
+                AppLog.e(TAG, "stream server failed to start on port " + streamPort, e);
+                streamServer.close();
+                streamServer = null;
+            }
+        }
+
         log("Initializing…");
 
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
@@ -98,7 +227,7 @@ public class MainActivity extends AppCompatActivity {
 
     private void log(String msg) {
         runOnUiThread(() -> debugText.setText(msg));
-        System.out.println("APP_DEBUG: " + msg);
+        AppLog.i(TAG, msg);
     }
 
     private void startCameraThread() {
@@ -115,7 +244,9 @@ public class MainActivity extends AppCompatActivity {
                 openCamera();
             }
 
-            @Override public void onSurfaceTextureSizeChanged(SurfaceTexture s, int w, int h) {}
+            @Override public void onSurfaceTextureSizeChanged(SurfaceTexture s, int w, int h) {
+                renderer.redraw();
+            }
             @Override public boolean onSurfaceTextureDestroyed(SurfaceTexture s) { return false; }
 
             @Override
@@ -140,121 +271,29 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
 
-            // Choose a preview size (we take the first available; for speed choose a smaller one if needed)
-            previewSize = map.getOutputSizes(SurfaceTexture.class)[0];
-
-            // --- Initialize ImageReader to capture frames in YUV format ---
-            imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(),
-                     ImageFormat.YUV_420_888, 2);
-
-            imageReader.setOnImageAvailableListener(reader -> {
-                Image image = null;
-                try {
-                    image = reader.acquireLatestImage();
-                    if (image == null) {
-                        System.out.println("APP_DEBUG: image == null");
-                        return;
-                    }
-
-                    // Extract Y plane (luminance) into contiguous byte[]
-                    Image.Plane yPlane = image.getPlanes()[0];
-                    ByteBuffer buffer = yPlane.getBuffer();
-                    int rowStride = yPlane.getRowStride();
-                    int pixelStride = yPlane.getPixelStride();
-
-                    int width = previewSize.getWidth();
-                    int height = previewSize.getHeight();
-                    byte[] yBytes = new byte[width * height];
-
-                    if (rowStride == width && pixelStride == 1) {
-                        // fast path: contiguous
-                        buffer.get(yBytes, 0, yBytes.length);
-                    } else {
-                        // safe path: copy row by row
-                        byte[] row = new byte[rowStride];
-                        for (int r = 0; r < height; ++r) {
-                            buffer.get(row, 0, rowStride);
-                            System.arraycopy(row, 0, yBytes, r * width, width);
-                        }
-                    }
-
-                    // Try native processing
-                    byte[] processed = null;
-                    try {
-                        processed = FrameProcessor.processGrayFrame(yBytes, width, height);
-                        System.out.println("APP_DEBUG: native processed returned " + (processed == null ? "null" : processed.length + " bytes"));
-                    } catch (Throwable t) {
-                        t.printStackTrace();
-                        System.out.println("APP_DEBUG: native processing threw: " + t.getClass().getSimpleName() + " - " + t.getMessage());
-                    }
-
-                    // Helper to convert grayscale byte[] -> Bitmap
-                    java.util.function.Function<byte[], Bitmap> toBitmap = (bytes) -> {
-                        Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                        int[] pixels = new int[bytes.length];
-                        for (int i = 0; i < bytes.length; i++) {
-                            int v = bytes[i] & 0xFF;
-                            pixels[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
-                        }
-                        bmp.setPixels(pixels, 0, width, 0, 0, width, height);
-                        return bmp;
-                    };
-
-                    // If native returned bytes, use them; otherwise we will optionally save raw Y plane
-                    Bitmap bmpToRender = null;
-                    if (processed != null && processed.length == width * height) {
-                        bmpToRender = toBitmap.apply(processed);
-                    } else {
-                        // If native failed, still convert raw Y-plane for display/debug/save
-                        bmpToRender = toBitmap.apply(yBytes);
-                    }
-
-                    // If requested, save this processed bitmap (once)
-                    if (saveNextProcessedFrame) {
-                        saveNextProcessedFrame = false;
-                        // If processed was null we will still save the Y-plane version (fallback)
-                        saveBitmapToFile(bmpToRender);
-                        System.out.println("APP_DEBUG: saveNextProcessedFrame triggered, saved fallback bitmap");
-                    }
-
-                    // Render to TextureView
-                    final Bitmap finalBmp = bmpToRender;
-                    runOnUiThread(() -> {
-                        if (cameraView.isAvailable()) {
-                            Canvas canvas = null;
-                            try {
-                                canvas = cameraView.lockCanvas();
-                                if (canvas != null) {
-                                    Rect dest = new Rect(0, 0, canvas.getWidth(), canvas.getHeight());
-                                    canvas.drawBitmap(finalBmp, null, dest, null);
-                                }
-                            } catch (Exception ex) {
-                                ex.printStackTrace();
-                            } finally {
-                                if (canvas != null) cameraView.unlockCanvasAndPost(canvas);
-                            }
-                        }
-                    });
-
-                    // FPS counting
-                    frameCount++;
-                    long now = SystemClock.elapsedRealtime();
-                    if (lastFpsTime == 0) lastFpsTime = now;
-                    if (now - lastFpsTime >= 1000) {
-                        currentFps = (frameCount * 1000f) / (now - lastFpsTime);
-                        frameCount = 0;
-                        lastFpsTime = now;
-                        final float f = currentFps;
-                        runOnUiThread(() -> debugText.setText(String.format("FPS: %.1f", f)));
-                    }
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    System.out.println("APP_DEBUG: listener exception: " + e.getClass().getSimpleName() + " - " + e.getMessage());
-                } finally {
-                    if (image != null) image.close();
+            Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            sensorClockIsRealtime = timestampSource != null
+                    && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+
+            // Capture size comes from the governor, which starts at ~720p and adapts to what
+            // this device can process within the frame budget
+            ResolutionGovernor governor = session.getGovernor();
+            if (governor == null) {
+                Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+                int[][] candidates = new int[sizes.length][];
+                for (int i = 0; i < sizes.length; i++) {
+                    candidates[i] = new int[]{sizes[i].getWidth(), sizes[i].getHeight()};
                 }
-            }, cameraHandler);
+                governor = new ResolutionGovernor(candidates, new ResolutionGovernor.Config());
+                // a new capture size restarts the camera session (a new divisor needs nothing here)
+                session.setGovernor(governor, (w, h) -> {
+                    Handler handler = cameraHandler;
+                    if (handler != null) handler.post(() -> reconfigureCapture(w, h));
+                });
+            }
+            ResolutionGovernor.Level level = governor.current();
+            previewSize = new Size(level.captureWidth, level.captureHeight);
+            createImageReader();
 
             if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
                     != PackageManager.PERMISSION_GRANTED) return;
@@ -265,6 +304,7 @@ public class MainActivity extends AppCompatActivity {
                 @Override
                 public void onOpened(CameraDevice camera) {
                     cameraDevice = camera;
+                    startup.mark(StartupTimeline.Milestone.CAMERA_OPENED);
                     log("Camera opened");
                     startPreview();
                 }
@@ -288,6 +328,208 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    // YUV reader at previewSize; frames go into the session from the camera thread
+    private void createImageReader() {
+        imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(),
+                ImageFormat.YUV_420_888, 2);
+
+        imageReader.setOnImageAvailableListener(reader -> {
+            Image image = null;
+            // pooled frame until submit() takes it over; handed back if anything fails before
+            Frame frame = null;
+            try {
+                image = reader.acquireLatestImage();
+                // nothing newer than what we already took
+                if (image == null) return;
+                long acquired = FrameMetrics.now();
+                startup.mark(StartupTimeline.Milestone.FIRST_FRAME, acquired);
+
+                // Acquire stage: copy the Y plane into a pooled frame and give the image
+                // straight back to the camera; everything else happens on the session's thread
+                Image.Plane yPlane = image.getPlanes()[0];
+                // the image's own size: previewSize may already be the next reader's
+                frame = session.acquireFrame(image.getWidth(), image.getHeight());
+                frame.timestampNs = image.getTimestamp();
+                frame.marks[FrameMetrics.ACQUIRED] = acquired;
+                if (sensorClockIsRealtime) {
+                    // shift the sensor timestamp onto the nanoTime clock the other marks use
+                    frame.marks[FrameMetrics.SENSOR] = frame.timestampNs
+                            - (SystemClock.elapsedRealtimeNanos() - acquired);
+                }
+                frame.copyFrom(yPlane.getBuffer(), yPlane.getRowStride(), yPlane.getPixelStride());
+                if (session.wantsChroma()) {
+                    // the overlay shows the camera in colour: chroma comes along too
+                    Image.Plane uPlane = image.getPlanes()[1];
+                    Image.Plane vPlane = image.getPlanes()[2];
+                    frame.copyChromaFrom(uPlane.getBuffer(), vPlane.getBuffer(),
+                            uPlane.getRowStride(), uPlane.getPixelStride());
+                }
+                if (recordFramesLeft > 0) recordFrame(frame);
+                Frame submitted = frame;
+                frame = null;
+                session.submit(submitted);
+
+            } catch (Exception e) {
+                if (frame != null) session.release(frame);
+                session.getMetrics().recordError();
+                AppLog.e(TAG, "image listener failed", e);
+            } finally {
+                if (image != null) image.close();
+            }
+        }, cameraHandler);
+    }
+
+    // Camera thread: appends the packed plane to the recording, opened on the first frame with
+    // room for every frame left at the current size. A larger capture size later on (the
+    // governor) fills it early, which ends the recording.
+    private void recordFrame(Frame frame) {
+        try {
+            if (recorder == null) {
+                File dir = getExternalFilesDir("recordings");
+                if (dir == null) dir = new File(getFilesDir(), "recordings");
+                if (!dir.exists()) dir.mkdirs();
+                long capacity = Math.min(Integer.MAX_VALUE,
+                        FrameRecorder.capacityFor(frame.width, frame.height, frame.width, recordFramesLeft));
+                recorder = new FrameRecorder(new File(dir, "frames_" + System.currentTimeMillis() + ".flrec"), capacity);
+                log("Recording " + recordFramesLeft + " frames");
+            }
+            if (recorder.append(frame.gray, frame.width, frame.height, frame.width, 1, frame.timestampNs)) {
+                recordFramesLeft--;
+            } else {
+                recordFramesLeft = 0;
+            }
+            if (recordFramesLeft == 0) finishRecording();
+        } catch (IOException e) {
+            AppLog.e(TAG, "recording failed", e);
+            recordFramesLeft = 0;
+            finishRecording();
+        }
+    }
+
+    private void finishRecording() {
+        if (recorder == null) return;
+        try {
+            recorder.close();
+            log("Recorded " + recorder.frameCount() + " frames to " + recorder.getFile());
+        } catch (IOException e) {
+            AppLog.e(TAG, "closing the recording failed", e);
+        }
+        recorder = null;
+    }
+
+    // Camera thread: restarts the capture session at the governor's new capture size
+    private void reconfigureCapture(int width, int height) {
+        if (cameraDevice == null || previewSize == null) return;
+        if (previewSize.getWidth() == width && previewSize.getHeight() == height) return;
+        log("Capture size " + width + "x" + height);
+        if (cameraSession != null) {
+            cameraSession.close();
+            cameraSession = null;
+        }
+        if (imageReader != null) {
+            imageReader.close();
+        }
+        previewSize = new Size(width, height);
+        createImageReader();
+        startPreview();
+    }
+
+    private void startPipeline() {
+        session.start();
+
+        File metricsDir = getExternalFilesDir(null);
+        if (metricsDir == null) metricsDir = getFilesDir();
+        metricsExporter = new MetricsExporter(session.getMetrics(), new File(metricsDir, "metrics.jsonl"),
+                METRICS_EXPORT_PERIOD_MS, METRICS_FILE_MAX_BYTES);
+        metricsExporter.addSection("governor", () -> {
+            ResolutionGovernor g = session.getGovernor();
+            return g == null ? "null" : g.getStats().toJson();
+        });
+        metricsExporter.addSection("render", () -> renderer.getStats().toJson());
+        metricsExporter.addSection("saves", () -> saveService.getStats().toJson());
+        metricsExporter.addSection("stream", () -> {
+            FrameStreamServer stream = streamServer;
+            return stream == null ? "null" : stream.getStats().toJson();
+        });
+        metricsExporter.addSection("startup", () -> {
+            NativeLoader.Result loaded = nativeLoader.getResult();
+            return "{\"timeline\":" + startup.toJson() + ",\"nativeLoader\":"
+                    + (loaded == null ? "null" : loaded.toJson()) + "}";
+        });
+        metricsExporter.addSection("incremental", () -> {
+            FrameProcessor.IncrementalStats stats = session.getIncrementalStats();
+            return "{\"tileSize\":" + INCREMENTAL_TILE_SIZE + ",\"threshold\":" + CHANGE_THRESHOLD
+                    + ",\"stats\":" + (stats == null ? "null" : stats.toJson()) + "}";
+        });
+        metricsExporter.start();
+    }
+
+    private void stopPipeline() {
+        // queued frames are dropped, the processor is released
+        session.stop();
+        if (metricsExporter != null) {
+            metricsExporter.close();
+            AppLog.i(TAG, "session metrics: " + session.getMetrics().snapshot());
+            metricsExporter = null;
+        }
+    }
+
+    // Session sink, on its process thread: hands the finished bitmap's pixels to the stream
+    // server's encoder
+    private void streamFrame(FrameStreamServer stream, Frame frame, Bitmap bmp) {
+        int bytes = bmp.getByteCount();
+        if (streamPixels == null || streamPixels.capacity() != bytes) streamPixels = ByteBuffer.allocateDirect(bytes);
+        streamPixels.clear();
+        bmp.copyPixelsToBuffer(streamPixels);
+        long captured = frame.marks[FrameMetrics.SENSOR] != 0
+                ? frame.marks[FrameMetrics.SENSOR] : frame.marks[FrameMetrics.ACQUIRED];
+        stream.publish(streamPixels, bmp.getWidth(), bmp.getHeight(), FrameStreamServer.PixelFormat.RGBA8888,
+                frame.timestampNs, captured);
+    }
+
+    // Session sink, on its process thread, with the frame's marks recorded
+    private void presentFrame(Frame frame) {
+        FrameStreamServer stream = streamServer;
+        if (stream != null && frame.processedOk && stream.wantsFrame()) {
+            try {
+                streamFrame(stream, frame, (Bitmap) frame.attachment);
+            } catch (RuntimeException e) {
+                // the sink must not throw: the frame still goes to the screen
+                session.getMetrics().recordError();
+                AppLog.w(TAG, "stream copy failed", e);
+            }
+        }
+
+        // drawn at the next vsync unless a newer frame gets there first; the frame stays out of
+        // the pools until the renderer is done with it
+        renderer.present(frame);
+
+        // FPS counting
+        frameCount++;
+        long now = SystemClock.elapsedRealtime();
+        if (lastFpsTime == 0) lastFpsTime = now;
+        if (now - lastFpsTime >= 1000) {
+            currentFps = (frameCount * 1000f) / (now - lastFpsTime);
+            frameCount = 0;
+            lastFpsTime = now;
+            final float f = currentFps;
+            final FrameMetrics.Snapshot snapshot = session.getMetrics().snapshot();
+            final FrameMetrics.StageLatency total = snapshot.stage("total");
+            final BufferPool.Stats frameStats = session.getFramePoolStats();
+            final FrameProcessor.Backend engine = session.getBackend();
+            final ResolutionGovernor g = session.getGovernor();
+            final String resolution = g != null ? g.current().toString() : "-";
+            final FrameProcessor.IncrementalStats incremental = session.getIncrementalStats();
+            final double reprocessed = incremental != null ? incremental.reprocessedRatio() * 100 : 100;
+            final FrameRenderer.Stats render = renderer.getStats();
+            runOnUiThread(() -> debugText.setText(String.format(
+                    "FPS: %.1f [%s %s]  latency p50/p99: %.1f/%.1f ms  display p50: %.1f ms  reprocessed: %.0f%%  dropped: %d  skipped: %d  errors: %d  frame pool: %d hit / %d miss / %d out",
+                    f, engine, resolution, total.p50 / 1e6, total.p99 / 1e6, render.display.p50 / 1e6, reprocessed,
+                    snapshot.drops, render.skipped, snapshot.errors,
+                    frameStats.hits, frameStats.misses, frameStats.outstanding)));
+        }
+    }
+
     private void startPreview() {
         try {
             if (cameraDevice == null) {
@@ -300,25 +542,25 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
 
+            // the renderer draws into the view at capture size and the compositor scales it
             SurfaceTexture surfaceTexture = cameraView.getSurfaceTexture();
             surfaceTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
-            Surface previewSurface = new Surface(surfaceTexture);
 
             CaptureRequest.Builder builder =
                     cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
 
-            builder.addTarget(previewSurface);
             builder.set(CaptureRequest.CONTROL_AF_MODE,
                     CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
 
             log("Starting preview…");
 
-            // include both preview and imageReader surfaces
+            // The camera only feeds the image reader: the view's surface belongs to the renderer
+            // (a second producer on it would fight the processed frames)
             Surface imageSurface = (imageReader != null) ? imageReader.getSurface() : null;
 
             if (imageSurface != null) {
                 cameraDevice.createCaptureSession(
-                        Arrays.asList(previewSurface, imageSurface),
+                        Arrays.asList(imageSurface),
                         new CameraCaptureSession.StateCallback() {
 
                             @Override
@@ -344,7 +586,9 @@ public class MainActivity extends AppCompatActivity {
                         cameraHandler
                 );
             } else {
-                // fallback: only preview surface
+                // fallback: only preview surface, straight into the view
+                Surface previewSurface = new Surface(surfaceTexture);
+                builder.addTarget(previewSurface);
                 cameraDevice.createCaptureSession(
                         Arrays.asList(previewSurface),
                         new CameraCaptureSession.StateCallback() {
@@ -381,11 +625,28 @@ public class MainActivity extends AppCompatActivity {
         super.onPause();
         closeCamera();
         stopCameraThread();
+        // no more frames come in: the session stops and releases its processor
+        stopPipeline();
+        // nothing publishes any more: the frames it holds go back to the pools
+        renderer.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // reports (and logs) any buffer the frame path never handed back
+        session.close();
+        bitmapOutput.close();
+        // captures already queued are still written
+        saveService.close();
+        if (streamServer != null) streamServer.close();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
+        renderer.start();
+        startPipeline();
         startCameraThread();
         if (cameraView.isAvailable()) {
             openCamera();
@@ -419,75 +680,59 @@ public class MainActivity extends AppCompatActivity {
                 cameraThread = null;
                 cameraHandler = null;
             }
+            // the camera thread is gone: a recording cut short by pausing ends here
+            if (recorder != null) {
+                recordFramesLeft = 0;
+                finishRecording();
+            }
         } catch (Exception ignored) {}
     }
 
-    // -------------------------
-    // Helper: save bitmap to file
-    // -------------------------
-    // -------------------------
-// Helper: save bitmap to MediaStore Pictures/Flamapp (visible in Gallery)
-// -------------------------
-private void saveBitmapToFile(Bitmap bmp) {
-    new Thread(() -> {
-        try {
-            String fname = "processed_" + System.currentTimeMillis() + ".png";
-
-            // Prepare values for MediaStore insert
-            ContentValues values = new ContentValues();
-            values.put(MediaStore.Images.Media.DISPLAY_NAME, fname);
-            values.put(MediaStore.Images.Media.MIME_TYPE, "image/png");
-
-            // For Android Q+ we can use RELATIVE_PATH so it appears under Pictures/Flamapp
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
-                values.put(MediaStore.Images.Media.RELATIVE_PATH, "Pictures/Flamapp");
-            } else {
-                // For older devices use the public Pictures directory (requires WRITE_EXTERNAL_STORAGE)
-                File pictures = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
-                File folder = new File(pictures, "Flamapp");
-                if (!folder.exists()) folder.mkdirs();
-                File outFile = new File(folder, fname);
-                try (OutputStream os = new FileOutputStream(outFile)) {
-                    if (!bmp.compress(Bitmap.CompressFormat.PNG, 100, os)) throw new Exception("compress false");
-                }
-                final String msg = "Saved: " + outFile.getAbsolutePath();
-                System.out.println("APP_DEBUG: " + msg);
-                runOnUiThread(() -> {
-                    Toast.makeText(this, msg, Toast.LENGTH_LONG).show();
-                    debugText.setText(msg);
-                });
-                return;
-            }
-
-            // Insert into MediaStore and write
-            ContentResolver resolver = getContentResolver();
-            Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
-            if (uri == null) throw new Exception("MediaStore insert returned null");
+    // Save service storage: MediaStore Pictures/Flamapp (visible in Gallery), or the public
+    // Pictures directory before Android Q
+    private OutputStream openPictureStream(String name, FrameSaveService.Format format) throws IOException {
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.Q) {
+            // requires WRITE_EXTERNAL_STORAGE
+            File pictures = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
+            File folder = new File(pictures, "Flamapp");
+            if (!folder.exists()) folder.mkdirs();
+            return new FileOutputStream(new File(folder, name));
+        }
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, name);
+        values.put(MediaStore.Images.Media.MIME_TYPE, format.mimeType);
+        values.put(MediaStore.Images.Media.RELATIVE_PATH, "Pictures/Flamapp");
+        ContentResolver resolver = getContentResolver();
+        Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) throw new IOException("MediaStore insert returned null");
+        OutputStream os = resolver.openOutputStream(uri);
+        if (os == null) throw new IOException("openOutputStream returned null");
+        return os;
+    }
 
-            try (OutputStream os = resolver.openOutputStream(uri)) {
-                if (os == null) throw new Exception("openOutputStream returned null");
-                boolean ok = bmp.compress(Bitmap.CompressFormat.PNG, 100, os);
-                os.flush();
-                if (!ok) throw new Exception("Bitmap.compress returned false");
+    // JPEG for the save service through the platform encoder (PNG has its own)
+    private static void encodeJpeg(ByteBuffer rgba, int width, int height, int quality, OutputStream out)
+            throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        try {
+            bitmap.copyPixelsFromBuffer(rgba);
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                throw new IOException("Bitmap.compress returned false");
             }
-
-            final String msg = "Saved to Gallery: " + uri.toString();
-            System.out.println("APP_DEBUG: " + msg);
-            runOnUiThread(() -> {
-                Toast.makeText(this, msg, Toast.LENGTH_LONG).show();
-                debugText.setText(msg);
-            });
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            final String err = "Save failed: " + e.getClass().getSimpleName() + " - " + e.getMessage();
-            System.out.println("APP_DEBUG: " + err);
-            runOnUiThread(() -> {
-                Toast.makeText(this, err, Toast.LENGTH_LONG).show();
-                debugText.setText(err);
-            });
+        } finally {
+            bitmap.recycle();
         }
-    }).start();
- }
+    }
 
+    // Save service worker, after each batch
+    private void onFramesSaved(int saved, int failed, String lastName) {
+        final String msg = failed > 0
+                ? "Save failed for " + failed + " frame(s)" + (saved > 0 ? ", saved " + saved : "")
+                : "Saved " + saved + " frame(s) to Pictures/Flamapp: " + lastName;
+        AppLog.i(TAG, msg + " (" + saveService.getStats() + ")");
+        runOnUiThread(() -> {
+            Toast.makeText(this, msg, Toast.LENGTH_LONG).show();
+            debugText.setText(msg);
+        });
+    }
 }
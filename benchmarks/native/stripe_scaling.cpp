@@ -0,0 +1,142 @@
+// Scaling of striped native processing from 1 to N threads, on a Linux host build (see
+// CMakeLists.txt). For every chain and thread count it times FrameContext::process over
+// synthetic frames and checks each output against the single-threaded one, byte for byte;
+// exits 1 on the first mismatch.
+//
+//   stripe_scaling [width height frames maxThreads] [--pin]
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <string>
+#include <thread>
+#include <vector>
+
+#include <opencv2/core.hpp>
+#include <opencv2/imgproc.hpp>
+
+#include "frame_context.h"
+
+using flamapp::FilterStep;
+using flamapp::FrameContext;
+
+namespace {
+
+constexpr int kVariants = 4;   // distinct frames, cycled
+constexpr int kWarmUpFrames = 10;
+
+FilterStep step(int op, double p0 = 0, double p1 = 0, double p2 = 0, double p3 = 0) {
+    FilterStep s;
+    s.op = op;
+    s.p[0] = p0;
+    s.p[1] = p1;
+    s.p[2] = p2;
+    s.p[3] = p3;
+    return s;
+}
+
+struct Chain {
+    const char* name;
+    std::vector<FilterStep> steps;
+};
+
+std::vector<Chain> chains() {
+    return {
+            {"blur3+canny", flamapp::defaultSteps()},
+            {"blur5+close5+sobel+dilate3x2",
+             {step(flamapp::OP_GAUSSIAN_BLUR, 5), step(flamapp::OP_MORPH_CLOSE, 5, 1, cv::MORPH_RECT),
+              step(flamapp::OP_SOBEL, 1, 0, 3, 1), step(flamapp::OP_DILATE, 3, 2, cv::MORPH_RECT)}},
+            {"equalize+blur3+canny",
+             {step(flamapp::OP_EQUALIZE_HIST), step(flamapp::OP_GAUSSIAN_BLUR, 3),
+              step(flamapp::OP_CANNY, 30, 90)}},
+    };
+}
+
+// Bars and a diagonal gradient under noise, shifted per variant: edges everywhere, weak ones
+// included, so hysteresis has chains to follow across stripe boundaries
+std::vector<uint8_t> plane(int width, int height, int variant) {
+    std::vector<uint8_t> pixels(static_cast<size_t>(width) * height);
+    uint32_t seed = 0x9E3779B9u * (variant + 1);
+    for (int y = 0; y < height; ++y) {
+        for (int x = 0; x < width; ++x) {
+            seed = seed * 1664525u + 1013904223u;
+            const int bars = (((x + variant * 7) / 24) & 1) ? 180 : 60;
+            const int v = bars + ((x + y) & 63) - 32 + static_cast<int>(seed >> 27) - 16;
+            pixels[static_cast<size_t>(y) * width + x] = static_cast<uint8_t>(std::min(255, std::max(0, v)));
+        }
+    }
+    return pixels;
+}
+
+double millisSince(std::chrono::steady_clock::time_point start) {
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - start).count();
+}
+
+}  // namespace
+
+int main(int argc, char** argv) {
+    bool pin = false;
+    std::vector<int> args;
+    for (int i = 1; i < argc; ++i) {
+        if (std::strcmp(argv[i], "--pin") == 0) {
+            pin = true;
+        } else {
+            args.push_back(std::atoi(argv[i]));
+        }
+    }
+    const int width = args.size() > 0 ? args[0] : 1280;
+    const int height = args.size() > 1 ? args[1] : 720;
+    const int frames = args.size() > 2 ? args[2] : 200;
+    const int maxThreads = args.size() > 3 ? args[3] : std::max(1u, std::thread::hardware_concurrency());
+
+    // OpenCV's own parallel loops (inside Canny) would blur what this pool contributes
+    cv::setNumThreads(1);
+
+    std::vector<std::vector<uint8_t>> inputs;
+    for (int v = 0; v < kVariants; ++v) inputs.push_back(plane(width, height, v));
+
+    std::printf("%dx%d, %d frames, big cores:", width, height, frames);
+    const std::vector<int> big = flamapp::WorkerPool::bigCores();
+    if (big.empty()) std::printf(" (all alike)");
+    for (int cpu : big) std::printf(" %d", cpu);
+    std::printf("%s\n", pin ? ", pinned" : "");
+
+    for (const Chain& chain : chains()) {
+        FrameContext ctx(width, height, chain.steps);
+        const size_t outBytes = static_cast<size_t>(ctx.outputWidth()) * ctx.outputHeight();
+        std::vector<std::vector<uint8_t>> expected(kVariants, std::vector<uint8_t>(outBytes));
+        for (int v = 0; v < kVariants; ++v) ctx.process(inputs[v].data(), width, 1, expected[v].data());
+
+        std::printf("\n%s\n%8s %10s %8s %8s %10s\n", chain.name, "threads", "ms/frame", "fps", "speedup",
+                    "efficiency");
+        std::vector<uint8_t> out(outBytes);
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; ++threads) {
+            ctx.setThreads(threads, pin);
+            for (int i = 0; i < kWarmUpFrames; ++i) ctx.process(inputs[i % kVariants].data(), width, 1, out.data());
+
+            double total = 0;
+            for (int i = 0; i < frames; ++i) {
+                const int v = i % kVariants;
+                const auto start = std::chrono::steady_clock::now();
+                if (!ctx.process(inputs[v].data(), width, 1, out.data())) {
+                    std::fprintf(stderr, "process failed at %d threads\n", threads);
+                    return 1;
+                }
+                total += millisSince(start);
+                if (std::memcmp(out.data(), expected[v].data(), outBytes) != 0) {
+                    std::fprintf(stderr, "%s: output at %d threads differs from 1 thread\n", chain.name, threads);
+                    return 1;
+                }
+            }
+            const double perFrame = total / frames;
+            if (threads == 1) baseline = perFrame;
+            const double speedup = baseline / perFrame;
+            std::printf("%8d %10.3f %8.1f %8.2f %9.0f%%\n", ctx.threads(), perFrame, 1000 / perFrame, speedup,
+                        100 * speedup / threads);
+        }
+    }
+    return 0;
+}
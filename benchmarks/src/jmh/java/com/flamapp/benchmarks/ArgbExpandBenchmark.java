@@ -0,0 +1,84 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.ColorOutput;
+import com.flamapp.FilterChain;
+import com.flamapp.Frame;
+import com.flamapp.FrameProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Gray -> ARGB_8888 expansion before Bitmap.setPixels: Frame.toArgb into the frame's pooled
+// int[] against the original toBitmap loop, which allocated the pixel array every frame, and
+// against the Java backend's colour pass writing bitmap-layout pixels (empty filter chain).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ArgbExpandBenchmark {
+
+    @Param({SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD, SyntheticFrames.UHD})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private ByteBuffer plane;
+    private byte[] bytes;
+    private Frame frame;
+    private FrameProcessor processor;
+    private ByteBuffer pixels;
+
+    @Setup
+    public void setUp() {
+        width = SyntheticFrames.width(resolution);
+        height = SyntheticFrames.height(resolution);
+        plane = SyntheticFrames.plane(width, height, width);
+        bytes = SyntheticFrames.packedBytes(width, height);
+        frame = new Frame(width, height);
+        processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setJavaPool(null)
+                .setFilterChain(new FilterChain())
+                .setColorOutput(ColorOutput.gray()));
+        pixels = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.close();
+    }
+
+    @Benchmark
+    public int[] frameToArgb(PixelCounter counter) {
+        frame.toArgb(plane);
+        counter.pixels += (long) width * height;
+        return frame.argb;
+    }
+
+    @Benchmark
+    public ByteBuffer javaPixelOutput(PixelCounter counter) {
+        processor.processToPixels(plane, width, 1, pixels);
+        counter.pixels += (long) width * height;
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] legacyToBitmapLoop(PixelCounter counter) {
+        int[] pixels = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            pixels[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
+        }
+        counter.pixels += (long) width * height;
+        return pixels;
+    }
+}
@@ -0,0 +1,102 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.EdgeMap;
+import com.flamapp.FilterChain;
+import com.flamapp.FrameProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// 1-bit edge maps against the 0/255 byte plane they replace, on real Canny output of two
+// consecutive synthetic frames: packing, expansion back to a plane / ARGB, the RLE encoding,
+// and counting changed pixels between frames (words + popcount vs a byte loop).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EdgeMapBenchmark {
+
+    @Param({SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private ByteBuffer edges;
+    private ByteBuffer previousEdges;
+    private ByteBuffer plane;
+    private EdgeMap map;
+    private EdgeMap previous;
+    private int[] argb;
+    private byte[] rle;
+
+    @Setup
+    public void setUp() {
+        width = SyntheticFrames.width(resolution);
+        height = SyntheticFrames.height(resolution);
+        edges = FrameProcessor.allocateOutput(width, height);
+        previousEdges = FrameProcessor.allocateOutput(width, height);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setJavaPool(null)
+                .setFilterChain(FilterChain.defaultEdges()))) {
+            processor.process(SyntheticFrames.plane(width, height, width, 1), width, 1, edges);
+            processor.process(SyntheticFrames.plane(width, height, width, 0), width, 1, previousEdges);
+        }
+        map = EdgeMap.fromPlane(edges, width, height, width);
+        previous = EdgeMap.fromPlane(previousEdges, width, height, width);
+        plane = FrameProcessor.allocateOutput(width, height);
+        argb = new int[width * height];
+        rle = new byte[map.maxRleBytes()];
+    }
+
+    @Benchmark
+    public EdgeMap pack(PixelCounter counter) {
+        map.pack(edges, width);
+        counter.pixels += (long) width * height;
+        return map;
+    }
+
+    @Benchmark
+    public ByteBuffer unpack(PixelCounter counter) {
+        map.unpack(plane, width);
+        counter.pixels += (long) width * height;
+        return plane;
+    }
+
+    @Benchmark
+    public int[] expandToArgb(PixelCounter counter) {
+        map.expandToArgb(argb, 0xFFFFFFFF, 0xFF000000);
+        counter.pixels += (long) width * height;
+        return argb;
+    }
+
+    @Benchmark
+    public int writeRle(PixelCounter counter) {
+        counter.pixels += (long) width * height;
+        return map.writeRle(rle, 0);
+    }
+
+    @Benchmark
+    public long countDifferences(PixelCounter counter) {
+        counter.pixels += (long) width * height;
+        return map.countDifferences(previous);
+    }
+
+    @Benchmark
+    public long countDifferencesBytePlane(PixelCounter counter) {
+        long count = 0;
+        for (int i = 0, n = width * height; i < n; i++) {
+            if (edges.get(i) != previousEdges.get(i)) count++;
+        }
+        counter.pixels += (long) width * height;
+        return count;
+    }
+}
@@ -0,0 +1,49 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.FrameMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of the per-frame instrumentation: recording one frame's marks into the stage
+// histograms, uncontended and with every stage thread recording at once.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameMetricsBenchmark {
+
+    private final FrameMetrics metrics = new FrameMetrics();
+
+    @State(Scope.Thread)
+    public static class Marks {
+        final long[] marks = new long[FrameMetrics.MARK_COUNT];
+        long jitter;
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < marks.length; i++) marks[i] = 1_000_000_000L + i * 3_000_000L;
+        }
+    }
+
+    @Benchmark
+    public void recordFrame(Marks marks) {
+        // vary the last interval so the samples don't all hit one bucket
+        marks.marks[FrameMetrics.RENDER_POSTED] += (++marks.jitter & 1023) - 511;
+        metrics.recordFrame(marks.marks);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordFrameContended(Marks marks) {
+        marks.marks[FrameMetrics.RENDER_POSTED] += (++marks.jitter & 1023) - 511;
+        metrics.recordFrame(marks.marks);
+    }
+}
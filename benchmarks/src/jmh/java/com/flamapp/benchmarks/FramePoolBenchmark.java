@@ -0,0 +1,59 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.BufferPool;
+import com.flamapp.Frame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Getting the buffers for one frame: a BufferPool round trip against allocating them fresh
+// (two direct planes plus the ARGB array, as the pre-pool code did every frame).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FramePoolBenchmark {
+
+    @Param({SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD, SyntheticFrames.UHD})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private BufferPool<Frame> pool;
+
+    @Setup
+    public void setUp() {
+        width = SyntheticFrames.width(resolution);
+        height = SyntheticFrames.height(resolution);
+        pool = Frame.newPool(4);
+        pool.release(pool.acquire(width, height));
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public void pooledFrame(Blackhole blackhole, PixelCounter counter) {
+        Frame frame = pool.acquire(width, height);
+        blackhole.consume(frame);
+        pool.release(frame);
+        counter.pixels += (long) width * height;
+    }
+
+    @Benchmark
+    public Frame freshFrame(PixelCounter counter) {
+        counter.pixels += (long) width * height;
+        return new Frame(width, height);
+    }
+}
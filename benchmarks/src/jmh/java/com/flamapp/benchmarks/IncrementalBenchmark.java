@@ -0,0 +1,96 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.FilterChain;
+import com.flamapp.FrameProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Incremental processing (FrameProcessor.setIncremental) against full reruns, Java backend, serial.
+//   static:   one scene, fresh sensor noise every frame
+//   moving:   the same with a 96x96 block sliding across it
+//   changing: two unrelated scenes alternating, the worst case (detection on top of full runs)
+// Every invocation copies its frame into the input first, in both modes.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IncrementalBenchmark {
+
+    private static final int NOISE_FRAMES = 4;
+    private static final int BLOCK = 96;
+
+    @Param({SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD})
+    public String resolution;
+
+    @Param({"static", "moving", "changing"})
+    public String scene;
+
+    @Param({"full", "incremental"})
+    public String mode;
+
+    private int width;
+    private int height;
+    private int rowStride;
+    private ByteBuffer[] frames;
+    private ByteBuffer input;
+    private ByteBuffer output;
+    private FrameProcessor processor;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        width = SyntheticFrames.width(resolution);
+        height = SyntheticFrames.height(resolution);
+        rowStride = SyntheticFrames.paddedStride(width);
+        frames = new ByteBuffer[NOISE_FRAMES];
+        for (int i = 0; i < NOISE_FRAMES; i++) {
+            frames[i] = SyntheticFrames.plane(width, height, rowStride, i);
+            if ("changing".equals(scene) && (i & 1) == 1) {
+                // negative of the scene: every tile differs
+                for (int p = 0; p < frames[i].capacity(); p++) frames[i].put(p, (byte) ~frames[i].get(p));
+            }
+        }
+        input = ByteBuffer.allocateDirect(frames[0].capacity());
+
+        FrameProcessor.Config config = new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setFilterChain(FilterChain.defaultEdges())
+                .setJavaPool(null);
+        if ("incremental".equals(mode)) config.setIncremental(32, 6);
+        processor = FrameProcessor.create(width, height, config);
+        output = FrameProcessor.allocateOutput(width, height);
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.close();
+    }
+
+    @Benchmark
+    public boolean process(PixelCounter counter) {
+        ByteBuffer source = frames[frame % NOISE_FRAMES];
+        source.clear();
+        input.clear();
+        input.put(source);
+        if ("moving".equals(scene)) {
+            int x0 = (frame * 8) % (width - BLOCK);
+            int y0 = height / 2 - BLOCK / 2;
+            for (int y = y0; y < y0 + BLOCK; y++) {
+                for (int x = x0; x < x0 + BLOCK; x++) input.put(y * rowStride + x, (byte) 250);
+            }
+        }
+        frame++;
+        counter.pixels += (long) width * height;
+        return processor.process(input, rowStride, 1, output);
+    }
+}
@@ -0,0 +1,75 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.FilterChain;
+import com.flamapp.FrameProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// The pure-Java backend through FrameProcessor, serial and split over the common pool.
+// The native backend needs the Android build of libnative-lib and is measured on device.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JavaEngineBenchmark {
+
+    @Param({SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD, SyntheticFrames.UHD})
+    public String resolution;
+
+    // edges: the default blur + Canny; morphology: Otsu threshold then open/close
+    @Param({"edges", "morphology"})
+    public String chain;
+
+    @Param({"serial", "parallel"})
+    public String threading;
+
+    private int width;
+    private int height;
+    private int rowStride;
+    private ByteBuffer plane;
+    private ByteBuffer output;
+    private FrameProcessor processor;
+
+    @Setup
+    public void setUp() {
+        width = SyntheticFrames.width(resolution);
+        height = SyntheticFrames.height(resolution);
+        rowStride = SyntheticFrames.paddedStride(width);
+        plane = SyntheticFrames.plane(width, height, rowStride);
+
+        FilterChain filters = "edges".equals(chain)
+                ? FilterChain.defaultEdges()
+                : new FilterChain()
+                        .threshold(0, 255, FilterChain.THRESH_BINARY | FilterChain.THRESH_OTSU)
+                        .morphOpen(3, FilterChain.MORPH_RECT)
+                        .morphClose(5, FilterChain.MORPH_RECT);
+        FrameProcessor.Config config = new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setFilterChain(filters)
+                .setJavaPool("parallel".equals(threading) ? ForkJoinPool.commonPool() : null);
+        processor = FrameProcessor.create(width, height, config);
+        output = FrameProcessor.allocateOutput(processor.getOutputWidth(), processor.getOutputHeight());
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.close();
+    }
+
+    @Benchmark
+    public boolean process(PixelCounter counter) {
+        counter.pixels += (long) width * height;
+        return processor.process(plane, rowStride, 1, output);
+    }
+}
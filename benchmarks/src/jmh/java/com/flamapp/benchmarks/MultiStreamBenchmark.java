@@ -0,0 +1,105 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.Frame;
+import com.flamapp.FrameProcessor;
+import com.flamapp.FrameScheduler;
+import com.flamapp.FrameSession;
+import com.flamapp.PixelBufferOutput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Aggregate throughput of N independent streams (a FrameSession each, Java backend, serial per
+// frame) sharing a FrameScheduler of K workers. Every invocation submits FRAMES_PER_STREAM frames
+// to each stream and waits until all of them are processed, so pixels/s is the rate of all
+// streams together. It should grow with workers up to min(streams, cores) and stay flat beyond:
+//   ./gradlew :benchmarks:jmh -Pjmh.includes=MultiStream
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MultiStreamBenchmark {
+
+    // fits each stream's queue, so nothing is dropped
+    private static final int FRAMES_PER_STREAM = 4;
+
+    @Param({SyntheticFrames.VGA, SyntheticFrames.HD})
+    public String resolution;
+
+    @Param({"1", "2", "4", "8"})
+    public int streams;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    private int width;
+    private int height;
+    private int rowStride;
+    private ByteBuffer[] planes;
+    private FrameScheduler scheduler;
+    private FrameSession[] sessions;
+    private PixelBufferOutput[] outputs;
+
+    @Setup
+    public void setUp() {
+        width = SyntheticFrames.width(resolution);
+        height = SyntheticFrames.height(resolution);
+        rowStride = SyntheticFrames.paddedStride(width);
+        scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(workers));
+        scheduler.start();
+        planes = new ByteBuffer[streams];
+        sessions = new FrameSession[streams];
+        outputs = new PixelBufferOutput[streams];
+        for (int i = 0; i < streams; i++) {
+            // a different picture per stream
+            planes[i] = SyntheticFrames.plane(width, height, rowStride, i);
+            outputs[i] = new PixelBufferOutput(FRAMES_PER_STREAM);
+            FrameSession[] self = new FrameSession[1];
+            sessions[i] = new FrameSession(new FrameSession.Config()
+                    .setName("Stream-" + i)
+                    .setBackend(FrameProcessor.Backend.JAVA)
+                    // one worker per frame: parallelism comes from the streams only
+                    .setJavaPool(null)
+                    .setQueueCapacity(FRAMES_PER_STREAM)
+                    .setFramePoolSize(FRAMES_PER_STREAM)
+                    .setScheduler(scheduler, null), outputs[i], frame -> self[0].release(frame));
+            self[0] = sessions[i];
+            sessions[i].start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (FrameSession session : sessions) {
+            if (session.getMetrics().snapshot().drops > 0) throw new IllegalStateException("Frames were dropped");
+            session.close();
+        }
+        for (PixelBufferOutput output : outputs) output.close();
+        scheduler.close();
+    }
+
+    @Benchmark
+    public void processRound(PixelCounter counter) {
+        for (int f = 0; f < FRAMES_PER_STREAM; f++) {
+            for (int i = 0; i < streams; i++) {
+                Frame frame = sessions[i].acquireFrame(width, height);
+                planes[i].clear();
+                frame.copyFrom(planes[i], rowStride, 1);
+                sessions[i].submit(frame);
+            }
+        }
+        for (FrameSession session : sessions) {
+            if (!session.awaitIdle(10_000)) throw new IllegalStateException("Stream stalled");
+        }
+        counter.pixels += (long) width * height * FRAMES_PER_STREAM * streams;
+    }
+}
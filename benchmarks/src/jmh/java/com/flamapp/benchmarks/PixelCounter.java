@@ -0,0 +1,20 @@
+package com.flamapp.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Pixels handled per second, reported next to ops/s as the "pixels" secondary metric.
+// ns/pixel is 1e9 / pixels; jmhReport prints it so resolutions can be compared directly.
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PixelCounter {
+    public long pixels;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        pixels = 0;
+    }
+}
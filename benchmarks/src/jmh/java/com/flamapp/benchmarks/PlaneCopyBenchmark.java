@@ -0,0 +1,73 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.Frame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Copying the camera's Y plane into the frame: Frame.copyFrom (what the pipeline does now)
+// against the original per-frame byte[] copy from MainActivity, for packed and padded planes.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlaneCopyBenchmark {
+
+    @Param({SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD, SyntheticFrames.UHD})
+    public String resolution;
+
+    // packed: rowStride == width (single bulk copy); padded: rowStride > width (row by row)
+    @Param({"packed", "padded"})
+    public String layout;
+
+    private int width;
+    private int height;
+    private int rowStride;
+    private ByteBuffer plane;
+    private Frame frame;
+
+    @Setup
+    public void setUp() {
+        width = SyntheticFrames.width(resolution);
+        height = SyntheticFrames.height(resolution);
+        rowStride = "packed".equals(layout) ? width : SyntheticFrames.paddedStride(width);
+        plane = SyntheticFrames.plane(width, height, rowStride);
+        frame = new Frame(width, height);
+    }
+
+    @Benchmark
+    public ByteBuffer copyIntoFrame(PixelCounter counter) {
+        plane.clear();
+        frame.copyFrom(plane, rowStride, 1);
+        counter.pixels += (long) width * height;
+        return frame.gray;
+    }
+
+    // The copy as it was before the pipeline: fresh arrays every frame, a heap bounce per row
+    @Benchmark
+    public byte[] legacyByteArrayCopy(PixelCounter counter) {
+        plane.clear();
+        byte[] yBytes = new byte[width * height];
+        if (rowStride == width) {
+            plane.get(yBytes, 0, yBytes.length);
+        } else {
+            byte[] row = new byte[rowStride];
+            for (int r = 0; r < height; ++r) {
+                // the last row of a real plane is not padded
+                int length = Math.min(rowStride, plane.remaining());
+                plane.get(row, 0, length);
+                System.arraycopy(row, 0, yBytes, r * width, width);
+            }
+        }
+        counter.pixels += (long) width * height;
+        return yBytes;
+    }
+}
@@ -0,0 +1,102 @@
+package com.flamapp.benchmarks;
+
+import com.flamapp.FilterChain;
+import com.flamapp.FrameProcessor;
+import com.flamapp.FrameRecorder;
+import com.flamapp.FrameReplaySource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Processes a recorded camera workload (FrameRecorder, pulled off a phone) frame by frame at
+// full speed, Java backend, serial: ops/s is frames/s on this machine.
+//   ./gradlew :benchmarks:jmh -Pjmh.includes=Replay -Pjmh.recording=path/to/frames_123.flrec
+// Without a recording it replays 60 synthetic HD frames so the benchmark always runs.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReplayBenchmark {
+
+    private static final int SYNTHETIC_FRAMES = 60;
+
+    private File synthetic;
+    private FrameReplaySource source;
+    // one processor per frame size in the recording (the governor changes capture sizes)
+    private final Map<Long, FrameProcessor> processors = new HashMap<>();
+    private FrameProcessor[] processorOf;
+    private ByteBuffer[] outputOf;
+    private int frame;
+
+    @Setup
+    public void setUp() throws IOException {
+        String recording = System.getProperty("flamapp.recording", "");
+        File file;
+        if (recording.isEmpty()) {
+            synthetic = File.createTempFile("replay", ".flrec");
+            synthetic.deleteOnExit();
+            recordSynthetic(synthetic);
+            file = synthetic;
+        } else {
+            file = new File(recording);
+        }
+        source = new FrameReplaySource(file);
+        if (source.frameCount() == 0) throw new IOException("Empty recording: " + file);
+
+        Map<Long, ByteBuffer> outputs = new HashMap<>();
+        processorOf = new FrameProcessor[source.frameCount()];
+        outputOf = new ByteBuffer[source.frameCount()];
+        for (int i = 0; i < source.frameCount(); i++) {
+            int width = source.width(i);
+            int height = source.height(i);
+            long size = ((long) width << 32) | height;
+            processorOf[i] = processors.computeIfAbsent(size, s -> FrameProcessor.create(width, height,
+                    new FrameProcessor.Config()
+                            .setBackend(FrameProcessor.Backend.JAVA)
+                            .setFilterChain(FilterChain.defaultEdges())
+                            .setJavaPool(null)));
+            outputOf[i] = outputs.computeIfAbsent(size, s -> FrameProcessor.allocateOutput(width, height));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        processors.values().forEach(FrameProcessor::close);
+        processors.clear();
+        source.close();
+        if (synthetic != null) synthetic.delete();
+    }
+
+    @Benchmark
+    public boolean process(PixelCounter counter) {
+        int i = frame;
+        frame = (frame + 1) % processorOf.length;
+        counter.pixels += (long) source.width(i) * source.height(i);
+        return processorOf[i].process(source.plane(i), source.rowStride(i), 1, outputOf[i]);
+    }
+
+    private static void recordSynthetic(File file) throws IOException {
+        int width = SyntheticFrames.width(SyntheticFrames.HD);
+        int height = SyntheticFrames.height(SyntheticFrames.HD);
+        int rowStride = SyntheticFrames.paddedStride(width);
+        try (FrameRecorder recorder = new FrameRecorder(file,
+                FrameRecorder.capacityFor(width, height, rowStride, SYNTHETIC_FRAMES))) {
+            for (int i = 0; i < SYNTHETIC_FRAMES; i++) {
+                ByteBuffer plane = SyntheticFrames.plane(width, height, rowStride, i);
+                recorder.append(plane, width, height, rowStride, 1, i * 33_333_333L);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.flamapp.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Deterministic stand-ins for camera planes: a gradient with edges and some sensor noise,
+// laid out with the row padding real Y planes tend to have.
+final class SyntheticFrames {
+
+    // The resolutions every frame benchmark runs at, from VGA to 4K UHD
+    static final String VGA = "640x480";
+    static final String HD = "1280x720";
+    static final String FULL_HD = "1920x1080";
+    static final String UHD = "3840x2160";
+
+    // Y planes are commonly padded to a 64-byte row alignment (or more)
+    static final int ROW_ALIGNMENT = 64;
+
+    private SyntheticFrames() {
+    }
+
+    static int width(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    static int height(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    // Row stride of a padded plane; always strictly wider than the frame so the strided path runs
+    static int paddedStride(int width) {
+        return (width / ROW_ALIGNMENT + 1) * ROW_ALIGNMENT;
+    }
+
+    // Direct buffer holding a width x height luminance plane with the given row stride
+    static ByteBuffer plane(int width, int height, int rowStride) {
+        return plane(width, height, rowStride, 42);
+    }
+
+    // Same scene, sensor noise drawn from the given seed (consecutive frames of a still camera)
+    static ByteBuffer plane(int width, int height, int rowStride, long noiseSeed) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * (height - 1) + width);
+        byte[] row = new byte[rowStride];
+        Random noise = new Random(noiseSeed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < rowStride; x++) {
+                int v = (x * 255 / width + y * 255 / height) / 2;
+                // a few hard-edged blocks so Canny has something to find
+                if (((x / 64) + (y / 64)) % 3 == 0) v = 255 - v;
+                v += noise.nextInt(9) - 4;
+                row[x] = (byte) Math.max(0, Math.min(255, v));
+            }
+            plane.put(row, 0, y == height - 1 ? width : rowStride);
+        }
+        plane.flip();
+        return plane;
+    }
+
+    // Same content as plane(), packed into a heap array (the pre-pipeline byte[] layout)
+    static byte[] packedBytes(int width, int height) {
+        ByteBuffer plane = plane(width, height, width);
+        byte[] bytes = new byte[width * height];
+        plane.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,99 @@
+package com.flamapp;
+
+// Levelled logging for the app and the pipeline classes.
+// Pure Java so host tests and benchmarks can use the same classes; MainActivity points the sink
+// at android.util.Log. Keep calls out of the per-frame path, or guard them with isLoggable()
+// so the message string is never built when the level is off.
+public final class AppLog {
+
+    // Same values as android.util.Log priorities, so a sink can pass them straight through
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    // setLevel(NONE) silences everything
+    public static final int NONE = Integer.MAX_VALUE;
+
+    // Where log lines end up; error may be null
+    public interface Sink {
+        void write(int level, String tag, String message, Throwable error);
+    }
+
+    // Until a platform sink is installed: stdout, with the prefix the old println logging used
+    private static final Sink STDOUT = (level, tag, message, error) -> {
+        System.out.println("APP_DEBUG: " + levelName(level) + "/" + tag + ": " + message);
+        if (error != null) error.printStackTrace(System.out);
+    };
+
+    private static volatile int level = INFO;
+    private static volatile Sink sink = STDOUT;
+
+    private AppLog() {
+    }
+
+    public static void setLevel(int minimumLevel) {
+        level = minimumLevel;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    // null restores stdout
+    public static void setSink(Sink newSink) {
+        sink = newSink != null ? newSink : STDOUT;
+    }
+
+    public static boolean isLoggable(int messageLevel) {
+        return messageLevel >= level;
+    }
+
+    public static void v(String tag, String message) {
+        log(VERBOSE, tag, message, null);
+    }
+
+    public static void d(String tag, String message) {
+        log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        log(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        log(WARN, tag, message, error);
+    }
+
+    public static void e(String tag, String message) {
+        log(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        log(ERROR, tag, message, error);
+    }
+
+    public static void log(int messageLevel, String tag, String message, Throwable error) {
+        if (messageLevel < level) return;
+        try {
+            sink.write(messageLevel, tag, message, error);
+        } catch (RuntimeException ignored) {
+            // a broken sink must not take the caller down with it
+        }
+    }
+
+    static String levelName(int messageLevel) {
+        switch (messageLevel) {
+            case VERBOSE: return "V";
+            case DEBUG: return "D";
+            case INFO: return "I";
+            case WARN: return "W";
+            case ERROR: return "E";
+            default: return String.valueOf(messageLevel);
+        }
+    }
+}
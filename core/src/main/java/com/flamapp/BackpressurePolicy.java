@@ -0,0 +1,11 @@
+package com.flamapp;
+
+// What a full FrameQueue does with a new frame
+public enum BackpressurePolicy {
+    // evict the oldest queued frame to make room: freshest frames win, good for live preview
+    DROP_OLDEST,
+    // reject the incoming frame: keeps what is already queued
+    DROP_NEWEST,
+    // wait for room: nothing is lost, the producer is slowed down instead
+    BLOCK
+}
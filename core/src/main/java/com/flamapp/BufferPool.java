@@ -0,0 +1,176 @@
+package com.flamapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// Size-keyed, bounded pool of reusable frame buffers (byte planes, int pixel arrays, Bitmaps...).
+// Every acquire() must be paired with exactly one release(); buffers that are never handed back
+// show up in getStats().outstanding and in the leak count returned by close().
+// Thread-safe: frames are usually acquired on the camera thread and released on the UI thread.
+public class BufferPool<T> {
+
+    // Creates a new buffer for a width x height frame on a pool miss
+    public interface Factory<T> {
+        T create(int width, int height);
+    }
+
+    // Called for buffers dropped by the pool (e.g. Bitmap::recycle); may be null
+    public interface Evictor<T> {
+        void evict(T buffer);
+    }
+
+    // Point-in-time counters
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final int outstanding;
+        public final int idle;
+
+        Stats(long hits, long misses, long evictions, int outstanding, int idle) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.outstanding = outstanding;
+            this.idle = idle;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                    + " outstanding=" + outstanding + " idle=" + idle;
+        }
+    }
+
+    // Idle buffers of one frame size. Sizes are few, so a list scan beats boxing keys into a map.
+    private static final class Bucket<T> {
+        final int width;
+        final int height;
+        final ArrayDeque<T> idle;
+        long lastUsed;
+
+        Bucket(int width, int height, int capacity) {
+            this.width = width;
+            this.height = height;
+            this.idle = new ArrayDeque<>(capacity);
+        }
+    }
+
+    private final String name;
+    private final Factory<T> factory;
+    private final Evictor<T> evictor;
+    private final int maxIdlePerSize;
+    private final int maxSizes;
+
+    private final ArrayList<Bucket<T>> buckets = new ArrayList<>();
+    // identity, not equals(): two int[] of the same contents are still different buffers
+    private final IdentityHashMap<T, Bucket<T>> outstanding = new IdentityHashMap<>();
+
+    private long clock;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private boolean closed;
+
+    // maxIdlePerSize: idle buffers kept per frame size; maxSizes: frame sizes kept before the
+    // least recently used size is dropped (covers resolution changes without unbounded growth)
+    public BufferPool(String name, Factory<T> factory, Evictor<T> evictor,
+                      int maxIdlePerSize, int maxSizes) {
+        if (maxIdlePerSize < 1 || maxSizes < 1) {
+            throw new IllegalArgumentException("Pool bounds must be >= 1");
+        }
+        this.name = name;
+        this.factory = factory;
+        this.evictor = evictor;
+        this.maxIdlePerSize = maxIdlePerSize;
+        this.maxSizes = maxSizes;
+    }
+
+    public synchronized T acquire(int width, int height) {
+        if (closed) throw new IllegalStateException(name + ": pool is closed");
+        Bucket<T> bucket = bucketFor(width, height);
+        bucket.lastUsed = ++clock;
+
+        T buffer = bucket.idle.pollFirst();
+        if (buffer != null) {
+            hits++;
+        } else {
+            misses++;
+            buffer = factory.create(width, height);
+        }
+        outstanding.put(buffer, bucket);
+        return buffer;
+    }
+
+    public synchronized void release(T buffer) {
+        Bucket<T> bucket = outstanding.remove(buffer);
+        if (bucket == null) {
+            throw new IllegalStateException(name + ": released a buffer that is not outstanding"
+                    + " (double release or foreign buffer)");
+        }
+        if (closed || !buckets.contains(bucket) || bucket.idle.size() >= maxIdlePerSize) {
+            // pool closed, size already dropped, or enough spares of this size
+            evict(buffer);
+            return;
+        }
+        bucket.idle.addFirst(buffer);
+    }
+
+    // Drops idle buffers of every size except width x height, e.g. right after a resolution change
+    public synchronized void trimTo(int width, int height) {
+        for (int i = buckets.size() - 1; i >= 0; i--) {
+            Bucket<T> bucket = buckets.get(i);
+            if (bucket.width != width || bucket.height != height) {
+                dropBucket(i);
+            }
+        }
+    }
+
+    public synchronized Stats getStats() {
+        int idle = 0;
+        for (int i = 0; i < buckets.size(); i++) idle += buckets.get(i).idle.size();
+        return new Stats(hits, misses, evictions, outstanding.size(), idle);
+    }
+
+    // Releases every idle buffer. Returns the number of buffers still outstanding, i.e. leaked;
+    // those are evicted if they are released later.
+    public synchronized int close() {
+        closed = true;
+        for (int i = buckets.size() - 1; i >= 0; i--) dropBucket(i);
+        int leaked = outstanding.size();
+        if (leaked > 0) {
+            AppLog.w("BufferPool", name + " pool closed with " + leaked + " leaked buffer(s)");
+        }
+        return leaked;
+    }
+
+    private Bucket<T> bucketFor(int width, int height) {
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket<T> bucket = buckets.get(i);
+            if (bucket.width == width && bucket.height == height) return bucket;
+        }
+        if (buckets.size() >= maxSizes) {
+            int lru = 0;
+            for (int i = 1; i < buckets.size(); i++) {
+                if (buckets.get(i).lastUsed < buckets.get(lru).lastUsed) lru = i;
+            }
+            dropBucket(lru);
+        }
+        Bucket<T> bucket = new Bucket<>(width, height, maxIdlePerSize);
+        buckets.add(bucket);
+        return bucket;
+    }
+
+    // Outstanding buffers of a dropped size are evicted when they come back
+    private void dropBucket(int index) {
+        Bucket<T> bucket = buckets.remove(index);
+        T buffer;
+        while ((buffer = bucket.idle.pollFirst()) != null) evict(buffer);
+    }
+
+    private void evict(T buffer) {
+        evictions++;
+        if (evictor != null) evictor.evict(buffer);
+    }
+}
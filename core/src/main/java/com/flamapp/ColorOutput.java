@@ -0,0 +1,135 @@
+package com.flamapp;
+
+import java.util.Arrays;
+
+// How FrameProcessor.processToPixels turns the 8-bit result of the filter chain into display
+// pixels within the same call: a 256-entry colour lookup, optionally composited over the camera
+// image wherever the result is 0 (edges drawn over the live picture).
+//
+//   processor.setColorOutput(ColorOutput.edgeOverlay(0xFF00FF00, 0.6));
+//
+// Pixels are written in Bitmap memory layout (what copyPixelsFromBuffer / AndroidBitmap_lockPixels
+// expect), not as the ARGB ints Bitmap.setPixels takes. Immutable.
+public final class ColorOutput {
+
+    // Same layouts as the Bitmap.Config values of the same name
+    public enum Format {
+        // 4 bytes per pixel, R G B A in memory
+        ARGB_8888(4),
+        // 2 bytes per pixel, native-endian 5:6:5
+        RGB_565(2);
+
+        public final int bytesPerPixel;
+
+        Format(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    private final Format format;
+    // ARGB colour per result value
+    private final int[] colors;
+    // ARGB colour per camera value, used where the result is 0; null unless overlaying
+    private final int[] background;
+    // the two tables above in the output format's memory layout (little-endian values)
+    private final int[] encodedColors;
+    private final int[] encodedBackground;
+
+    private ColorOutput(Format format, int[] colors, int[] background) {
+        this.format = format;
+        this.colors = colors;
+        this.background = background;
+        this.encodedColors = encode(colors, format);
+        this.encodedBackground = background != null ? encode(background, format) : null;
+    }
+
+    // Plain grayscale, the same pixels the old per-frame Java loop produced
+    public static ColorOutput gray() {
+        int[] colors = new int[256];
+        for (int v = 0; v < 256; v++) colors[v] = grayArgb(v);
+        return new ColorOutput(Format.ARGB_8888, colors, null);
+    }
+
+    // Arbitrary colour map: argb[v] is drawn for result value v
+    public static ColorOutput colorMap(int[] argb) {
+        if (argb == null || argb.length != 256) {
+            throw new IllegalArgumentException("Colour map needs 256 entries");
+        }
+        return new ColorOutput(Format.ARGB_8888, argb.clone(), null);
+    }
+
+    // Black -> red -> yellow -> white, for gradient magnitudes
+    public static ColorOutput heatMap() {
+        int[] colors = new int[256];
+        for (int v = 0; v < 256; v++) {
+            int r = Math.min(255, v * 3);
+            int g = Math.max(0, Math.min(255, v * 3 - 255));
+            int b = Math.max(0, v * 3 - 510);
+            colors[v] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        return new ColorOutput(Format.ARGB_8888, colors, null);
+    }
+
+    // Non-zero result pixels in edgeArgb over the camera image scaled by backgroundBrightness
+    // (0..1). Needs a chain that keeps the frame size.
+    public static ColorOutput edgeOverlay(int edgeArgb, double backgroundBrightness) {
+        if (backgroundBrightness < 0 || backgroundBrightness > 1) {
+            throw new IllegalArgumentException("Brightness must be in 0..1: " + backgroundBrightness);
+        }
+        int[] colors = new int[256];
+        Arrays.fill(colors, edgeArgb);
+        int[] background = new int[256];
+        for (int v = 0; v < 256; v++) background[v] = grayArgb((int) Math.round(v * backgroundBrightness));
+        return new ColorOutput(Format.ARGB_8888, colors, background);
+    }
+
+    // Same mapping written in another pixel format
+    public ColorOutput withFormat(Format newFormat) {
+        if (newFormat == format) return this;
+        return new ColorOutput(newFormat, colors, background);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public boolean isOverlay() {
+        return background != null;
+    }
+
+    // ARGB colour drawn for a result value (ignoring the overlay background)
+    public int colorOf(int value) {
+        return colors[value & 0xFF];
+    }
+
+    // Lookup tables handed to the engines, already in output memory layout
+    int[] encodedColors() {
+        return encodedColors;
+    }
+
+    int[] encodedBackground() {
+        return encodedBackground;
+    }
+
+    // An ARGB colour as the little-endian value a pixel of the given format holds in memory
+    static int toMemoryOrder(int argb, Format format) {
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        if (format == Format.RGB_565) {
+            return ((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3);
+        }
+        return (a << 24) | (b << 16) | (g << 8) | r;
+    }
+
+    private static int[] encode(int[] argb, Format format) {
+        int[] encoded = new int[argb.length];
+        for (int i = 0; i < argb.length; i++) encoded[i] = toMemoryOrder(argb[i], format);
+        return encoded;
+    }
+
+    private static int grayArgb(int v) {
+        return 0xFF000000 | (v << 16) | (v << 8) | v;
+    }
+}
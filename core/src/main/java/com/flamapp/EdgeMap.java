@@ -0,0 +1,365 @@
+package com.flamapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Binary edge map at 1 bit per pixel: an eighth of the 0/255 byte plane Canny produces, a
+// thirty-second of its ARGB expansion. Each row starts on a 64-bit word, pixel x of row y is
+// bit (x & 63) of words[y * wordsPerRow + (x >>> 6)], and bits past the width are always 0.
+//
+// Everything works a word (64 pixels) at a time: packing gathers 8 bytes per multiply,
+// expansion writes whole runs for empty / full words, and the bitwise ops and popcount are
+// plain long loops. A row-wise run-length form (toRle / readRle) is there for storage and
+// transport. FrameProcessor.processToEdgeMap fills a map straight from the native result.
+public final class EdgeMap {
+
+    public final int width;
+    public final int height;
+    public final int wordsPerRow;
+    final long[] words;
+
+    // 0/0xFF bytes for each combination of 8 bits, little-endian (bit i -> byte i)
+    private static final long[] EXPAND = new long[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            long v = 0;
+            for (int i = 0; i < 8; i++) if ((b & (1 << i)) != 0) v |= 0xFFL << (8 * i);
+            EXPAND[b] = v;
+        }
+    }
+
+    public EdgeMap(int width, int height) {
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Bad size: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.words = new long[wordsPerRow * height];
+    }
+
+    public static EdgeMap fromPlane(ByteBuffer plane, int width, int height, int rowStride) {
+        EdgeMap map = new EdgeMap(width, height);
+        map.pack(plane, rowStride);
+        return map;
+    }
+
+    // Map from toRle() output; IllegalArgumentException if it isn't one of this size
+    public static EdgeMap fromRle(byte[] rle, int width, int height) {
+        EdgeMap map = new EdgeMap(width, height);
+        map.readRle(rle, 0, rle.length);
+        return map;
+    }
+
+    // Packed size in bytes, what the words take on the wire
+    public int byteSize() {
+        return words.length * 8;
+    }
+
+    public boolean get(int x, int y) {
+        return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    public void set(int x, int y, boolean edge) {
+        int i = y * wordsPerRow + (x >>> 6);
+        if (edge) {
+            words[i] |= 1L << x;
+        } else {
+            words[i] &= ~(1L << x);
+        }
+    }
+
+    public EdgeMap clear() {
+        Arrays.fill(words, 0);
+        return this;
+    }
+
+    // Any nonzero byte is an edge. plane: height rows of width bytes, rowStride apart, from
+    // index 0 (position and limit untouched), either byte order.
+    public void pack(ByteBuffer plane, int rowStride) {
+        checkPlane(plane.capacity(), rowStride);
+        boolean swap = plane.order() != ByteOrder.LITTLE_ENDIAN;
+        for (int y = 0; y < height; y++) {
+            int base = y * rowStride;
+            int w = y * wordsPerRow;
+            for (int x0 = 0; x0 < width; x0 += 64, w++) {
+                int end = Math.min(width, x0 + 64);
+                long bits = 0;
+                int x = x0;
+                for (; x + 8 <= end; x += 8) {
+                    long v = plane.getLong(base + x);
+                    if (swap) v = Long.reverseBytes(v);
+                    bits |= gather(v) << (x - x0);
+                }
+                for (; x < end; x++) bits |= (long) (((plane.get(base + x) & 0xFF) + 0xFF) >>> 8) << (x - x0);
+                words[w] = bits;
+            }
+        }
+    }
+
+    // Same from a heap plane (the Java backend's result)
+    void pack(byte[] plane, int offset, int rowStride) {
+        checkPlane(plane.length - offset, rowStride);
+        for (int y = 0; y < height; y++) {
+            int base = offset + y * rowStride;
+            int w = y * wordsPerRow;
+            for (int x0 = 0; x0 < width; x0 += 64, w++) {
+                int end = Math.min(width, x0 + 64);
+                long bits = 0;
+                for (int x = x0; x < end; x++) bits |= (long) (((plane[base + x] & 0xFF) + 0xFF) >>> 8) << (x - x0);
+                words[w] = bits;
+            }
+        }
+    }
+
+    // Back to a 0/255 plane: height rows of width bytes, rowStride apart, from index 0
+    public void unpack(ByteBuffer out, int rowStride) {
+        checkPlane(out.capacity(), rowStride);
+        boolean swap = out.order() != ByteOrder.LITTLE_ENDIAN;
+        for (int y = 0; y < height; y++) {
+            int base = y * rowStride;
+            int w = y * wordsPerRow;
+            for (int x0 = 0; x0 < width; x0 += 64, w++) {
+                long bits = words[w];
+                int end = Math.min(width, x0 + 64);
+                int x = x0;
+                for (; x + 8 <= end; x += 8, bits >>>= 8) {
+                    long v = EXPAND[(int) bits & 0xFF];
+                    out.putLong(base + x, swap ? Long.reverseBytes(v) : v);
+                }
+                for (; x < end; x++, bits >>>= 1) out.put(base + x, (byte) -(int) (bits & 1));
+            }
+        }
+    }
+
+    // argb: width * height pixels, row-major; colours are ARGB ints
+    public void expandToArgb(int[] argb, int edgeColor, int backgroundColor) {
+        if (argb.length < width * height) throw new IllegalArgumentException("Pixel array too small");
+        int diff = edgeColor ^ backgroundColor;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int w = y * wordsPerRow;
+            for (int x0 = 0; x0 < width; x0 += 64, w++) {
+                long bits = words[w];
+                int end = Math.min(width, x0 + 64);
+                if (bits == 0) {
+                    Arrays.fill(argb, row + x0, row + end, backgroundColor);
+                } else if (bits == -1L) {
+                    Arrays.fill(argb, row + x0, row + end, edgeColor);
+                } else {
+                    for (int x = x0; x < end; x++, bits >>>= 1) {
+                        argb[row + x] = backgroundColor ^ (diff & -(int) (bits & 1));
+                    }
+                }
+            }
+        }
+    }
+
+    // Into Bitmap ARGB_8888 memory (R G B A bytes): height rows of rowBytes from index 0
+    public void expandToPixels(ByteBuffer pixels, int rowBytes, int edgeColor, int backgroundColor) {
+        if (rowBytes < width * 4 || (long) rowBytes * (height - 1) + width * 4L > pixels.capacity()) {
+            throw new IllegalArgumentException("Pixel buffer too small");
+        }
+        int on = ColorOutput.toMemoryOrder(edgeColor, ColorOutput.Format.ARGB_8888);
+        int off = ColorOutput.toMemoryOrder(backgroundColor, ColorOutput.Format.ARGB_8888);
+        if (pixels.order() != ByteOrder.LITTLE_ENDIAN) {
+            on = Integer.reverseBytes(on);
+            off = Integer.reverseBytes(off);
+        }
+        int diff = on ^ off;
+        for (int y = 0; y < height; y++) {
+            int row = y * rowBytes;
+            int w = y * wordsPerRow;
+            for (int x0 = 0; x0 < width; x0 += 64, w++) {
+                long bits = words[w];
+                int end = Math.min(width, x0 + 64);
+                for (int x = x0, p = row + x0 * 4; x < end; x++, p += 4, bits >>>= 1) {
+                    pixels.putInt(p, off ^ (diff & -(int) (bits & 1)));
+                }
+            }
+        }
+    }
+
+    // Number of edge pixels
+    public long popcount() {
+        long count = 0;
+        for (long word : words) count += Long.bitCount(word);
+        return count;
+    }
+
+    // Fraction of pixels that are edges
+    public double density() {
+        return (double) popcount() / ((long) width * height);
+    }
+
+    // Pixels that differ from other, without building the XOR map
+    public long countDifferences(EdgeMap other) {
+        checkSize(other);
+        long count = 0;
+        for (int i = 0; i < words.length; i++) count += Long.bitCount(words[i] ^ other.words[i]);
+        return count;
+    }
+
+    // In-place bitwise ops, chainable: a.copyFrom(b).and(c)
+    public EdgeMap copyFrom(EdgeMap other) {
+        checkSize(other);
+        System.arraycopy(other.words, 0, words, 0, words.length);
+        return this;
+    }
+
+    public EdgeMap and(EdgeMap other) {
+        checkSize(other);
+        for (int i = 0; i < words.length; i++) words[i] &= other.words[i];
+        return this;
+    }
+
+    public EdgeMap or(EdgeMap other) {
+        checkSize(other);
+        for (int i = 0; i < words.length; i++) words[i] |= other.words[i];
+        return this;
+    }
+
+    public EdgeMap xor(EdgeMap other) {
+        checkSize(other);
+        for (int i = 0; i < words.length; i++) words[i] ^= other.words[i];
+        return this;
+    }
+
+    public EdgeMap andNot(EdgeMap other) {
+        checkSize(other);
+        for (int i = 0; i < words.length; i++) words[i] &= ~other.words[i];
+        return this;
+    }
+
+    // Row-wise run lengths: per row, alternating background / edge runs starting with
+    // background (so a row opening on an edge starts with a 0 run), summing to the width.
+    // Each run is an unsigned LEB128 varint.
+    public byte[] toRle() {
+        byte[] out = new byte[maxRleBytes()];
+        return Arrays.copyOf(out, writeRle(out, 0));
+    }
+
+    // Upper bound for writeRle: every pixel its own run
+    public int maxRleBytes() {
+        return height * (width + 1) * varintBytes(width);
+    }
+
+    // Returns the number of bytes written
+    public int writeRle(byte[] out, int offset) {
+        int p = offset;
+        for (int y = 0; y < height; y++) {
+            int row = y * wordsPerRow;
+            int x = 0;
+            boolean edge = false;
+            while (x < width) {
+                int next = nextChange(row, x, edge);
+                p = putVarint(out, p, next - x);
+                x = next;
+                edge = !edge;
+            }
+        }
+        return p - offset;
+    }
+
+    // Replaces the map with the RLE data; IllegalArgumentException if it doesn't describe
+    // exactly width x height pixels
+    public void readRle(byte[] in, int offset, int length) {
+        clear();
+        int p = offset;
+        int end = offset + length;
+        for (int y = 0; y < height; y++) {
+            int row = y * wordsPerRow;
+            int x = 0;
+            boolean edge = false;
+            while (x < width) {
+                int run = 0;
+                for (int shift = 0; ; shift += 7) {
+                    if (p >= end || shift > 28) throw new IllegalArgumentException("Truncated RLE at row " + y);
+                    int b = in[p++];
+                    run |= (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                if (run < 0 || run > width - x) throw new IllegalArgumentException("RLE run past the end of row " + y);
+                if (edge) setRange(row, x, x + run);
+                x += run;
+                edge = !edge;
+            }
+        }
+        if (p != end) throw new IllegalArgumentException("Trailing RLE data");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof EdgeMap)) return false;
+        EdgeMap other = (EdgeMap) o;
+        return width == other.width && height == other.height && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * width + height) + Arrays.hashCode(words);
+    }
+
+    // One bit per byte of v (little-endian): bit i set if byte i is nonzero. Sets each byte's
+    // top bit when any bit is set (no carry crosses bytes), then one multiply moves the eight
+    // top bits into the highest byte, in order.
+    static long gather(long v) {
+        long t = (((v & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | v) & 0x8080808080808080L;
+        return (t * 0x0002040810204081L) >>> 56;
+    }
+
+    // First x' > x in the row whose bit differs from edge, or width
+    private int nextChange(int row, int x, boolean edge) {
+        int w = x >>> 6;
+        long bits = words[row + w] ^ (edge ? -1L : 0);
+        bits &= -1L << x;
+        while (bits == 0) {
+            if (++w == wordsPerRow) return width;
+            bits = words[row + w] ^ (edge ? -1L : 0);
+        }
+        return Math.min(width, (w << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    private void setRange(int row, int from, int to) {
+        if (from >= to) return;
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - ((to - 1) & 63));
+        if (first == last) {
+            words[row + first] |= firstMask & lastMask;
+            return;
+        }
+        words[row + first] |= firstMask;
+        for (int w = first + 1; w < last; w++) words[row + w] = -1L;
+        words[row + last] |= lastMask;
+    }
+
+    private static int putVarint(byte[] out, int p, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[p++] = (byte) value;
+        return p;
+    }
+
+    private static int varintBytes(int value) {
+        int n = 1;
+        while ((value >>>= 7) != 0) n++;
+        return n;
+    }
+
+    private void checkPlane(long capacity, int rowStride) {
+        if (rowStride < width || (long) rowStride * (height - 1) + width > capacity) {
+            throw new IllegalArgumentException("Plane too small for " + width + "x" + height);
+        }
+    }
+
+    private void checkSize(EdgeMap other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Edge maps differ in size: " + other.width + "x" + other.height
+                    + " vs " + width + "x" + height);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.flamapp;
+
+import java.util.Arrays;
+
+// Sequence of image operations run by a FrameProcessor in a single JNI call per frame.
+// Describe the chain once, hand it to FrameProcessor.create() or setFilterChain(); the native
+// side compiles it into a plan with preallocated ping-pong buffers.
+//
+//   new FilterChain().gaussianBlur(5).canny(50, 120).dilate(3, 1)
+//
+// Encoded as one op code plus PARAMS_PER_OP doubles per step, mirroring FilterOp in frame_context.h.
+public final class FilterChain {
+
+    static final int OP_GAUSSIAN_BLUR = 1;
+    static final int OP_CANNY = 2;
+    static final int OP_SOBEL = 3;
+    static final int OP_THRESHOLD = 4;
+    static final int OP_DILATE = 5;
+    static final int OP_ERODE = 6;
+    static final int OP_MORPH_OPEN = 7;
+    static final int OP_MORPH_CLOSE = 8;
+    static final int OP_RESIZE = 9;
+    static final int OP_EQUALIZE_HIST = 10;
+
+    static final int PARAMS_PER_OP = 4;
+
+    // Extra rows/columns an incremental (tiled) run gives Canny beyond its 3x3 gradient and
+    // suppression: lets hysteresis follow a weak edge a little way past a tile. Must match
+    // kCannyHysteresisReach in frame_context.h.
+    static final int CANNY_HYSTERESIS_REACH = 8;
+
+    // Hysteresis can follow an edge further than that, so tiled Canny runs are approximate: after
+    // this many of them (or on the first still frame after one) the whole frame is rerun, which
+    // bounds how long a pixel outside a rerun region can stay wrong. Must match
+    // kCannyRefreshRuns in frame_context.h.
+    static final int CANNY_REFRESH_RUNS = 30;
+
+    // cv::ThresholdTypes
+    public static final int THRESH_BINARY = 0;
+    public static final int THRESH_BINARY_INV = 1;
+    public static final int THRESH_OTSU = 8;
+    public static final int THRESH_TRIANGLE = 16;
+
+    // cv::MorphShapes
+    public static final int MORPH_RECT = 0;
+    public static final int MORPH_CROSS = 1;
+    public static final int MORPH_ELLIPSE = 2;
+
+    private int[] ops = new int[4];
+    private double[] params = new double[4 * PARAMS_PER_OP];
+    private int size;
+
+    // The chain MainActivity has always run: GaussianBlur(3x3) -> Canny(80, 150)
+    public static FilterChain defaultEdges() {
+        return new FilterChain().gaussianBlur(3).canny(80, 150);
+    }
+
+    // Odd kernel size; sigma 0 derives it from the kernel like OpenCV does
+    public FilterChain gaussianBlur(int kernelSize) {
+        return gaussianBlur(kernelSize, 0);
+    }
+
+    public FilterChain gaussianBlur(int kernelSize, double sigma) {
+        if (kernelSize < 1 || (kernelSize & 1) == 0) {
+            throw new IllegalArgumentException("Blur kernel must be odd: " + kernelSize);
+        }
+        return add(OP_GAUSSIAN_BLUR, kernelSize, sigma, 0, 0);
+    }
+
+    public FilterChain canny(double low, double high) {
+        if (low < 0 || high < low) {
+            throw new IllegalArgumentException("Bad Canny thresholds: " + low + ", " + high);
+        }
+        return add(OP_CANNY, low, high, 0, 0);
+    }
+
+    // Absolute derivative, saturated to 8 bits
+    public FilterChain sobel(int dx, int dy, int kernelSize, double scale) {
+        if (dx < 0 || dy < 0 || dx + dy == 0 || (kernelSize & 1) == 0) {
+            throw new IllegalArgumentException("Bad Sobel parameters: " + dx + ", " + dy + ", " + kernelSize);
+        }
+        return add(OP_SOBEL, dx, dy, kernelSize, scale);
+    }
+
+    public FilterChain threshold(double threshold, double maxValue, int type) {
+        return add(OP_THRESHOLD, threshold, maxValue, type, 0);
+    }
+
+    public FilterChain dilate(int kernelSize, int iterations) {
+        return morph(OP_DILATE, kernelSize, iterations, MORPH_RECT);
+    }
+
+    public FilterChain erode(int kernelSize, int iterations) {
+        return morph(OP_ERODE, kernelSize, iterations, MORPH_RECT);
+    }
+
+    public FilterChain morphOpen(int kernelSize, int shape) {
+        return morph(OP_MORPH_OPEN, kernelSize, 1, shape);
+    }
+
+    public FilterChain morphClose(int kernelSize, int shape) {
+        return morph(OP_MORPH_CLOSE, kernelSize, 1, shape);
+    }
+
+    public FilterChain resize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bad resize target: " + width + "x" + height);
+        }
+        return add(OP_RESIZE, width, height, 0, 0);
+    }
+
+    // Relative resize, e.g. 0.5 halves both dimensions
+    public FilterChain scale(double factor) {
+        if (!(factor > 0)) throw new IllegalArgumentException("Bad scale factor: " + factor);
+        return add(OP_RESIZE, 0, 0, factor, 0);
+    }
+
+    public FilterChain equalizeHistogram() {
+        return add(OP_EQUALIZE_HIST, 0, 0, 0, 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Output width for an input of the given width (only resize steps change it)
+    public int outputWidth(int inputWidth) {
+        return outputSize(inputWidth, 0);
+    }
+
+    public int outputHeight(int inputHeight) {
+        return outputSize(inputHeight, 1);
+    }
+
+    // Trimmed copies in the layout nativeCreate / nativeSetFilterChain expect
+    int[] encodedOps() {
+        return Arrays.copyOf(ops, size);
+    }
+
+    double[] encodedParams() {
+        return Arrays.copyOf(params, size * PARAMS_PER_OP);
+    }
+
+    // How far (in pixels) step index reads around an output pixel; -1 for steps whose output
+    // depends on the whole frame (histograms, Otsu / triangle thresholds, resize). Mirrors stepReach() in frame_context.cpp.
+    int stepReach(int index) {
+        int k = (int) paramAt(index, 0);
+        switch (ops[index]) {
+            case OP_GAUSSIAN_BLUR:
+                return k / 2;
+            case OP_CANNY:
+                return 2 + CANNY_HYSTERESIS_REACH;
+            case OP_SOBEL:
+                return Math.max(1, (int) paramAt(index, 2) / 2);
+            case OP_THRESHOLD:
+                // Otsu / triangle flags (above the type's low 3 bits) pick the threshold from the whole frame
+                return ((int) paramAt(index, 2) & ~0x7) != 0 ? -1 : 0;
+            case OP_DILATE:
+            case OP_ERODE:
+                return k / 2 * Math.max(1, (int) paramAt(index, 1));
+            case OP_MORPH_OPEN:
+            case OP_MORPH_CLOSE:
+                return 2 * (k / 2) * Math.max(1, (int) paramAt(index, 1));
+            default:
+                return -1;
+        }
+    }
+
+    // Border a region needs around it to come out the same as in a full-frame run, or -1 if the
+    // chain has a whole-frame step and can only be rerun in full
+    int haloRadius() {
+        int halo = 0;
+        for (int i = 0; i < size; i++) {
+            int reach = stepReach(i);
+            if (reach < 0) return -1;
+            halo += reach;
+        }
+        return halo;
+    }
+
+    int opAt(int index) {
+        return ops[index];
+    }
+
+    double paramAt(int index, int param) {
+        return params[index * PARAMS_PER_OP + param];
+    }
+
+    private int outputSize(int input, int axis) {
+        int value = input;
+        for (int i = 0; i < size; i++) {
+            if (ops[i] != OP_RESIZE) continue;
+            double absolute = paramAt(i, axis);
+            value = absolute > 0
+                    ? (int) absolute
+                    : Math.max(1, (int) Math.round(value * paramAt(i, 2)));
+        }
+        return value;
+    }
+
+    private FilterChain morph(int op, int kernelSize, int iterations, int shape) {
+        if (kernelSize < 1 || iterations < 1) {
+            throw new IllegalArgumentException("Bad morphology parameters: " + kernelSize + ", " + iterations);
+        }
+        return add(op, kernelSize, iterations, shape, 0);
+    }
+
+    private FilterChain add(int op, double p0, double p1, double p2, double p3) {
+        if (size == ops.length) {
+            ops = Arrays.copyOf(ops, size * 2);
+            params = Arrays.copyOf(params, size * 2 * PARAMS_PER_OP);
+        }
+        ops[size] = op;
+        int base = size * PARAMS_PER_OP;
+        params[base] = p0;
+        params[base + 1] = p1;
+        params[base + 2] = p2;
+        params[base + 3] = p3;
+        size++;
+        return this;
+    }
+}
@@ -0,0 +1,121 @@
+package com.flamapp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// One frame travelling through the FramePipeline, together with every buffer it needs.
+// Frames are pooled (see newPool) so a steady-state pipeline allocates nothing.
+public class Frame {
+    public final int width;
+    public final int height;
+
+    // packed luminance copied out of the camera image (rowStride == width)
+    public final ByteBuffer gray;
+    // processing output, same layout as gray
+    public final ByteBuffer processed;
+    // ARGB expansion of whichever plane is displayed
+    public final int[] argb;
+
+    // chroma planes of a colour frame (copyChromaFrom), in the camera's pixel stride with rows
+    // packed to chromaRowStride; allocated on the first colour frame and kept. hasChroma is
+    // false for frames that only carry gray.
+    public ByteBuffer u;
+    public ByteBuffer v;
+    public int chromaRowStride;
+    public int chromaPixelStride;
+    public boolean hasChroma;
+
+    public long timestampNs;
+    public boolean processedOk;
+
+    // System.nanoTime() at each pipeline point, indexed by the FrameMetrics mark constants
+    public final long[] marks = new long[FrameMetrics.MARK_COUNT];
+
+    // platform object riding along with the frame (e.g. the Bitmap it is rendered from)
+    public Object attachment;
+
+    public Frame(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.gray = ByteBuffer.allocateDirect(width * height);
+        this.processed = ByteBuffer.allocateDirect(width * height);
+        this.argb = new int[width * height];
+    }
+
+    // Clears per-frame state; buffers are kept
+    public void reset() {
+        timestampNs = 0;
+        processedOk = false;
+        hasChroma = false;
+        attachment = null;
+        Arrays.fill(marks, 0);
+        gray.clear();
+        processed.clear();
+    }
+
+    // Copies a (possibly strided) 8-bit plane into gray without allocating.
+    // Moves src's position/limit; callers hand over an Image plane they are about to close.
+    public void copyFrom(ByteBuffer src, int rowStride, int pixelStride) {
+        gray.clear();
+        if (pixelStride == 1 && rowStride == width) {
+            src.limit(src.position() + width * height);
+            gray.put(src);
+        } else if (pixelStride == 1) {
+            int base = src.position();
+            for (int r = 0; r < height; r++) {
+                int start = base + r * rowStride;
+                src.limit(start + width).position(start);
+                gray.put(src);
+            }
+        } else {
+            int base = src.position();
+            for (int r = 0; r < height; r++) {
+                int start = base + r * rowStride;
+                for (int c = 0; c < width; c++) gray.put(src.get(start + c * pixelStride));
+            }
+        }
+        gray.flip();
+    }
+
+    // Copies the U / V planes of a YUV_420_888 image ((width + 1) / 2 x (height + 1) / 2 samples)
+    // row by row, keeping their pixel stride so interleaved and planar layouts both stay bulk
+    // copies. Leaves the sources' position/limit as copyFrom does.
+    public void copyChromaFrom(ByteBuffer uSrc, ByteBuffer vSrc, int rowStride, int pixelStride) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int rowBytes = (chromaWidth - 1) * pixelStride + 1;
+        if (u == null || chromaPixelStride != pixelStride) {
+            u = ByteBuffer.allocateDirect(rowBytes * chromaHeight);
+            v = ByteBuffer.allocateDirect(rowBytes * chromaHeight);
+            chromaRowStride = rowBytes;
+            chromaPixelStride = pixelStride;
+        }
+        copyRows(uSrc, u, rowStride, rowBytes, chromaHeight);
+        copyRows(vSrc, v, rowStride, rowBytes, chromaHeight);
+        hasChroma = true;
+    }
+
+    private static void copyRows(ByteBuffer src, ByteBuffer dst, int rowStride, int rowBytes, int rows) {
+        dst.clear();
+        int base = src.position();
+        for (int r = 0; r < rows; r++) {
+            int start = base + r * rowStride;
+            src.limit(start + rowBytes).position(start);
+            dst.put(src);
+        }
+        dst.flip();
+    }
+
+    // Expands a packed grayscale plane into argb
+    public void toArgb(ByteBuffer plane) {
+        int[] pixels = argb;
+        for (int i = 0, n = width * height; i < n; i++) {
+            int v = plane.get(i) & 0xFF;
+            pixels[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
+        }
+    }
+
+    public static BufferPool<Frame> newPool(int maxIdlePerSize) {
+        return new BufferPool<>("frames", Frame::new, null, maxIdlePerSize, 2);
+    }
+}
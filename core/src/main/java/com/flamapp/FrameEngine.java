@@ -0,0 +1,41 @@
+package com.flamapp;
+
+import java.nio.ByteBuffer;
+
+// Backend behind a FrameProcessor: the OpenCV/JNI context or the pure-Java fallback.
+// Same contract either way: one instance per stream, called from one thread at a time.
+interface FrameEngine {
+
+    // in: 8-bit plane with the given strides (read from index 0, position/limit untouched)
+    // out: receives outputWidth * outputHeight packed bytes
+    boolean process(ByteBuffer input, int rowStride, int pixelStride, ByteBuffer output);
+
+    // Same chain, result expanded through the ColorOutput straight into pixel memory:
+    // outputHeight rows of rowBytes bytes starting at index 0. False if no ColorOutput is set.
+    boolean processToPixels(ByteBuffer input, int rowStride, int pixelStride, ByteBuffer pixels, int rowBytes);
+
+    // Colour frame: y as for processToPixels plus its 2x2 subsampled chroma planes (any strides).
+    // An overlay ColorOutput draws the camera in colour (needs 4-byte pixels); others ignore u / v.
+    boolean processYuvToPixels(ByteBuffer y, int rowStride, int pixelStride, ByteBuffer u, ByteBuffer v,
+                               int uvRowStride, int uvPixelStride, ByteBuffer pixels, int rowBytes);
+
+    // Same chain, result packed 1 bit per pixel into out (outputWidth x outputHeight)
+    boolean processToEdgeMap(ByteBuffer input, int rowStride, int pixelStride, EdgeMap out);
+
+    // null turns pixel output off
+    void setColorOutput(ColorOutput output);
+
+    // Re-plans for a new chain; throws IllegalArgumentException / UnsupportedOperationException
+    void setFilterChain(FilterChain chain);
+
+    // Incremental mode (see FrameProcessor.setIncremental); tileSize 0 turns it off
+    void setIncremental(int tileSize, int threshold);
+
+    // True if the last frame matched the cached result and no step ran
+    boolean lastFrameUnchanged();
+
+    // out: frames, unchanged frames, tiles checked, tiles reprocessed (since incremental mode was set)
+    void incrementalStats(long[] out);
+
+    void close();
+}
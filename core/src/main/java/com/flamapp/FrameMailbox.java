@@ -0,0 +1,79 @@
+package com.flamapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Latest-frame hand-off between a producer and the render thread, triple-buffered: the
+// producer's frame in progress, at most one pending frame, and the consumer's front frame
+// (the one on screen). publish() never blocks; a pending frame the consumer hasn't taken
+// yet is stale once a newer one arrives and goes back through the Releaser as skipped.
+// The front frame stays with the mailbox until the next one replaces it, so the consumer
+// can redraw it (e.g. after a surface resize). Never allocates after construction.
+public final class FrameMailbox<T> {
+
+    // Gets every frame the mailbox is done with: skipped, replaced at the front, or cleared
+    public interface Releaser<T> {
+        void release(T frame);
+    }
+
+    private final AtomicReference<T> pending = new AtomicReference<>();
+    private final Releaser<T> releaser;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    // consumer thread only
+    private T front;
+
+    public FrameMailbox(Releaser<T> releaser) {
+        this.releaser = releaser;
+    }
+
+    // Producer: makes frame the pending one. Returns false if it replaced a frame that was
+    // never taken (that one is released as skipped).
+    public boolean publish(T frame) {
+        published.incrementAndGet();
+        T stale = pending.getAndSet(frame);
+        if (stale == null) return true;
+        skipped.incrementAndGet();
+        releaser.release(stale);
+        return false;
+    }
+
+    // Consumer: the newest frame published since the last call, which becomes the front
+    // frame (the previous front is released), or null if nothing new arrived
+    public T takeLatest() {
+        T next = pending.getAndSet(null);
+        if (next == null) return null;
+        if (front != null) releaser.release(front);
+        front = next;
+        return next;
+    }
+
+    // Consumer: the frame last returned by takeLatest(), null if none or cleared
+    public T front() {
+        return front;
+    }
+
+    public boolean hasPending() {
+        return pending.get() != null;
+    }
+
+    // Consumer (or any thread once the producer and consumer have stopped): releases the
+    // pending and front frames
+    public void clear() {
+        T stale = pending.getAndSet(null);
+        if (stale != null) releaser.release(stale);
+        if (front != null) {
+            releaser.release(front);
+            front = null;
+        }
+    }
+
+    public long publishedCount() {
+        return published.get();
+    }
+
+    // frames replaced before the consumer took them
+    public long skippedCount() {
+        return skipped.get();
+    }
+}
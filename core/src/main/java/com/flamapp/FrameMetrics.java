@@ -0,0 +1,163 @@
+package com.flamapp;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-frame instrumentation: every frame carries a row of System.nanoTime() marks (Frame.marks),
+// filled in as it moves through the pipeline, and recordFrame() turns them into per-stage
+// latency histograms once the frame is handed to the UI.
+// Recording is lock-free and allocation-free; snapshot() allocates and is meant for the
+// once-a-second overlay and the periodic exporter, not for the frame path.
+public final class FrameMetrics {
+
+    // Frame.marks indices, in pipeline order. 0 means "not reached / unknown".
+    public static final int SENSOR = 0;        // sensor exposure, converted to the nanoTime clock
+    public static final int ACQUIRED = 1;      // image taken from the ImageReader
+    public static final int PROCESS_IN = 2;    // entering FrameProcessor.process (JNI in)
+    public static final int PROCESS_OUT = 3;   // back from it (JNI out)
+    public static final int CONVERTED = 4;     // ARGB pixels in the bitmap
+    public static final int RENDER_POSTED = 5; // draw posted to the UI thread
+    public static final int MARK_COUNT = 6;
+
+    // Intervals that get a histogram: name, from mark, to mark
+    private static final String[] INTERVAL_NAMES = {
+            "capture", "queue", "process", "convert", "render", "total", "endToEnd"
+    };
+    private static final int[] INTERVAL_FROM = {SENSOR, ACQUIRED, PROCESS_IN, PROCESS_OUT, CONVERTED, ACQUIRED, SENSOR};
+    private static final int[] INTERVAL_TO = {ACQUIRED, PROCESS_IN, PROCESS_OUT, CONVERTED, RENDER_POSTED, RENDER_POSTED, RENDER_POSTED};
+
+    // Latency summary of one interval, in nanoseconds
+    public static final class StageLatency {
+        public final String name;
+        public final long count;
+        public final long mean;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long max;
+
+        StageLatency(String name, LatencyHistogram histogram) {
+            this.name = name;
+            this.count = histogram.count();
+            this.mean = histogram.mean();
+            this.p50 = histogram.percentile(0.50);
+            this.p95 = histogram.percentile(0.95);
+            this.p99 = histogram.percentile(0.99);
+            this.max = histogram.max();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s n=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                    name, count, p50 / 1e6, p95 / 1e6, p99 / 1e6, max / 1e6);
+        }
+    }
+
+    // Point-in-time view of every counter and histogram
+    public static final class Snapshot {
+        public final long wallTimeMs;
+        public final long frames;
+        public final long drops;
+        public final long errors;
+        public final StageLatency[] stages;
+
+        Snapshot(long wallTimeMs, long frames, long drops, long errors, StageLatency[] stages) {
+            this.wallTimeMs = wallTimeMs;
+            this.frames = frames;
+            this.drops = drops;
+            this.errors = errors;
+            this.stages = stages;
+        }
+
+        // null if there is no interval of that name
+        public StageLatency stage(String name) {
+            for (StageLatency stage : stages) {
+                if (stage.name.equals(name)) return stage;
+            }
+            return null;
+        }
+
+        // One JSON object on a single line (the exporter writes one per line)
+        public String toJson() {
+            StringBuilder sb = new StringBuilder(512);
+            sb.append("{\"time\":").append(wallTimeMs)
+                    .append(",\"frames\":").append(frames)
+                    .append(",\"drops\":").append(drops)
+                    .append(",\"errors\":").append(errors)
+                    .append(",\"stages\":{");
+            for (int i = 0; i < stages.length; i++) {
+                StageLatency s = stages[i];
+                if (i > 0) sb.append(',');
+                sb.append('"').append(s.name).append("\":{\"count\":").append(s.count)
+                        .append(",\"meanNs\":").append(s.mean)
+                        .append(",\"p50Ns\":").append(s.p50)
+                        .append(",\"p95Ns\":").append(s.p95)
+                        .append(",\"p99Ns\":").append(s.p99)
+                        .append(",\"maxNs\":").append(s.max).append('}');
+            }
+            return sb.append("}}").toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("frames=").append(frames)
+                    .append(" drops=").append(drops).append(" errors=").append(errors);
+            for (StageLatency stage : stages) {
+                if (stage.count > 0) sb.append('\n').append(stage);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[INTERVAL_NAMES.length];
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public FrameMetrics() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    // Shorthand for the clock every mark uses
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    // Records the intervals between the marks a frame has collected; missing marks are skipped
+    public void recordFrame(long[] marks) {
+        frames.incrementAndGet();
+        for (int i = 0; i < histograms.length; i++) {
+            long from = marks[INTERVAL_FROM[i]];
+            long to = marks[INTERVAL_TO[i]];
+            if (from != 0 && to != 0) histograms[i].record(to - from);
+        }
+    }
+
+    public void recordDrop() {
+        drops.incrementAndGet();
+    }
+
+    public void recordError() {
+        errors.incrementAndGet();
+    }
+
+    public long frameCount() {
+        return frames.get();
+    }
+
+    public Snapshot snapshot() {
+        StageLatency[] stages = new StageLatency[histograms.length];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new StageLatency(INTERVAL_NAMES[i], histograms[i]);
+        }
+        return new Snapshot(System.currentTimeMillis(), frames.get(), drops.get(), errors.get(), stages);
+    }
+
+    // Starts a fresh measurement window (e.g. after the pipeline restarts)
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) histogram.reset();
+        frames.set(0);
+        drops.set(0);
+        errors.set(0);
+    }
+}
@@ -0,0 +1,23 @@
+package com.flamapp;
+
+// What a FrameSession processes frames into: a platform image (Bitmap on Android) or a plain
+// pixel buffer (PixelBufferOutput). The output rides along in Frame.attachment until release().
+// All methods but release() are called from the process thread.
+public interface FrameOutput {
+
+    // Processes frame into a new output of the processor's size and attaches it. divisor:
+    // process every divisor-th pixel of every divisor-th row (1 = full size). Colour frames
+    // (frame.hasChroma) go through the YUV path at full size when the processor's colour
+    // output is an overlay. Returns false if the processor rejected the frame.
+    boolean process(FrameProcessor processor, Frame frame, int divisor);
+
+    // Shows the frame's gray plane as it is, at the frame's size, replacing any attachment
+    // (library not ready yet, or processing failed)
+    void showRaw(Frame frame);
+
+    // Gives the frame's attachment back, if any, and clears it; any thread
+    void release(Frame frame);
+
+    // Drops spare outputs that are not width x height (after a resolution change)
+    void trimTo(int width, int height);
+}
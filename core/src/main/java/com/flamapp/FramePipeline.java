@@ -0,0 +1,204 @@
+package com.flamapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Chain of stages (e.g. acquire -> process -> convert -> render), each on its own thread and
+// fed by a bounded FrameQueue, so a slow stage overlaps with the others instead of stalling
+// the camera callback.
+//
+// Ownership: a frame handed to submit() belongs to the pipeline. A stage either returns it
+// (or a replacement) for the next stage, or returns null once it has consumed/released it.
+// Frames dropped by a queue or by a failing stage go to the DropHandler.
+public class FramePipeline<F> {
+
+    // One step of the pipeline; runs on the stage's own thread only
+    public interface Stage<F> {
+        F process(F frame) throws Exception;
+    }
+
+    // Told about every frame a stage threw on (the frame itself still goes to the DropHandler)
+    public interface ErrorHandler<F> {
+        void onError(String stageName, F frame, Throwable error);
+    }
+
+    // Point-in-time counters for one stage
+    public static final class StageStats {
+        public final String name;
+        public final int queueDepth;
+        public final int queueCapacity;
+        public final long processed;
+        public final long dropped;
+        public final long errors;
+
+        StageStats(String name, int queueDepth, int queueCapacity,
+                   long processed, long dropped, long errors) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.processed = processed;
+            this.dropped = dropped;
+            this.errors = errors;
+        }
+
+        @Override
+        public String toString() {
+            return name + " q=" + queueDepth + "/" + queueCapacity + " done=" + processed
+                    + " dropped=" + dropped + " errors=" + errors;
+        }
+    }
+
+    private final class StageRunner implements Runnable {
+        final String name;
+        final Stage<F> stage;
+        final FrameQueue<F> input;
+        StageRunner next;
+        ExecutorService executor;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        StageRunner(String name, Stage<F> stage, FrameQueue<F> input) {
+            this.name = name;
+            this.stage = stage;
+            this.input = input;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                // parks until a frame arrives or stop() closes the input
+                F frame = input.take();
+                if (frame == null) continue;
+                F out;
+                try {
+                    out = stage.process(frame);
+                } catch (Throwable t) {
+                    errors.incrementAndGet();
+                    ErrorHandler<F> handler = errorHandler;
+                    if (handler != null) {
+                        handler.onError(name, frame, t);
+                    } else if (AppLog.isLoggable(AppLog.DEBUG)) {
+                        AppLog.d(TAG, "stage " + name + " failed: " + t);
+                    }
+                    dropHandler.onDrop(frame);
+                    continue;
+                }
+                processed.incrementAndGet();
+                if (out != null) {
+                    if (next != null) {
+                        next.input.put(out);
+                    } else {
+                        // last stage returned a frame nobody will consume
+                        dropHandler.onDrop(out);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final String TAG = "FramePipeline";
+
+    private final String name;
+    private final FrameQueue.DropHandler<F> dropHandler;
+    private volatile ErrorHandler<F> errorHandler;
+    private final List<StageRunner> stages = new ArrayList<>();
+    private volatile boolean running;
+
+    public FramePipeline(String name, FrameQueue.DropHandler<F> dropHandler) {
+        this.name = name;
+        this.dropHandler = dropHandler;
+    }
+
+    // Replaces the default (debug-level log line per failure), e.g. to count errors
+    public FramePipeline<F> setErrorHandler(ErrorHandler<F> handler) {
+        this.errorHandler = handler;
+        return this;
+    }
+
+    // Appends a stage fed by a queue of the given capacity and policy. Only before start().
+    public FramePipeline<F> addStage(String stageName, Stage<F> stage,
+                                     int queueCapacity, BackpressurePolicy policy) {
+        if (running) throw new IllegalStateException("Pipeline already started");
+        StageRunner runner = new StageRunner(stageName, stage,
+                new FrameQueue<>(queueCapacity, policy, dropHandler));
+        if (!stages.isEmpty()) stages.get(stages.size() - 1).next = runner;
+        stages.add(runner);
+        return this;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        if (stages.isEmpty()) throw new IllegalStateException("Pipeline has no stages");
+        running = true;
+        for (StageRunner runner : stages) {
+            runner.input.open();
+            final String threadName = name + "-" + runner.name;
+            runner.executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            });
+            runner.executor.execute(runner);
+        }
+    }
+
+    // Hands a frame to the first stage. Returns false if a frame was dropped on the way in.
+    public boolean submit(F frame) {
+        if (!running) {
+            dropHandler.onDrop(frame);
+            return false;
+        }
+        return stages.get(0).input.put(frame);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Stops every stage, waits for them to finish their current frame and drops what is queued.
+    // Only returns once every stage thread has exited, so whatever the stages use (a native
+    // processor) can be freed right after; a stage stuck in process() holds stop() up with it.
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        for (StageRunner runner : stages) {
+            runner.input.close();
+            runner.executor.shutdown();
+        }
+        boolean interrupted = false;
+        for (StageRunner runner : stages) {
+            while (true) {
+                try {
+                    if (runner.executor.awaitTermination(1, TimeUnit.SECONDS)) break;
+                    AppLog.w(TAG, name + "-" + runner.name + " still busy, waiting for it to stop");
+                } catch (InterruptedException e) {
+                    // keep waiting: returning early would free state the stage is still using
+                    interrupted = true;
+                }
+            }
+            // a stage may have pushed into a downstream queue after it was closed
+            runner.input.close();
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    public StageStats[] getStats() {
+        StageStats[] out = new StageStats[stages.size()];
+        for (int i = 0; i < out.length; i++) {
+            StageRunner runner = stages.get(i);
+            out[i] = new StageStats(runner.name, runner.input.size(), runner.input.capacity(),
+                    runner.processed.get(), runner.input.droppedCount(), runner.errors.get());
+        }
+        return out;
+    }
+
+    public long totalDropped() {
+        long total = 0;
+        for (StageRunner runner : stages) total += runner.input.droppedCount() + runner.errors.get();
+        return total;
+    }
+}
@@ -0,0 +1,535 @@
+package com.flamapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+public class FrameProcessor implements AutoCloseable {
+
+    // Which engine runs the filter chain
+    public enum Backend {
+        // native if libnative-lib loads, Java otherwise
+        AUTO,
+        // OpenCV through JNI
+        NATIVE,
+        // pure-Java fallback, also what host JVM tests use
+        JAVA
+    }
+
+    // make sure this name matches your native library name in CMakeLists / build.gradle
+    private static final String NATIVE_LIBRARY = "native-lib";
+
+    private static final Object loadLock = new Object();
+    private static Boolean nativeLoaded;
+    private static Throwable nativeLoadError;
+
+    // Loads the native library on first use (not in a static initializer, so a missing or broken
+    // OpenCV build leaves the Java backend usable). Returns false if it can't be loaded.
+    public static boolean isNativeAvailable() {
+        synchronized (loadLock) {
+            if (nativeLoaded == null) {
+                try {
+                    System.loadLibrary(NATIVE_LIBRARY);
+                    nativeLoaded = true;
+                } catch (Throwable t) {
+                    nativeLoadError = t;
+                    nativeLoaded = false;
+                    AppLog.w("FrameProcessor", "native library unavailable: " + t);
+                }
+            }
+            return nativeLoaded;
+        }
+    }
+
+    // Why isNativeAvailable() returned false, null otherwise
+    public static Throwable getNativeLoadError() {
+        synchronized (loadLock) {
+            return nativeLoadError;
+        }
+    }
+
+    // Native method signature — matches the JNI function name Java_com_flamapp_FrameProcessor_processGrayFrame
+    // input: grayscale bytes (width*height), returns grayscale bytes
+    // The static natives need isNativeAvailable() to have returned true.
+    public static native byte[] processGrayFrame(byte[] input, int width, int height);
+
+    // Zero-copy variant — matches Java_com_flamapp_FrameProcessor_processGrayFrameDirect
+    // input: the Y plane's direct ByteBuffer as handed out by Image.Plane (any rowStride / pixelStride)
+    // output: caller-owned direct ByteBuffer of at least width*height bytes, receives the edges
+    // returns false if the buffers are not direct / too small or OpenCV failed
+    public static native boolean processGrayFrameDirect(ByteBuffer input, int width, int height,
+                                                        int rowStride, int pixelStride,
+                                                        ByteBuffer output);
+
+    // Allocates an output buffer suitable for processGrayFrameDirect; keep it and reuse it per frame
+    public static ByteBuffer allocateOutput(int width, int height) {
+        return ByteBuffer.allocateDirect(width * height);
+    }
+
+    // Pixel buffer for processToPixels, in the little-endian layout Bitmap.copyPixelsFromBuffer expects
+    public static ByteBuffer allocatePixels(int width, int height, ColorOutput.Format format) {
+        return ByteBuffer.allocateDirect(width * height * format.bytesPerPixel).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Number of times a native context replaced one of its cv::Mat workspaces since the library was
+    // loaded, across all instances. After every processor has handled its first frame this should
+    // stop moving. It only sees those workspaces: allocations inside OpenCV or elsewhere in the
+    // native code don't show up here.
+    public static native long nativeWorkspaceReallocations();
+
+    // -------------------------
+    // Instance API: a context (native or Java) that owns its intermediate buffers and parameters
+    // -------------------------
+
+    // Algorithm parameters, copied into the engine at create() time.
+    // Either the blur/Canny shorthand or a full FilterChain (which then wins).
+    public static class Config {
+        int blurKernelSize = 3;
+        double cannyLow = 80;
+        double cannyHigh = 150;
+        FilterChain filterChain;
+        ColorOutput colorOutput;
+        int incrementalTileSize;
+        int changeThreshold;
+        int nativeThreads = 1;
+        boolean pinBigCores;
+        Backend backend = Backend.AUTO;
+        ForkJoinPool javaPool = ForkJoinPool.commonPool();
+
+        // Odd Gaussian kernel size; 0 or 1 disables the blur
+        public Config setBlurKernelSize(int size) {
+            if (size > 1 && (size & 1) == 0) {
+                throw new IllegalArgumentException("Blur kernel must be odd: " + size);
+            }
+            this.blurKernelSize = size;
+            return this;
+        }
+
+        public Config setCannyThresholds(double low, double high) {
+            if (low < 0 || high < low) {
+                throw new IllegalArgumentException("Bad Canny thresholds: " + low + ", " + high);
+            }
+            this.cannyLow = low;
+            this.cannyHigh = high;
+            return this;
+        }
+
+        public Config setFilterChain(FilterChain chain) {
+            this.filterChain = chain;
+            return this;
+        }
+
+        // Enables processToPixels from the first frame
+        public Config setColorOutput(ColorOutput output) {
+            this.colorOutput = output;
+            return this;
+        }
+
+        // Turns on incremental processing from the first frame, see FrameProcessor.setIncremental
+        public Config setIncremental(int tileSize, int changeThreshold) {
+            checkIncremental(tileSize, changeThreshold);
+            this.incrementalTileSize = tileSize;
+            this.changeThreshold = changeThreshold;
+            return this;
+        }
+
+        public Config setBackend(Backend backend) {
+            this.backend = backend;
+            return this;
+        }
+
+        // Pool the Java backend splits frames over; null runs it on the calling thread
+        public Config setJavaPool(ForkJoinPool pool) {
+            this.javaPool = pool;
+            return this;
+        }
+
+        // Threads the native backend splits frames over, see FrameProcessor.setNativeThreads
+        public Config setNativeThreads(int threads, boolean pinBigCores) {
+            checkThreads(threads);
+            this.nativeThreads = threads;
+            this.pinBigCores = pinBigCores;
+            return this;
+        }
+
+        FilterChain toFilterChain() {
+            if (filterChain != null) return filterChain;
+            FilterChain chain = new FilterChain();
+            if (blurKernelSize > 1) chain.gaussianBlur(blurKernelSize);
+            return chain.canny(cannyLow, cannyHigh);
+        }
+    }
+
+    // Incremental processing counters (getIncrementalStats)
+    public static final class IncrementalStats {
+        public final long frames;
+        // frames that matched the cached result: no step ran
+        public final long unchangedFrames;
+        public final long tilesChecked;
+        public final long tilesReprocessed;
+
+        IncrementalStats(long[] values) {
+            this.frames = values[0];
+            this.unchangedFrames = values[1];
+            this.tilesChecked = values[2];
+            this.tilesReprocessed = values[3];
+        }
+
+        // share of the tiles whose pixels went through the chain, 1.0 without incremental gains
+        public double reprocessedRatio() {
+            return tilesChecked == 0 ? 1.0 : (double) tilesReprocessed / tilesChecked;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"frames\":%d,\"unchanged\":%d,\"tilesChecked\":%d,\"tilesReprocessed\":%d,\"ratio\":%.4f}",
+                    frames, unchangedFrames, tilesChecked, tilesReprocessed, reprocessedRatio());
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final Backend backend;
+    private int outputWidth;
+    private int outputHeight;
+    private ColorOutput colorOutput;
+    private FrameEngine engine;
+
+    private FrameProcessor(int width, int height, FilterChain chain, Backend backend, FrameEngine engine) {
+        this.width = width;
+        this.height = height;
+        this.backend = backend;
+        this.outputWidth = chain.outputWidth(width);
+        this.outputHeight = chain.outputHeight(height);
+        this.engine = engine;
+    }
+
+    // Creates a processor for frames of exactly width x height
+    public static FrameProcessor create(int width, int height, Config config) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bad frame size: " + width + "x" + height);
+        }
+        if (config == null) config = new Config();
+        FilterChain chain = config.toFilterChain();
+
+        Backend backend = config.backend;
+        if (backend == Backend.AUTO) {
+            backend = isNativeAvailable() ? Backend.NATIVE : Backend.JAVA;
+        }
+        FrameEngine engine;
+        if (backend == Backend.NATIVE) {
+            if (!isNativeAvailable()) {
+                throw new IllegalStateException("Native backend requested but " + NATIVE_LIBRARY
+                        + " could not be loaded", getNativeLoadError());
+            }
+            engine = new NativeEngine(width, height, chain);
+        } else {
+            engine = new JavaFrameEngine(width, height, chain, config.javaPool);
+        }
+        FrameProcessor processor = new FrameProcessor(width, height, chain, backend, engine);
+        try {
+            if (config.colorOutput != null) processor.setColorOutput(config.colorOutput);
+            if (config.incrementalTileSize > 0) {
+                processor.setIncremental(config.incrementalTileSize, config.changeThreshold);
+            }
+            if (config.nativeThreads > 1) processor.setNativeThreads(config.nativeThreads, config.pinBigCores);
+        } catch (RuntimeException e) {
+            processor.close();
+            throw e;
+        }
+        return processor;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // The backend actually in use (never AUTO)
+    public Backend getBackend() {
+        return backend;
+    }
+
+    // Output size after any resize steps; size the output buffer with allocateOutput(w, h) of these
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    // Switches effects at runtime; buffers are re-planned here, frames keep costing one JNI call.
+    // Call from the thread that calls process().
+    public void setFilterChain(FilterChain chain) {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        if (colorOutput != null && colorOutput.isOverlay()) checkOverlaySize(chain);
+        engine.setFilterChain(chain);
+        outputWidth = chain.outputWidth(width);
+        outputHeight = chain.outputHeight(height);
+    }
+
+    // How processToPixels colours the result; null turns pixel output off.
+    // An overlay composites over the camera image, so the chain must keep the frame size.
+    public void setColorOutput(ColorOutput output) {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        if (output != null && output.isOverlay() && (outputWidth != width || outputHeight != height)) {
+            throw new IllegalArgumentException("Overlay output needs a chain that keeps the frame size");
+        }
+        engine.setColorOutput(output);
+        colorOutput = output;
+    }
+
+    public ColorOutput getColorOutput() {
+        return colorOutput;
+    }
+
+    // Incremental processing for mostly static scenes: each frame is split into tileSize tiles
+    // and compared (sampled mean absolute difference, 0-255) with the picture behind the cached
+    // result. Only tiles above changeThreshold are rerun, grown by the chain's reach (results
+    // that far from a change move too), and the cached result is reused for the rest; if no tile
+    // changed no step runs at all (lastFrameUnchanged()). Outputs are still written in full.
+    // Chains with a whole-frame step (histogram, Otsu, resize) rerun in full when anything changed.
+    // Canny is approximate: hysteresis only follows an edge a few pixels past a rerun region, so
+    // pixels further out can differ from a full run until the whole frame is refreshed, which
+    // happens every FilterChain.CANNY_REFRESH_RUNS tiled runs and on the first still frame after
+    // one (that frame is not lastFrameUnchanged()). tileSize 0 turns it off. Counters restart here.
+    public void setIncremental(int tileSize, int changeThreshold) {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        checkIncremental(tileSize, changeThreshold);
+        engine.setIncremental(tileSize, changeThreshold);
+    }
+
+    // True if the last frame was within the change threshold everywhere, so its output is the
+    // previous frame's; callers still showing that can drop this frame
+    public boolean lastFrameUnchanged() {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        return engine.lastFrameUnchanged();
+    }
+
+    public IncrementalStats getIncrementalStats() {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        long[] values = new long[4];
+        engine.incrementalStats(values);
+        return new IncrementalStats(values);
+    }
+
+    // Native backend: splits each frame into horizontal stripes on a persistent pool of this many
+    // threads, the calling thread included (1 = everything on the caller). Stripes carry the
+    // halo rows their steps read, Canny's hysteresis and whole-frame steps still see the whole
+    // frame, so the output is bit-identical to a single-threaded run. pinBigCores keeps the
+    // workers off the LITTLE cores of a big.LITTLE CPU. Returns the thread count in use: 1 on
+    // the Java backend (see Config.setJavaPool) or if the native pool could not be started.
+    public int setNativeThreads(int threads, boolean pinBigCores) {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        checkThreads(threads);
+        if (!(engine instanceof NativeEngine)) return 1;
+        int used = nativeSetThreads(((NativeEngine) engine).handle, threads, pinBigCores);
+        return Math.max(1, used);
+    }
+
+    // input: direct plane buffer (any rowStride / pixelStride),
+    // output: direct buffer of getOutputWidth() * getOutputHeight() bytes.
+    // Not thread-safe: a processor belongs to one frame stream.
+    public boolean process(ByteBuffer input, int rowStride, int pixelStride, ByteBuffer output) {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        return engine.process(input, rowStride, pixelStride, output);
+    }
+
+    // Like process(), but the result goes through the ColorOutput into display pixels in the
+    // same call (no separate gray -> ARGB pass). pixels: direct buffer from allocatePixels()
+    // or anything laid out like it.
+    public boolean processToPixels(ByteBuffer input, int rowStride, int pixelStride, ByteBuffer pixels) {
+        if (colorOutput == null) throw new IllegalStateException("No ColorOutput set");
+        return processToPixels(input, rowStride, pixelStride, pixels,
+                outputWidth * colorOutput.getFormat().bytesPerPixel);
+    }
+
+    // rowBytes: distance between output rows, e.g. a locked bitmap's stride
+    public boolean processToPixels(ByteBuffer input, int rowStride, int pixelStride,
+                                   ByteBuffer pixels, int rowBytes) {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        if (colorOutput == null) throw new IllegalStateException("No ColorOutput set");
+        return engine.processToPixels(input, rowStride, pixelStride, pixels, rowBytes);
+    }
+
+    // Colour frames: all three YUV_420_888 planes as Image.Plane hands them out (y: the strides of
+    // process(), u / v: 2x2 subsampled, planar with uvPixelStride 1 or NV21 / NV12 interleaved
+    // with 2). Runs the chain on y and writes pixels like processToPixels in the same native pass;
+    // with an overlay ColorOutput (ARGB_8888 only) the camera shows through in colour, converted
+    // from YUV and dimmed like the gray overlay. Other ColorOutputs give processToPixels' output.
+    public boolean processYuvToPixels(ByteBuffer y, int rowStride, int pixelStride, ByteBuffer u, ByteBuffer v,
+                                      int uvRowStride, int uvPixelStride, ByteBuffer pixels) {
+        if (colorOutput == null) throw new IllegalStateException("No ColorOutput set");
+        return processYuvToPixels(y, rowStride, pixelStride, u, v, uvRowStride, uvPixelStride, pixels,
+                outputWidth * colorOutput.getFormat().bytesPerPixel);
+    }
+
+    public boolean processYuvToPixels(ByteBuffer y, int rowStride, int pixelStride, ByteBuffer u, ByteBuffer v,
+                                      int uvRowStride, int uvPixelStride, ByteBuffer pixels, int rowBytes) {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        if (colorOutput == null) throw new IllegalStateException("No ColorOutput set");
+        if (colorOutput.isOverlay() && colorOutput.getFormat() != ColorOutput.Format.ARGB_8888) {
+            throw new IllegalStateException("Colour overlay needs ARGB_8888 output");
+        }
+        return engine.processYuvToPixels(y, rowStride, pixelStride, u, v, uvRowStride, uvPixelStride,
+                pixels, rowBytes);
+    }
+
+    // Like process(), but the result comes back packed 1 bit per pixel (nonzero = edge), 32x
+    // smaller than ARGB. out must be getOutputWidth() x getOutputHeight(); the native backend
+    // packs straight from its result, without an intermediate byte plane.
+    public boolean processToEdgeMap(ByteBuffer input, int rowStride, int pixelStride, EdgeMap out) {
+        if (engine == null) throw new IllegalStateException("FrameProcessor is closed");
+        if (out.width != outputWidth || out.height != outputHeight) {
+            throw new IllegalArgumentException("Edge map is " + out.width + "x" + out.height
+                    + ", output is " + outputWidth + "x" + outputHeight);
+        }
+        return engine.processToEdgeMap(input, rowStride, pixelStride, out);
+    }
+
+    // The FrameContext* behind a native processor, 0 for the Java backend.
+    // For platform glue (BitmapOutput) that hands the context to its own JNI entry points.
+    long nativeHandle() {
+        return engine instanceof NativeEngine ? ((NativeEngine) engine).handle : 0;
+    }
+
+    @Override
+    public void close() {
+        if (engine != null) {
+            engine.close();
+            engine = null;
+        }
+    }
+
+    private static void checkIncremental(int tileSize, int changeThreshold) {
+        if (tileSize != 0 && tileSize < TileChanges.SAMPLE_STEP) {
+            throw new IllegalArgumentException("Bad tile size: " + tileSize);
+        }
+        if (changeThreshold < 0 || changeThreshold > 255) {
+            throw new IllegalArgumentException("Bad change threshold: " + changeThreshold);
+        }
+    }
+
+    private static void checkThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Bad thread count: " + threads);
+    }
+
+    private void checkOverlaySize(FilterChain chain) {
+        if (chain.outputWidth(width) != width || chain.outputHeight(height) != height) {
+            throw new IllegalArgumentException("Overlay output needs a chain that keeps the frame size");
+        }
+    }
+
+    // OpenCV context behind a jlong handle (a FrameContext* owned by this object)
+    private static final class NativeEngine implements FrameEngine {
+        private long handle;
+
+        NativeEngine(int width, int height, FilterChain chain) {
+            handle = nativeCreate(width, height, chain.encodedOps(), chain.encodedParams());
+            if (handle == 0) {
+                throw new IllegalStateException("Native context creation failed");
+            }
+        }
+
+        @Override
+        public boolean process(ByteBuffer input, int rowStride, int pixelStride, ByteBuffer output) {
+            return nativeProcess(handle, input, rowStride, pixelStride, output);
+        }
+
+        @Override
+        public boolean processToPixels(ByteBuffer input, int rowStride, int pixelStride,
+                                       ByteBuffer pixels, int rowBytes) {
+            return nativeProcessToPixels(handle, input, rowStride, pixelStride, pixels, rowBytes);
+        }
+
+        @Override
+        public boolean processYuvToPixels(ByteBuffer y, int rowStride, int pixelStride, ByteBuffer u,
+                                          ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                          ByteBuffer pixels, int rowBytes) {
+            return nativeProcessYuvToPixels(handle, y, rowStride, pixelStride, u, v, uvRowStride, uvPixelStride,
+                    pixels, rowBytes);
+        }
+
+        @Override
+        public boolean processToEdgeMap(ByteBuffer input, int rowStride, int pixelStride, EdgeMap out) {
+            return nativeProcessToEdgeMap(handle, input, rowStride, pixelStride, out.words, out.wordsPerRow);
+        }
+
+        @Override
+        public void setFilterChain(FilterChain chain) {
+            if (!nativeSetFilterChain(handle, chain.encodedOps(), chain.encodedParams())) {
+                throw new IllegalArgumentException("Native side rejected the filter chain");
+            }
+        }
+
+        @Override
+        public void setColorOutput(ColorOutput output) {
+            boolean ok = output == null
+                    ? nativeSetColorOutput(handle, 0, null, null)
+                    : nativeSetColorOutput(handle, output.getFormat().bytesPerPixel,
+                            output.encodedColors(), output.encodedBackground());
+            if (!ok) throw new IllegalArgumentException("Native side rejected the colour output");
+        }
+
+        @Override
+        public void setIncremental(int tileSize, int threshold) {
+            if (!nativeSetIncremental(handle, tileSize, threshold)) {
+                throw new IllegalArgumentException("Native side rejected incremental mode");
+            }
+        }
+
+        @Override
+        public boolean lastFrameUnchanged() {
+            return nativeLastFrameUnchanged(handle);
+        }
+
+        @Override
+        public void incrementalStats(long[] out) {
+            nativeIncrementalStats(handle, out);
+        }
+
+        @Override
+        public void close() {
+            if (handle != 0) {
+                nativeDestroy(handle);
+                handle = 0;
+            }
+        }
+    }
+
+    private static native long nativeCreate(int width, int height, int[] ops, double[] params);
+
+    private static native boolean nativeSetFilterChain(long handle, int[] ops, double[] params);
+
+    private static native boolean nativeProcess(long handle, ByteBuffer input, int rowStride,
+                                                int pixelStride, ByteBuffer output);
+
+    private static native boolean nativeSetColorOutput(long handle, int bytesPerPixel,
+                                                       int[] colors, int[] background);
+
+    private static native boolean nativeProcessToPixels(long handle, ByteBuffer input, int rowStride,
+                                                        int pixelStride, ByteBuffer pixels, int rowBytes);
+
+    private static native boolean nativeProcessYuvToPixels(long handle, ByteBuffer y, int rowStride,
+                                                           int pixelStride, ByteBuffer u, ByteBuffer v,
+                                                           int uvRowStride, int uvPixelStride,
+                                                           ByteBuffer pixels, int rowBytes);
+
+    private static native boolean nativeProcessToEdgeMap(long handle, ByteBuffer input, int rowStride,
+                                                         int pixelStride, long[] words, int wordsPerRow);
+
+    private static native boolean nativeSetIncremental(long handle, int tileSize, int threshold);
+
+    private static native boolean nativeLastFrameUnchanged(long handle);
+
+    private static native void nativeIncrementalStats(long handle, long[] out);
+
+    private static native int nativeSetThreads(long handle, int threads, boolean pinBigCores);
+
+    private static native void nativeDestroy(long handle);
+}
@@ -0,0 +1,205 @@
+package com.flamapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded lock-free ring buffer joining two pipeline stages.
+// Multi-producer / multi-consumer (bounded sequence-array queue): DROP_OLDEST needs the
+// producer to take from the consumer end, so single-producer tricks don't apply.
+// Never allocates after construction.
+public class FrameQueue<T> {
+
+    // Receives every frame the queue throws away, so pooled buffers can go back to their pool
+    public interface DropHandler<T> {
+        void onDrop(T frame);
+    }
+
+    private static final long BLOCK_PARK_NANOS = 100_000L;
+
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final BackpressurePolicy policy;
+    private final DropHandler<T> dropHandler;
+
+    private final AtomicLong head = new AtomicLong();  // next slot to take
+    private final AtomicLong tail = new AtomicLong();  // next slot to fill
+    private final AtomicLong dropped = new AtomicLong();
+
+    // consumer parked on an empty queue, woken by the next put
+    private volatile Thread consumer;
+    private volatile boolean closed;
+
+    // capacity is rounded up to a power of two, minimum 2 (with a single slot the sequence
+    // scheme can't tell "just filled" from "just emptied")
+    public FrameQueue(int capacity, BackpressurePolicy policy, DropHandler<T> dropHandler) {
+        if (capacity < 1) throw new IllegalArgumentException("Queue capacity must be >= 1");
+        capacity = Math.max(capacity, 2);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        this.mask = size - 1;
+        this.policy = policy;
+        this.dropHandler = dropHandler;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public BackpressurePolicy policy() {
+        return policy;
+    }
+
+    // Adds a frame according to the queue's policy. Returns false if a frame was dropped
+    // (the incoming one for DROP_NEWEST / closed queues, the oldest for DROP_OLDEST).
+    public boolean put(T frame) {
+        if (frame == null) throw new NullPointerException("frame");
+        if (closed) {
+            drop(frame);
+            return false;
+        }
+        boolean lost = false;
+        while (!offer(frame)) {
+            if (closed) {
+                drop(frame);
+                return false;
+            }
+            switch (policy) {
+                case DROP_NEWEST:
+                    drop(frame);
+                    return false;
+                case DROP_OLDEST:
+                    T oldest = poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                        lost = true;
+                    }
+                    break;
+                case BLOCK:
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    break;
+            }
+        }
+        if (closed) {
+            // close() ran between the check above and the offer and may have drained before the
+            // frame landed: nobody takes from a closed queue, so hand it back now
+            dropQueued();
+            return false;
+        }
+        Thread waiting = consumer;
+        if (waiting != null) LockSupport.unpark(waiting);
+        return !lost;
+    }
+
+    // Non-blocking insert, false when full
+    public boolean offer(T frame) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.set(index, frame);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            // another producer won the slot, retry with the new tail
+        }
+    }
+
+    // Non-blocking take, null when empty
+    public T poll() {
+        while (true) {
+            long pos = head.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    T frame = items.get(index);
+                    items.set(index, null);
+                    sequences.set(index, pos + mask + 1);
+                    return frame;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    // Takes a frame, parking the calling thread for as long as the queue is empty. Returns null
+    // once the queue is closed (or the thread interrupted); put() and close() wake it.
+    public T take() {
+        T frame = poll();
+        if (frame != null) return frame;
+        consumer = Thread.currentThread();
+        try {
+            // re-checked after every wake-up: parks can return spuriously
+            while ((frame = poll()) == null && !closed && !Thread.currentThread().isInterrupted()) {
+                LockSupport.park(this);
+            }
+        } finally {
+            consumer = null;
+        }
+        return frame;
+    }
+
+    // Takes a frame, parking the calling thread up to timeoutNanos while the queue is empty
+    public T take(long timeoutNanos) {
+        T frame = poll();
+        if (frame != null || closed) return frame;
+        consumer = Thread.currentThread();
+        try {
+            // re-check after publishing ourselves, a put may have raced the first poll
+            frame = poll();
+            if (frame == null) {
+                LockSupport.parkNanos(this, timeoutNanos);
+                frame = poll();
+            }
+        } finally {
+            consumer = null;
+        }
+        return frame;
+    }
+
+    // Approximate number of queued frames
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) return 0;
+        return (int) Math.min(size, capacity());
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    // Re-enables a closed queue (pipeline restart)
+    void open() {
+        closed = false;
+    }
+
+    // Stops accepting frames (blocked producers give up) and drops whatever is still queued
+    public void close() {
+        closed = true;
+        dropQueued();
+        Thread waiting = consumer;
+        if (waiting != null) LockSupport.unpark(waiting);
+    }
+
+    private void dropQueued() {
+        T frame;
+        while ((frame = poll()) != null) drop(frame);
+    }
+
+    private void drop(T frame) {
+        dropped.incrementAndGet();
+        if (dropHandler != null) dropHandler.onDrop(frame);
+    }
+}
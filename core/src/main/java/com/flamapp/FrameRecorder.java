@@ -0,0 +1,157 @@
+package com.flamapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Appends raw 8-bit planes (camera Y) to a preallocated, memory-mapped recording, for replay
+// off-device with FrameReplaySource. append() is a header write plus one bulk copy into the
+// mapping: no allocation, no system call, no page fault (every page is touched up front).
+//
+// File layout, little-endian:
+//   header (HEADER_BYTES): magic "FLAMREC1", int version, int header size, int frame count,
+//                          int reserved, long end of the last complete frame
+//   frames, each at an 8-byte boundary: int FRAME_MAGIC, int width, int height, int row stride,
+//                          long timestamp (ns), int payload bytes, int reserved, then the plane
+//                          ((height - 1) * rowStride + width bytes)
+// The header is updated after every frame, so a recording cut short (crash, full disk) still
+// replays up to its last complete frame. close() trims the file to that point.
+// Not thread-safe: one producer (the camera thread).
+public final class FrameRecorder implements AutoCloseable {
+
+    static final long MAGIC = 0x314345524D414C46L;   // "FLAMREC1" read as a little-endian long
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int FRAME_MAGIC = 0x314D5246;       // "FRM1"
+    static final int FRAME_HEADER_BYTES = 32;
+
+    static final int OFFSET_FRAME_COUNT = 16;
+    static final int OFFSET_DATA_END = 24;
+
+    private static final int PAGE_BYTES = 4096;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private int frames;
+    private long dropped;
+    private boolean closed;
+
+    // capacityBytes: the whole file, header included; a MappedByteBuffer tops out at 2 GB
+    public FrameRecorder(File file, long capacityBytes) throws IOException {
+        if (capacityBytes < HEADER_BYTES + FRAME_HEADER_BYTES || capacityBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad recording capacity: " + capacityBytes);
+        }
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(capacityBytes);
+            this.channel = raf.getChannel();
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        // setLength leaves a sparse file: give every page its disk block now rather than
+        // faulting them in one by one on the camera thread
+        for (int p = 0; p < map.capacity(); p += PAGE_BYTES) map.put(p, (byte) 0);
+        map.putLong(0, MAGIC);
+        map.putInt(8, VERSION);
+        map.putInt(12, HEADER_BYTES);
+        map.putInt(OFFSET_FRAME_COUNT, 0);
+        map.putInt(20, 0);
+        map.putLong(OFFSET_DATA_END, HEADER_BYTES);
+        map.position(HEADER_BYTES);
+    }
+
+    // File size that holds frames planes of width x height, rows rowStride apart
+    public static long capacityFor(int width, int height, int rowStride, int frames) {
+        long record = (FRAME_HEADER_BYTES + (long) (height - 1) * rowStride + width + 7) & ~7L;
+        return HEADER_BYTES + record * frames;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int frameCount() {
+        return frames;
+    }
+
+    // Frames that didn't fit
+    public long droppedFrames() {
+        return dropped;
+    }
+
+    public long bytesUsed() {
+        return map.position();
+    }
+
+    // Records rows of width bytes, rowStride apart, from plane's position 0 (its position and
+    // limit are left as they were). pixelStride > 1 (interleaved chroma) is packed to width.
+    // Returns false once the file is full.
+    public boolean append(ByteBuffer plane, int width, int height, int rowStride, int pixelStride,
+                          long timestampNs) {
+        if (closed) throw new IllegalStateException("Recorder is closed");
+        int storedStride = pixelStride == 1 ? rowStride : width;
+        int payload = (height - 1) * storedStride + width;
+        int start = map.position();
+        int end = align(start + FRAME_HEADER_BYTES + payload);
+        if (end > map.capacity() || end < 0) {
+            dropped++;
+            return false;
+        }
+
+        map.putInt(start, FRAME_MAGIC);
+        map.putInt(start + 4, width);
+        map.putInt(start + 8, height);
+        map.putInt(start + 12, storedStride);
+        map.putLong(start + 16, timestampNs);
+        map.putInt(start + 24, payload);
+        map.putInt(start + 28, 0);
+
+        map.position(start + FRAME_HEADER_BYTES);
+        if (pixelStride == 1) {
+            int position = plane.position();
+            int limit = plane.limit();
+            plane.limit(payload).position(0);
+            map.put(plane);
+            plane.limit(limit).position(position);
+        } else {
+            for (int r = 0; r < height; r++) {
+                int src = r * rowStride;
+                for (int c = 0; c < width; c++) map.put(plane.get(src + c * pixelStride));
+            }
+        }
+        map.position(end);
+
+        // frame count last: a reader never sees a frame whose bytes aren't all there
+        map.putLong(OFFSET_DATA_END, end);
+        map.putInt(OFFSET_FRAME_COUNT, ++frames);
+        return true;
+    }
+
+    // Flushes the mapping and trims the unused preallocation
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            map.force();
+            channel.truncate(map.position());
+        } finally {
+            raf.close();
+        }
+    }
+
+    static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+}
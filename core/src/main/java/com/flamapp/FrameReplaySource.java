@@ -0,0 +1,219 @@
+package com.flamapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays back a FrameRecorder file, so a workload captured on a phone can be reprocessed and
+// benchmarked anywhere (the Java backend runs on any JVM). The file is mapped read-only and
+// indexed once on open; each frame is a read-only direct slice of the mapping, handed out
+// without copying or allocating. As a FrameSource, next() copies the frames into pooled ones
+// in order (looping if asked), unpaced.
+public final class FrameReplaySource implements FrameSource {
+
+    public enum Pacing {
+        RECORDED,   // frames go out at their recorded timestamps' spacing
+        MAX         // back to back
+    }
+
+    public interface Sink {
+        // plane: read-only direct buffer, rows of width bytes rowStride apart (pixel stride 1)
+        void onFrame(int index, ByteBuffer plane, int width, int height, int rowStride, long timestampNs);
+    }
+
+    // How a play() went: with RECORDED pacing, late frames are those the sink made start more
+    // than LATE_NANOS after their slot because the previous one was still being handled
+    public static final class Result {
+        public static final long LATE_NANOS = 1_000_000;
+
+        public final int frames;
+        public final int lateFrames;
+        public final long elapsedNanos;
+
+        Result(int frames, int lateFrames, long elapsedNanos) {
+            this.frames = frames;
+            this.lateFrames = lateFrames;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double fps() {
+            return elapsedNanos > 0 ? frames * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d frames in %.1f ms (%.1f fps, %d late)",
+                    frames, elapsedNanos / 1e6, fps(), lateFrames);
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final ByteBuffer[] planes;
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] strides;
+    private final long[] timestamps;
+    // next()'s position; loops completed so far shift its timestamps
+    private int cursor;
+    private int loopsDone;
+    private boolean looping;
+
+    public FrameReplaySource(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < FrameRecorder.HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a frame recording: " + file);
+            }
+            MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getLong(0) != FrameRecorder.MAGIC) throw new IOException("Not a frame recording: " + file);
+            int version = map.getInt(8);
+            if (version != FrameRecorder.VERSION) {
+                throw new IOException("Unsupported recording version " + version + ": " + file);
+            }
+            int count = map.getInt(FrameRecorder.OFFSET_FRAME_COUNT);
+            long dataEnd = map.getLong(FrameRecorder.OFFSET_DATA_END);
+            if (count < 0 || dataEnd < FrameRecorder.HEADER_BYTES || dataEnd > length) {
+                throw new IOException("Corrupt recording header: " + file);
+            }
+
+            planes = new ByteBuffer[count];
+            widths = new int[count];
+            heights = new int[count];
+            strides = new int[count];
+            timestamps = new long[count];
+            int offset = map.getInt(12);
+            for (int i = 0; i < count; i++) {
+                if (offset + FrameRecorder.FRAME_HEADER_BYTES > dataEnd
+                        || map.getInt(offset) != FrameRecorder.FRAME_MAGIC) {
+                    throw new IOException("Corrupt frame " + i + " at " + offset + ": " + file);
+                }
+                int width = map.getInt(offset + 4);
+                int height = map.getInt(offset + 8);
+                int stride = map.getInt(offset + 12);
+                int payload = map.getInt(offset + 24);
+                int data = offset + FrameRecorder.FRAME_HEADER_BYTES;
+                if (width <= 0 || height <= 0 || stride < width
+                        || payload != (height - 1) * stride + width || data + (long) payload > dataEnd) {
+                    throw new IOException("Corrupt frame " + i + " at " + offset + ": " + file);
+                }
+                map.limit(data + payload).position(data);
+                planes[i] = map.slice().asReadOnlyBuffer();
+                map.clear();
+                widths[i] = width;
+                heights[i] = height;
+                strides[i] = stride;
+                timestamps[i] = map.getLong(offset + 16);
+                offset = FrameRecorder.align(data + payload);
+            }
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int frameCount() {
+        return planes.length;
+    }
+
+    public ByteBuffer plane(int index) {
+        return planes[index];
+    }
+
+    public int width(int index) {
+        return widths[index];
+    }
+
+    public int height(int index) {
+        return heights[index];
+    }
+
+    public int rowStride(int index) {
+        return strides[index];
+    }
+
+    public long timestampNs(int index) {
+        return timestamps[index];
+    }
+
+    // next() starts over after the last frame instead of returning null
+    public FrameReplaySource setLooping(boolean looping) {
+        this.looping = looping;
+        return this;
+    }
+
+    @Override
+    public Frame next(BufferPool<Frame> pool) {
+        int count = planes.length;
+        if (cursor == count) {
+            if (!looping || count == 0) return null;
+            cursor = 0;
+            loopsDone++;
+        }
+        int i = cursor++;
+        Frame frame = pool.acquire(widths[i], heights[i]);
+        frame.reset();
+        // copyFrom moves position / limit of the shared slice: put them back after
+        ByteBuffer plane = planes[i];
+        plane.clear();
+        frame.copyFrom(plane, strides[i], 1);
+        plane.clear();
+        frame.timestampNs = timestamps[i] + loopsDone * loopNanos();
+        return frame;
+    }
+
+    // Recorded length, first to last frame
+    public long durationNanos() {
+        return planes.length > 1 ? timestamps[planes.length - 1] - timestamps[0] : 0;
+    }
+
+    // One pass over the recording: its duration plus one recorded frame interval of spacing
+    // before the next loop
+    private long loopNanos() {
+        int count = planes.length;
+        return count > 1 ? durationNanos() + durationNanos() / (count - 1) : 0;
+    }
+
+    // Hands every frame to sink in order, loops times over. On the calling thread.
+    public Result play(Sink sink, Pacing pacing, int loops) {
+        if (loops < 1) throw new IllegalArgumentException("Bad loop count: " + loops);
+        int count = planes.length;
+        int late = 0;
+        long start = System.nanoTime();
+        long loopNanos = loopNanos();
+        for (int loop = 0; loop < loops; loop++) {
+            for (int i = 0; i < count; i++) {
+                if (pacing == Pacing.RECORDED) {
+                    long due = start + loop * loopNanos + (timestamps[i] - timestamps[0]);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else if (-wait > Result.LATE_NANOS) {
+                        late++;
+                    }
+                }
+                sink.onFrame(i, planes[i], widths[i], heights[i], strides[i], timestamps[i]);
+            }
+        }
+        return new Result(count * loops, late, System.nanoTime() - start);
+    }
+
+    // The mapping itself goes when the buffers are collected; the planes stay readable until then
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,410 @@
+package com.flamapp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Saves processed frames without slowing the frame loop down.
+//
+// The frame path only pays for a copy: captureIfRequested() copies the camera's gray plane into
+// a pooled buffer and queues it with the effect it was shown with. A fixed number of worker
+// threads reruns the effect on the copy (their own FrameProcessor, full chain) and encodes,
+// draining up to batchSize queued captures at a time (a burst is processed back to back and
+// reported once). The queue is bounded: a capture that doesn't fit is dropped and counted, the
+// frame loop never waits for storage.
+//
+//   saver.requestSave(5);                                  // UI: the next 5 frames
+//   saver.captureIfRequested(frame.gray, w, h, chain, colors);   // frame path, every frame
+public final class FrameSaveService implements AutoCloseable {
+
+    public enum Format {
+        PNG("png", "image/png"),
+        JPEG("jpg", "image/jpeg");
+
+        public final String extension;
+        public final String mimeType;
+
+        Format(String extension, String mimeType) {
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+    }
+
+    // Where an encoded image goes (MediaStore on the device, a directory in tests)
+    public interface Storage {
+        OutputStream open(String name, Format format) throws IOException;
+    }
+
+    // Turns processed pixels into an image file
+    public interface Encoder {
+        // rgba: width * height pixels, R G B A bytes (Bitmap ARGB_8888 memory layout).
+        // level: JPEG quality 0-100, or PNG deflate level 0-9.
+        void encode(ByteBuffer rgba, int width, int height, int level, OutputStream out) throws IOException;
+    }
+
+    // Called on a worker thread after every batch
+    public interface Listener {
+        // lastName: the last image written, null if none of the batch was
+        void onBatchSaved(int saved, int failed, String lastName);
+    }
+
+    public static final class Config {
+        int queueCapacity = 8;
+        int threads = 1;
+        int batchSize = 4;
+        Format format = Format.PNG;
+        int pngLevel = 3;
+        int jpegQuality = 90;
+        final EnumMap<Format, Encoder> encoders = new EnumMap<>(Format.class);
+        FrameProcessor.Backend backend = FrameProcessor.Backend.AUTO;
+        ThreadFactory threadFactory;
+
+        public Config() {
+            encoders.put(Format.PNG, new PngEncoder());
+        }
+
+        // Captures waiting to be encoded; further ones are dropped
+        public Config setQueueCapacity(int capacity) {
+            if (capacity < 1) throw new IllegalArgumentException("Bad queue capacity: " + capacity);
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        public Config setThreads(int threads) {
+            if (threads < 1) throw new IllegalArgumentException("Bad thread count: " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        // Captures a worker takes off the queue at once
+        public Config setBatchSize(int size) {
+            if (size < 1) throw new IllegalArgumentException("Bad batch size: " + size);
+            this.batchSize = size;
+            return this;
+        }
+
+        public Config setFormat(Format format) {
+            this.format = format;
+            return this;
+        }
+
+        // 0 (store, fastest) - 9 (smallest); lossless either way
+        public Config setPngLevel(int level) {
+            if (level < 0 || level > 9) throw new IllegalArgumentException("Bad PNG level: " + level);
+            this.pngLevel = level;
+            return this;
+        }
+
+        public Config setJpegQuality(int quality) {
+            if (quality < 0 || quality > 100) throw new IllegalArgumentException("Bad JPEG quality: " + quality);
+            this.jpegQuality = quality;
+            return this;
+        }
+
+        // PNG has a built-in encoder; JPEG needs the platform's (Bitmap.compress on Android)
+        public Config setEncoder(Format format, Encoder encoder) {
+            encoders.put(format, encoder);
+            return this;
+        }
+
+        // Backend of the workers' processors; their Java backend always runs on the worker itself
+        public Config setBackend(FrameProcessor.Backend backend) {
+            this.backend = backend;
+            return this;
+        }
+
+        // e.g. to give the workers a background scheduling priority
+        public Config setThreadFactory(ThreadFactory factory) {
+            this.threadFactory = factory;
+            return this;
+        }
+
+        int level() {
+            return format == Format.PNG ? pngLevel : jpegQuality;
+        }
+    }
+
+    // Point-in-time counters, for the overlay and the metrics export
+    public static final class Stats {
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long captured;
+        public final long saved;
+        public final long failed;
+        public final long dropped;
+        public final long captureP50Nanos;
+        public final long encodeP50Nanos;
+        public final long encodeP99Nanos;
+        public final long encodeMaxNanos;
+
+        Stats(int queueDepth, int maxQueueDepth, long captured, long saved, long failed, long dropped,
+              LatencyHistogram capture, LatencyHistogram encode) {
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.captured = captured;
+            this.saved = saved;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.captureP50Nanos = capture.percentile(0.50);
+            this.encodeP50Nanos = encode.percentile(0.50);
+            this.encodeP99Nanos = encode.percentile(0.99);
+            this.encodeMaxNanos = encode.max();
+        }
+
+        public String toJson() {
+            return "{\"queueDepth\":" + queueDepth
+                    + ",\"maxQueueDepth\":" + maxQueueDepth
+                    + ",\"captured\":" + captured
+                    + ",\"saved\":" + saved
+                    + ",\"failed\":" + failed
+                    + ",\"dropped\":" + dropped
+                    + ",\"captureP50Ns\":" + captureP50Nanos
+                    + ",\"encodeP50Ns\":" + encodeP50Nanos
+                    + ",\"encodeP99Ns\":" + encodeP99Nanos
+                    + ",\"encodeMaxNs\":" + encodeMaxNanos + "}";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "queue=%d/%d saved=%d failed=%d dropped=%d encode p50/p99=%.1f/%.1fms",
+                    queueDepth, maxQueueDepth, saved, failed, dropped, encodeP50Nanos / 1e6, encodeP99Nanos / 1e6);
+        }
+    }
+
+    private static final String TAG = "FrameSaveService";
+    private static final long POLL_MS = 100;
+
+    // One queued capture
+    private static final class Job {
+        final ByteBuffer gray;
+        final int width;
+        final int height;
+        final FilterChain chain;
+        final ColorOutput color;
+        final String name;
+
+        Job(ByteBuffer gray, int width, int height, FilterChain chain, ColorOutput color, String name) {
+            this.gray = gray;
+            this.width = width;
+            this.height = height;
+            this.chain = chain;
+            this.color = color;
+            this.name = name;
+        }
+    }
+
+    private final Config config;
+    private final Encoder encoder;
+    private final Storage storage;
+    private final Listener listener;
+    private final ArrayBlockingQueue<Job> queue;
+    private final BufferPool<ByteBuffer> planes;
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final AtomicInteger requested = new AtomicInteger();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LatencyHistogram captureTimes = new LatencyHistogram();
+    private final LatencyHistogram encodeTimes = new LatencyHistogram();
+
+    // captures queued or being worked on; awaitIdle() waits for 0
+    private final Object idleLock = new Object();
+    private int pending;
+    private volatile boolean closed;
+
+    // listener may be null
+    public FrameSaveService(Config config, Storage storage, Listener listener) {
+        this.config = config != null ? config : new Config();
+        this.encoder = this.config.encoders.get(this.config.format);
+        if (encoder == null) throw new IllegalArgumentException("No encoder for " + this.config.format);
+        this.storage = storage;
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<>(this.config.queueCapacity);
+        // one spare per queue slot and worker, for the current size and the previous one
+        this.planes = new BufferPool<>("save planes", (w, h) -> ByteBuffer.allocateDirect(w * h), null,
+                this.config.queueCapacity + this.config.threads, 2);
+        for (int i = 0; i < this.config.threads; i++) {
+            Runnable loop = this::workerLoop;
+            Thread worker = this.config.threadFactory != null
+                    ? this.config.threadFactory.newThread(loop)
+                    : new Thread(loop, "FrameSave-" + i);
+            if (this.config.threadFactory == null) {
+                worker.setDaemon(true);
+                worker.setPriority(Thread.MIN_PRIORITY);
+            }
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    // Saves the next frames captureIfRequested() sees; adds to a request still in progress
+    public void requestSave(int frames) {
+        if (frames < 1) throw new IllegalArgumentException("Bad frame count: " + frames);
+        requested.addAndGet(frames);
+    }
+
+    // Frames still to capture for the current request
+    public int requestedFrames() {
+        return requested.get();
+    }
+
+    // Frame path. Without a request pending this is a single atomic read; with one, the packed
+    // gray plane (width * height bytes from its position 0) is copied and queued. chain and
+    // color are what the frame is shown with. Returns true if the frame was queued; a full
+    // queue drops it (counted in Stats.dropped).
+    public boolean captureIfRequested(ByteBuffer gray, int width, int height, FilterChain chain,
+                                      ColorOutput color) {
+        if (requested.get() <= 0 || closed) return false;
+        if (requested.getAndUpdate(n -> n > 0 ? n - 1 : 0) <= 0) return false;
+        long start = System.nanoTime();
+
+        ByteBuffer copy = planes.acquire(width, height);
+        ByteBuffer src = gray.duplicate();
+        src.clear().limit(width * height);
+        copy.clear();
+        copy.put(src).flip();
+        String name = "processed_" + System.currentTimeMillis() + "_" + sequence.incrementAndGet()
+                + "." + config.format.extension;
+        Job job = new Job(copy, width, height, chain, color != null ? color : ColorOutput.gray(), name);
+
+        synchronized (idleLock) {
+            if (!queue.offer(job)) {
+                planes.release(copy);
+                dropped.incrementAndGet();
+                if (AppLog.isLoggable(AppLog.DEBUG)) AppLog.d(TAG, "queue full, dropped " + name);
+                return false;
+            }
+            pending++;
+        }
+        captured.incrementAndGet();
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        captureTimes.record(System.nanoTime() - start);
+        return true;
+    }
+
+    public Stats getStats() {
+        return new Stats(queue.size(), maxQueueDepth.get(), captured.get(), saved.get(), failed.get(),
+                dropped.get(), captureTimes, encodeTimes);
+    }
+
+    // Waits until every queued capture has been written (or failed); false on timeout
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (idleLock) {
+            while (pending > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                idleLock.wait(left);
+            }
+        }
+        return true;
+    }
+
+    // Stops taking captures. Queued ones are still written, the workers exit once the queue is
+    // empty; doesn't wait for them (see awaitIdle).
+    @Override
+    public void close() {
+        closed = true;
+        requested.set(0);
+    }
+
+    private void workerLoop() {
+        List<Job> batch = new ArrayList<>(config.batchSize);
+        FrameProcessor processor = null;
+        FilterChain chain = null;
+        ColorOutput color = null;
+        ByteBuffer pixels = null;
+        try {
+            while (true) {
+                Job first;
+                try {
+                    first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (first == null) {
+                    if (closed) return;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, config.batchSize - 1);
+
+                int ok = 0;
+                String lastName = null;
+                for (Job job : batch) {
+                    long start = System.nanoTime();
+                    try {
+                        // processors are kept per worker and only rebuilt for a new frame size
+                        if (processor == null || processor.getWidth() != job.width
+                                || processor.getHeight() != job.height) {
+                            if (processor != null) processor.close();
+                            processor = FrameProcessor.create(job.width, job.height, new FrameProcessor.Config()
+                                    .setFilterChain(job.chain)
+                                    .setBackend(config.backend)
+                                    .setJavaPool(null));
+                            chain = job.chain;
+                            color = null;
+                        } else if (job.chain != chain) {
+                            processor.setFilterChain(job.chain);
+                            chain = job.chain;
+                        }
+                        if (job.color != color) {
+                            processor.setColorOutput(job.color.withFormat(ColorOutput.Format.ARGB_8888));
+                            color = job.color;
+                        }
+                        int bytes = processor.getOutputWidth() * processor.getOutputHeight() * 4;
+                        if (pixels == null || pixels.capacity() != bytes) {
+                            pixels = FrameProcessor.allocatePixels(processor.getOutputWidth(),
+                                    processor.getOutputHeight(), ColorOutput.Format.ARGB_8888);
+                        }
+                        pixels.clear();
+                        if (!processor.processToPixels(job.gray, job.width, 1, pixels)) {
+                            throw new IOException("processing failed");
+                        }
+                        pixels.rewind();
+                        try (OutputStream out = storage.open(job.name, config.format)) {
+                            encoder.encode(pixels, processor.getOutputWidth(), processor.getOutputHeight(),
+                                    config.level(), out);
+                        }
+                        encodeTimes.record(System.nanoTime() - start);
+                        saved.incrementAndGet();
+                        ok++;
+                        lastName = job.name;
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        AppLog.w(TAG, "saving " + job.name + " failed", e);
+                    } finally {
+                        planes.release(job.gray);
+                    }
+                }
+                if (listener != null) {
+                    try {
+                        listener.onBatchSaved(ok, batch.size() - ok, lastName);
+                    } catch (RuntimeException e) {
+                        AppLog.w(TAG, "save listener failed", e);
+                    }
+                }
+                synchronized (idleLock) {
+                    pending -= batch.size();
+                    if (pending == 0) idleLock.notifyAll();
+                }
+                batch.clear();
+            }
+        } finally {
+            if (processor != null) processor.close();
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.flamapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Runs the process stage of several independent frame streams (one FrameSession each: front and
+// back camera, a camera and recordings, ...) on one fixed pool of worker threads instead of a
+// thread per stream.
+//
+// Each stream keeps its own bounded queue (DROP_OLDEST, like a pipeline stage) and its own
+// processor state, so it runs on at most one worker at a time and its frames stay in order.
+// Workers pick among the streams with frames waiting by stride scheduling: every frame a stream
+// gets advances its pass by STRIDE / priority, and the lowest pass goes next, so under load a
+// priority-2 stream gets twice the frames of a priority-1 one and nobody starves. A stream that
+// was idle rejoins at the current pass rather than with credit for the time it sat out.
+// A stream's frame-rate cap is applied at submit(): frames arriving sooner than 1 / maxFps after
+// the last accepted one never take a worker.
+public final class FrameScheduler implements AutoCloseable {
+
+    private static final String TAG = "FrameScheduler";
+
+    // pass advance of a priority-1 stream per frame
+    private static final long STRIDE = 1 << 20;
+    // highest priority: a stride that still moves the pass forward
+    public static final int MAX_PRIORITY = 1 << 10;
+
+    public static final class Config {
+        int workers = Runtime.getRuntime().availableProcessors();
+        ThreadFactory threadFactory;
+
+        // Worker threads; at most this many frames are processed at once, whatever the number
+        // of streams
+        public Config setWorkers(int workers) {
+            if (workers < 1) throw new IllegalArgumentException("Worker count must be >= 1");
+            this.workers = workers;
+            return this;
+        }
+
+        // e.g. to set a thread priority; default: daemon threads named FrameWorker-N
+        public Config setThreadFactory(ThreadFactory factory) {
+            this.threadFactory = factory;
+            return this;
+        }
+    }
+
+    // How one stream shares the workers
+    public static final class StreamConfig {
+        int priority = 1;
+        double maxFps;
+        int queueCapacity = 2;
+
+        // Share of the workers relative to the other streams while they compete (1..MAX_PRIORITY)
+        public StreamConfig setPriority(int priority) {
+            if (priority < 1 || priority > MAX_PRIORITY) {
+                throw new IllegalArgumentException("Priority must be in 1.." + MAX_PRIORITY + ": " + priority);
+            }
+            this.priority = priority;
+            return this;
+        }
+
+        // Frames per second the stream is processed at, at most; 0 = no cap
+        public StreamConfig setMaxFps(double maxFps) {
+            if (!(maxFps >= 0)) throw new IllegalArgumentException("Bad frame rate cap: " + maxFps);
+            this.maxFps = maxFps;
+            return this;
+        }
+
+        // Frames waiting for a worker; the oldest is dropped when it is full
+        public StreamConfig setQueueCapacity(int capacity) {
+            if (capacity < 1) throw new IllegalArgumentException("Queue capacity must be >= 1");
+            this.queueCapacity = capacity;
+            return this;
+        }
+    }
+
+    // Point-in-time counters for one stream
+    public static final class StreamStats {
+        public final String name;
+        public final int priority;
+        public final double maxFps;
+        public final long submitted;
+        public final long processed;
+        // dropped by the stream's queue (workers busy elsewhere) or on close
+        public final long dropped;
+        // turned away by the frame-rate cap
+        public final long capped;
+        public final long errors;
+        // since the stream was registered
+        public final long elapsedNanos;
+        // worker time spent on the stream's frames
+        public final long busyNanos;
+        // one frame on a worker: stage start -> stage return
+        public final FrameMetrics.StageLatency service;
+
+        StreamStats(String name, int priority, double maxFps, long submitted, long processed, long dropped,
+                    long capped, long errors, long elapsedNanos, long busyNanos, LatencyHistogram service) {
+            this.name = name;
+            this.priority = priority;
+            this.maxFps = maxFps;
+            this.submitted = submitted;
+            this.processed = processed;
+            this.dropped = dropped;
+            this.capped = capped;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.busyNanos = busyNanos;
+            this.service = new FrameMetrics.StageLatency("service", service);
+        }
+
+        public double throughputFps() {
+            return elapsedNanos > 0 ? processed * 1e9 / elapsedNanos : 0;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"name\":\"%s\",\"priority\":%d,\"maxFps\":%.2f,\"submitted\":%d,\"processed\":%d,"
+                            + "\"dropped\":%d,\"capped\":%d,\"errors\":%d,\"throughputFps\":%.2f,\"busyMs\":%.2f,"
+                            + "\"serviceP50Ns\":%d,\"serviceP99Ns\":%d,\"serviceMaxNs\":%d}",
+                    name.replace("\\", "\\\\").replace("\"", "\\\""), priority, maxFps, submitted, processed,
+                    dropped, capped, errors, throughputFps(), busyNanos / 1e6,
+                    service.p50, service.p99, service.max);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s prio=%d%s %.1f fps processed=%d dropped=%d capped=%d service p50/p99=%.2f/%.2fms",
+                    name, priority, maxFps > 0 ? String.format(Locale.US, " cap=%.1f", maxFps) : "",
+                    throughputFps(), processed, dropped, capped, service.p50 / 1e6, service.p99 / 1e6);
+        }
+    }
+
+    // One registered stream. submit() from the producer, close() from anywhere but a worker.
+    public final class Stream<F> {
+        private final String name;
+        private final int priority;
+        private final double maxFps;
+        private final long minIntervalNanos;
+        private final FramePipeline.Stage<F> stage;
+        private final FrameQueue.DropHandler<F> dropHandler;
+        private final FrameQueue.DropHandler<F> capHandler;
+        private final FramePipeline.ErrorHandler<F> errorHandler;
+        private final FrameQueue<F> queue;
+        private final long registeredAt = FrameMetrics.now();
+        private final AtomicLong nextAllowed = new AtomicLong(Long.MIN_VALUE);
+
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong capped = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        // dropped from the queue while the scheduler wasn't running
+        private final AtomicLong drained = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final LatencyHistogram service = new LatencyHistogram();
+
+        // guarded by the scheduler lock
+        private long pass;
+        private boolean busy;
+        private boolean closed;
+
+        Stream(String name, StreamConfig config, FramePipeline.Stage<F> stage, FrameQueue.DropHandler<F> dropHandler,
+               FrameQueue.DropHandler<F> capHandler, FramePipeline.ErrorHandler<F> errorHandler) {
+            this.name = name;
+            this.priority = config.priority;
+            this.maxFps = config.maxFps;
+            this.minIntervalNanos = config.maxFps > 0 ? (long) (1e9 / config.maxFps) : 0;
+            this.stage = stage;
+            this.dropHandler = dropHandler;
+            this.capHandler = capHandler != null ? capHandler : dropHandler;
+            this.errorHandler = errorHandler;
+            this.queue = new FrameQueue<>(config.queueCapacity, BackpressurePolicy.DROP_OLDEST, dropHandler);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Queues a frame for the next free worker; never blocks. Returns false if a frame was
+        // dropped or capped on the way (this one if over the cap or closed, else the oldest queued).
+        public boolean submit(F frame) {
+            submitted.incrementAndGet();
+            if (minIntervalNanos > 0 && !admit(FrameMetrics.now())) {
+                capped.incrementAndGet();
+                capHandler.onDrop(frame);
+                return false;
+            }
+            boolean kept = queue.put(frame);
+            boolean accepted;
+            lock.lock();
+            try {
+                accepted = running && !closed;
+                if (accepted && !busy) {
+                    // back from idle: no credit for the time it had nothing to process
+                    pass = Math.max(pass, virtualPass);
+                    workAvailable.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!accepted) {
+                // no worker will take it (a closed stream's queue already dropped it)
+                drain();
+                return false;
+            }
+            return kept;
+        }
+
+        // Unregisters the stream: waits for a frame a worker is processing, then drops the queued
+        // ones. Not from the stream's own stage (it would wait for itself).
+        public void close() {
+            lock.lock();
+            try {
+                if (closed) return;
+                closed = true;
+                streams.remove(this);
+                while (busy) idle.awaitUninterruptibly();
+            } finally {
+                lock.unlock();
+            }
+            queue.close();
+        }
+
+        public StreamStats getStats() {
+            return new StreamStats(name, priority, maxFps, submitted.get(), processed.get(),
+                    queue.droppedCount() + drained.get(), capped.get(), errors.get(), FrameMetrics.now() - registeredAt, busyNanos.get(), service);
+        }
+
+        // Frame-rate cap: accepted frames keep to a grid of minIntervalNanos, so a frame a little
+        // late doesn't push the next slot out. Nothing closer than 3/4 of an interval to the last
+        // accepted frame gets in, so a stall doesn't bank a burst either.
+        // package-private for tests, which pass their own clock
+        boolean admit(long now) {
+            while (true) {
+                long next = nextAllowed.get();
+                if (now < next) return false;
+                long after = Math.max(next + minIntervalNanos, now + minIntervalNanos - minIntervalNanos / 4);
+                if (nextAllowed.compareAndSet(next, after)) return true;
+            }
+        }
+
+        private void drain() {
+            F frame;
+            while ((frame = queue.poll()) != null) {
+                drained.incrementAndGet();
+                dropHandler.onDrop(frame);
+            }
+        }
+
+        // Worker thread, with busy set: runs one queued frame through the stage
+        private void runOne() {
+            F frame = queue.poll();
+            if (frame == null) return;
+            long start = FrameMetrics.now();
+            F out;
+            try {
+                out = stage.process(frame);
+            } catch (Throwable t) {
+                errors.incrementAndGet();
+                if (errorHandler != null) {
+                    errorHandler.onError(name, frame, t);
+                } else if (AppLog.isLoggable(AppLog.DEBUG)) {
+                    AppLog.d(TAG, "stream " + name + " failed: " + t);
+                }
+                dropHandler.onDrop(frame);
+                return;
+            } finally {
+                long took = FrameMetrics.now() - start;
+                service.record(took);
+                busyNanos.addAndGet(took);
+            }
+            processed.incrementAndGet();
+            // nothing runs after the stage: a returned frame has nowhere to go
+            if (out != null) dropHandler.onDrop(out);
+        }
+    }
+
+    private final Config config;
+    private final ReentrantLock lock = new ReentrantLock();
+    // a stream has frames and isn't busy
+    private final Condition workAvailable = lock.newCondition();
+    // a worker finished a frame (close() waits on it)
+    private final Condition idle = lock.newCondition();
+    // guarded by lock; in registration order, which breaks ties
+    private final List<Stream<?>> streams = new ArrayList<>();
+    // guarded by lock: pass of the stream dispatched last
+    private long virtualPass;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    public FrameScheduler(Config config) {
+        this.config = config != null ? config : new Config();
+    }
+
+    public int getWorkerCount() {
+        return config.workers;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        for (int i = 0; i < config.workers; i++) {
+            Thread t;
+            if (config.threadFactory != null) {
+                t = config.threadFactory.newThread(this::runWorker);
+            } else {
+                t = new Thread(this::runWorker, "FrameWorker-" + i);
+                t.setDaemon(true);
+            }
+            workers.add(t);
+            t.start();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Adds a stream whose frames go through stage on the workers. Frames its queue drops (and
+    // failed ones, after errorHandler) go to dropHandler, frames over the frame-rate cap to
+    // capHandler (null = dropHandler).
+    public <F> Stream<F> register(String name, StreamConfig streamConfig, FramePipeline.Stage<F> stage,
+                                  FrameQueue.DropHandler<F> dropHandler, FrameQueue.DropHandler<F> capHandler,
+                                  FramePipeline.ErrorHandler<F> errorHandler) {
+        Stream<F> stream = new Stream<>(name, streamConfig != null ? streamConfig : new StreamConfig(), stage,
+                dropHandler, capHandler, errorHandler);
+        lock.lock();
+        try {
+            stream.pass = virtualPass;
+            streams.add(stream);
+        } finally {
+            lock.unlock();
+        }
+        return stream;
+    }
+
+    public StreamStats[] getStats() {
+        lock.lock();
+        try {
+            StreamStats[] out = new StreamStats[streams.size()];
+            for (int i = 0; i < out.length; i++) out[i] = streams.get(i).getStats();
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stops the workers once they finish their current frame. Streams are left registered;
+    // frames submitted from now on are dropped. Close the streams (their sessions) first.
+    @Override
+    public synchronized void close() {
+        if (!running) return;
+        lock.lock();
+        try {
+            running = false;
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread t : workers) {
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+        List<Stream<?>> left;
+        lock.lock();
+        try {
+            left = new ArrayList<>(streams);
+        } finally {
+            lock.unlock();
+        }
+        // frames still queued go back; the streams keep working if the scheduler is restarted
+        for (Stream<?> stream : left) stream.drain();
+    }
+
+    private void runWorker() {
+        while (true) {
+            Stream<?> stream;
+            lock.lock();
+            try {
+                // every way a stream becomes pickable (submit, a worker letting go of a stream with
+                // more queued) and close() signal under the lock, so no timed re-check is needed
+                while ((stream = pickLocked()) == null) {
+                    if (!running) return;
+                    workAvailable.await();
+                }
+                stream.busy = true;
+                virtualPass = Math.max(virtualPass, stream.pass);
+                stream.pass += STRIDE / stream.priority;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                stream.runOne();
+            } finally {
+                lock.lock();
+                try {
+                    stream.busy = false;
+                    idle.signalAll();
+                    // the stream may have more; another worker can take it now
+                    if (stream.queue.size() > 0) workAvailable.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    // The waiting stream with the lowest pass; null if none (or shutting down)
+    private Stream<?> pickLocked() {
+        if (!running) return null;
+        Stream<?> best = null;
+        for (int i = 0, n = streams.size(); i < n; i++) {
+            Stream<?> s = streams.get(i);
+            if (s.busy || s.queue.size() == 0) continue;
+            if (best == null || s.pass < best.pass) best = s;
+        }
+        return best;
+    }
+}
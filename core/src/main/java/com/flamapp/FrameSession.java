@@ -0,0 +1,482 @@
+package com.flamapp;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// One stream of frames through processing, whatever produces and displays them. The producer
+// (MainActivity's camera callback, LoadDriver, ...) fills pooled frames and submit()s them; the
+// "process" stage runs the filter chain into a FrameOutput and hands each processed frame to
+// the FrameSink. On the way it switches effects, applies the governor's downscale, skips frames
+// incremental processing found unchanged, falls back from a failing native backend to Java,
+// and records FrameMetrics for every frame.
+//
+// Threads: submit() from the producer, the process stage on its own thread (or, with a
+// FrameScheduler, on one of its shared workers, one frame at a time), release() from anywhere;
+// setters from any thread, picked up before the next frame.
+public final class FrameSession implements AutoCloseable {
+
+    private static final String TAG = "FrameSession";
+
+    public static final class Config {
+        String name = "Frames";
+        FilterChain filterChain = FilterChain.defaultEdges();
+        ColorOutput colorOutput = ColorOutput.gray();
+        int tileSize;
+        int changeThreshold;
+        int nativeThreads = 1;
+        boolean pinBigCores;
+        FrameProcessor.Backend backend = FrameProcessor.Backend.AUTO;
+        int queueCapacity = 2;
+        int framePoolSize = 8;
+        ForkJoinPool javaPool = ForkJoinPool.commonPool();
+        FrameScheduler scheduler;
+        FrameScheduler.StreamConfig stream;
+
+        // Names the process thread, or the stream in scheduler stats
+        public Config setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        // The effect frames start with (see setEffect)
+        public Config setEffect(FilterChain chain, ColorOutput color) {
+            if (chain == null || color == null) throw new IllegalArgumentException("Effect needs a chain and a colour");
+            this.filterChain = chain;
+            this.colorOutput = color;
+            return this;
+        }
+
+        // See FrameProcessor.setIncremental; tileSize 0 = off
+        public Config setIncremental(int tileSize, int changeThreshold) {
+            this.tileSize = tileSize;
+            this.changeThreshold = changeThreshold;
+            return this;
+        }
+
+        // See FrameProcessor.Config.setNativeThreads
+        public Config setNativeThreads(int threads, boolean pinBigCores) {
+            this.nativeThreads = threads;
+            this.pinBigCores = pinBigCores;
+            return this;
+        }
+
+        public Config setBackend(FrameProcessor.Backend backend) {
+            this.backend = backend;
+            return this;
+        }
+
+        // Frames waiting for the process stage; the oldest is dropped when it is full
+        public Config setQueueCapacity(int capacity) {
+            if (capacity < 1) throw new IllegalArgumentException("Queue capacity must be >= 1");
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        // Idle frames kept per size
+        public Config setFramePoolSize(int size) {
+            if (size < 1) throw new IllegalArgumentException("Frame pool size must be >= 1");
+            this.framePoolSize = size;
+            return this;
+        }
+
+        // See FrameProcessor.Config.setJavaPool; null keeps the Java backend on the process thread
+        public Config setJavaPool(ForkJoinPool pool) {
+            this.javaPool = pool;
+            return this;
+        }
+
+        // Processes on scheduler's shared workers instead of a thread of its own, sharing them
+        // with its other sessions as stream says (priority, frame-rate cap). The stream's queue
+        // capacity is setQueueCapacity's.
+        public Config setScheduler(FrameScheduler scheduler, FrameScheduler.StreamConfig stream) {
+            this.scheduler = scheduler;
+            this.stream = stream != null ? stream : new FrameScheduler.StreamConfig();
+            return this;
+        }
+    }
+
+    // Told on the process thread when the governor wants a different capture size (a new
+    // divisor needs nothing from the producer)
+    public interface CaptureSizeListener {
+        void onCaptureSize(int width, int height);
+    }
+
+    // Filter chain + how it is coloured, switched together
+    private static final class Effect {
+        final FilterChain chain;
+        final ColorOutput color;
+
+        Effect(FilterChain chain, ColorOutput color) {
+            this.chain = chain;
+            this.color = color;
+        }
+    }
+
+    private final Config config;
+    private final FrameOutput output;
+    private final FrameSink sink;
+    private final BufferPool<Frame> framePool;
+    private final FrameMetrics metrics = new FrameMetrics();
+
+    // one or the other while running, depending on Config.setScheduler
+    private volatile FramePipeline<Frame> pipeline;
+    private volatile FrameScheduler.Stream<Frame> stream;
+    // process stage only; rebuilt when the processed size changes
+    private FrameProcessor processor;
+    private long processedFrames;
+
+    private volatile FrameProcessor.Backend backend;
+    private volatile Effect effect;
+    // set by setEffect, applied by the process stage before its next frame
+    private final AtomicReference<Effect> pendingEffect = new AtomicReference<>();
+    // the processor's incremental counters, published by the process stage every 32 frames
+    private volatile FrameProcessor.IncrementalStats incrementalStats;
+
+    private volatile ResolutionGovernor governor;
+    private volatile CaptureSizeListener captureSizeListener;
+    private volatile NativeLoader nativeLoader;
+    private volatile StartupTimeline startup;
+    private volatile FrameSaveService saveService;
+
+    // every submitted frame finishes exactly once: handed to the sink, dropped, capped or unchanged
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong capped = new AtomicLong();
+
+    public FrameSession(Config config, FrameOutput output, FrameSink sink) {
+        this.config = config != null ? config : new Config();
+        this.output = output;
+        this.sink = sink;
+        this.framePool = Frame.newPool(this.config.framePoolSize);
+        this.backend = this.config.backend;
+        this.effect = new Effect(this.config.filterChain, this.config.colorOutput);
+    }
+
+    // What processors are built with: the current effect and the session's settings. Also what
+    // a NativeLoader should warm up.
+    public FrameProcessor.Config processorConfig() {
+        Effect current = effect;
+        return new FrameProcessor.Config()
+                .setFilterChain(current.chain)
+                .setColorOutput(current.color)
+                .setIncremental(config.tileSize, config.changeThreshold)
+                .setNativeThreads(config.nativeThreads, config.pinBigCores)
+                .setJavaPool(config.javaPool)
+                .setBackend(backend);
+    }
+
+    public void setEffect(FilterChain chain, ColorOutput color) {
+        Effect next = new Effect(chain, color);
+        effect = next;
+        pendingEffect.set(next);
+    }
+
+    // True while the current effect shows the camera in colour, i.e. frames should carry chroma
+    public boolean wantsChroma() {
+        return effect.color.isOverlay();
+    }
+
+    // Downscale (and capture size changes, through listener) from measured processing time;
+    // null turns it off
+    public void setGovernor(ResolutionGovernor governor, CaptureSizeListener listener) {
+        this.captureSizeListener = listener;
+        this.governor = governor;
+    }
+
+    public ResolutionGovernor getGovernor() {
+        return governor;
+    }
+
+    // Frames go out unprocessed until loader is ready; with Backend.AUTO the session then runs
+    // what it found
+    public void setNativeLoader(NativeLoader loader) {
+        this.nativeLoader = loader;
+        if (loader != null) {
+            loader.whenReady(result -> {
+                if (backend == FrameProcessor.Backend.AUTO) backend = result.backend;
+            });
+        }
+    }
+
+    // Gets FIRST_PROCESSED_FRAME
+    public void setStartupTimeline(StartupTimeline startup) {
+        this.startup = startup;
+    }
+
+    // Offered every frame before processing, for requested captures
+    public void setSaveService(FrameSaveService saveService) {
+        this.saveService = saveService;
+    }
+
+    public synchronized void start() {
+        if (pipeline != null || stream != null) return;
+        metrics.reset();
+        FramePipeline.ErrorHandler<Frame> onError = (stage, frame, error) -> {
+            metrics.recordError();
+            if (AppLog.isLoggable(AppLog.DEBUG)) AppLog.d(TAG, "stage " + stage + " failed: " + error);
+        };
+        if (config.scheduler != null) {
+            // producer input keeps only the freshest frames, as with a thread of its own
+            FrameScheduler.StreamConfig streamConfig = new FrameScheduler.StreamConfig()
+                    .setPriority(config.stream.priority)
+                    .setMaxFps(config.stream.maxFps)
+                    .setQueueCapacity(config.queueCapacity);
+            stream = config.scheduler.register(config.name, streamConfig, this::processAndHandOff,
+                    this::dropFrame, this::capFrame, onError);
+            return;
+        }
+        pipeline = new FramePipeline<>(config.name, this::dropFrame);
+        pipeline.setErrorHandler(onError);
+        // producer input keeps only the freshest frames
+        pipeline.addStage("process", this::processAndHandOff, config.queueCapacity, BackpressurePolicy.DROP_OLDEST);
+        pipeline.start();
+    }
+
+    // Stops the process stage (queued frames are dropped) and releases the processor; frames
+    // the sink holds are still its to release
+    public synchronized void stop() {
+        if (pipeline == null && stream == null) return;
+        if (pipeline != null) {
+            pipeline.stop();
+            pipeline = null;
+        } else {
+            // waits for a frame a shared worker is processing
+            stream.close();
+            stream = null;
+        }
+        // both waits above only return once the stage is out of process(): the pipeline's stop()
+        // until its thread has exited, the stream's close() until no worker holds it. Only then is
+        // it safe to free the (native) processor.
+        if (processor != null) {
+            processor.close();
+            processor = null;
+        }
+    }
+
+    public boolean isRunning() {
+        FramePipeline<Frame> p = pipeline;
+        return p != null ? p.isRunning() : stream != null && config.scheduler.isRunning();
+    }
+
+    // A reset frame of that size from the pool, to fill and submit()
+    public Frame acquireFrame(int width, int height) {
+        Frame frame = framePool.acquire(width, height);
+        frame.reset();
+        return frame;
+    }
+
+    // Hands a filled frame to the process stage; never blocks. Returns false if a frame was
+    // dropped on the way (this one if the session isn't running or it is over the stream's
+    // frame-rate cap, else the oldest queued).
+    public boolean submit(Frame frame) {
+        submitted.incrementAndGet();
+        if (frame.marks[FrameMetrics.ACQUIRED] == 0) frame.marks[FrameMetrics.ACQUIRED] = FrameMetrics.now();
+        FrameScheduler.Stream<Frame> s = stream;
+        if (s != null) return s.submit(frame);
+        FramePipeline<Frame> p = pipeline;
+        if (p == null) {
+            dropFrame(frame);
+            return false;
+        }
+        return p.submit(frame);
+    }
+
+    // Submits source's next frame. Returns false once the source has run out.
+    public boolean submitFrom(FrameSource source) throws IOException {
+        Frame frame = source.next(framePool);
+        if (frame == null) return false;
+        frame.marks[FrameMetrics.ACQUIRED] = FrameMetrics.now();
+        submit(frame);
+        return true;
+    }
+
+    // Returns a frame and its output to their pools; for frames the sink is done with
+    public void release(Frame frame) {
+        output.release(frame);
+        framePool.release(frame);
+    }
+
+    // Waits until every frame submitted so far has been handed to the sink, dropped, capped or
+    // found unchanged. Returns false on timeout.
+    public boolean awaitIdle(long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (finished.get() < submitted.get()) {
+            if (System.nanoTime() - deadline > 0) return false;
+            LockSupport.parkNanos(100_000L);
+        }
+        return true;
+    }
+
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    // The backend frames run on (AUTO until the first processor is built)
+    public FrameProcessor.Backend getBackend() {
+        return backend;
+    }
+
+    // null until 32 frames have been processed
+    public FrameProcessor.IncrementalStats getIncrementalStats() {
+        return incrementalStats;
+    }
+
+    public BufferPool.Stats getFramePoolStats() {
+        return framePool.getStats();
+    }
+
+    public long submittedCount() {
+        return submitted.get();
+    }
+
+    // frames incremental processing found identical to the one before, not handed to the sink
+    public long unchangedCount() {
+        return unchanged.get();
+    }
+
+    // frames turned away by the scheduler stream's frame-rate cap (not counted as drops)
+    public long cappedCount() {
+        return capped.get();
+    }
+
+    // How this session fares on its scheduler's workers; null without one, or while stopped
+    public FrameScheduler.StreamStats getStreamStats() {
+        FrameScheduler.Stream<Frame> s = stream;
+        return s != null ? s.getStats() : null;
+    }
+
+    // Stops, then reports (and logs) any frame never handed back
+    @Override
+    public void close() {
+        stop();
+        framePool.close();
+    }
+
+    // Drop handler for the queue and failing stages
+    private void dropFrame(Frame frame) {
+        metrics.recordDrop();
+        release(frame);
+        finished.incrementAndGet();
+    }
+
+    // Frame-rate cap: skipped on purpose, not a drop
+    private void capFrame(Frame frame) {
+        capped.incrementAndGet();
+        release(frame);
+        finished.incrementAndGet();
+    }
+
+    // The pipeline's stage: process, then hand the frame to the sink
+    private Frame processAndHandOff(Frame frame) {
+        Frame processed = processStage(frame);
+        if (processed != null) handOff(processed);
+        return null;
+    }
+
+    private Frame processStage(Frame frame) {
+        // a requested save takes a copy of the camera plane here and is processed in the background
+        Effect shown = effect;
+        FrameSaveService saves = saveService;
+        if (saves != null) saves.captureIfRequested(frame.gray, frame.width, frame.height, shown.chain, shown.color);
+
+        NativeLoader loader = nativeLoader;
+        if (loader != null && !loader.isReady()) {
+            // the library is still loading: show the frame as is rather than wait for it here
+            output.showRaw(frame);
+            frame.marks[FrameMetrics.CONVERTED] = FrameMetrics.now();
+            return frame;
+        }
+
+        // governor downscale: process every n-th pixel of every n-th row, for free through the
+        // strides; frames still queued at an old capture size go through at full size
+        ResolutionGovernor g = governor;
+        ResolutionGovernor.Level level = g != null ? g.current() : null;
+        int divisor = level != null && level.captureWidth == frame.width
+                && level.captureHeight == frame.height ? level.divisor : 1;
+        int width = frame.width / divisor;
+        int height = frame.height / divisor;
+        try {
+            // taken first: a processor built below already has this effect (or a newer one)
+            Effect next = pendingEffect.getAndSet(null);
+            // reused across frames, only rebuilt when the size changes
+            if (processor == null || processor.getWidth() != width || processor.getHeight() != height) {
+                if (processor != null) {
+                    processor.close();
+                    processor = null;
+                }
+                processor = FrameProcessor.create(width, height, processorConfig());
+                backend = processor.getBackend();
+                // spares of the old resolution are of no use any more
+                framePool.trimTo(frame.width, frame.height);
+                output.trimTo(width, height);
+            } else if (next != null) {
+                processor.setFilterChain(next.chain);
+                processor.setColorOutput(next.color);
+            }
+            // filter chain and colour pass in one call, written into the output
+            frame.marks[FrameMetrics.PROCESS_IN] = FrameMetrics.now();
+            frame.processedOk = output.process(processor, frame, divisor);
+            frame.marks[FrameMetrics.PROCESS_OUT] = FrameMetrics.now();
+            if ((++processedFrames & 31) == 0) incrementalStats = processor.getIncrementalStats();
+            if (frame.processedOk && processor.lastFrameUnchanged()) {
+                // same picture as the last one handed on: nothing to show (and nothing for the governor)
+                release(frame);
+                unchanged.incrementAndGet();
+                finished.incrementAndGet();
+                return null;
+            }
+            if (g != null && frame.processedOk) {
+                govern(g, frame.marks[FrameMetrics.PROCESS_OUT] - frame.marks[FrameMetrics.PROCESS_IN]);
+            }
+        } catch (Throwable t) {
+            metrics.recordError();
+            if (backend == FrameProcessor.Backend.NATIVE) {
+                AppLog.w(TAG, "native processing failed, switching to the Java backend", t);
+                // degrade instead of showing the raw frame from now on; rebuilt on the next frame
+                backend = FrameProcessor.Backend.JAVA;
+                if (processor != null) {
+                    processor.close();
+                    processor = null;
+                }
+            } else if (AppLog.isLoggable(AppLog.DEBUG)) {
+                AppLog.d(TAG, backend + " processing failed: " + t);
+            }
+        }
+        // if processing failed, still show the raw frame
+        if (!frame.processedOk) output.showRaw(frame);
+        // the colour pass is fused into processing, so the pixels are ready as it returns
+        frame.marks[FrameMetrics.CONVERTED] = FrameMetrics.now();
+        return frame;
+    }
+
+    // Process stage: feeds one frame's processing time to the governor. A new divisor takes
+    // effect on the next frame; a new capture size goes to the listener.
+    private void govern(ResolutionGovernor g, long processNanos) {
+        if (g.onFrame(processNanos) == ResolutionGovernor.Decision.HOLD) return;
+        ResolutionGovernor.Level level = g.current();
+        AppLog.i(TAG, "governor: " + g.getStats());
+        CaptureSizeListener listener = captureSizeListener;
+        if (listener != null) listener.onCaptureSize(level.captureWidth, level.captureHeight);
+    }
+
+    private void handOff(Frame frame) {
+        // the frame belongs to the sink once handed over, so its marks are recorded first
+        frame.marks[FrameMetrics.RENDER_POSTED] = FrameMetrics.now();
+        metrics.recordFrame(frame.marks);
+        StartupTimeline timeline = startup;
+        if (timeline != null && frame.processedOk && timeline.mark(StartupTimeline.Milestone.FIRST_PROCESSED_FRAME,
+                frame.marks[FrameMetrics.RENDER_POSTED])) {
+            AppLog.i(TAG, "startup: " + timeline);
+        }
+        try {
+            sink.onFrame(frame);
+        } finally {
+            // after the sink has it, so awaitIdle() callers see every frame it was given
+            finished.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.flamapp;
+
+// Receives every processed frame from a FrameSession, on its process thread, with the frame's
+// marks up to FrameMetrics.RENDER_POSTED recorded. The sink owns the frame from then on and
+// gives it back with FrameSession.release(), right away or later from any thread (e.g. once it
+// is off the screen). It must not throw: the frame is no longer the session's to drop.
+public interface FrameSink {
+    void onFrame(Frame frame);
+}
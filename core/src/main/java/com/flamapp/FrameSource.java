@@ -0,0 +1,16 @@
+package com.flamapp;
+
+import java.io.IOException;
+
+// Where a FrameSession's frames come from when nothing pushes them in: a synthetic pattern
+// (SyntheticFrameSource), a recording (FrameReplaySource), ... The camera is not one; it pushes
+// frames itself from its callback.
+public interface FrameSource extends AutoCloseable {
+
+    // The next frame, in a frame taken from pool (reset, gray plane and timestampNs filled in),
+    // or null once the source has run out. Called from one thread at a time.
+    Frame next(BufferPool<Frame> pool) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
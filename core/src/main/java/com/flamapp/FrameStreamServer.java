@@ -0,0 +1,742 @@
+package com.flamapp;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+// Streams processed frames to the web viewer (web/index.html) from a minimal embedded HTTP
+// server: GET /stream upgrades to a WebSocket carrying one binary message per frame, GET /stats
+// returns Stats as JSON, anything else is a 404.
+//
+// publish() is called from the frame path and only copies the pixels into a recycled buffer
+// for the encoder thread; with no client connected it returns straight away. The encoder
+// deflates each frame once into a message shared by every client. Each client has its own
+// DROP_OLDEST queue of clientQueue messages and its own sender thread, so a slow client loses
+// stale frames instead of holding up the others or the frame loop.
+//
+// Frame message, little-endian:
+//   u8 version, u8 pixel format (PixelFormat.code), u8 encoding (0 raw, 1 zlib), u8 reserved,
+//   u32 width, u32 height, u32 sequence, u32 capture-to-send latency (us), u32 payload bytes,
+//   u32 + u32 capture timestamp (ns, low word first), then the payload
+// A text message "ping <token>" is answered with "pong <token>", for the round-trip time.
+public final class FrameStreamServer implements AutoCloseable {
+
+    public enum PixelFormat {
+        GRAY8(0, 1),
+        RGBA8888(1, 4);   // R G B A bytes, Bitmap ARGB_8888 memory layout
+
+        final int code;
+        public final int bytesPerPixel;
+
+        PixelFormat(int code, int bytesPerPixel) {
+            this.code = code;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    public static final class Config {
+        int port = 8080;
+        InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        int maxClients = 4;
+        int clientQueue = 2;
+        int maxFps = 30;
+        int deflateLevel = 1;
+
+        // 0 picks a free port (see getPort)
+        public Config setPort(int port) {
+            if (port < 0 || port > 65535) throw new IllegalArgumentException("Bad port: " + port);
+            this.port = port;
+            return this;
+        }
+
+        // Loopback by default (reach it through adb forward); null listens on every interface
+        public Config setBindAddress(InetAddress address) {
+            this.bindAddress = address;
+            return this;
+        }
+
+        // Further viewers get a 503
+        public Config setMaxClients(int clients) {
+            if (clients < 1) throw new IllegalArgumentException("Bad client limit: " + clients);
+            this.maxClients = clients;
+            return this;
+        }
+
+        // Messages waiting for a client; when it is full the oldest is dropped
+        public Config setClientQueue(int capacity) {
+            if (capacity < 1) throw new IllegalArgumentException("Bad client queue: " + capacity);
+            this.clientQueue = capacity;
+            return this;
+        }
+
+        // Frames published per second at most (0 = every frame)
+        public Config setMaxFps(int fps) {
+            if (fps < 0) throw new IllegalArgumentException("Bad frame rate: " + fps);
+            this.maxFps = fps;
+            return this;
+        }
+
+        // 0 sends raw pixels, 1 (fastest) - 9 zlib; edge maps shrink by an order of magnitude
+        public Config setDeflateLevel(int level) {
+            if (level < 0 || level > 9) throw new IllegalArgumentException("Bad deflate level: " + level);
+            this.deflateLevel = level;
+            return this;
+        }
+    }
+
+    // Point-in-time counters, for /stats and the metrics export
+    public static final class Stats {
+        public final int clients;
+        public final long published;
+        // frames replaced before the encoder got to them
+        public final long skipped;
+        public final long encoded;
+        // messages written / dropped from full client queues, summed over clients
+        public final long sent;
+        public final long dropped;
+        public final long bytesSent;
+        // raw pixel bytes per payload byte
+        public final double compression;
+        public final long encodeP50Nanos;
+        public final long encodeP99Nanos;
+
+        Stats(int clients, long published, long skipped, long encoded, long sent, long dropped, long bytesSent,
+              long rawBytes, long payloadBytes, LatencyHistogram encode) {
+            this.clients = clients;
+            this.published = published;
+            this.skipped = skipped;
+            this.encoded = encoded;
+            this.sent = sent;
+            this.dropped = dropped;
+            this.bytesSent = bytesSent;
+            this.compression = payloadBytes > 0 ? (double) rawBytes / payloadBytes : 0;
+            this.encodeP50Nanos = encode.percentile(0.50);
+            this.encodeP99Nanos = encode.percentile(0.99);
+        }
+
+        public String toJson() {
+            return "{\"clients\":" + clients
+                    + ",\"published\":" + published
+                    + ",\"skipped\":" + skipped
+                    + ",\"encoded\":" + encoded
+                    + ",\"sent\":" + sent
+                    + ",\"dropped\":" + dropped
+                    + ",\"bytesSent\":" + bytesSent
+                    + ",\"compression\":" + String.format(Locale.US, "%.2f", compression)
+                    + ",\"encodeP50Ns\":" + encodeP50Nanos
+                    + ",\"encodeP99Ns\":" + encodeP99Nanos + "}";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "clients=%d published=%d sent=%d dropped=%d x%.1f encode p50/p99=%.1f/%.1fms",
+                    clients, published, sent, dropped, compression, encodeP50Nanos / 1e6, encodeP99Nanos / 1e6);
+        }
+    }
+
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int ENCODING_RAW = 0;
+    static final int ENCODING_ZLIB = 1;
+
+    private static final String TAG = "FrameStreamServer";
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    // longest WebSocket frame header a server writes: 2 bytes + 64-bit length
+    private static final int WS_HEADER_MAX = 10;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+    // viewers only send pings and close frames
+    private static final int MAX_CLIENT_MESSAGE = 4096;
+    private static final int MAX_REQUEST_BYTES = 8192;
+    private static final int REQUEST_TIMEOUT_MS = 5000;
+    private static final long POLL_NANOS = 100_000_000L;
+    // recycled buffers kept: the encoder's queue plus one in hand, messages in client queues
+    private static final int MAX_IDLE_BUFFERS = 4;
+
+    // Pixels handed over by publish()
+    private static final class Raw {
+        byte[] data;
+        int length;
+        int width;
+        int height;
+        PixelFormat format;
+        long timestampNs;
+        long captureNanos;
+    }
+
+    // One encoded frame as a complete WebSocket frame, shared by every client it is queued for
+    private static final class Message {
+        byte[] data;
+        int offset;
+        int length;
+        final AtomicInteger refs = new AtomicInteger();
+    }
+
+    private final class Client {
+        final Socket socket;
+        final OutputStream out;
+        final FrameQueue<Message> queue;
+        final AtomicLong sent = new AtomicLong();
+        volatile boolean open = true;
+        Thread sender;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+            this.queue = new FrameQueue<>(config.clientQueue, BackpressurePolicy.DROP_OLDEST, m -> {
+                if (open) dropped.incrementAndGet();
+                release(m);
+            });
+        }
+
+        void sendLoop() {
+            while (open) {
+                Message m = queue.take(POLL_NANOS);
+                if (m == null) continue;
+                try {
+                    write(m.data, m.offset, m.length);
+                    sent.incrementAndGet();
+                    bytesSent.addAndGet(m.length);
+                } catch (IOException e) {
+                    disconnect(this);
+                } finally {
+                    release(m);
+                }
+            }
+        }
+
+        // Sender and reader threads both write (frames vs pongs and close frames)
+        synchronized void write(byte[] data, int offset, int length) throws IOException {
+            out.write(data, offset, length);
+            out.flush();
+        }
+    }
+
+    private final Config config;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final FrameQueue<Raw> pending;
+    private final ConcurrentLinkedQueue<Raw> idleRaw = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Message> idleMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong encoded = new AtomicLong();
+    private final AtomicLong sentBefore = new AtomicLong();   // by clients already gone
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong payloadBytes = new AtomicLong();
+    private final LatencyHistogram encodeTimes = new LatencyHistogram();
+    private final long minIntervalNanos;
+    // frame path only
+    private long nextPublishNanos;
+
+    private ServerSocket server;
+    private Thread acceptor;
+    private Thread encoder;
+    private volatile boolean closed;
+
+    public FrameStreamServer(Config config) {
+        this.config = config != null ? config : new Config();
+        this.minIntervalNanos = this.config.maxFps > 0 ? 1_000_000_000L / this.config.maxFps : 0;
+        this.pending = new FrameQueue<>(2, BackpressurePolicy.DROP_OLDEST, raw -> {
+            skipped.incrementAndGet();
+            recycle(raw);
+        });
+    }
+
+    // Binds the port and starts the accept and encoder threads
+    public synchronized void start() throws IOException {
+        if (server != null) return;
+        if (closed) throw new IllegalStateException("Server is closed");
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        try {
+            socket.bind(new InetSocketAddress(config.bindAddress, config.port), 8);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        server = socket;
+        acceptor = new Thread(this::acceptLoop, "FrameStream-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        encoder = new Thread(this::encodeLoop, "FrameStream-encode");
+        encoder.setDaemon(true);
+        encoder.setPriority(Thread.NORM_PRIORITY - 1);
+        encoder.start();
+        AppLog.i(TAG, "streaming on " + socket.getLocalSocketAddress());
+    }
+
+    // The bound port, -1 before start()
+    public synchronized int getPort() {
+        return server != null ? server.getLocalPort() : -1;
+    }
+
+    public boolean hasClients() {
+        return !clients.isEmpty();
+    }
+
+    // Whether publish() would take a frame now; lets the caller skip preparing pixels for
+    // nothing (no viewer, or too soon after the last frame for maxFps)
+    public boolean wantsFrame() {
+        return !closed && !clients.isEmpty() && System.nanoTime() >= nextPublishNanos;
+    }
+
+    // Frame path, one thread. pixels: width * height * format.bytesPerPixel bytes from position
+    // 0 (position and limit are left as they were). captureNanos: System.nanoTime() when the
+    // frame was captured, for the latency field (0 if unknown). Returns true if the frame was
+    // taken for streaming.
+    public boolean publish(ByteBuffer pixels, int width, int height, PixelFormat format, long timestampNs,
+                           long captureNanos) {
+        if (closed || clients.isEmpty()) return false;
+        long now = System.nanoTime();
+        if (now < nextPublishNanos) return false;
+        // keep the cadence through jitter; after a gap (no frames, or none wanted) start over from now
+        nextPublishNanos = (now - nextPublishNanos < minIntervalNanos ? nextPublishNanos : now) + minIntervalNanos;
+
+        int bytes = width * height * format.bytesPerPixel;
+        if (pixels.capacity() < bytes) throw new IllegalArgumentException("Pixel buffer too small");
+        Raw raw = idleRaw.poll();
+        if (raw == null) raw = new Raw();
+        if (raw.data == null || raw.data.length < bytes) raw.data = new byte[bytes];
+        int position = pixels.position();
+        int limit = pixels.limit();
+        pixels.limit(bytes).position(0);
+        pixels.get(raw.data, 0, bytes);
+        pixels.limit(limit).position(position);
+        raw.length = bytes;
+        raw.width = width;
+        raw.height = height;
+        raw.format = format;
+        raw.timestampNs = timestampNs;
+        raw.captureNanos = captureNanos;
+        published.incrementAndGet();
+        pending.put(raw);
+        return true;
+    }
+
+    public Stats getStats() {
+        long sent = sentBefore.get();
+        for (Client c : clients) sent += c.sent.get();
+        return new Stats(clients.size(), published.get(), skipped.get(), encoded.get(), sent, dropped.get(),
+                bytesSent.get(), rawBytes.get(), payloadBytes.get(), encodeTimes);
+    }
+
+    // Disconnects every viewer and stops the threads
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (server != null) {
+                try {
+                    server.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        for (Client c : clients) disconnect(c);
+        pending.close();
+        join(acceptor);
+        join(encoder);
+    }
+
+    private static void join(Thread thread) {
+        if (thread == null) return;
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!closed) AppLog.w(TAG, "accept failed", e);
+                return;
+            }
+            Thread handler = new Thread(() -> handle(socket), "FrameStream-conn-" + connections.incrementAndGet());
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    // One connection: a plain request, or a viewer for as long as it stays connected
+    private void handle(Socket socket) {
+        Client client = null;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(REQUEST_TIMEOUT_MS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String request = readRequest(in);
+            if (request == null) return;
+            String[] lines = request.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US),
+                            lines[i].substring(colon + 1).trim());
+                }
+            }
+            OutputStream out = socket.getOutputStream();
+            if (requestLine.length < 3 || !"GET".equals(requestLine[0])) {
+                respond(out, "405 Method Not Allowed", "text/plain", "GET only\n");
+                return;
+            }
+            String path = requestLine[1];
+            int query = path.indexOf('?');
+            if (query >= 0) path = path.substring(0, query);
+            switch (path) {
+                case "/stats":
+                    respond(out, "200 OK", "application/json", getStats().toJson());
+                    return;
+                case "/stream":
+                    String key = headers.get("sec-websocket-key");
+                    String upgrade = headers.get("upgrade");
+                    if (key == null || upgrade == null || !"websocket".equalsIgnoreCase(upgrade)) {
+                        respond(out, "400 Bad Request", "text/plain", "WebSocket upgrade expected\n");
+                        return;
+                    }
+                    client = accept(socket, out, key);
+                    if (client == null) return;
+                    readLoop(client, in);
+                    return;
+                default:
+                    respond(out, "404 Not Found", "text/plain", "/stream (WebSocket) or /stats\n");
+            }
+        } catch (IOException e) {
+            if (AppLog.isLoggable(AppLog.DEBUG)) AppLog.d(TAG, "connection ended: " + e);
+        } finally {
+            if (client != null) {
+                disconnect(client);
+            } else {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    // Completes the handshake and registers the viewer; null (after a 503) when full
+    private Client accept(Socket socket, OutputStream out, String key) throws IOException {
+        Client client;
+        synchronized (clients) {
+            if (closed || clients.size() >= config.maxClients) {
+                respond(out, "503 Service Unavailable", "text/plain", "Too many viewers\n");
+                return null;
+            }
+            String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+            out.write(response.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            socket.setSoTimeout(0);
+            client = new Client(socket);
+            clients.add(client);
+        }
+        client.sender = new Thread(client::sendLoop, Thread.currentThread().getName() + "-send");
+        client.sender.setDaemon(true);
+        client.sender.start();
+        AppLog.i(TAG, "viewer connected: " + socket.getRemoteSocketAddress());
+        return client;
+    }
+
+    // Viewer -> server messages until the viewer closes or the connection drops
+    private void readLoop(Client client, InputStream in) throws IOException {
+        byte[] payload = new byte[MAX_CLIENT_MESSAGE];
+        while (client.open) {
+            int b0 = in.read();
+            int b1 = in.read();
+            if (b0 < 0 || b1 < 0) return;
+            int opcode = b0 & 0x0F;
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = (readByte(in) << 8) | readByte(in);
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) length = (length << 8) | readByte(in);
+            }
+            // client frames must be masked; nothing a viewer sends is large
+            if ((b1 & 0x80) == 0 || length > MAX_CLIENT_MESSAGE) {
+                sendClose(client, length > MAX_CLIENT_MESSAGE ? 1009 : 1002);
+                return;
+            }
+            byte[] mask = new byte[4];
+            readFully(in, mask, 4);
+            int n = (int) length;
+            readFully(in, payload, n);
+            for (int i = 0; i < n; i++) payload[i] ^= mask[i & 3];
+
+            switch (opcode) {
+                case OP_TEXT:
+                    String text = new String(payload, 0, n, StandardCharsets.UTF_8);
+                    if (text.startsWith("ping ")) {
+                        sendSmall(client, OP_TEXT, ("pong " + text.substring(5)).getBytes(StandardCharsets.UTF_8));
+                    }
+                    break;
+                case OP_PING:
+                    sendSmall(client, OP_PONG, Arrays.copyOf(payload, n));
+                    break;
+                case OP_CLOSE:
+                    sendClose(client, 1000);
+                    return;
+                default:
+                    // binary, pong, continuation: nothing to do
+                    break;
+            }
+        }
+    }
+
+    private void disconnect(Client client) {
+        synchronized (clients) {
+            if (!client.open) return;
+            client.open = false;
+            clients.remove(client);
+        }
+        sentBefore.addAndGet(client.sent.get());
+        client.sent.set(0);
+        closeQuietly(client.socket);
+        client.queue.close();
+        AppLog.i(TAG, "viewer disconnected: " + client.socket.getRemoteSocketAddress());
+    }
+
+    private void encodeLoop() {
+        Deflater deflater = config.deflateLevel > 0 ? new Deflater(config.deflateLevel) : null;
+        try {
+            while (!closed) {
+                Raw raw = pending.take(POLL_NANOS);
+                if (raw == null) continue;
+                try {
+                    if (!clients.isEmpty()) broadcast(encode(raw, deflater));
+                } catch (RuntimeException e) {
+                    AppLog.e(TAG, "encoding failed", e);
+                } finally {
+                    recycle(raw);
+                }
+            }
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+    }
+
+    private Message encode(Raw raw, Deflater deflater) {
+        long start = System.nanoTime();
+        Message m = idleMessages.poll();
+        if (m == null) m = new Message();
+        int body = WS_HEADER_MAX + HEADER_BYTES;
+        int needed = body + raw.length;
+        if (m.data == null || m.data.length < needed) m.data = new byte[needed];
+
+        int end = body;
+        int encoding = ENCODING_RAW;
+        if (deflater != null) {
+            deflater.reset();
+            deflater.setInput(raw.data, 0, raw.length);
+            deflater.finish();
+            // stop once it is no smaller than the raw pixels, which are sent instead
+            while (!deflater.finished() && end < needed) {
+                end += deflater.deflate(m.data, end, needed - end);
+            }
+            if (deflater.finished() && end < needed) encoding = ENCODING_ZLIB;
+        }
+        if (encoding == ENCODING_RAW) {
+            System.arraycopy(raw.data, 0, m.data, body, raw.length);
+            end = needed;
+        }
+        int payload = end - body;
+
+        byte[] d = m.data;
+        int h = WS_HEADER_MAX;
+        d[h] = (byte) VERSION;
+        d[h + 1] = (byte) raw.format.code;
+        d[h + 2] = (byte) encoding;
+        d[h + 3] = 0;
+        putInt(d, h + 4, raw.width);
+        putInt(d, h + 8, raw.height);
+        putInt(d, h + 12, sequence.incrementAndGet());
+        long latency = raw.captureNanos != 0 ? (System.nanoTime() - raw.captureNanos) / 1000 : 0;
+        putInt(d, h + 16, (int) Math.max(0, Math.min(Integer.MAX_VALUE, latency)));
+        putInt(d, h + 20, payload);
+        putInt(d, h + 24, (int) raw.timestampNs);
+        putInt(d, h + 28, (int) (raw.timestampNs >>> 32));
+
+        // WebSocket frame header right in front of ours: FIN + binary, unmasked length
+        int length = HEADER_BYTES + payload;
+        if (length < 126) {
+            m.offset = WS_HEADER_MAX - 2;
+            d[m.offset + 1] = (byte) length;
+        } else if (length < 65536) {
+            m.offset = WS_HEADER_MAX - 4;
+            d[m.offset + 1] = 126;
+            d[m.offset + 2] = (byte) (length >>> 8);
+            d[m.offset + 3] = (byte) length;
+        } else {
+            m.offset = 0;
+            d[1] = 127;
+            for (int i = 0; i < 8; i++) d[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+        }
+        d[m.offset] = (byte) (0x80 | OP_BINARY);
+        m.length = WS_HEADER_MAX - m.offset + length;
+
+        encoded.incrementAndGet();
+        rawBytes.addAndGet(raw.length);
+        payloadBytes.addAndGet(payload);
+        encodeTimes.record(System.nanoTime() - start);
+        return m;
+    }
+
+    // Queues the message for every viewer; the last one to let go of it recycles it
+    private void broadcast(Message m) {
+        m.refs.set(1);
+        for (Client c : clients) {
+            m.refs.incrementAndGet();
+            c.queue.put(m);
+        }
+        release(m);
+    }
+
+    private void release(Message m) {
+        if (m.refs.decrementAndGet() == 0 && idleMessages.size() < MAX_IDLE_BUFFERS) idleMessages.offer(m);
+    }
+
+    private void recycle(Raw raw) {
+        if (idleRaw.size() < MAX_IDLE_BUFFERS) idleRaw.offer(raw);
+    }
+
+    // An unfragmented frame of under 64 KB from the reader thread (pongs, close)
+    private static void sendSmall(Client client, int opcode, byte[] payload) throws IOException {
+        int head = payload.length < 126 ? 2 : 4;
+        byte[] frame = new byte[head + payload.length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (head == 2) {
+            frame[1] = (byte) payload.length;
+        } else {
+            frame[1] = 126;
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        }
+        System.arraycopy(payload, 0, frame, head, payload.length);
+        client.write(frame, 0, frame.length);
+    }
+
+    private static void sendClose(Client client, int status) {
+        try {
+            sendSmall(client, OP_CLOSE, new byte[]{(byte) (status >>> 8), (byte) status});
+        } catch (IOException ignored) {
+            // going away anyway
+        }
+    }
+
+    private static void respond(OutputStream out, String status, String type, String body) throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + type + "\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Access-Control-Allow-Origin: *\r\n"
+                + "Cache-Control: no-store\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(content);
+        out.flush();
+    }
+
+    // The request head up to the blank line, null if the client went away or sent too much
+    private static String readRequest(InputStream in) throws IOException {
+        byte[] buffer = new byte[MAX_REQUEST_BYTES];
+        int n = 0;
+        try {
+            while (n < buffer.length) {
+                int b = in.read();
+                if (b < 0) return null;
+                buffer[n++] = (byte) b;
+                if (n >= 4 && buffer[n - 4] == '\r' && buffer[n - 3] == '\n'
+                        && buffer[n - 2] == '\r' && buffer[n - 1] == '\n') {
+                    return new String(buffer, 0, n - 4, StandardCharsets.US_ASCII);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+        return null;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) throw new IOException("Connection closed mid-frame");
+        return b;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        for (int n = 0; n < length; ) {
+            int r = in.read(buffer, n, length - n);
+            if (r < 0) throw new IOException("Connection closed mid-frame");
+            n += r;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >>> 8);
+        b[offset + 2] = (byte) (value >>> 16);
+        b[offset + 3] = (byte) (value >>> 24);
+    }
+
+    // Sec-WebSocket-Accept: base64(SHA-1(key + GUID)). java.util.Base64 needs API 26.
+    static String acceptKey(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1")
+                    .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < digest.length; i += 3) {
+            int b = (digest[i] & 0xFF) << 16;
+            if (i + 1 < digest.length) b |= (digest[i + 1] & 0xFF) << 8;
+            if (i + 2 < digest.length) b |= digest[i + 2] & 0xFF;
+            out.append(alphabet.charAt((b >>> 18) & 63)).append(alphabet.charAt((b >>> 12) & 63));
+            out.append(i + 1 < digest.length ? alphabet.charAt((b >>> 6) & 63) : '=');
+            out.append(i + 2 < digest.length ? alphabet.charAt(b & 63) : '=');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,890 @@
+package com.flamapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+// Pure-Java FrameEngine: the same blur + Canny (and the simpler FilterChain ops) as the native
+// context, for devices where OpenCV fails to load and for host JVM tests / benchmarks.
+//
+// Follows OpenCV's 8-bit code paths closely (fixed-point Gaussian, L1 Canny with the same
+// non-maximum suppression and thresholds) so output matches native to within a few pixels.
+// Row bands run in parallel on a ForkJoinPool; Canny's hysteresis is global and runs serially.
+// All workspaces are primitive arrays sized at construction, nothing is allocated per frame.
+//
+// Incremental mode reruns the chain only over the tile rows TileChanges flags (full width),
+// grown by the chain's halo since a changed pixel moves results that far, and keeps the rest of
+// the previous result. Hysteresis seeded in a band can't rewrite pixels outside it, so with Canny
+// in the chain the whole frame is rerun every FilterChain.CANNY_REFRESH_RUNS banded runs and on
+// the first still frame after one.
+final class JavaFrameEngine implements FrameEngine {
+
+    // OpenCV's Canny: tan(22.5 deg) in 15-bit fixed point
+    private static final int CANNY_SHIFT = 15;
+    private static final int TG22 = 13573;
+
+    // Canny map states, as in OpenCV: 0 maybe edge, 1 not an edge, 2 edge
+    private static final byte MAYBE = 0;
+    private static final byte NONE = 1;
+    private static final byte EDGE = 2;
+
+    private final int width;
+    private final int height;
+    private final int size;
+    private final ParallelRows rows;
+
+    private final byte[] input;
+    private final byte[] ping;
+    private final byte[] pong;
+    private final int[] scratch;     // Gaussian row pass / separable morphology pass
+    private final short[] dx;
+    private final short[] dy;
+    private final int[] mag;         // (width + 2) x (height + 2), zero border
+    private final byte[] map;        // (width + 2) x (height + 2), NONE border
+    private final int[] stack;
+    private final int[] histogram = new int[256];
+    private final int[] lut = new int[256];
+
+    // compiled chain
+    private int[] ops = new int[0];
+    private double[] params = new double[0];
+    private int[][] blurKernels = new int[0][];
+    // rows step i must produce beyond a band so the steps after it see valid input
+    private int[] reachAfter = new int[0];
+    // chain.haloRadius(), -1 if it has a whole-frame step
+    private int halo = -1;
+    // Canny in the chain: banded runs are approximate (see FilterChain.CANNY_REFRESH_RUNS)
+    private boolean hasCanny;
+
+    // incremental mode, null when off
+    private TileChanges changes;
+    private byte[] cached;
+    private boolean lastUnchanged;
+    private long framesSeen;
+    private long framesUnchanged;
+    private long tilesChecked;
+    private long tilesReprocessed;
+    // banded Canny runs since the cached result was last computed in full
+    private int approximateRuns;
+
+    // state of the step being run, read by the row kernels
+    private byte[] src;
+    private byte[] dst;
+    private int[] kernel;
+    private int stepOp;
+    private double p0;
+    private double p1;
+    private int sobelOrderX;
+    private int sobelOrderY;
+    private boolean thresholdInverted;
+    private int morphRadiusLo;
+    private int morphRadiusHi;
+    private boolean morphMax;
+
+    // row kernels, bound once so running a band allocates nothing
+    private final ParallelRows.RowKernel blurRowPass = this::blurRowPass;
+    private final ParallelRows.RowKernel blurColumnPass = this::blurColumnPass;
+    private final ParallelRows.RowKernel cannyGradients = this::cannyGradients;
+    private final ParallelRows.RowKernel cannySuppress = this::cannySuppress;
+    private final ParallelRows.RowKernel cannyOutput = this::cannyOutput;
+    private final ParallelRows.RowKernel sobelPass = this::sobelPass;
+    private final ParallelRows.RowKernel thresholdPass = this::thresholdPass;
+    private final ParallelRows.RowKernel morphRowPass = this::morphRowPass;
+    private final ParallelRows.RowKernel morphColumnPass = this::morphColumnPass;
+    private final ParallelRows.RowKernel lutPass = this::lutPass;
+    private final ParallelRows.RowKernel pixelPass = this::pixelPass;
+
+    // pixel output (setColorOutput), tables in the target's memory layout
+    private int[] pixelColors;
+    private int[] pixelBackground;
+    private int pixelBytes;
+    // state of the pixel pass being run
+    private byte[] pixelSource;
+    private ByteBuffer pixelTarget;
+    private int pixelRowBytes;
+    private boolean pixelSwap;
+    // chroma planes of a colour frame (processYuvToPixels with an overlay), null otherwise
+    private ByteBuffer pixelU;
+    private ByteBuffer pixelV;
+    private int chromaRowStride;
+    private int chromaPixelStride;
+
+    // pool null runs single-threaded on the caller
+    JavaFrameEngine(int width, int height, FilterChain chain, ForkJoinPool pool) {
+        this.width = width;
+        this.height = height;
+        this.size = width * height;
+        this.rows = new ParallelRows(pool, pool == null ? 1 : pool.getParallelism() * 2);
+
+        input = new byte[size];
+        ping = new byte[size];
+        pong = new byte[size];
+        scratch = new int[size];
+        dx = new short[size];
+        dy = new short[size];
+        mag = new int[(width + 2) * (height + 2)];
+        map = new byte[(width + 2) * (height + 2)];
+        stack = new int[size];
+        setFilterChain(chain);
+    }
+
+    @Override
+    public void setFilterChain(FilterChain chain) {
+        int count = chain.size();
+        int[][] kernels = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int op = chain.opAt(i);
+            switch (op) {
+                case FilterChain.OP_GAUSSIAN_BLUR:
+                    kernels[i] = gaussianKernel((int) chain.paramAt(i, 0), chain.paramAt(i, 1));
+                    break;
+                case FilterChain.OP_CANNY:
+                case FilterChain.OP_EQUALIZE_HIST:
+                    break;
+                case FilterChain.OP_SOBEL:
+                    int ox = (int) chain.paramAt(i, 0);
+                    int oy = (int) chain.paramAt(i, 1);
+                    if (chain.paramAt(i, 2) != 3 || ox > 1 || oy > 1) {
+                        throw new UnsupportedOperationException("Java engine: only first-order 3x3 Sobel");
+                    }
+                    break;
+                case FilterChain.OP_THRESHOLD:
+                    int type = (int) chain.paramAt(i, 2) & ~FilterChain.THRESH_OTSU;
+                    if (type != FilterChain.THRESH_BINARY && type != FilterChain.THRESH_BINARY_INV) {
+                        throw new UnsupportedOperationException("Java engine: only binary thresholds");
+                    }
+                    break;
+                case FilterChain.OP_DILATE:
+                case FilterChain.OP_ERODE:
+                case FilterChain.OP_MORPH_OPEN:
+                case FilterChain.OP_MORPH_CLOSE:
+                    if ((int) chain.paramAt(i, 2) != FilterChain.MORPH_RECT) {
+                        throw new UnsupportedOperationException("Java engine: only rectangular morphology");
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Java engine: unsupported op " + op);
+            }
+        }
+        boolean canny = false;
+        for (int i = 0; i < count; i++) canny |= chain.opAt(i) == FilterChain.OP_CANNY;
+        int[] after = new int[count];
+        int chainHalo = chain.haloRadius();
+        for (int i = count - 2; chainHalo >= 0 && i >= 0; i--) after[i] = after[i + 1] + chain.stepReach(i + 1);
+        this.ops = chain.encodedOps();
+        this.params = chain.encodedParams();
+        this.blurKernels = kernels;
+        this.reachAfter = after;
+        this.halo = chainHalo;
+        this.hasCanny = canny;
+        // the cached result belongs to the old chain
+        if (changes != null) changes.invalidate();
+    }
+
+    @Override
+    public void setIncremental(int tileSize, int threshold) {
+        if (tileSize <= 0) {
+            changes = null;
+            cached = null;
+        } else if (changes != null && changes.tileSize == tileSize) {
+            changes.setThreshold(threshold);
+        } else {
+            changes = new TileChanges(width, height, tileSize, threshold);
+            if (cached == null) cached = new byte[size];
+        }
+        lastUnchanged = false;
+        approximateRuns = 0;
+        framesSeen = framesUnchanged = tilesChecked = tilesReprocessed = 0;
+    }
+
+    @Override
+    public boolean lastFrameUnchanged() {
+        return lastUnchanged;
+    }
+
+    @Override
+    public void incrementalStats(long[] out) {
+        out[0] = framesSeen;
+        out[1] = framesUnchanged;
+        out[2] = tilesChecked;
+        out[3] = tilesReprocessed;
+    }
+
+    @Override
+    public boolean process(ByteBuffer in, int rowStride, int pixelStride, ByteBuffer out) {
+        if (!acceptsInput(in, rowStride, pixelStride)) return false;
+        if (out.capacity() < size) return false;
+
+        readPlane(in, rowStride, pixelStride);
+        writePlane(result(), out);
+        return true;
+    }
+
+    @Override
+    public boolean processToEdgeMap(ByteBuffer in, int rowStride, int pixelStride, EdgeMap out) {
+        if (!acceptsInput(in, rowStride, pixelStride)) return false;
+
+        readPlane(in, rowStride, pixelStride);
+        out.pack(result(), 0, width);
+        return true;
+    }
+
+    @Override
+    public void setColorOutput(ColorOutput output) {
+        if (output == null) {
+            pixelColors = null;
+            pixelBackground = null;
+            return;
+        }
+        pixelColors = output.encodedColors();
+        pixelBackground = output.encodedBackground();
+        pixelBytes = output.getFormat().bytesPerPixel;
+    }
+
+    @Override
+    public boolean processToPixels(ByteBuffer in, int rowStride, int pixelStride,
+                                   ByteBuffer pixels, int rowBytes) {
+        if (pixelColors == null || !acceptsInput(in, rowStride, pixelStride)) return false;
+        if (rowBytes < width * pixelBytes) return false;
+        if ((long) rowBytes * (height - 1) + (long) width * pixelBytes > pixels.capacity()) return false;
+
+        readPlane(in, rowStride, pixelStride);
+        pixelSource = result();
+        pixelTarget = pixels;
+        pixelRowBytes = rowBytes;
+        // tables hold little-endian memory values; absolute puts follow the buffer's order
+        pixelSwap = pixels.order() != ByteOrder.LITTLE_ENDIAN;
+        rows.run(pixelPass, height);
+        pixelSource = null;
+        pixelTarget = null;
+        return true;
+    }
+
+    @Override
+    public boolean processYuvToPixels(ByteBuffer y, int rowStride, int pixelStride, ByteBuffer u, ByteBuffer v,
+                                      int uvRowStride, int uvPixelStride, ByteBuffer pixels, int rowBytes) {
+        if (pixelColors == null || (pixelBackground != null && pixelBytes != 4)) return false;
+        if (!acceptsChroma(u, v, uvRowStride, uvPixelStride)) return false;
+        if (pixelBackground != null) {
+            pixelU = u;
+            pixelV = v;
+            chromaRowStride = uvRowStride;
+            chromaPixelStride = uvPixelStride;
+        }
+        try {
+            return processToPixels(y, rowStride, pixelStride, pixels, rowBytes);
+        } finally {
+            pixelU = null;
+            pixelV = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing native to free; arrays go with the engine
+    }
+
+    private boolean acceptsInput(ByteBuffer in, int rowStride, int pixelStride) {
+        if (pixelStride < 1 || rowStride < (width - 1) * pixelStride + 1) return false;
+        return (long) rowStride * (height - 1) + (long) (width - 1) * pixelStride + 1 <= in.capacity();
+    }
+
+    private boolean acceptsChroma(ByteBuffer u, ByteBuffer v, int rowStride, int pixelStride) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        if (pixelStride < 1 || rowStride < (chromaWidth - 1) * pixelStride + 1) return false;
+        long need = (long) rowStride * (chromaHeight - 1) + (long) (chromaWidth - 1) * pixelStride + 1;
+        return need <= u.capacity() && need <= v.capacity();
+    }
+
+    // Runs the chain over input (or just its changed rows), returns the array holding the result
+    private byte[] result() {
+        if (changes == null) return runChain(0, height);
+        framesSeen++;
+        int changed = changes.detect(input);
+        int tiles = changes.tileCount();
+        tilesChecked += tiles;
+        // the scene settled with approximate bands in the cache: one full run puts it right
+        lastUnchanged = changed == 0 && approximateRuns == 0;
+        if (lastUnchanged) {
+            framesUnchanged++;
+            return cached;
+        }
+        // past half the frame, the bands' overlap costs more than it saves
+        if (halo < 0 || changed == 0 || changed * 2 > tiles || approximateRuns >= FilterChain.CANNY_REFRESH_RUNS) {
+            System.arraycopy(runChain(0, height), 0, cached, 0, size);
+            changes.accept(input, 0, height);
+            tilesReprocessed += tiles;
+            approximateRuns = 0;
+            return cached;
+        }
+        if (hasCanny) approximateRuns++;
+        int tileSize = changes.tileSize;
+        for (int ty = 0; ty < changes.tilesY; ty++) {
+            if (!changes.rowChanged(ty)) continue;
+            int last = ty;
+            while (last + 1 < changes.tilesY && changes.rowChanged(last + 1)) last++;
+            int y0 = ty * tileSize;
+            int y1 = Math.min(height, (last + 1) * tileSize);
+            // results within the halo of a changed pixel move too
+            int out0 = Math.max(0, y0 - halo);
+            int out1 = Math.min(height, y1 + halo);
+            byte[] band = runChain(out0, out1);
+            System.arraycopy(band, out0 * width, cached, out0 * width, (out1 - out0) * width);
+            changes.accept(input, y0, y1);
+            tilesReprocessed += (long) (last - ty + 1) * changes.tilesX;
+            ty = last;
+        }
+        return cached;
+    }
+
+    // Runs every step so that rows [y0, y1) of the result are valid; returns the array holding it.
+    // Earlier steps cover the later steps' reach around the band.
+    private byte[] runChain(int y0, int y1) {
+        byte[] current = input;
+        for (int i = 0; i < ops.length; i++) {
+            byte[] target = (i & 1) == 0 ? ping : pong;
+            runStep(i, current, target, Math.max(0, y0 - reachAfter[i]), Math.min(height, y1 + reachAfter[i]));
+            current = target;
+        }
+        return current;
+    }
+
+    // -------------------------
+    // Plane I/O: bulk copies, buffer position/limit restored afterwards
+    // -------------------------
+
+    private void readPlane(ByteBuffer in, int rowStride, int pixelStride) {
+        int position = in.position();
+        int limit = in.limit();
+        try {
+            if (pixelStride == 1) {
+                for (int r = 0; r < height; r++) {
+                    int start = r * rowStride;
+                    in.limit(start + width);
+                    in.position(start);
+                    in.get(input, r * width, width);
+                }
+            } else {
+                for (int r = 0, i = 0; r < height; r++) {
+                    int start = r * rowStride;
+                    for (int c = 0; c < width; c++) input[i++] = in.get(start + c * pixelStride);
+                }
+            }
+        } finally {
+            in.limit(in.capacity());
+            in.position(position);
+            in.limit(limit);
+        }
+    }
+
+    private void writePlane(byte[] plane, ByteBuffer out) {
+        int position = out.position();
+        int limit = out.limit();
+        try {
+            out.limit(size);
+            out.position(0);
+            out.put(plane, 0, size);
+        } finally {
+            out.limit(out.capacity());
+            out.position(position);
+            out.limit(limit);
+        }
+    }
+
+    // -------------------------
+    // Steps
+    // -------------------------
+
+    // Produces rows [lo, hi) of target; whole-frame steps (Otsu, histogram) only run with the full range
+    private void runStep(int index, byte[] source, byte[] target, int lo, int hi) {
+        int base = index * FilterChain.PARAMS_PER_OP;
+        stepOp = ops[index];
+        p0 = params[base];
+        p1 = params[base + 1];
+        src = source;
+        dst = target;
+        switch (stepOp) {
+            case FilterChain.OP_GAUSSIAN_BLUR:
+                kernel = blurKernels[index];
+                if (kernel.length == 1) {
+                    System.arraycopy(source, lo * width, target, lo * width, (hi - lo) * width);
+                } else {
+                    int r = kernel.length / 2;
+                    rows.run(blurRowPass, Math.max(0, lo - r), Math.min(height, hi + r));
+                    rows.run(blurColumnPass, lo, hi);
+                }
+                break;
+            case FilterChain.OP_CANNY:
+                canny(lo, hi);
+                break;
+            case FilterChain.OP_SOBEL:
+                sobelOrderX = (int) params[base];
+                sobelOrderY = (int) params[base + 1];
+                p1 = params[base + 3] > 0 ? params[base + 3] : 1.0;
+                rows.run(sobelPass, lo, hi);
+                break;
+            case FilterChain.OP_THRESHOLD: {
+                int type = (int) params[base + 2];
+                if ((type & FilterChain.THRESH_OTSU) != 0) {
+                    p0 = otsuThreshold(source);
+                }
+                thresholdInverted = (type & ~FilterChain.THRESH_OTSU) == FilterChain.THRESH_BINARY_INV;
+                rows.run(thresholdPass, lo, hi);
+                break;
+            }
+            case FilterChain.OP_DILATE:
+            case FilterChain.OP_ERODE:
+                morph(source, target, (int) p0, Math.max(1, (int) p1), stepOp == FilterChain.OP_DILATE, lo, hi);
+                break;
+            case FilterChain.OP_MORPH_OPEN:
+            case FilterChain.OP_MORPH_CLOSE: {
+                // the second half reads the first half's output around the band
+                int iterations = Math.max(1, (int) p1);
+                int reach = (int) p0 / 2 * iterations;
+                boolean open = stepOp == FilterChain.OP_MORPH_OPEN;
+                morph(source, target, (int) p0, iterations, !open,
+                        Math.max(0, lo - reach), Math.min(height, hi + reach));
+                morph(target, target, (int) p0, iterations, open, lo, hi);
+                break;
+            }
+            case FilterChain.OP_EQUALIZE_HIST:
+                equalizeHistogram(source);
+                break;
+            default:
+                throw new IllegalStateException("op " + stepOp);
+        }
+    }
+
+    // -------------------------
+    // Gaussian blur: OpenCV's bit-exact 8-bit path. Kernel in 8-bit fixed point, integer row
+    // pass, integer column pass, one rounding at the end; BORDER_REFLECT_101.
+    // -------------------------
+
+    static int[] gaussianKernel(int ksize, double sigma) {
+        double[] k;
+        if (sigma <= 0 && ksize == 1) {
+            k = new double[]{1};
+        } else if (sigma <= 0 && ksize == 3) {
+            k = new double[]{0.25, 0.5, 0.25};
+        } else if (sigma <= 0 && ksize == 5) {
+            k = new double[]{0.0625, 0.25, 0.375, 0.25, 0.0625};
+        } else if (sigma <= 0 && ksize == 7) {
+            k = new double[]{0.03125, 0.109375, 0.21875, 0.28125, 0.21875, 0.109375, 0.03125};
+        } else {
+            double s = sigma > 0 ? sigma : ((ksize - 1) * 0.5 - 1) * 0.3 + 0.8;
+            k = new double[ksize];
+            double sum = 0;
+            for (int i = 0; i < ksize; i++) {
+                double x = i - (ksize - 1) * 0.5;
+                k[i] = Math.exp(-(x * x) / (2 * s * s));
+                sum += k[i];
+            }
+            for (int i = 0; i < ksize; i++) k[i] /= sum;
+        }
+        int[] fixed = new int[k.length];
+        int total = 0;
+        for (int i = 0; i < k.length; i++) {
+            fixed[i] = (int) Math.round(k[i] * 256);
+            total += fixed[i];
+        }
+        // keep the kernel summing to exactly 1.0 so flat areas stay flat
+        fixed[k.length / 2] += 256 - total;
+        return fixed;
+    }
+
+    private static int reflect101(int i, int n) {
+        if (n == 1) return 0;
+        while (i < 0 || i >= n) {
+            if (i < 0) i = -i;
+            if (i >= n) i = 2 * n - 2 - i;
+        }
+        return i;
+    }
+
+    private void blurRowPass(int y0, int y1) {
+        final int[] k = kernel;
+        final int r = k.length / 2;
+        final byte[] s = src;
+        final int[] t = scratch;
+        final int w = width;
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                int acc = 0;
+                if (x >= r && x < w - r) {
+                    int p = row + x - r;
+                    for (int i = 0; i < k.length; i++) acc += k[i] * (s[p + i] & 0xFF);
+                } else {
+                    for (int i = 0; i < k.length; i++) acc += k[i] * (s[row + reflect101(x + i - r, w)] & 0xFF);
+                }
+                t[row + x] = acc;
+            }
+        }
+    }
+
+    private void blurColumnPass(int y0, int y1) {
+        final int[] k = kernel;
+        final int r = k.length / 2;
+        final int[] t = scratch;
+        final byte[] d = dst;
+        final int w = width;
+        final int h = height;
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            boolean inside = y >= r && y < h - r;
+            for (int x = 0; x < w; x++) {
+                long acc = 0;
+                for (int i = 0; i < k.length; i++) {
+                    int yy = inside ? y + i - r : reflect101(y + i - r, h);
+                    acc += (long) k[i] * t[yy * w + x];
+                }
+                d[row + x] = (byte) ((acc + (1 << 15)) >> 16);
+            }
+        }
+    }
+
+    // -------------------------
+    // Canny, L1 gradient, aperture 3 (matches cv::Canny(image, edges, low, high))
+    // -------------------------
+
+    // Rows [lo, hi); a band's suppression reads gradients one row beyond it
+    private void canny(int lo, int hi) {
+        final int w = width + 2;
+        // map border rows / columns are never edges
+        for (int x = 0; x < w; x++) {
+            map[x] = NONE;
+            map[(height + 1) * w + x] = NONE;
+        }
+        rows.run(cannyGradients, Math.max(0, lo - 1), Math.min(height, hi + 1));
+        rows.run(cannySuppress, lo, hi);
+
+        // hysteresis: grow strong edges through connected weak candidates. A band is seeded
+        // from its rows and the (kept) map rows touching it, so it joins edges from outside.
+        int top = 0;
+        for (int i = Math.max(1, lo) * w, end = Math.min(height + 1, hi + 2) * w; i < end; i++) {
+            if (map[i] == EDGE) stack[top++] = i;
+        }
+        while (top > 0) {
+            int i = stack[--top];
+            top = grow(i - w - 1, top);
+            top = grow(i - w, top);
+            top = grow(i - w + 1, top);
+            top = grow(i - 1, top);
+            top = grow(i + 1, top);
+            top = grow(i + w - 1, top);
+            top = grow(i + w, top);
+            top = grow(i + w + 1, top);
+        }
+        rows.run(cannyOutput, lo, hi);
+    }
+
+    private int grow(int i, int top) {
+        if (map[i] == MAYBE) {
+            map[i] = EDGE;
+            stack[top++] = i;
+        }
+        return top;
+    }
+
+    // Sobel 3x3 with BORDER_REPLICATE into dx/dy, |dx| + |dy| into the padded magnitude
+    private void cannyGradients(int y0, int y1) {
+        final byte[] s = src;
+        final int w = width;
+        final int h = height;
+        final int pw = w + 2;
+        for (int y = y0; y < y1; y++) {
+            int up = Math.max(y - 1, 0) * w;
+            int mid = y * w;
+            int down = Math.min(y + 1, h - 1) * w;
+            for (int x = 0; x < w; x++) {
+                int l = Math.max(x - 1, 0);
+                int r = Math.min(x + 1, w - 1);
+                int gx = ((s[up + r] & 0xFF) - (s[up + l] & 0xFF))
+                        + 2 * ((s[mid + r] & 0xFF) - (s[mid + l] & 0xFF))
+                        + ((s[down + r] & 0xFF) - (s[down + l] & 0xFF));
+                int gy = ((s[down + l] & 0xFF) + 2 * (s[down + x] & 0xFF) + (s[down + r] & 0xFF))
+                        - ((s[up + l] & 0xFF) + 2 * (s[up + x] & 0xFF) + (s[up + r] & 0xFF));
+                dx[mid + x] = (short) gx;
+                dy[mid + x] = (short) gy;
+                mag[(y + 1) * pw + x + 1] = Math.abs(gx) + Math.abs(gy);
+            }
+        }
+    }
+
+    // Non-maximum suppression along the gradient direction, OpenCV's comparisons and tie rules
+    private void cannySuppress(int y0, int y1) {
+        // thresholds are floored like cv::Canny does for the L1 norm
+        final int low = (int) Math.floor(p0);
+        final int high = (int) Math.floor(p1);
+        final int w = width;
+        final int pw = w + 2;
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            int m0 = (y + 1) * pw + 1;
+            map[m0 - 1] = NONE;
+            map[m0 + w] = NONE;
+            for (int x = 0; x < w; x++) {
+                int mi = m0 + x;
+                int m = mag[mi];
+                byte state = NONE;
+                if (m > low) {
+                    int xs = dx[row + x];
+                    int ys = dy[row + x];
+                    int ax = Math.abs(xs);
+                    int ay = Math.abs(ys) << CANNY_SHIFT;
+                    int tg22x = ax * TG22;
+                    boolean peak;
+                    if (ay < tg22x) {
+                        peak = m > mag[mi - 1] && m >= mag[mi + 1];
+                    } else {
+                        int tg67x = tg22x + (ax << (CANNY_SHIFT + 1));
+                        if (ay > tg67x) {
+                            peak = m > mag[mi - pw] && m >= mag[mi + pw];
+                        } else {
+                            int s = (xs ^ ys) < 0 ? -1 : 1;
+                            peak = m > mag[mi - pw - s] && m > mag[mi + pw + s];
+                        }
+                    }
+                    if (peak) state = m > high ? EDGE : MAYBE;
+                }
+                map[mi] = state;
+            }
+        }
+    }
+
+    private void cannyOutput(int y0, int y1) {
+        final byte[] d = dst;
+        final int w = width;
+        final int pw = w + 2;
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            int m0 = (y + 1) * pw + 1;
+            for (int x = 0; x < w; x++) d[row + x] = map[m0 + x] == EDGE ? (byte) 255 : 0;
+        }
+    }
+
+    // -------------------------
+    // Other chain ops
+    // -------------------------
+
+    // First-order 3x3 Sobel (BORDER_REFLECT_101), |value * scale| saturated to 8 bits
+    private void sobelPass(int y0, int y1) {
+        final byte[] s = src;
+        final byte[] d = dst;
+        final int w = width;
+        final int h = height;
+        final int ox = sobelOrderX;
+        final int oy = sobelOrderY;
+        final double scale = p1;
+        for (int y = y0; y < y1; y++) {
+            int up = reflect101(y - 1, h) * w;
+            int mid = y * w;
+            int down = reflect101(y + 1, h) * w;
+            for (int x = 0; x < w; x++) {
+                int l = reflect101(x - 1, w);
+                int r = reflect101(x + 1, w);
+                int v;
+                if (ox == 1 && oy == 1) {
+                    v = (s[up + l] & 0xFF) - (s[up + r] & 0xFF) - (s[down + l] & 0xFF) + (s[down + r] & 0xFF);
+                } else if (ox == 1) {
+                    v = ((s[up + r] & 0xFF) - (s[up + l] & 0xFF))
+                            + 2 * ((s[mid + r] & 0xFF) - (s[mid + l] & 0xFF))
+                            + ((s[down + r] & 0xFF) - (s[down + l] & 0xFF));
+                } else {
+                    v = ((s[down + l] & 0xFF) + 2 * (s[down + x] & 0xFF) + (s[down + r] & 0xFF))
+                            - ((s[up + l] & 0xFF) + 2 * (s[up + x] & 0xFF) + (s[up + r] & 0xFF));
+                }
+                long scaled = Math.round(Math.abs(v * scale));
+                d[mid + x] = (byte) (scaled > 255 ? 255 : scaled);
+            }
+        }
+    }
+
+    private void thresholdPass(int y0, int y1) {
+        final byte[] s = src;
+        final byte[] d = dst;
+        final double t = p0;
+        final long rounded = Math.round(p1);
+        final byte max = (byte) (rounded > 255 ? 255 : rounded < 0 ? 0 : rounded);
+        final boolean inverted = thresholdInverted;
+        for (int i = y0 * width, end = y1 * width; i < end; i++) {
+            boolean above = (s[i] & 0xFF) > t;
+            d[i] = above != inverted ? max : 0;
+        }
+    }
+
+    // Otsu's threshold, same search as OpenCV's getThreshVal_Otsu_8u
+    private int otsuThreshold(byte[] plane) {
+        Arrays.fill(histogram, 0);
+        for (int i = 0; i < size; i++) histogram[plane[i] & 0xFF]++;
+        double scale = 1.0 / size;
+        double mu = 0;
+        for (int i = 0; i < 256; i++) mu += i * (double) histogram[i];
+        mu *= scale;
+        double mu1 = 0, q1 = 0, maxSigma = 0;
+        int maxVal = 0;
+        for (int i = 0; i < 256; i++) {
+            double pi = histogram[i] * scale;
+            mu1 *= q1;
+            q1 += pi;
+            double q2 = 1 - q1;
+            if (Math.min(q1, q2) < 1.1920929e-07 || Math.max(q1, q2) > 1 - 1.1920929e-07) continue;
+            mu1 = (mu1 + i * pi) / q1;
+            double mu2 = (mu - q1 * mu1) / q2;
+            double sigma = q1 * q2 * (mu1 - mu2) * (mu1 - mu2);
+            if (sigma > maxSigma) {
+                maxSigma = sigma;
+                maxVal = i;
+            }
+        }
+        return maxVal;
+    }
+
+    // Rectangular dilate / erode as two separable max/min passes; pixels outside the image
+    // are ignored, like OpenCV's default morphology border. Rows [lo, hi) of target come out
+    // right; earlier iterations cover the later ones' reach.
+    private void morph(byte[] source, byte[] target, int ksize, int iterations, boolean dilate, int lo, int hi) {
+        int r = ksize / 2;
+        morphRadiusLo = r;
+        morphRadiusHi = ksize - 1 - r;
+        morphMax = dilate;
+        for (int it = 0; it < iterations; it++) {
+            int extra = (iterations - 1 - it) * r;
+            int from = Math.max(0, lo - extra);
+            int to = Math.min(height, hi + extra);
+            src = it == 0 ? source : target;
+            dst = target;
+            rows.run(morphRowPass, Math.max(0, from - r), Math.min(height, to + r));
+            rows.run(morphColumnPass, from, to);
+        }
+    }
+
+    private void morphRowPass(int y0, int y1) {
+        final byte[] s = src;
+        final int[] t = scratch;
+        final int w = width;
+        final int lo = morphRadiusLo;
+        final int hi = morphRadiusHi;
+        final boolean max = morphMax;
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                int from = Math.max(0, x - lo);
+                int to = Math.min(w - 1, x + hi);
+                int v = s[row + from] & 0xFF;
+                for (int i = from + 1; i <= to; i++) {
+                    int c = s[row + i] & 0xFF;
+                    if (max ? c > v : c < v) v = c;
+                }
+                t[row + x] = v;
+            }
+        }
+    }
+
+    private void morphColumnPass(int y0, int y1) {
+        final int[] t = scratch;
+        final byte[] d = dst;
+        final int w = width;
+        final int h = height;
+        final int lo = morphRadiusLo;
+        final int hi = morphRadiusHi;
+        final boolean max = morphMax;
+        for (int y = y0; y < y1; y++) {
+            int from = Math.max(0, y - lo);
+            int to = Math.min(h - 1, y + hi);
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                int v = t[from * w + x];
+                for (int i = from + 1; i <= to; i++) {
+                    int c = t[i * w + x];
+                    if (max ? c > v : c < v) v = c;
+                }
+                d[row + x] = (byte) v;
+            }
+        }
+    }
+
+    // cv::equalizeHist: LUT from the cumulative histogram, ignoring the first occupied bin
+    private void equalizeHistogram(byte[] source) {
+        Arrays.fill(histogram, 0);
+        for (int i = 0; i < size; i++) histogram[source[i] & 0xFF]++;
+        int first = 0;
+        while (histogram[first] == 0) first++;
+        if (histogram[first] == size) {
+            Arrays.fill(dst, 0, size, (byte) first);
+            return;
+        }
+        float scale = 255f / (size - histogram[first]);
+        int sum = 0;
+        Arrays.fill(lut, 0, first + 1, 0);
+        for (int i = first + 1; i < 256; i++) {
+            sum += histogram[i];
+            int v = Math.round(sum * scale);
+            lut[i] = v > 255 ? 255 : v;
+        }
+        rows.run(lutPass, height);
+    }
+
+    private void lutPass(int y0, int y1) {
+        final byte[] s = src;
+        final byte[] d = dst;
+        for (int i = y0 * width, end = y1 * width; i < end; i++) d[i] = (byte) lut[s[i] & 0xFF];
+    }
+
+    // -------------------------
+    // Pixel output: result (or camera, under an overlay) through the colour tables
+    // -------------------------
+
+    private void pixelPass(int y0, int y1) {
+        final byte[] s = pixelSource;
+        final byte[] camera = input;
+        final int[] colors = pixelColors;
+        final int[] background = pixelBackground;
+        final ByteBuffer out = pixelTarget;
+        final boolean swap = pixelSwap;
+        final ByteBuffer cu = pixelU;
+        final ByteBuffer cv = pixelV;
+        for (int y = y0; y < y1; y++) {
+            int i = y * width;
+            int offset = y * pixelRowBytes;
+            int chromaRow = (y >> 1) * chromaRowStride;
+            for (int x = 0; x < width; x++, i++) {
+                int v = s[i] & 0xFF;
+                int c;
+                if (background == null || v != 0) {
+                    c = colors[v];
+                } else if (cu != null) {
+                    int chroma = chromaRow + (x >> 1) * chromaPixelStride;
+                    c = yuvBackground(camera[i] & 0xFF, cu.get(chroma) & 0xFF, cv.get(chroma) & 0xFF, background);
+                } else {
+                    c = background[camera[i] & 0xFF];
+                }
+                if (pixelBytes == 4) {
+                    out.putInt(offset + x * 4, swap ? Integer.reverseBytes(c) : c);
+                } else {
+                    out.putShort(offset + x * 2, swap ? Short.reverseBytes((short) c) : (short) c);
+                }
+            }
+        }
+    }
+
+    // Camera pixel of a colour frame as 8888 memory: full-range BT.601 (what camera YUV is),
+    // 16-bit fixed point like the native pass, each channel through the background table's
+    // red byte, alpha from the table
+    static int yuvBackground(int luma, int u, int v, int[] background) {
+        int y = luma << 16;
+        u -= 128;
+        v -= 128;
+        int r = clampByte((y + 91881 * v + (1 << 15)) >> 16);
+        int g = clampByte((y - 22554 * u - 46802 * v + (1 << 15)) >> 16);
+        int b = clampByte((y + 116130 * u + (1 << 15)) >> 16);
+        return (background[0] & 0xFF000000) | (background[b] & 0xFF) << 16
+                | (background[g] & 0xFF) << 8 | (background[r] & 0xFF);
+    }
+
+    private static int clampByte(int v) {
+        return Math.min(255, Math.max(0, v));
+    }
+}
@@ -0,0 +1,432 @@
+package com.flamapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// Command-line load generator: pushes frames from a synthetic source or a recording through a
+// FrameSession at a target rate (or flat out) and reports throughput and per-stage latency.
+// The session is the one the app runs, minus the camera and the screen:
+//   ./gradlew :core:run --args="--size 1920x1080 --fps 30 --frames 900 --threads 4"
+//   ./gradlew :core:run --args="--replay frames.flrec --fps 0 --json"
+// With --streams N (or --workers K) it runs N sessions at once, each fed by its own producer
+// thread, on a FrameScheduler of K workers (default: one per stream, up to the core count):
+//   ./gradlew :core:run --args="--streams 4 --workers 2 --priority 2,1 --cap 0,15 --fps 0"
+// Frames offered faster than the process stage takes them are dropped by its queue (oldest
+// first), as camera frames are; "late" counts frames the driver itself could not offer on time.
+public final class LoadDriver {
+
+    static final String USAGE = "usage: LoadDriver [--size WxH] [--frames N] [--fps F (0 = flat out)]\n"
+            + "                  [--replay FILE.flrec] [--backend auto|native|java] [--threads N]\n"
+            + "                  [--incremental TILE:THRESHOLD] [--overlay] [--governor BUDGET_MS]\n"
+            + "                  [--queue N] [--json]\n"
+            + "                  [--streams N] [--workers K] [--priority P1,P2,..] [--cap FPS1,FPS2,..]";
+
+    // Parsed command line
+    static final class Options {
+        int width = 1280;
+        int height = 720;
+        long frames = 600;
+        double fps = 30;
+        File replay;
+        FrameProcessor.Backend backend = FrameProcessor.Backend.AUTO;
+        int threads = 1;
+        int tileSize;
+        int changeThreshold;
+        boolean overlay;
+        double governorBudgetMs;
+        int queue = 2;
+        boolean json;
+        int streams = 1;
+        // 0: a thread per session unless there are several streams
+        int workers;
+        // per stream, the last value repeating; see FrameScheduler.StreamConfig
+        int[] priorities = {1};
+        double[] caps = {0};
+
+        boolean scheduled() {
+            return streams > 1 || workers > 0;
+        }
+
+        int priority(int stream) {
+            return priorities[Math.min(stream, priorities.length - 1)];
+        }
+
+        double cap(int stream) {
+            return caps[Math.min(stream, caps.length - 1)];
+        }
+
+        static Options parse(String... args) {
+            Options o = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--size": {
+                        String[] wh = value(args, ++i, arg).split("x");
+                        if (wh.length != 2) throw new IllegalArgumentException("Bad size: " + args[i]);
+                        o.width = positive(wh[0], arg);
+                        o.height = positive(wh[1], arg);
+                        break;
+                    }
+                    case "--frames":
+                        o.frames = positive(value(args, ++i, arg), arg);
+                        break;
+                    case "--fps":
+                        o.fps = Double.parseDouble(value(args, ++i, arg));
+                        if (!(o.fps >= 0)) throw new IllegalArgumentException("Bad frame rate: " + args[i]);
+                        break;
+                    case "--replay":
+                        o.replay = new File(value(args, ++i, arg));
+                        break;
+                    case "--backend":
+                        o.backend = FrameProcessor.Backend.valueOf(value(args, ++i, arg).toUpperCase(Locale.US));
+                        break;
+                    case "--threads":
+                        o.threads = positive(value(args, ++i, arg), arg);
+                        break;
+                    case "--incremental": {
+                        String[] parts = value(args, ++i, arg).split(":");
+                        if (parts.length != 2) throw new IllegalArgumentException("Bad incremental setting: " + args[i]);
+                        o.tileSize = positive(parts[0], arg);
+                        o.changeThreshold = positive(parts[1], arg);
+                        break;
+                    }
+                    case "--overlay":
+                        o.overlay = true;
+                        break;
+                    case "--governor":
+                        o.governorBudgetMs = Double.parseDouble(value(args, ++i, arg));
+                        if (!(o.governorBudgetMs > 0)) throw new IllegalArgumentException("Bad budget: " + args[i]);
+                        break;
+                    case "--queue":
+                        o.queue = positive(value(args, ++i, arg), arg);
+                        break;
+                    case "--json":
+                        o.json = true;
+                        break;
+                    case "--streams":
+                        o.streams = positive(value(args, ++i, arg), arg);
+                        break;
+                    case "--workers":
+                        o.workers = positive(value(args, ++i, arg), arg);
+                        break;
+                    case "--priority": {
+                        String[] parts = value(args, ++i, arg).split(",");
+                        o.priorities = new int[parts.length];
+                        for (int p = 0; p < parts.length; p++) o.priorities[p] = positive(parts[p], arg);
+                        break;
+                    }
+                    case "--cap": {
+                        String[] parts = value(args, ++i, arg).split(",");
+                        o.caps = new double[parts.length];
+                        for (int p = 0; p < parts.length; p++) {
+                            o.caps[p] = Double.parseDouble(parts[p]);
+                            if (!(o.caps[p] >= 0)) throw new IllegalArgumentException("Bad frame rate cap: " + parts[p]);
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            return o;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+            return args[i];
+        }
+
+        private static int positive(String value, String option) {
+            int n = Integer.parseInt(value);
+            if (n <= 0) throw new IllegalArgumentException(option + " must be > 0: " + value);
+            return n;
+        }
+    }
+
+    // What a run measured
+    public static final class Result {
+        public final String source;
+        public final FrameProcessor.Backend backend;
+        public final double targetFps;
+        public final long offered;
+        // offered more than a millisecond after their slot (driver or source too slow)
+        public final long late;
+        public final long processed;
+        public final long dropped;
+        public final long unchanged;
+        // turned away by the stream's frame-rate cap
+        public final long capped;
+        public final long elapsedNanos;
+        public final FrameMetrics.Snapshot metrics;
+        // how the stream fared on the shared workers, null when it had a thread of its own
+        public final FrameScheduler.StreamStats schedule;
+
+        Result(String source, FrameProcessor.Backend backend, double targetFps, long offered, long late,
+               long unchanged, long capped, long elapsedNanos, FrameMetrics.Snapshot metrics,
+               FrameScheduler.StreamStats schedule) {
+            this.source = source;
+            this.backend = backend;
+            this.targetFps = targetFps;
+            this.offered = offered;
+            this.late = late;
+            this.processed = metrics.frames;
+            this.dropped = metrics.drops;
+            this.unchanged = unchanged;
+            this.capped = capped;
+            this.elapsedNanos = elapsedNanos;
+            this.metrics = metrics;
+            this.schedule = schedule;
+        }
+
+        public double offeredFps() {
+            return elapsedNanos > 0 ? offered * 1e9 / elapsedNanos : 0;
+        }
+
+        // frames through the process stage (shown or found unchanged) per second
+        public double throughputFps() {
+            return elapsedNanos > 0 ? (processed + unchanged) * 1e9 / elapsedNanos : 0;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"source\":\"%s\",\"backend\":\"%s\",\"targetFps\":%.2f,\"offered\":%d,\"late\":%d,"
+                            + "\"processed\":%d,\"dropped\":%d,\"unchanged\":%d,\"capped\":%d,\"elapsedMs\":%.2f,"
+                            + "\"offeredFps\":%.2f,\"throughputFps\":%.2f,\"metrics\":%s,\"schedule\":%s}",
+                    source.replace("\\", "\\\\").replace("\"", "\\\""), backend, targetFps, offered, late,
+                    processed, dropped, unchanged, capped, elapsedNanos / 1e6, offeredFps(), throughputFps(),
+                    metrics.toJson(), schedule == null ? "null" : schedule.toJson());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "%s, %s backend, target %s\n"
+                            + "offered %d frames in %.2f s (%.1f fps, %d late)\n"
+                            + "processed %d (%.1f fps incl. %d unchanged), dropped %d, errors %d",
+                    source, backend, targetFps > 0 ? String.format(Locale.US, "%.1f fps", targetFps) : "flat out",
+                    offered, elapsedNanos / 1e9, offeredFps(), late,
+                    processed, throughputFps(), unchanged, dropped, metrics.errors));
+            if (capped > 0) sb.append(", capped ").append(capped);
+            if (schedule != null) {
+                sb.append(String.format(Locale.US, "\nworkers  priority %d, busy %.2f s, service p50 %.2f ms  p99 %.2f ms",
+                        schedule.priority, schedule.busyNanos / 1e9, schedule.service.p50 / 1e6,
+                        schedule.service.p99 / 1e6));
+            }
+            for (String stage : new String[]{"queue", "process", "total"}) {
+                FrameMetrics.StageLatency latency = metrics.stage(stage);
+                if (latency != null && latency.count > 0) {
+                    sb.append(String.format(Locale.US, "\n%-8s p50 %7.2f ms  p95 %7.2f ms  p99 %7.2f ms  max %7.2f ms",
+                            stage, latency.p50 / 1e6, latency.p95 / 1e6, latency.p99 / 1e6, latency.max / 1e6));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    // Several streams at once on one FrameScheduler
+    public static final class MultiResult {
+        public final int workers;
+        public final Result[] streams;
+        // first frame offered -> every stream idle
+        public final long elapsedNanos;
+
+        MultiResult(int workers, Result[] streams, long elapsedNanos) {
+            this.workers = workers;
+            this.streams = streams;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long processed() {
+            long total = 0;
+            for (Result r : streams) total += r.processed;
+            return total;
+        }
+
+        // frames through the process stage per second, all streams together
+        public double throughputFps() {
+            long total = 0;
+            for (Result r : streams) total += r.processed + r.unchanged;
+            return elapsedNanos > 0 ? total * 1e9 / elapsedNanos : 0;
+        }
+
+        public String toJson() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "{\"workers\":%d,\"elapsedMs\":%.2f,\"throughputFps\":%.2f,\"streams\":[",
+                    workers, elapsedNanos / 1e6, throughputFps()));
+            for (int i = 0; i < streams.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(streams[i].toJson());
+            }
+            return sb.append("]}").toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "%d streams on %d workers: %.1f fps together in %.2f s",
+                    streams.length, workers, throughputFps(), elapsedNanos / 1e9));
+            for (int i = 0; i < streams.length; i++) sb.append("\n\n[stream ").append(i).append("] ").append(streams[i]);
+            return sb.toString();
+        }
+    }
+
+    // One session with its source and output, fed by one producer
+    private static final class Driven implements AutoCloseable {
+        final String name;
+        final FrameSource source;
+        final PixelBufferOutput output;
+        final FrameSession session;
+        long offered;
+        long late;
+        IOException error;
+
+        Driven(Options o, FrameScheduler scheduler, int stream) throws IOException {
+            FrameSession.Config config = new FrameSession.Config()
+                    .setName("Frames-" + stream)
+                    .setBackend(o.backend)
+                    .setNativeThreads(o.threads, false)
+                    .setIncremental(o.tileSize, o.changeThreshold)
+                    .setQueueCapacity(o.queue);
+            if (o.overlay) config.setEffect(FilterChain.defaultEdges(), ColorOutput.edgeOverlay(0xFF00FF00, 0.6));
+            if (scheduler != null) {
+                // the Java backend stays on the worker, so K workers really use K cores
+                config.setJavaPool(null).setScheduler(scheduler, new FrameScheduler.StreamConfig()
+                        .setPriority(o.priority(stream))
+                        .setMaxFps(o.cap(stream)));
+            }
+            source = o.replay != null
+                    ? new FrameReplaySource(o.replay).setLooping(true)
+                    : o.overlay ? new SyntheticFrameSource(o.width, o.height, -1, 30).withChroma()
+                    : new SyntheticFrameSource(o.width, o.height, -1, 30);
+            name = o.replay != null ? o.replay.getPath() : "synthetic " + o.width + "x" + o.height;
+            output = new PixelBufferOutput(o.queue + 2);
+            FrameSession[] self = new FrameSession[1];
+            // a display would hold on to the frame for a while; here it is done with right away
+            session = new FrameSession(config, output, frame -> self[0].release(frame));
+            self[0] = session;
+            if (o.governorBudgetMs > 0) {
+                int[][] sizes = {{o.width, o.height}};
+                session.setGovernor(new ResolutionGovernor(sizes, new ResolutionGovernor.Config()
+                        .setBudgetNanos((long) (o.governorBudgetMs * 1e6))), null);
+            }
+        }
+
+        // Offers o.frames frames at o.fps (or flat out) from start
+        void drive(Options o, long start) {
+            long interval = o.fps > 0 ? (long) (1e9 / o.fps) : 0;
+            try {
+                for (; offered < o.frames; offered++) {
+                    if (interval > 0) {
+                        long due = start + offered * interval;
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        } else if (-wait > FrameReplaySource.Result.LATE_NANOS) {
+                            late++;
+                        }
+                    }
+                    if (!session.submitFrom(source)) break;
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        Result result(Options o, long elapsed) {
+            return new Result(name, session.getBackend(), o.fps, offered, late, session.unchangedCount(),
+                    session.cappedCount(), elapsed, session.getMetrics().snapshot(), session.getStreamStats());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                session.close();
+                output.close();
+            } finally {
+                source.close();
+            }
+        }
+    }
+
+    private LoadDriver() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.scheduled()) {
+            MultiResult result = runStreams(options);
+            System.out.println(options.json ? result.toJson() : result.toString());
+        } else {
+            Result result = run(options);
+            System.out.println(options.json ? result.toJson() : result.toString());
+        }
+    }
+
+    // One session on a process thread of its own, fed from the calling thread
+    static Result run(Options o) throws IOException {
+        try (Driven d = new Driven(o, null, 0)) {
+            d.session.start();
+            long start = System.nanoTime();
+            d.drive(o, start);
+            if (d.error != null) throw d.error;
+            if (!d.session.awaitIdle(60_000)) AppLog.w("LoadDriver", "frames still in flight after 60 s");
+            Result result = d.result(o, System.nanoTime() - start);
+            d.session.stop();
+            return result;
+        }
+    }
+
+    // o.streams sessions on a scheduler of o.workers (default: one per stream, up to the core
+    // count), each fed by a producer thread of its own
+    static MultiResult runStreams(Options o) throws IOException {
+        int workers = o.workers > 0 ? o.workers
+                : Math.min(o.streams, Runtime.getRuntime().availableProcessors());
+        List<Driven> driven = new ArrayList<>();
+        try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(workers))) {
+            for (int i = 0; i < o.streams; i++) driven.add(new Driven(o, scheduler, i));
+            scheduler.start();
+            for (Driven d : driven) d.session.start();
+
+            long start = System.nanoTime();
+            List<Thread> producers = new ArrayList<>();
+            for (int i = 0; i < driven.size(); i++) {
+                Driven d = driven.get(i);
+                Thread t = new Thread(() -> d.drive(o, start), "Producer-" + i);
+                producers.add(t);
+                t.start();
+            }
+            for (Thread t : producers) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+            }
+            for (Driven d : driven) {
+                if (d.error != null) throw d.error;
+                if (!d.session.awaitIdle(60_000)) AppLog.w("LoadDriver", "frames still in flight after 60 s");
+            }
+            long elapsed = System.nanoTime() - start;
+            Result[] results = new Result[driven.size()];
+            for (int i = 0; i < results.length; i++) results[i] = driven.get(i).result(o, elapsed);
+            // streams leave the scheduler before it stops
+            for (Driven d : driven) d.session.stop();
+            return new MultiResult(workers, results, elapsed);
+        } finally {
+            for (Driven d : driven) d.close();
+        }
+    }
+}
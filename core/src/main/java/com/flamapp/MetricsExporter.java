@@ -0,0 +1,116 @@
+package com.flamapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Appends a FrameMetrics snapshot as one JSON line to a local file every period, on its own
+// daemon thread. When the file grows past maxBytes it is rotated to <name>.1 (one generation
+// kept), so a long session can't fill the disk. Other components can add their own JSON object
+// to every line with addSection().
+public class MetricsExporter implements AutoCloseable {
+
+    private static final String TAG = "MetricsExporter";
+
+    private final FrameMetrics metrics;
+    private final File file;
+    private final long periodMs;
+    private final long maxBytes;
+    private final List<Section> sections = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService executor;
+
+    public MetricsExporter(FrameMetrics metrics, File file, long periodMs, long maxBytes) {
+        if (periodMs <= 0) throw new IllegalArgumentException("Bad export period: " + periodMs);
+        this.metrics = metrics;
+        this.file = file;
+        this.periodMs = periodMs;
+        this.maxBytes = maxBytes;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // json: called on the export thread, returns a JSON value (e.g. "{...}") written under name
+    public void addSection(String name, Supplier<String> json) {
+        sections.add(new Section(name, json));
+    }
+
+    public synchronized void start() {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "MetricsExporter");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::exportQuietly, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Stops the schedule and writes a final snapshot
+    @Override
+    public synchronized void close() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        exportQuietly();
+    }
+
+    // Writes one snapshot now; also what the schedule runs
+    public void export() throws IOException {
+        String line = line() + "\n";
+        synchronized (file) {
+            if (maxBytes > 0 && file.length() > maxBytes) {
+                File rotated = new File(file.getPath() + ".1");
+                if (rotated.exists() && !rotated.delete()) {
+                    throw new IOException("Cannot delete " + rotated);
+                }
+                if (!file.renameTo(rotated)) throw new IOException("Cannot rotate " + file);
+            }
+            try (OutputStream os = new FileOutputStream(file, true)) {
+                os.write(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private String line() {
+        String json = metrics.snapshot().toJson();
+        if (sections.isEmpty()) return json;
+        StringBuilder sb = new StringBuilder(json.length() + 128);
+        sb.append(json, 0, json.length() - 1);
+        for (Section section : sections) {
+            sb.append(",\"").append(section.name).append("\":").append(section.json.get());
+        }
+        return sb.append('}').toString();
+    }
+
+    private void exportQuietly() {
+        try {
+            export();
+        } catch (IOException | RuntimeException e) {
+            AppLog.w(TAG, "metrics export to " + file + " failed", e);
+        }
+    }
+
+    private static final class Section {
+        final String name;
+        final Supplier<String> json;
+
+        Section(String name, Supplier<String> json) {
+            this.name = name;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.flamapp;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+// Loads native-lib (and the OpenCV library behind it) on a background thread and warms it up,
+// so neither the load nor OpenCV's one-off first-call costs land on the camera or process
+// thread. Started from onCreate, it runs while the camera opens: load, then a few frames
+// through a throwaway processor at the expected size and config, then the result is posted
+// through ready() / whenReady().
+//
+// Frame code checks isReady() instead of calling FrameProcessor.isNativeAvailable() (which
+// would block on the load lock while this thread holds it).
+public final class NativeLoader {
+
+    private static final String TAG = "NativeLoader";
+
+    // The first frame pays the one-off costs, the second shows what is left after them
+    static final int WARM_UP_FRAMES = 2;
+
+    // What the load and warm-up found
+    public static final class Result {
+        // what Backend.AUTO should run: NATIVE if the library loaded and processed a frame
+        public final FrameProcessor.Backend backend;
+        public final long loadNanos;
+        public final long warmUpNanos;
+        // processing time of the first warm-up frame and of the last one
+        public final long firstFrameNanos;
+        public final long lastFrameNanos;
+        // load or warm-up failure, null if there was none
+        public final Throwable error;
+
+        Result(FrameProcessor.Backend backend, long loadNanos, long warmUpNanos,
+               long firstFrameNanos, long lastFrameNanos, Throwable error) {
+            this.backend = backend;
+            this.loadNanos = loadNanos;
+            this.warmUpNanos = warmUpNanos;
+            this.firstFrameNanos = firstFrameNanos;
+            this.lastFrameNanos = lastFrameNanos;
+            this.error = error;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"backend\":\"%s\",\"loadMs\":%.2f,\"warmUpMs\":%.2f,\"firstFrameMs\":%.2f,\"lastFrameMs\":%.2f,\"error\":%s}",
+                    backend, loadNanos / 1e6, warmUpNanos / 1e6, firstFrameNanos / 1e6, lastFrameNanos / 1e6,
+                    error == null ? "null" : "\"" + error.toString().replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s load=%.1fms warm-up=%.1fms (first frame %.1fms, last %.1fms)%s",
+                    backend, loadNanos / 1e6, warmUpNanos / 1e6, firstFrameNanos / 1e6, lastFrameNanos / 1e6,
+                    error == null ? "" : " error=" + error);
+        }
+    }
+
+    // Called once, on the loader thread (or on the caller's if it was already done)
+    public interface Listener {
+        void onReady(Result result);
+    }
+
+    private final int width;
+    private final int height;
+    private final FrameProcessor.Config config;
+    private final CompletableFuture<Result> ready = new CompletableFuture<>();
+
+    private NativeLoader(int width, int height, FrameProcessor.Config config) {
+        this.width = width;
+        this.height = height;
+        this.config = config;
+    }
+
+    // Starts loading on a daemon thread. width x height, config: what the first frames will be
+    // processed with (the backend in config decides what is warmed up, AUTO = native if it loads).
+    public static NativeLoader start(int width, int height, FrameProcessor.Config config) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bad frame size: " + width + "x" + height);
+        }
+        NativeLoader loader = new NativeLoader(width, height, config != null ? config : new FrameProcessor.Config());
+        Thread thread = new Thread(loader::run, "NativeLoader");
+        thread.setDaemon(true);
+        thread.start();
+        return loader;
+    }
+
+    public CompletableFuture<Result> ready() {
+        return ready;
+    }
+
+    public boolean isReady() {
+        return ready.isDone();
+    }
+
+    // null until ready
+    public Result getResult() {
+        return ready.getNow(null);
+    }
+
+    public void whenReady(Listener listener) {
+        ready.thenAccept(listener::onReady);
+    }
+
+    private void run() {
+        // a Java-only config leaves the library alone and just warms up the Java backend
+        boolean wantsNative = config.backend != FrameProcessor.Backend.JAVA;
+        long start = FrameMetrics.now();
+        boolean loaded = wantsNative && FrameProcessor.isNativeAvailable();
+        long loadNanos = FrameMetrics.now() - start;
+        Throwable error = wantsNative ? FrameProcessor.getNativeLoadError() : null;
+
+        FrameProcessor.Backend backend = config.backend;
+        if (backend == FrameProcessor.Backend.AUTO) {
+            backend = loaded ? FrameProcessor.Backend.NATIVE : FrameProcessor.Backend.JAVA;
+        }
+        long warmUpStart = FrameMetrics.now();
+        long[] frameNanos = new long[WARM_UP_FRAMES];
+        try {
+            warmUp(frameNanos);
+        } catch (Throwable t) {
+            AppLog.w(TAG, backend + " warm-up failed", t);
+            if (error == null) error = t;
+            if (backend == FrameProcessor.Backend.NATIVE) backend = FrameProcessor.Backend.JAVA;
+        }
+        Result result = new Result(backend, loadNanos, FrameMetrics.now() - warmUpStart,
+                frameNanos[0], frameNanos[WARM_UP_FRAMES - 1], error);
+        AppLog.i(TAG, "ready: " + result);
+        ready.complete(result);
+    }
+
+    // A few frames through a throwaway processor (SyntheticFrameSource's pattern); the moving
+    // square makes each differ from the last, so incremental mode can't skip them
+    private void warmUp(long[] frameNanos) {
+        try (FrameProcessor processor = FrameProcessor.create(width, height, config)) {
+            ByteBuffer in = FrameProcessor.allocateOutput(width, height);
+            ByteBuffer out = config.colorOutput != null
+                    ? FrameProcessor.allocatePixels(processor.getOutputWidth(), processor.getOutputHeight(),
+                            config.colorOutput.getFormat())
+                    : FrameProcessor.allocateOutput(processor.getOutputWidth(), processor.getOutputHeight());
+            for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                SyntheticFrameSource.fill(in, width, height, width, i);
+                long t0 = FrameMetrics.now();
+                boolean ok = config.colorOutput != null
+                        ? processor.processToPixels(in, width, 1, out)
+                        : processor.process(in, width, 1, out);
+                frameNanos[i] = FrameMetrics.now() - t0;
+                if (!ok) throw new IllegalStateException("Warm-up frame " + i + " was rejected");
+            }
+        }
+    }
+}
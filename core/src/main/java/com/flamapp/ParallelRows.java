@@ -0,0 +1,89 @@
+package com.flamapp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Runs a row-range kernel over horizontal bands on a ForkJoinPool.
+// Band tasks are allocated once and reinitialized per run, so a frame costs no task garbage.
+final class ParallelRows {
+
+    interface RowKernel {
+        // processes rows [y0, y1)
+        void run(int y0, int y1);
+    }
+
+    // Below this many rows per band the fork/join overhead outweighs the work
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    // never serialized: RecursiveAction is Serializable only by inheritance
+    @SuppressWarnings("serial")
+    private final class Band extends RecursiveAction {
+        int y0;
+        int y1;
+
+        @Override
+        protected void compute() {
+            kernel.run(y0, y1);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class Root extends RecursiveAction {
+        int count;
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < count; i++) {
+                bands[i].reinitialize();
+                bands[i].fork();
+            }
+            // first band on this worker, then help with / wait for the rest
+            kernel.run(bands[0].y0, bands[0].y1);
+            for (int i = 1; i < count; i++) bands[i].join();
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final Band[] bands;
+    private final Root root = new Root();
+    private RowKernel kernel;
+
+    // pool null or parallelism 1 means run everything on the calling thread
+    ParallelRows(ForkJoinPool pool, int maxBands) {
+        this.pool = pool;
+        int count = pool == null ? 1 : Math.max(1, maxBands);
+        this.bands = new Band[count];
+        for (int i = 0; i < count; i++) bands[i] = new Band();
+    }
+
+    int parallelism() {
+        return bands.length;
+    }
+
+    void run(RowKernel kernel, int rows) {
+        run(kernel, 0, rows);
+    }
+
+    // rows [from, to) only, e.g. the part of a frame that changed
+    void run(RowKernel kernel, int from, int to) {
+        int rows = to - from;
+        if (rows <= 0) return;
+        int count = Math.min(bands.length, rows / MIN_ROWS_PER_BAND);
+        if (count <= 1) {
+            kernel.run(from, to);
+            return;
+        }
+        this.kernel = kernel;
+        for (int i = 0; i < count; i++) {
+            bands[i].y0 = from + (int) ((long) rows * i / count);
+            bands[i].y1 = from + (int) ((long) rows * (i + 1) / count);
+        }
+        root.count = count;
+        root.reinitialize();
+        try {
+            pool.invoke(root);
+        } finally {
+            this.kernel = null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.flamapp;
+
+import java.nio.ByteBuffer;
+
+// FrameOutput into pooled direct pixel buffers, the headless counterpart of the app's bitmaps
+// (same memory layout, see FrameProcessor.allocatePixels). Each buffer is sized for ARGB_8888
+// so it fits either format; Pixels says which one the frame was written in.
+public final class PixelBufferOutput implements FrameOutput {
+
+    // A frame's output, in Frame.attachment
+    public static final class Pixels {
+        public final ByteBuffer buffer;
+        public final int width;
+        public final int height;
+        public ColorOutput.Format format = ColorOutput.Format.ARGB_8888;
+
+        Pixels(int width, int height) {
+            this.buffer = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+            this.width = width;
+            this.height = height;
+        }
+
+        public int rowBytes() {
+            return width * format.bytesPerPixel;
+        }
+    }
+
+    private final BufferPool<Pixels> pool;
+
+    // maxIdlePerSize: spare buffers kept per size, see BufferPool
+    public PixelBufferOutput(int maxIdlePerSize) {
+        pool = new BufferPool<>("pixels", Pixels::new, null, maxIdlePerSize, 2);
+    }
+
+    @Override
+    public boolean process(FrameProcessor processor, Frame frame, int divisor) {
+        Pixels pixels = attach(frame, processor.getOutputWidth(), processor.getOutputHeight());
+        ColorOutput color = processor.getColorOutput();
+        pixels.format = color.getFormat();
+        pixels.buffer.clear();
+        if (frame.hasChroma && divisor == 1 && color.isOverlay()) {
+            return processor.processYuvToPixels(frame.gray, frame.width, 1, frame.u, frame.v,
+                    frame.chromaRowStride, frame.chromaPixelStride, pixels.buffer);
+        }
+        return processor.processToPixels(frame.gray, frame.width * divisor, divisor, pixels.buffer);
+    }
+
+    @Override
+    public void showRaw(Frame frame) {
+        Pixels pixels = attach(frame, frame.width, frame.height);
+        pixels.format = ColorOutput.Format.ARGB_8888;
+        ByteBuffer buffer = pixels.buffer;
+        for (int i = 0, n = frame.width * frame.height; i < n; i++) {
+            int v = frame.gray.get(i) & 0xFF;
+            // R G B A in memory, little-endian int
+            buffer.putInt(i * 4, 0xFF000000 | (v << 16) | (v << 8) | v);
+        }
+    }
+
+    @Override
+    public void release(Frame frame) {
+        Object attachment = frame.attachment;
+        if (attachment instanceof Pixels) {
+            frame.attachment = null;
+            pool.release((Pixels) attachment);
+        }
+    }
+
+    @Override
+    public void trimTo(int width, int height) {
+        pool.trimTo(width, height);
+    }
+
+    public BufferPool.Stats getPoolStats() {
+        return pool.getStats();
+    }
+
+    // Returns the number of buffers never handed back, see BufferPool.close()
+    public int close() {
+        return pool.close();
+    }
+
+    private Pixels attach(Frame frame, int width, int height) {
+        Object current = frame.attachment;
+        if (current instanceof Pixels) {
+            Pixels pixels = (Pixels) current;
+            if (pixels.width == width && pixels.height == height) return pixels;
+            release(frame);
+        }
+        Pixels pixels = pool.acquire(width, height);
+        frame.attachment = pixels;
+        return pixels;
+    }
+}
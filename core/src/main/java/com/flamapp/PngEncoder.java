@@ -0,0 +1,137 @@
+package com.flamapp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Minimal PNG writer for saved frames, so the compression level is ours to pick (Android's
+// Bitmap.compress ignores quality for PNG and always works hard).
+// 8-bit, no interlace, Sub filter on every row. Frames whose pixels are all gray and opaque
+// (the gray colour output) are written as 1-channel grayscale, a third of the data to deflate.
+final class PngEncoder implements FrameSaveService.Encoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int COLOR_GRAY = 0;
+    private static final int COLOR_RGB = 2;
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int IDAT_BYTES = 32 * 1024;
+
+    // level: Deflater level 0 (store) - 9 (smallest)
+    @Override
+    public void encode(ByteBuffer rgba, int width, int height, int level, OutputStream out) throws IOException {
+        boolean gray = isGray(rgba, width * height);
+        int channels = gray ? 1 : 3;
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = (byte) (gray ? COLOR_GRAY : COLOR_RGB);
+        // compression, filter method and interlace stay 0
+        writeChunk(out, "IHDR", header, header.length);
+
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream idat = new DeflaterOutputStream(new IdatStream(out), deflater, IDAT_BYTES)) {
+            // stored data gains nothing from filtering
+            int filter = level == 0 ? FILTER_NONE : FILTER_SUB;
+            byte[] row = new byte[1 + width * channels];
+            row[0] = (byte) filter;
+            for (int y = 0; y < height; y++) {
+                int src = y * width * 4;
+                if (gray) {
+                    for (int x = 0; x < width; x++) row[1 + x] = rgba.get(src + x * 4);
+                } else {
+                    for (int x = 0, d = 1; x < width; x++, d += 3) {
+                        int p = src + x * 4;
+                        row[d] = rgba.get(p);
+                        row[d + 1] = rgba.get(p + 1);
+                        row[d + 2] = rgba.get(p + 2);
+                    }
+                }
+                if (filter == FILTER_SUB) {
+                    // right to left so every byte still sees its raw left neighbour
+                    for (int i = row.length - 1; i > channels; i--) row[i] -= row[i - channels];
+                }
+                idat.write(row);
+            }
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    private static boolean isGray(ByteBuffer rgba, int pixels) {
+        for (int i = 0, p = 0; i < pixels; i++, p += 4) {
+            byte r = rgba.get(p);
+            if (rgba.get(p + 1) != r || rgba.get(p + 2) != r || rgba.get(p + 3) != (byte) 0xFF) return false;
+        }
+        return true;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] head = new byte[8];
+        putInt(head, 0, length);
+        for (int i = 0; i < 4; i++) head[4 + i] = (byte) type.charAt(i);
+        CRC32 crc = new CRC32();
+        crc.update(head, 4, 4);
+        crc.update(data, 0, length);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(head);
+        out.write(data, 0, length);
+        out.write(tail);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    // Cuts the deflate stream into IDAT chunks; close() flushes the last one but leaves the
+    // underlying stream open for IEND
+    private static final class IdatStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[IDAT_BYTES];
+        private int count;
+
+        IdatStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) flushChunk();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count == 0) return;
+            writeChunk(out, "IDAT", buffer, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.flamapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Picks the camera capture size and processing downscale from measured per-frame processing
+// latency, against a frame budget.
+//
+// Deterministic and clock-free: decisions depend only on the latencies fed to onFrame(), so a
+// synthetic latency trace always produces the same decisions (see ResolutionGovernorTest).
+//
+// Levels are (capture size, divisor) pairs ordered by processed pixels, largest first. Divisor n
+// processes every n-th pixel of every n-th row (rowStride * n, pixelStride n into
+// FrameProcessor), so changing it costs nothing; changing the capture size reconfigures the camera.
+//
+// Policy, evaluated at the end of every window of frames:
+//  - down: window p90 over budget -> one level down; 3 frames in a row over twice the budget
+//    step down at once without waiting for the window
+//  - up: the window p90, scaled by the next level's pixel ratio, fits in upThreshold * budget
+//    for upWindows windows in a row
+//  - hysteresis: a level we had to leave can't be re-entered for a backoff that doubles each
+//    time it fails again, so a borderline level doesn't flap
+//  - cooldown: frames right after a change are ignored while the pipeline refills
+// Thread-safe: onFrame() from the processing thread, the rest from any thread (levels are
+// immutable, the state behind current() and getStats() is guarded by the governor's lock).
+public final class ResolutionGovernor {
+
+    public enum Decision {
+        HOLD,
+        UP,
+        DOWN
+    }
+
+    // One capture size + downscale combination
+    public static final class Level {
+        public final int captureWidth;
+        public final int captureHeight;
+        public final int divisor;
+
+        Level(int captureWidth, int captureHeight, int divisor) {
+            this.captureWidth = captureWidth;
+            this.captureHeight = captureHeight;
+            this.divisor = divisor;
+        }
+
+        public int processWidth() {
+            return captureWidth / divisor;
+        }
+
+        public int processHeight() {
+            return captureHeight / divisor;
+        }
+
+        public long processPixels() {
+            return (long) processWidth() * processHeight();
+        }
+
+        long capturePixels() {
+            return (long) captureWidth * captureHeight;
+        }
+
+        @Override
+        public String toString() {
+            return captureWidth + "x" + captureHeight + (divisor > 1 ? "/" + divisor : "");
+        }
+    }
+
+    // Tunables; the defaults target 30 fps
+    public static final class Config {
+        long budgetNanos = 33_000_000L;
+        int windowFrames = 30;
+        double upThreshold = 0.75;
+        int upWindows = 2;
+        int cooldownFrames = 15;
+        int[] divisors = {1, 2};
+        long maxCapturePixels = 1920L * 1080;
+        long minProcessPixels = 160L * 120;
+        long startPixels = 1280L * 720;
+        double aspectTolerance = 0.02;
+
+        public Config setBudgetNanos(long budgetNanos) {
+            if (budgetNanos <= 0) throw new IllegalArgumentException("Bad budget: " + budgetNanos);
+            this.budgetNanos = budgetNanos;
+            return this;
+        }
+
+        // Frames per decision window
+        public Config setWindowFrames(int frames) {
+            if (frames < 1) throw new IllegalArgumentException("Bad window: " + frames);
+            this.windowFrames = frames;
+            return this;
+        }
+
+        // Step up only when the next level is predicted to use at most this share of the budget,
+        // for this many windows in a row
+        public Config setUpCondition(double threshold, int windows) {
+            if (threshold <= 0 || threshold > 1 || windows < 1) {
+                throw new IllegalArgumentException("Bad up condition: " + threshold + ", " + windows);
+            }
+            this.upThreshold = threshold;
+            this.upWindows = windows;
+            return this;
+        }
+
+        // Frames ignored after every change
+        public Config setCooldownFrames(int frames) {
+            this.cooldownFrames = Math.max(0, frames);
+            return this;
+        }
+
+        // Processing downscales to combine with every capture size, e.g. {1, 2}
+        public Config setDivisors(int... divisors) {
+            if (divisors.length == 0) throw new IllegalArgumentException("No divisors");
+            for (int d : divisors) {
+                if (d < 1) throw new IllegalArgumentException("Bad divisor: " + d);
+            }
+            this.divisors = divisors.clone();
+            return this;
+        }
+
+        // Capture sizes above this are never used; levels processing fewer pixels than min are dropped
+        public Config setPixelLimits(long maxCapturePixels, long minProcessPixels) {
+            this.maxCapturePixels = maxCapturePixels;
+            this.minProcessPixels = minProcessPixels;
+            return this;
+        }
+
+        // Starts at the largest level processing at most this many pixels
+        public Config setStartPixels(long pixels) {
+            this.startPixels = pixels;
+            return this;
+        }
+    }
+
+    // Point-in-time view, for the overlay and the metrics export
+    public static final class Stats {
+        public final Level level;
+        public final int levelIndex;
+        public final int levelCount;
+        public final long budgetNanos;
+        public final long lastWindowP90Nanos;
+        public final long frames;
+        public final long stepsUp;
+        public final long stepsDown;
+
+        Stats(Level level, int levelIndex, int levelCount, long budgetNanos, long lastWindowP90Nanos,
+              long frames, long stepsUp, long stepsDown) {
+            this.level = level;
+            this.levelIndex = levelIndex;
+            this.levelCount = levelCount;
+            this.budgetNanos = budgetNanos;
+            this.lastWindowP90Nanos = lastWindowP90Nanos;
+            this.frames = frames;
+            this.stepsUp = stepsUp;
+            this.stepsDown = stepsDown;
+        }
+
+        public String toJson() {
+            return "{\"capture\":\"" + level.captureWidth + "x" + level.captureHeight + "\""
+                    + ",\"divisor\":" + level.divisor
+                    + ",\"level\":" + levelIndex
+                    + ",\"levels\":" + levelCount
+                    + ",\"budgetNs\":" + budgetNanos
+                    + ",\"windowP90Ns\":" + lastWindowP90Nanos
+                    + ",\"frames\":" + frames
+                    + ",\"stepsUp\":" + stepsUp
+                    + ",\"stepsDown\":" + stepsDown + "}";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s (%d/%d) p90=%.1fms up=%d down=%d",
+                    level, levelIndex + 1, levelCount, lastWindowP90Nanos / 1e6, stepsUp, stepsDown);
+        }
+    }
+
+    private static final int SPIKE_FRAMES = 3;
+    private static final int MAX_BACKOFF_DOUBLINGS = 6;
+
+    private final Config config;
+    private final Level[] levels;
+    private final long[] window;
+    private final long[] sorted;
+    private final long[] blockedUntil;
+    private final int[] failures;
+
+    private int current;
+    private int filled;
+    private int upStreak;
+    private int spikeStreak;
+    private int cooldown;
+    private long frames;
+    private long stepsUp;
+    private long stepsDown;
+    private long lastWindowP90;
+
+    // sizes: the camera's {width, height} pairs, any order
+    public ResolutionGovernor(int[][] sizes, Config config) {
+        this.config = config != null ? config : new Config();
+        this.levels = buildLevels(sizes, this.config);
+        if (levels.length == 0) throw new IllegalArgumentException("No usable capture size");
+        this.window = new long[this.config.windowFrames];
+        this.sorted = new long[this.config.windowFrames];
+        this.blockedUntil = new long[levels.length];
+        this.failures = new int[levels.length];
+        this.current = levels.length - 1;
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i].processPixels() <= this.config.startPixels) {
+                current = i;
+                break;
+            }
+        }
+    }
+
+    public synchronized Level current() {
+        return levels[current];
+    }
+
+    public Level[] levels() {
+        return levels.clone();
+    }
+
+    // Feeds one frame's processing latency; returns the change made, if any (then see current())
+    public synchronized Decision onFrame(long latencyNanos) {
+        frames++;
+        if (cooldown > 0) {
+            cooldown--;
+            return Decision.HOLD;
+        }
+
+        spikeStreak = latencyNanos > 2 * config.budgetNanos ? spikeStreak + 1 : 0;
+        if (spikeStreak >= SPIKE_FRAMES && current < levels.length - 1) {
+            return stepDown();
+        }
+
+        window[filled++] = latencyNanos;
+        if (filled < window.length) return Decision.HOLD;
+        filled = 0;
+
+        System.arraycopy(window, 0, sorted, 0, window.length);
+        Arrays.sort(sorted);
+        long p90 = sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.9) - 1)];
+        lastWindowP90 = p90;
+
+        if (p90 > config.budgetNanos) {
+            upStreak = 0;
+            return current < levels.length - 1 ? stepDown() : Decision.HOLD;
+        }
+        if (current == 0 || frames < blockedUntil[current - 1]) {
+            upStreak = 0;
+            return Decision.HOLD;
+        }
+        // cost scales roughly with processed pixels
+        double ratio = (double) levels[current - 1].processPixels() / levels[current].processPixels();
+        if (p90 * ratio <= config.upThreshold * config.budgetNanos) {
+            if (++upStreak >= config.upWindows) return stepUp();
+        } else {
+            upStreak = 0;
+        }
+        return Decision.HOLD;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(levels[current], current, levels.length, config.budgetNanos, lastWindowP90,
+                frames, stepsUp, stepsDown);
+    }
+
+    private Decision stepDown() {
+        // the level we leave didn't fit: keep away from it for longer each time
+        int doublings = Math.min(failures[current]++, MAX_BACKOFF_DOUBLINGS);
+        long backoff = (long) config.windowFrames * config.upWindows * 2 << doublings;
+        blockedUntil[current] = frames + backoff;
+        current++;
+        stepsDown++;
+        changed();
+        return Decision.DOWN;
+    }
+
+    private Decision stepUp() {
+        current--;
+        stepsUp++;
+        changed();
+        return Decision.UP;
+    }
+
+    private void changed() {
+        filled = 0;
+        upStreak = 0;
+        spikeStreak = 0;
+        cooldown = config.cooldownFrames;
+    }
+
+    // Every allowed (size, divisor) pair, largest processing first, each at least 10% below the
+    // previous one; on a tie the smaller capture wins (less to copy per frame)
+    static Level[] buildLevels(int[][] sizes, Config config) {
+        // keep the aspect ratio of the largest allowed size so the picture doesn't jump around
+        double aspect = 0;
+        long largest = 0;
+        for (int[] size : sizes) {
+            long pixels = (long) size[0] * size[1];
+            if (pixels <= config.maxCapturePixels && pixels > largest) {
+                largest = pixels;
+                aspect = (double) size[0] / size[1];
+            }
+        }
+        List<Level> candidates = new ArrayList<>();
+        for (int[] size : sizes) {
+            long pixels = (long) size[0] * size[1];
+            if (pixels > config.maxCapturePixels) continue;
+            if (Math.abs((double) size[0] / size[1] - aspect) > aspect * config.aspectTolerance) continue;
+            for (int divisor : config.divisors) {
+                Level level = new Level(size[0], size[1], divisor);
+                if (level.processWidth() > 0 && level.processHeight() > 0
+                        && level.processPixels() >= config.minProcessPixels) {
+                    candidates.add(level);
+                }
+            }
+        }
+        candidates.sort((a, b) -> {
+            int byProcess = Long.compare(b.processPixels(), a.processPixels());
+            return byProcess != 0 ? byProcess : Long.compare(a.capturePixels(), b.capturePixels());
+        });
+        List<Level> kept = new ArrayList<>();
+        for (Level level : candidates) {
+            if (kept.isEmpty() || level.processPixels() <= kept.get(kept.size() - 1).processPixels() * 0.9) {
+                kept.add(level);
+            }
+        }
+        return kept.toArray(new Level[0]);
+    }
+}
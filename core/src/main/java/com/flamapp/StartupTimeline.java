@@ -0,0 +1,81 @@
+package com.flamapp;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Cold start -> first processed frame, as the time of each startup milestone since process
+// start. Each milestone keeps its first mark only, so marking from the frame path is a single
+// failed compare-and-set after startup. Exported with the frame metrics to catch startup
+// regressions.
+public final class StartupTimeline {
+
+    // In the order they normally happen; the loader runs alongside the camera ones
+    public enum Milestone {
+        ACTIVITY_CREATED("activityCreated"),
+        NATIVE_LOADED("nativeLoaded"),
+        NATIVE_WARM("nativeWarm"),
+        CAMERA_OPENED("cameraOpened"),
+        FIRST_FRAME("firstFrame"),
+        // first frame the filter chain ran on, handed to the render stage
+        FIRST_PROCESSED_FRAME("firstProcessedFrame");
+
+        final String key;
+
+        Milestone(String key) {
+            this.key = key;
+        }
+    }
+
+    private final long originNanos;
+    // FrameMetrics.now() of each milestone, 0 = not reached
+    private final AtomicLongArray marks = new AtomicLongArray(Milestone.values().length);
+
+    // originNanos: process start on the FrameMetrics.now() clock
+    public StartupTimeline(long originNanos) {
+        this.originNanos = originNanos;
+    }
+
+    // Returns true the first time milestone is marked
+    public boolean mark(Milestone milestone) {
+        return mark(milestone, FrameMetrics.now());
+    }
+
+    public boolean mark(Milestone milestone, long nanos) {
+        if (marks.get(milestone.ordinal()) != 0) return false;
+        return marks.compareAndSet(milestone.ordinal(), 0, nanos);
+    }
+
+    public boolean reached(Milestone milestone) {
+        return marks.get(milestone.ordinal()) != 0;
+    }
+
+    // Nanoseconds from process start to the milestone, -1 if not reached
+    public long sinceStart(Milestone milestone) {
+        long t = marks.get(milestone.ordinal());
+        return t == 0 ? -1 : t - originNanos;
+    }
+
+    // {"activityCreatedMs":123.4,...}, null for milestones not reached
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Milestone milestone : Milestone.values()) {
+            if (sb.length() > 1) sb.append(',');
+            long nanos = sinceStart(milestone);
+            sb.append('"').append(milestone.key).append("Ms\":")
+                    .append(nanos < 0 ? "null" : String.format(Locale.US, "%.2f", nanos / 1e6));
+        }
+        return sb.append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Milestone milestone : Milestone.values()) {
+            long nanos = sinceStart(milestone);
+            if (nanos < 0) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(milestone.key).append('=').append(String.format(Locale.US, "%.1fms", nanos / 1e6));
+        }
+        return sb.toString();
+    }
+}
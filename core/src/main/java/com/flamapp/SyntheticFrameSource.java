@@ -0,0 +1,105 @@
+package com.flamapp;
+
+import java.nio.ByteBuffer;
+
+// Generated camera-like frames for running the pipeline without a camera: vertical bars (plenty
+// of edges), a bright square moving across them and fresh sensor-like noise on every frame, so
+// consecutive frames are never identical. Optionally with constant chroma planes (a colour
+// gradient) for the YUV path. Timestamps are spaced at the nominal frame rate; pacing is up to
+// whoever pulls the frames.
+public final class SyntheticFrameSource implements FrameSource {
+
+    private final int width;
+    private final int height;
+    private final long frames;
+    private final long intervalNanos;
+    private final byte[] row;
+    private ByteBuffer u;
+    private ByteBuffer v;
+    private long index;
+
+    // frames: how many before next() returns null, < 0 = endless; fps: timestamp spacing
+    public SyntheticFrameSource(int width, int height, long frames, double fps) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bad frame size: " + width + "x" + height);
+        }
+        if (!(fps > 0)) throw new IllegalArgumentException("Bad frame rate: " + fps);
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        this.intervalNanos = (long) (1e9 / fps);
+        this.row = new byte[width];
+    }
+
+    // Frames carry U / V planes too (planar, pixel stride 1)
+    public SyntheticFrameSource withChroma() {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        u = ByteBuffer.allocateDirect(chromaWidth * chromaHeight);
+        v = ByteBuffer.allocateDirect(chromaWidth * chromaHeight);
+        for (int r = 0; r < chromaHeight; r++) {
+            for (int c = 0; c < chromaWidth; c++) {
+                u.put(r * chromaWidth + c, (byte) (64 + c * 128 / chromaWidth));
+                v.put(r * chromaWidth + c, (byte) (192 - r * 128 / chromaHeight));
+            }
+        }
+        return this;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public Frame next(BufferPool<Frame> pool) {
+        if (frames >= 0 && index >= frames) return null;
+        Frame frame = pool.acquire(width, height);
+        frame.reset();
+        frame.gray.clear();
+        fill(frame.gray, width, height, width, index, row);
+        frame.timestampNs = index * intervalNanos;
+        if (u != null) {
+            u.clear();
+            v.clear();
+            frame.copyChromaFrom(u, v, (width + 1) / 2, 1);
+        }
+        index++;
+        return frame;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Writes frame number index of the pattern into plane (rows rowStride apart); absolute
+    // puts, plane's position is left alone
+    public static void fill(ByteBuffer plane, int width, int height, int rowStride, long index) {
+        fill(plane, width, height, rowStride, index, new byte[width]);
+    }
+
+    private static void fill(ByteBuffer plane, int width, int height, int rowStride, long index, byte[] row) {
+        int side = Math.max(1, Math.min(width, height) / 4);
+        int squareX = (int) ((index * 8) % Math.max(1, width - side));
+        int squareY = (height - side) / 2;
+        // xorshift noise, seeded per frame: cheap enough to generate hundreds of frames a second
+        int seed = (int) (index * 0x9E3779B9L) | 1;
+        ByteBuffer rows = plane.duplicate();
+        for (int y = 0; y < height; y++) {
+            boolean inSquareRows = y >= squareY && y < squareY + side;
+            for (int x = 0; x < width; x++) {
+                seed ^= seed << 13;
+                seed ^= seed >>> 17;
+                seed ^= seed << 5;
+                int base = inSquareRows && x >= squareX && x < squareX + side ? 235
+                        : ((x / 16 + y / 24) & 1) * 160 + 40;
+                row[x] = (byte) (base + (seed & 15));
+            }
+            rows.limit(y * rowStride + width).position(y * rowStride);
+            rows.put(row, 0, width);
+        }
+    }
+}
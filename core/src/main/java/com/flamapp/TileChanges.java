@@ -0,0 +1,104 @@
+package com.flamapp;
+
+import java.util.Arrays;
+
+// Which tiles of a frame differ from the picture the cached result was computed from.
+// Sampled SAD: every SAMPLE_STEP-th pixel of every SAMPLE_STEP-th row, so a 32x32 tile costs
+// 64 reads; a tile has changed when the mean absolute difference of its samples is above the
+// threshold. The reference only takes a tile's pixels when that tile is reprocessed (accept()),
+// so a slow drift adds up until it crosses the threshold instead of hiding under it every frame.
+// Mirrors the detection in FrameContext::detectChanges (frame_context.cpp).
+final class TileChanges {
+
+    static final int SAMPLE_STEP = 4;
+
+    final int width;
+    final int height;
+    final int tileSize;
+    final int tilesX;
+    final int tilesY;
+
+    private final byte[] reference;
+    private final boolean[] changed;
+    private int threshold;
+    private boolean valid;
+
+    TileChanges(int width, int height, int tileSize, int threshold) {
+        if (tileSize < SAMPLE_STEP) throw new IllegalArgumentException("Bad tile size: " + tileSize);
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        this.reference = new byte[width * height];
+        this.changed = new boolean[tilesX * tilesY];
+        setThreshold(threshold);
+    }
+
+    // Mean absolute difference (0-255) a tile must exceed to count as changed
+    void setThreshold(int threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("Bad change threshold: " + threshold);
+        this.threshold = threshold;
+    }
+
+    int tileCount() {
+        return changed.length;
+    }
+
+    // Next detect() reports every tile, e.g. after the chain (and so the cached result) changed
+    void invalidate() {
+        valid = false;
+    }
+
+    // frame: width * height packed bytes. Returns the number of changed tiles.
+    int detect(byte[] frame) {
+        if (!valid) {
+            Arrays.fill(changed, true);
+            return changed.length;
+        }
+        int count = 0;
+        for (int ty = 0; ty < tilesY; ty++) {
+            int y0 = ty * tileSize;
+            int y1 = Math.min(height, y0 + tileSize);
+            for (int tx = 0; tx < tilesX; tx++) {
+                int x0 = tx * tileSize;
+                int x1 = Math.min(width, x0 + tileSize);
+                long sad = 0;
+                int samples = 0;
+                // samples start half a step in, or mid-tile for edge tiles thinner than that
+                for (int y = y0 + sampleOffset(y1 - y0); y < y1; y += SAMPLE_STEP) {
+                    int row = y * width;
+                    for (int x = x0 + sampleOffset(x1 - x0); x < x1; x += SAMPLE_STEP) {
+                        sad += Math.abs((frame[row + x] & 0xFF) - (reference[row + x] & 0xFF));
+                        samples++;
+                    }
+                }
+                boolean moved = sad > (long) threshold * samples;
+                changed[ty * tilesX + tx] = moved;
+                if (moved) count++;
+            }
+        }
+        return count;
+    }
+
+    private static int sampleOffset(int extent) {
+        return Math.min(SAMPLE_STEP / 2, (extent - 1) / 2);
+    }
+
+    boolean isChanged(int tx, int ty) {
+        return changed[ty * tilesX + tx];
+    }
+
+    boolean rowChanged(int ty) {
+        for (int tx = 0; tx < tilesX; tx++) {
+            if (changed[ty * tilesX + tx]) return true;
+        }
+        return false;
+    }
+
+    // Rows [y0, y1) of frame were reprocessed: they become the reference
+    void accept(byte[] frame, int y0, int y1) {
+        System.arraycopy(frame, y0 * width, reference, y0 * width, (y1 - y0) * width);
+        if (y0 == 0 && y1 == height) valid = true;
+    }
+}
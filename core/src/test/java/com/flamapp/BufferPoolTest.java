@@ -0,0 +1,100 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the frame buffer pool.
+ */
+public class BufferPoolTest {
+
+    private static BufferPool<int[]> pixelPool(List<int[]> evicted) {
+        return new BufferPool<>("test", (w, h) -> new int[w * h], evicted::add, 2, 2);
+    }
+
+    @Test
+    public void steadyStateIsAllHits() {
+        BufferPool<int[]> pool = pixelPool(new ArrayList<>());
+        int[] first = pool.acquire(64, 48);
+        pool.release(first);
+        for (int i = 0; i < 100; i++) {
+            int[] buffer = pool.acquire(64, 48);
+            assertSame(first, buffer);
+            pool.release(buffer);
+        }
+        BufferPool.Stats stats = pool.getStats();
+        assertEquals(1, stats.misses);
+        assertEquals(100, stats.hits);
+        assertEquals(0, stats.outstanding);
+        assertEquals(1, stats.idle);
+    }
+
+    @Test
+    public void idleBuffersAreBoundedPerSize() {
+        List<int[]> evicted = new ArrayList<>();
+        BufferPool<int[]> pool = pixelPool(evicted);
+        int[] a = pool.acquire(8, 8);
+        int[] b = pool.acquire(8, 8);
+        int[] c = pool.acquire(8, 8);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(2, pool.getStats().idle);
+        assertEquals(1, evicted.size());
+    }
+
+    @Test
+    public void resolutionChangeDropsLeastRecentlyUsedSize() {
+        List<int[]> evicted = new ArrayList<>();
+        BufferPool<int[]> pool = pixelPool(evicted);
+        pool.release(pool.acquire(640, 480));
+        pool.release(pool.acquire(1280, 720));
+        pool.release(pool.acquire(1920, 1080));  // third size pushes out 640x480
+        assertEquals(1, evicted.size());
+        assertEquals(640 * 480, evicted.get(0).length);
+
+        pool.trimTo(1920, 1080);
+        assertEquals(2, evicted.size());
+        assertEquals(1, pool.getStats().idle);
+    }
+
+    @Test
+    public void bufferOfDroppedSizeIsEvictedOnRelease() {
+        List<int[]> evicted = new ArrayList<>();
+        BufferPool<int[]> pool = pixelPool(evicted);
+        int[] old = pool.acquire(640, 480);
+        pool.trimTo(1280, 720);
+        pool.release(old);
+        assertEquals(1, evicted.size());
+        assertEquals(0, pool.getStats().idle);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleReleaseIsDetected() {
+        BufferPool<int[]> pool = pixelPool(new ArrayList<>());
+        int[] buffer = pool.acquire(4, 4);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void foreignBufferIsDetected() {
+        pixelPool(new ArrayList<>()).release(new int[16]);
+    }
+
+    @Test
+    public void closeReportsLeaks() {
+        List<int[]> evicted = new ArrayList<>();
+        BufferPool<int[]> pool = pixelPool(evicted);
+        pool.release(pool.acquire(4, 4));
+        int[] leaked = pool.acquire(4, 4);
+        pool.acquire(4, 4);
+        assertEquals(2, pool.close());
+        pool.release(leaked);
+        assertEquals(1, evicted.size());
+    }
+}
@@ -0,0 +1,205 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the colour tables and the Java backend's fused pixel output.
+ */
+public class ColorOutputTest {
+
+    @Test
+    public void memoryOrderMatchesBitmapLayouts() {
+        // ARGB_8888 is R G B A in memory
+        assertEquals(0x80332211, ColorOutput.toMemoryOrder(0x80112233, ColorOutput.Format.ARGB_8888));
+        assertEquals(0xF800, ColorOutput.toMemoryOrder(0xFFFF0000, ColorOutput.Format.RGB_565));
+        assertEquals(0x07E0, ColorOutput.toMemoryOrder(0xFF00FF00, ColorOutput.Format.RGB_565));
+        assertEquals(0x001F, ColorOutput.toMemoryOrder(0xFF0000FF, ColorOutput.Format.RGB_565));
+    }
+
+    @Test
+    public void grayPixelsMatchTheOldJavaExpansion() {
+        int width = 64, height = 48, rowStride = 80;
+        ByteBuffer in = plane(width, height, rowStride);
+        Frame frame = new Frame(width, height);
+        frame.copyFrom(in.duplicate(), rowStride, 1);
+
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setJavaPool(null)
+                .setFilterChain(new FilterChain())
+                .setColorOutput(ColorOutput.gray()))) {
+            ByteBuffer pixels = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+            assertTrue(processor.processToPixels(in, rowStride, 1, pixels));
+
+            frame.toArgb(frame.gray);
+            for (int i = 0; i < width * height; i++) {
+                int argb = frame.argb[i];
+                assertEquals(ColorOutput.toMemoryOrder(argb, ColorOutput.Format.ARGB_8888), pixels.getInt(i * 4));
+            }
+        }
+    }
+
+    @Test
+    public void overlayCompositesEdgesOverCamera() {
+        int width = 64, height = 48;
+        ByteBuffer in = plane(width, height, width);
+        ColorOutput overlay = ColorOutput.edgeOverlay(0xFF00FF00, 0.5).withFormat(ColorOutput.Format.RGB_565);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setColorOutput(overlay))) {
+            ByteBuffer edges = FrameProcessor.allocateOutput(width, height);
+            assertTrue(processor.process(in, width, 1, edges));
+            ByteBuffer pixels = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.RGB_565);
+            assertTrue(processor.processToPixels(in, width, 1, pixels));
+
+            int edgeCount = 0;
+            for (int i = 0; i < width * height; i++) {
+                int pixel = pixels.getShort(i * 2) & 0xFFFF;
+                if (edges.get(i) != 0) {
+                    edgeCount++;
+                    assertEquals(0x07E0, pixel);
+                } else {
+                    int dimmed = (int) Math.round((in.get(i) & 0xFF) * 0.5);
+                    int expected = ((dimmed >> 3) << 11) | ((dimmed >> 2) << 5) | (dimmed >> 3);
+                    assertEquals(expected, pixel);
+                }
+            }
+            assertTrue(edgeCount > 0);
+        }
+    }
+
+    @Test
+    public void rowPaddingAndByteOrderAreHonoured() {
+        int width = 10, height = 4, rowBytes = 64;
+        ByteBuffer in = plane(width, height, width);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setFilterChain(new FilterChain())
+                .setColorOutput(ColorOutput.heatMap()))) {
+            // big-endian buffer, padded rows: padding stays untouched
+            ByteBuffer pixels = ByteBuffer.allocateDirect(rowBytes * height).order(ByteOrder.BIG_ENDIAN);
+            for (int i = 0; i < pixels.capacity(); i++) pixels.put(i, (byte) 0x5A);
+            assertTrue(processor.processToPixels(in, width, 1, pixels, rowBytes));
+            pixels.order(ByteOrder.LITTLE_ENDIAN);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int v = in.get(y * width + x) & 0xFF;
+                    int expected = ColorOutput.toMemoryOrder(ColorOutput.heatMap().colorOf(v),
+                            ColorOutput.Format.ARGB_8888);
+                    assertEquals(expected, pixels.getInt(y * rowBytes + x * 4));
+                }
+                assertEquals(0x5A, pixels.get(y * rowBytes + width * 4) & 0xFF);
+            }
+            assertFalse(processor.processToPixels(in, width, 1, pixels, width * 4 - 1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overlayNeedsSameSizeOutput() {
+        try (FrameProcessor processor = FrameProcessor.create(64, 48, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setColorOutput(ColorOutput.edgeOverlay(0xFFFFFFFF, 1)))) {
+            processor.setFilterChain(new FilterChain().scale(0.5));
+        }
+    }
+
+    @Test
+    public void neutralChromaMatchesGrayOverlay() {
+        int width = 63, height = 47;
+        ByteBuffer y = plane(width, height, width);
+        ByteBuffer chroma = ByteBuffer.allocateDirect(32 * 24);
+        for (int i = 0; i < chroma.capacity(); i++) chroma.put(i, (byte) 128);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setColorOutput(ColorOutput.edgeOverlay(0xFF00FF00, 0.6)))) {
+            ByteBuffer gray = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+            ByteBuffer color = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+            assertTrue(processor.processToPixels(y, width, 1, gray));
+            assertTrue(processor.processYuvToPixels(y, width, 1, chroma, chroma, 32, 1, color));
+            assertEquals(gray, color);
+        }
+    }
+
+    @Test
+    public void planarAndInterleavedChromaGiveTheSamePixels() {
+        int width = 41, height = 29, chromaWidth = 21, chromaHeight = 15;
+        ByteBuffer y = plane(width, height, 48);
+        // planar: separate U and V planes, padded rows
+        ByteBuffer u = ByteBuffer.allocateDirect(24 * chromaHeight);
+        ByteBuffer v = ByteBuffer.allocateDirect(24 * chromaHeight);
+        // NV21: one V U V U ... plane, U starting a byte after V
+        ByteBuffer vu = ByteBuffer.allocateDirect(48 * chromaHeight);
+        for (int r = 0; r < chromaHeight; r++) {
+            for (int c = 0; c < chromaWidth; c++) {
+                byte cb = (byte) (40 + c * 8);
+                byte cr = (byte) (220 - r * 9);
+                u.put(r * 24 + c, cb);
+                v.put(r * 24 + c, cr);
+                vu.put(r * 48 + c * 2, cr);
+                vu.put(r * 48 + c * 2 + 1, cb);
+            }
+        }
+        ByteBuffer nv21U = vu.duplicate().position(1).slice();
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setColorOutput(ColorOutput.edgeOverlay(0xFFFF00FF, 1)))) {
+            ByteBuffer planar = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+            ByteBuffer interleaved = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+            assertTrue(processor.processYuvToPixels(y, 48, 1, u, v, 24, 1, planar));
+            assertTrue(processor.processYuvToPixels(y, 48, 1, nv21U, vu, 48, 2, interleaved));
+            assertEquals(planar, interleaved);
+
+            // chroma planes a row short are rejected
+            assertFalse(processor.processYuvToPixels(y, 48, 1, u, v, 24, 2, planar));
+            Frame frame = new Frame(width, height);
+            frame.copyFrom(y.duplicate(), 48, 1);
+            frame.copyChromaFrom(nv21U.duplicate(), vu.duplicate(), 48, 2);
+            assertTrue(processor.processYuvToPixels(frame.gray, width, 1, frame.u, frame.v,
+                    frame.chromaRowStride, frame.chromaPixelStride, interleaved));
+            assertEquals(planar, interleaved);
+        }
+    }
+
+    @Test
+    public void yuvConvertsToRgb() {
+        int[] background = ColorOutput.edgeOverlay(0xFFFFFFFF, 1).encodedBackground();
+        // pure red, green and blue in full-range BT.601
+        assertEquals(ColorOutput.toMemoryOrder(0xFFFE0000, ColorOutput.Format.ARGB_8888),
+                JavaFrameEngine.yuvBackground(76, 85, 255, background));
+        assertEquals(ColorOutput.toMemoryOrder(0xFF00FF01, ColorOutput.Format.ARGB_8888),
+                JavaFrameEngine.yuvBackground(150, 44, 21, background));
+        assertEquals(ColorOutput.toMemoryOrder(0xFF0000FF, ColorOutput.Format.ARGB_8888) & 0xFFFEFFFF,
+                JavaFrameEngine.yuvBackground(29, 255, 107, background) & 0xFFFEFFFF);
+    }
+
+    @Test
+    public void nonOverlayOutputIgnoresChroma() {
+        int width = 32, height = 16;
+        ByteBuffer y = plane(width, height, width);
+        ByteBuffer chroma = ByteBuffer.allocateDirect(16 * 8);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setColorOutput(ColorOutput.heatMap().withFormat(ColorOutput.Format.RGB_565)))) {
+            ByteBuffer expected = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.RGB_565);
+            ByteBuffer actual = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.RGB_565);
+            assertTrue(processor.processToPixels(y, width, 1, expected));
+            assertTrue(processor.processYuvToPixels(y, width, 1, chroma, chroma, 16, 1, actual));
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static ByteBuffer plane(int width, int height, int rowStride) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                plane.put(y * rowStride + x, (byte) (((x / 8 + y / 8) & 1) == 0 ? 30 + x : 220 - y));
+            }
+        }
+        return plane;
+    }
+}
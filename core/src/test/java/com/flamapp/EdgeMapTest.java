@@ -0,0 +1,182 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the 1-bit edge map: packing, expansion, bitwise ops and the RLE form.
+ */
+public class EdgeMapTest {
+
+    @Test
+    public void packMatchesPlaneAtOddWidthsAndEitherByteOrder() {
+        for (int width : new int[]{1, 7, 63, 64, 65, 130}) {
+            int height = 5, rowStride = width + 3;
+            ByteBuffer plane = randomPlane(width, height, rowStride, width);
+            EdgeMap little = EdgeMap.fromPlane(plane.order(ByteOrder.LITTLE_ENDIAN), width, height, rowStride);
+            EdgeMap big = EdgeMap.fromPlane(plane.duplicate().order(ByteOrder.BIG_ENDIAN), width, height, rowStride);
+            assertEquals(little, big);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    assertEquals("width " + width, plane.get(y * rowStride + x) != 0, little.get(x, y));
+                }
+            }
+            // bits past the width stay clear, so popcount and equality only see pixels
+            long edges = 0;
+            for (int i = 0; i < height; i++) {
+                for (int x = 0; x < width; x++) if (plane.get(i * rowStride + x) != 0) edges++;
+            }
+            assertEquals(edges, little.popcount());
+        }
+    }
+
+    @Test
+    public void anyNonzeroByteIsAnEdge() {
+        ByteBuffer plane = ByteBuffer.allocateDirect(16);
+        byte[] values = {0, 1, (byte) 0x80, (byte) 0xFF, 0x7F, 0, 2, 0, 0, 0x40, 0, 0, 0, 0, 0, 1};
+        plane.put(values).clear();
+        EdgeMap map = EdgeMap.fromPlane(plane, 16, 1, 16);
+        for (int x = 0; x < 16; x++) assertEquals(values[x] != 0, map.get(x, 0));
+    }
+
+    @Test
+    public void unpackRestoresBinaryPlane() {
+        int width = 77, height = 9, rowStride = 80;
+        ByteBuffer plane = randomPlane(width, height, rowStride, 3);
+        EdgeMap map = EdgeMap.fromPlane(plane, width, height, rowStride);
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            ByteBuffer out = ByteBuffer.allocateDirect(rowStride * height).order(order);
+            map.unpack(out, rowStride);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int expected = plane.get(y * rowStride + x) != 0 ? 255 : 0;
+                    assertEquals(expected, out.get(y * rowStride + x) & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void expandsToArgbAndPixelMemory() {
+        int width = 130, height = 4;
+        EdgeMap map = new EdgeMap(width, height);
+        for (int x = 0; x < 64; x++) map.set(x, 1, true);        // full word
+        map.set(3, 2, true);
+        map.set(129, 3, true);
+        int edge = 0xFF00FF00, background = 0xFF000000;
+
+        int[] argb = new int[width * height];
+        map.expandToArgb(argb, edge, background);
+        ByteBuffer pixels = FrameProcessor.allocatePixels(width, height, ColorOutput.Format.ARGB_8888);
+        map.expandToPixels(pixels, width * 4, edge, background);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int expected = map.get(x, y) ? edge : background;
+                assertEquals(expected, argb[y * width + x]);
+                assertEquals(ColorOutput.toMemoryOrder(expected, ColorOutput.Format.ARGB_8888),
+                        pixels.getInt((y * width + x) * 4));
+            }
+        }
+    }
+
+    @Test
+    public void bitwiseOpsAndCounts() {
+        EdgeMap a = new EdgeMap(100, 3);
+        EdgeMap b = new EdgeMap(100, 3);
+        a.set(0, 0, true);
+        a.set(70, 1, true);
+        b.set(70, 1, true);
+        b.set(99, 2, true);
+
+        assertEquals(2, a.countDifferences(b));
+        assertEquals(1, new EdgeMap(100, 3).copyFrom(a).and(b).popcount());
+        assertEquals(3, new EdgeMap(100, 3).copyFrom(a).or(b).popcount());
+        EdgeMap changed = new EdgeMap(100, 3).copyFrom(a).xor(b);
+        assertTrue(changed.get(0, 0) && changed.get(99, 2) && !changed.get(70, 1));
+        EdgeMap gone = new EdgeMap(100, 3).copyFrom(a).andNot(b);
+        assertEquals(1, gone.popcount());
+        assertTrue(gone.get(0, 0));
+        assertEquals(3.0 / 300, a.or(b).density(), 1e-12);
+
+        try {
+            a.and(new EdgeMap(99, 3));
+            fail("Size mismatch accepted");
+        } catch (IllegalArgumentException expected) {
+            // maps of different sizes don't combine
+        }
+    }
+
+    @Test
+    public void rleRoundTripsAndShrinksSparseMaps() {
+        int width = 640, height = 48;
+        EdgeMap map = new EdgeMap(width, height);
+        Random random = new Random(7);
+        for (int y = 0; y < height; y++) {
+            // a few edge runs per row, one touching each end now and then
+            if (y % 3 == 0) map.set(0, y, true);
+            if (y % 5 == 0) map.set(width - 1, y, true);
+            int x = random.nextInt(width - 100);
+            for (int i = 0; i < 1 + random.nextInt(90); i++) map.set(x + i, y, true);
+        }
+        byte[] rle = map.toRle();
+        assertTrue(rle.length < map.byteSize() / 4);
+        assertEquals(map, EdgeMap.fromRle(rle, width, height));
+
+        EdgeMap noisy = EdgeMap.fromPlane(randomPlane(67, 5, 67, 1), 67, 5, 67);
+        assertEquals(noisy, EdgeMap.fromRle(noisy.toRle(), 67, 5));
+        EdgeMap full = new EdgeMap(65, 2);
+        for (int y = 0; y < 2; y++) for (int x = 0; x < 65; x++) full.set(x, y, true);
+        assertEquals(full, EdgeMap.fromRle(full.toRle(), 65, 2));
+    }
+
+    @Test
+    public void malformedRleIsRejected() {
+        EdgeMap map = new EdgeMap(10, 2);
+        byte[][] bad = {
+                {10},                   // second row missing
+                {10, 11},               // run past the end of the row
+                {10, 10, 0},            // trailing data
+                {(byte) 0x80},          // truncated varint
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F, 10},   // overflow
+        };
+        for (byte[] rle : bad) {
+            try {
+                map.readRle(rle, 0, rle.length);
+                fail("Accepted " + java.util.Arrays.toString(rle));
+            } catch (IllegalArgumentException expected) {
+                // rejected before any pixel outside the map is touched
+            }
+        }
+    }
+
+    @Test
+    public void javaBackendPacksItsResult() {
+        int width = 97, height = 40, rowStride = 100;
+        ByteBuffer in = randomPlane(width, height, rowStride, 11);
+        try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setJavaPool(null))) {
+            ByteBuffer edges = FrameProcessor.allocateOutput(width, height);
+            assertTrue(processor.process(in, rowStride, 1, edges));
+            EdgeMap map = new EdgeMap(width, height);
+            assertTrue(processor.processToEdgeMap(in, rowStride, 1, map));
+            assertEquals(EdgeMap.fromPlane(edges, width, height, width), map);
+            assertTrue(map.popcount() > 0);
+        }
+    }
+
+    // Random bytes, about half of them zero
+    private static ByteBuffer randomPlane(int width, int height, int rowStride, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        for (int i = 0; i < rowStride * height; i++) {
+            plane.put(i, random.nextBoolean() ? 0 : (byte) (1 + random.nextInt(255)));
+        }
+        return plane;
+    }
+}
@@ -0,0 +1,77 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the filter chain description and its native encoding.
+ */
+public class FilterChainTest {
+
+    @Test
+    public void encodesOneOpAndFourParamsPerStep() {
+        FilterChain chain = new FilterChain().gaussianBlur(5, 1.5).canny(50, 120).dilate(3, 2);
+        assertEquals(3, chain.size());
+        assertArrayEquals(new int[]{FilterChain.OP_GAUSSIAN_BLUR, FilterChain.OP_CANNY, FilterChain.OP_DILATE},
+                chain.encodedOps());
+        assertArrayEquals(new double[]{5, 1.5, 0, 0, 50, 120, 0, 0, 3, 2, FilterChain.MORPH_RECT, 0},
+                chain.encodedParams(), 0);
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        FilterChain chain = new FilterChain();
+        for (int i = 0; i < 10; i++) chain.erode(3, 1);
+        assertEquals(10, chain.encodedOps().length);
+        assertEquals(10 * FilterChain.PARAMS_PER_OP, chain.encodedParams().length);
+    }
+
+    @Test
+    public void outputSizeFollowsResizeSteps() {
+        FilterChain chain = FilterChain.defaultEdges();
+        assertEquals(1920, chain.outputWidth(1920));
+        assertEquals(1080, chain.outputHeight(1080));
+
+        chain = new FilterChain().scale(0.5).canny(80, 150);
+        assertEquals(960, chain.outputWidth(1920));
+        assertEquals(540, chain.outputHeight(1080));
+
+        chain = new FilterChain().scale(0.5).resize(320, 240).scale(2);
+        assertEquals(640, chain.outputWidth(1920));
+        assertEquals(480, chain.outputHeight(1080));
+    }
+
+    @Test
+    public void haloAddsUpLocalStepsAndRejectsWholeFrameOnes() {
+        assertEquals(1 + 2 + FilterChain.CANNY_HYSTERESIS_REACH, FilterChain.defaultEdges().haloRadius());
+        // blur 5 reads 2 around, an opening erodes then dilates by 1, two 3x3 dilations reach 2
+        assertEquals(2 + 2 + 2, new FilterChain().gaussianBlur(5).morphOpen(3, FilterChain.MORPH_RECT)
+                .dilate(3, 2).haloRadius());
+        assertEquals(0, new FilterChain().threshold(10, 255, FilterChain.THRESH_BINARY).haloRadius());
+        assertEquals(-1, new FilterChain().gaussianBlur(3).threshold(0, 255, FilterChain.THRESH_OTSU).haloRadius());
+        assertEquals(-1, new FilterChain().threshold(0, 255, FilterChain.THRESH_TRIANGLE).haloRadius());
+        assertEquals(-1, new FilterChain()
+                .threshold(0, 255, FilterChain.THRESH_BINARY_INV | FilterChain.THRESH_TRIANGLE).haloRadius());
+        assertEquals(-1, new FilterChain().equalizeHistogram().haloRadius());
+        assertEquals(-1, new FilterChain().scale(0.5).haloRadius());
+    }
+
+    @Test
+    public void configShorthandMatchesDefaultChain() {
+        FilterChain fromConfig = new FrameProcessor.Config().toFilterChain();
+        FilterChain defaults = FilterChain.defaultEdges();
+        assertArrayEquals(defaults.encodedOps(), fromConfig.encodedOps());
+        assertArrayEquals(defaults.encodedParams(), fromConfig.encodedParams(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEvenBlurKernel() {
+        new FilterChain().gaussianBlur(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedCannyThresholds() {
+        new FilterChain().canny(150, 80);
+    }
+}
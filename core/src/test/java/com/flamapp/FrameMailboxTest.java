@@ -0,0 +1,81 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the latest-frame mailbox between the pipeline and the render thread.
+ */
+public class FrameMailboxTest {
+
+    @Test
+    public void newestFrameWinsAndStaleOnesAreReleased() {
+        List<Integer> released = new ArrayList<>();
+        FrameMailbox<Integer> mailbox = new FrameMailbox<>(released::add);
+        assertNull(mailbox.takeLatest());
+
+        assertTrue(mailbox.publish(1));
+        assertFalse(mailbox.publish(2));
+        assertFalse(mailbox.publish(3));
+        assertEquals(Integer.valueOf(3), mailbox.takeLatest());
+        assertEquals(java.util.Arrays.asList(1, 2), released);
+        assertEquals(3, mailbox.publishedCount());
+        assertEquals(2, mailbox.skippedCount());
+
+        // nothing new: the front frame stays
+        assertNull(mailbox.takeLatest());
+        assertEquals(Integer.valueOf(3), mailbox.front());
+
+        // a new front frame releases the old one
+        assertTrue(mailbox.publish(4));
+        assertEquals(Integer.valueOf(4), mailbox.takeLatest());
+        assertEquals(java.util.Arrays.asList(1, 2, 3), released);
+
+        assertTrue(mailbox.publish(5));
+        mailbox.clear();
+        assertEquals(java.util.Arrays.asList(1, 2, 3, 5, 4), released);
+        assertNull(mailbox.front());
+        assertFalse(mailbox.hasPending());
+    }
+
+    @Test
+    public void everyFrameIsReleasedExactlyOnceUnderConcurrency() throws Exception {
+        int frames = 200_000;
+        ConcurrentHashMap<Integer, Boolean> released = new ConcurrentHashMap<>();
+        AtomicBoolean doubleRelease = new AtomicBoolean();
+        FrameMailbox<Integer> mailbox = new FrameMailbox<>(frame -> {
+            if (released.put(frame, Boolean.TRUE) != null) doubleRelease.set(true);
+        });
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean wentBack = new AtomicBoolean();
+        long[] taken = new long[1];
+        Thread consumer = new Thread(() -> {
+            int last = -1;
+            while (!done.get() || mailbox.hasPending()) {
+                Integer frame = mailbox.takeLatest();
+                if (frame == null) continue;
+                // frames only ever move forward
+                if (frame <= last) wentBack.set(true);
+                last = frame;
+                taken[0]++;
+            }
+            mailbox.clear();
+        });
+        consumer.start();
+        for (int i = 0; i < frames; i++) mailbox.publish(i);
+        done.set(true);
+        consumer.join();
+
+        assertFalse(doubleRelease.get());
+        assertFalse(wentBack.get());
+        assertEquals(frames, released.size());
+        assertEquals(frames, mailbox.publishedCount());
+        assertEquals(frames, taken[0] + mailbox.skippedCount());
+    }
+}
@@ -0,0 +1,89 @@
+package com.flamapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for per-frame stage metrics and their export.
+ */
+public class FrameMetricsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void marksBecomeStageLatencies() {
+        FrameMetrics metrics = new FrameMetrics();
+        Frame frame = new Frame(4, 4);
+        for (int i = 0; i < 10; i++) {
+            frame.reset();
+            long t = 1_000_000_000L;
+            frame.marks[FrameMetrics.SENSOR] = t;
+            frame.marks[FrameMetrics.ACQUIRED] = t += 8_000_000;
+            frame.marks[FrameMetrics.PROCESS_IN] = t += 1_000_000;
+            frame.marks[FrameMetrics.PROCESS_OUT] = t += 5_000_000;
+            frame.marks[FrameMetrics.CONVERTED] = t += 2_000_000;
+            frame.marks[FrameMetrics.RENDER_POSTED] = t + 500_000;
+            metrics.recordFrame(frame.marks);
+        }
+        FrameMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(10, snapshot.frames);
+        assertEquals(8_000_000L, snapshot.stage("capture").max);
+        assertEquals(5_000_000L, snapshot.stage("process").p99);
+        assertEquals(8_500_000L, snapshot.stage("total").p50);
+        assertEquals(16_500_000L, snapshot.stage("endToEnd").max);
+        assertEquals(10, snapshot.stage("queue").count);
+        assertNull(snapshot.stage("nope"));
+    }
+
+    @Test
+    public void missingMarksAreSkipped() {
+        FrameMetrics metrics = new FrameMetrics();
+        long[] marks = new long[FrameMetrics.MARK_COUNT];
+        // sensor clock unknown, processing threw before JNI out
+        marks[FrameMetrics.ACQUIRED] = 100;
+        marks[FrameMetrics.PROCESS_IN] = 200;
+        marks[FrameMetrics.CONVERTED] = 400;
+        marks[FrameMetrics.RENDER_POSTED] = 500;
+        metrics.recordFrame(marks);
+        FrameMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.stage("capture").count);
+        assertEquals(0, snapshot.stage("process").count);
+        assertEquals(0, snapshot.stage("endToEnd").count);
+        assertEquals(1, snapshot.stage("queue").count);
+        assertEquals(400, snapshot.stage("total").max);
+    }
+
+    @Test
+    public void exporterAppendsJsonLinesAndRotates() throws Exception {
+        FrameMetrics metrics = new FrameMetrics();
+        metrics.recordDrop();
+        metrics.recordError();
+        File file = new File(tmp.getRoot(), "metrics.jsonl");
+        new MetricsExporter(metrics, file, 1000, 0).export();
+        // room for a second line but not a third
+        long lineBytes = file.length();
+        MetricsExporter exporter = new MetricsExporter(metrics, file, 1000, lineBytes + lineBytes / 2);
+        exporter.export();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"time\":"));
+        assertTrue(lines.get(0).contains("\"drops\":1,\"errors\":1"));
+        assertTrue(lines.get(0).contains("\"process\":{\"count\":0"));
+        assertTrue(lines.get(0).endsWith("}}"));
+
+        // past maxBytes the current file moves to .1 and a new one starts
+        exporter.export();
+        assertTrue(new File(file.getPath() + ".1").exists());
+        assertEquals(1, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+    }
+}
@@ -0,0 +1,138 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the staged frame pipeline.
+ */
+public class FramePipelineTest {
+
+    @Test
+    public void framesFlowThroughEveryStageInOrder() throws Exception {
+        final int frames = 200;
+        List<int[]> sunk = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(frames);
+        FramePipeline<int[]> pipeline = new FramePipeline<>("test", f -> fail("unexpected drop"));
+        pipeline.addStage("double", f -> { f[1] *= 2; return f; }, 4, BackpressurePolicy.BLOCK)
+                .addStage("inc", f -> { f[1] += 1; return f; }, 4, BackpressurePolicy.BLOCK)
+                .addStage("sink", f -> { sunk.add(f); done.countDown(); return null; }, 4, BackpressurePolicy.BLOCK);
+        pipeline.start();
+        for (int i = 0; i < frames; i++) pipeline.submit(new int[]{i, i});
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        pipeline.stop();
+
+        for (int i = 0; i < frames; i++) {
+            assertEquals(i, sunk.get(i)[0]);
+            assertEquals(2 * i + 1, sunk.get(i)[1]);
+        }
+        for (FramePipeline.StageStats stats : pipeline.getStats()) {
+            assertEquals(frames, stats.processed);
+            assertEquals(0, stats.dropped);
+        }
+    }
+
+    @Test
+    public void slowStageDropsOldestAndCountsIt() throws Exception {
+        List<Integer> dropped = new CopyOnWriteArrayList<>();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        FramePipeline<Integer> pipeline = new FramePipeline<>("test", dropped::add);
+        pipeline.addStage("slow", f -> { entered.countDown(); gate.await(); return null; },
+                2, BackpressurePolicy.DROP_OLDEST);
+        pipeline.start();
+        pipeline.submit(0);
+        assertTrue(entered.await(2, TimeUnit.SECONDS));
+        for (int i = 1; i < 20; i++) pipeline.submit(i);
+        // frame 0 sits in the stage, 18 and 19 in the queue, the rest were evicted
+        FramePipeline.StageStats stats = pipeline.getStats()[0];
+        assertEquals(2, stats.queueDepth);
+        assertEquals(17, stats.dropped);
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17), dropped);
+        gate.countDown();
+        pipeline.stop();
+    }
+
+    @Test
+    public void failingStageHandsFrameToDropHandler() throws Exception {
+        List<Integer> dropped = new CopyOnWriteArrayList<>();
+        FramePipeline<Integer> pipeline = new FramePipeline<>("test", dropped::add);
+        pipeline.addStage("boom", f -> { throw new IllegalStateException("boom"); }, 2, BackpressurePolicy.BLOCK);
+        pipeline.start();
+        pipeline.submit(7);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (dropped.isEmpty() && System.nanoTime() < deadline) Thread.sleep(1);
+        pipeline.stop();
+        assertEquals(List.of(7), dropped);
+        assertEquals(1, pipeline.getStats()[0].errors);
+    }
+
+    @Test
+    public void stopWaitsForAStageLongerThanTheShutdownPoll() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        AtomicBoolean inside = new AtomicBoolean();
+        FramePipeline<Integer> pipeline = new FramePipeline<>("test", f -> { });
+        pipeline.addStage("slow", f -> {
+            inside.set(true);
+            entered.countDown();
+            // longer than one awaitTermination round
+            Thread.sleep(1500);
+            inside.set(false);
+            return null;
+        }, 2, BackpressurePolicy.BLOCK);
+        pipeline.start();
+        pipeline.submit(1);
+        assertTrue(entered.await(2, TimeUnit.SECONDS));
+        pipeline.stop();
+        // whatever the stage was using may be freed now
+        assertFalse(inside.get());
+    }
+
+    @Test
+    public void idleStagesParkUntilAFrameOrStop() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        FramePipeline<Integer> pipeline = new FramePipeline<>("idle", f -> { });
+        pipeline.addStage("sink", f -> { done.countDown(); return null; }, 2, BackpressurePolicy.BLOCK);
+        pipeline.start();
+        Thread stage = stageThread("idle-sink");
+        // no timed re-check: the stage sleeps until something wakes it
+        FrameQueueTest.awaitState(stage, Thread.State.WAITING);
+        pipeline.submit(1);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        FrameQueueTest.awaitState(stage, Thread.State.WAITING);
+        pipeline.stop();
+        stage.join(2000);
+        assertFalse(stage.isAlive());
+    }
+
+    @Test
+    public void restartAfterStop() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        FramePipeline<Integer> pipeline = new FramePipeline<>("test", f -> { });
+        pipeline.addStage("sink", f -> { done.countDown(); return null; }, 2, BackpressurePolicy.BLOCK);
+        pipeline.start();
+        pipeline.stop();
+        assertFalse(pipeline.submit(1));
+        pipeline.start();
+        pipeline.submit(2);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        pipeline.stop();
+    }
+
+    private static Thread stageThread(String name) throws InterruptedException {
+        for (int i = 0; i < 2000; i++) {
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                if (t.getName().equals(name)) return t;
+            }
+            Thread.sleep(1);
+        }
+        throw new AssertionError("No thread " + name);
+    }
+}
@@ -0,0 +1,184 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the bounded lock-free frame queue.
+ */
+public class FrameQueueTest {
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        assertEquals(4, new FrameQueue<Integer>(3, BackpressurePolicy.DROP_NEWEST, null).capacity());
+        assertEquals(2, new FrameQueue<Integer>(1,BackpressurePolicy.DROP_NEWEST, null).capacity());
+    }
+
+    @Test
+    public void dropNewestKeepsQueuedFrames() {
+        List<Integer> dropped = new ArrayList<>();
+        FrameQueue<Integer> queue = new FrameQueue<>(2, BackpressurePolicy.DROP_NEWEST, dropped::add);
+        assertTrue(queue.put(1));
+        assertTrue(queue.put(2));
+        assertFalse(queue.put(3));
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertNull(queue.poll());
+        assertEquals(1, queue.droppedCount());
+        assertEquals(Integer.valueOf(3), dropped.get(0));
+    }
+
+    @Test
+    public void dropOldestKeepsFreshestFrames() {
+        List<Integer> dropped = new ArrayList<>();
+        FrameQueue<Integer> queue = new FrameQueue<>(2, BackpressurePolicy.DROP_OLDEST, dropped::add);
+        for (int i = 1; i <= 5; i++) queue.put(i);
+        assertEquals(2, queue.size());
+        assertEquals(Integer.valueOf(4), queue.poll());
+        assertEquals(Integer.valueOf(5), queue.poll());
+        assertEquals(3, queue.droppedCount());
+        assertEquals(List.of(1, 2, 3), dropped);
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws Exception {
+        FrameQueue<Integer> queue = new FrameQueue<>(2, BackpressurePolicy.BLOCK, null);
+        queue.put(1);
+        queue.put(2);
+        Thread producer = new Thread(() -> queue.put(3));
+        producer.start();
+        Thread.sleep(20);
+        assertTrue(producer.isAlive());
+        assertEquals(Integer.valueOf(1), queue.poll());
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertEquals(0, queue.droppedCount());
+    }
+
+    @Test
+    public void closeReleasesBlockedProducerAndDrains() throws Exception {
+        List<Integer> dropped = new ArrayList<>();
+        FrameQueue<Integer> queue = new FrameQueue<>(2, BackpressurePolicy.BLOCK, frame -> {
+            synchronized (dropped) {
+                dropped.add(frame);
+            }
+        });
+        queue.put(1);
+        queue.put(2);
+        Thread producer = new Thread(() -> queue.put(3));
+        producer.start();
+        Thread.sleep(20);
+        queue.close();
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        // the producer either grabbed a freed slot and handed it back itself, or gave up
+        assertEquals(3, dropped.size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void untimedTakeWaitsForAFrameOrClose() throws Exception {
+        FrameQueue<Integer> queue = new FrameQueue<>(4, BackpressurePolicy.BLOCK, null);
+        List<Integer> taken = new CopyOnWriteArrayList<>();
+        Thread consumer = new Thread(() -> {
+            Integer frame;
+            while ((frame = queue.take()) != null) taken.add(frame);
+        });
+        consumer.start();
+        awaitState(consumer, Thread.State.WAITING);
+        queue.put(1);
+        queue.put(2);
+        // close() drops whatever is still queued: let the consumer have both first
+        for (int i = 0; i < 5000 && taken.size() < 2; i++) Thread.sleep(1);
+        awaitState(consumer, Thread.State.WAITING);
+        queue.close();
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals(List.of(1, 2), taken);
+    }
+
+    @Test
+    public void putAfterCloseDropsTheFrame() {
+        for (BackpressurePolicy policy : BackpressurePolicy.values()) {
+            List<Integer> dropped = new ArrayList<>();
+            FrameQueue<Integer> queue = new FrameQueue<>(4, policy, dropped::add);
+            queue.close();
+            // room to spare, but nobody will ever take it
+            assertFalse(queue.put(1));
+            assertEquals(Collections.singletonList(1), dropped);
+            assertEquals(0, queue.size());
+            assertNull(queue.poll());
+        }
+    }
+
+    @Test
+    public void putRacingCloseNeverStrandsAFrame() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            AtomicLong dropped = new AtomicLong();
+            FrameQueue<Integer> queue = new FrameQueue<>(64, BackpressurePolicy.DROP_OLDEST,
+                    frame -> dropped.incrementAndGet());
+            CountDownLatch go = new CountDownLatch(1);
+            Thread producer = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 32; i++) queue.put(i);
+            });
+            producer.start();
+            go.countDown();
+            queue.close();
+            producer.join(1000);
+            // every frame went back through the drop handler, none is left in the dead queue
+            assertEquals(32, dropped.get());
+            assertEquals(0, queue.size());
+        }
+    }
+
+    @Test
+    public void concurrentProducersAndConsumersLoseNothing() throws Exception {
+        final int producers = 4, perProducer = 50_000;
+        FrameQueue<Long> queue = new FrameQueue<>(64, BackpressurePolicy.BLOCK, null);
+        AtomicLong sum = new AtomicLong();
+        AtomicLong count = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(producers);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            threads.add(new Thread(() -> {
+                for (long i = 1; i <= perProducer; i++) queue.put(i);
+                done.countDown();
+            }));
+        }
+        for (int c = 0; c < 2; c++) {
+            threads.add(new Thread(() -> {
+                while (done.getCount() > 0 || queue.size() > 0) {
+                    Long v = queue.take(1_000_000L);
+                    if (v != null) {
+                        sum.addAndGet(v);
+                        count.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join(10_000);
+        assertEquals((long) producers * perProducer, count.get());
+        assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum.get());
+    }
+
+    static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        for (int i = 0; i < 5000 && thread.getState() != state; i++) Thread.sleep(1);
+        assertEquals(state, thread.getState());
+    }
+}
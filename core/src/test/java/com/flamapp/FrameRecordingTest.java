@@ -0,0 +1,229 @@
+package com.flamapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for memory-mapped frame recording and its replay source.
+ */
+public class FrameRecordingTest {
+
+    private static final int W = 40;
+    private static final int H = 30;
+    private static final int STRIDE = 48;
+    private static final long FRAME_NANOS = 10_000_000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void framesRoundTripWithTheirHeaders() throws Exception {
+        File file = tmp.newFile();
+        ByteBuffer plane = ByteBuffer.allocateDirect(STRIDE * H);
+        try (FrameRecorder recorder = new FrameRecorder(file, 1 << 20)) {
+            for (int i = 0; i < 5; i++) {
+                fill(plane, STRIDE, 1, i);
+                plane.position(7);
+                assertTrue(recorder.append(plane, W, H, STRIDE, 1, 1000 + i * FRAME_NANOS));
+                // the source buffer is left as it was
+                assertEquals(7, plane.position());
+                assertEquals(plane.capacity(), plane.limit());
+            }
+            assertEquals(5, recorder.frameCount());
+        }
+        // trimmed to what was written
+        assertTrue(file.length() < 1 << 16);
+
+        try (FrameReplaySource source = new FrameReplaySource(file)) {
+            assertEquals(5, source.frameCount());
+            assertEquals(4 * FRAME_NANOS, source.durationNanos());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(W, source.width(i));
+                assertEquals(H, source.height(i));
+                assertEquals(STRIDE, source.rowStride(i));
+                assertEquals(1000 + i * FRAME_NANOS, source.timestampNs(i));
+                assertTrue(source.plane(i).isReadOnly());
+                assertPlane(source.plane(i), STRIDE, i);
+            }
+        }
+    }
+
+    @Test
+    public void interleavedPlanesArePacked() throws Exception {
+        File file = tmp.newFile();
+        ByteBuffer plane = ByteBuffer.allocateDirect(STRIDE * 2 * H);
+        fill(plane, STRIDE * 2, 2, 3);
+        try (FrameRecorder recorder = new FrameRecorder(file, 1 << 20)) {
+            assertTrue(recorder.append(plane, W, H, STRIDE * 2, 2, 0));
+        }
+        try (FrameReplaySource source = new FrameReplaySource(file)) {
+            assertEquals(W, source.rowStride(0));
+            assertPlane(source.plane(0), W, 3);
+        }
+    }
+
+    @Test
+    public void fullFileKeepsTheFramesThatFit() throws Exception {
+        File file = tmp.newFile();
+        ByteBuffer plane = ByteBuffer.allocateDirect(W * H);
+        int record = FrameRecorder.align(FrameRecorder.FRAME_HEADER_BYTES + W * H);
+        try (FrameRecorder recorder = new FrameRecorder(file, FrameRecorder.HEADER_BYTES + 2 * record + 100)) {
+            for (int i = 0; i < 4; i++) {
+                fill(plane, W, 1, i);
+                assertEquals(i < 2, recorder.append(plane, W, H, W, 1, i));
+            }
+            assertEquals(2, recorder.frameCount());
+            assertEquals(2, recorder.droppedFrames());
+        }
+        try (FrameReplaySource source = new FrameReplaySource(file)) {
+            assertEquals(2, source.frameCount());
+            assertPlane(source.plane(1), W, 1);
+        }
+    }
+
+    @Test
+    public void unfinishedRecordingReplaysUpToItsLastFrame() throws Exception {
+        File file = tmp.newFile();
+        ByteBuffer plane = ByteBuffer.allocateDirect(W * H);
+        FrameRecorder recorder = new FrameRecorder(file, 1 << 20);
+        for (int i = 0; i < 3; i++) {
+            fill(plane, W, 1, i);
+            recorder.append(plane, W, H, W, 1, i);
+        }
+        // no close(): the file is still at its preallocated size
+        try (FrameReplaySource source = new FrameReplaySource(file)) {
+            assertEquals(3, source.frameCount());
+            assertPlane(source.plane(2), W, 2);
+        } finally {
+            recorder.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws Exception {
+        File file = tmp.newFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[64]);
+        }
+        new FrameReplaySource(file).close();
+    }
+
+    @Test
+    public void recordedPacingFollowsTheTimestamps() throws Exception {
+        File file = record(6);
+        try (FrameReplaySource source = new FrameReplaySource(file)) {
+            List<Integer> order = new ArrayList<>();
+            FrameReplaySource.Result paced = source.play(
+                    (index, plane, width, height, stride, ts) -> order.add(index),
+                    FrameReplaySource.Pacing.RECORDED, 2);
+            assertEquals(12, paced.frames);
+            assertEquals(12, order.size());
+            assertEquals(Integer.valueOf(5), order.get(5));
+            assertEquals(Integer.valueOf(0), order.get(6));
+            // the second loop's last frame is due 11 intervals in
+            assertTrue("elapsed " + paced.elapsedNanos, paced.elapsedNanos >= 11 * FRAME_NANOS);
+
+            FrameReplaySource.Result max = source.play((index, plane, width, height, stride, ts) -> { },
+                    FrameReplaySource.Pacing.MAX, 2);
+            assertEquals(12, max.frames);
+            assertEquals(0, max.lateFrames);
+            assertTrue("elapsed " + max.elapsedNanos, max.elapsedNanos < 11 * FRAME_NANOS);
+        }
+    }
+
+    @Test
+    public void replayedFramesProcessLikeTheOriginals() throws Exception {
+        FilterChain chain = new FilterChain().gaussianBlur(3).canny(40, 100);
+        File file = record(4);
+        FrameProcessor.Config config = new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA).setJavaPool(null).setFilterChain(chain);
+        try (FrameReplaySource source = new FrameReplaySource(file);
+             FrameProcessor replayed = FrameProcessor.create(W, H, config);
+             FrameProcessor original = FrameProcessor.create(W, H, config)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(W * H);
+            ByteBuffer expected = ByteBuffer.allocateDirect(W * H);
+            ByteBuffer plane = ByteBuffer.allocateDirect(STRIDE * H);
+            int[] edges = new int[1];
+            source.play((index, frame, width, height, stride, ts) -> {
+                assertTrue(replayed.process(frame, stride, 1, out));
+                fill(plane, STRIDE, 1, index);
+                assertTrue(original.process(plane, STRIDE, 1, expected));
+                assertEquals("frame " + index, expected, out);
+                for (int p = 0; p < W * H; p++) if (out.get(p) != 0) edges[0]++;
+            }, FrameReplaySource.Pacing.MAX, 1);
+            assertTrue("edges: " + edges[0], edges[0] > 0);
+        }
+    }
+
+    @Test
+    public void asFrameSourceItCopiesFramesInOrderAndLoops() throws Exception {
+        File file = record(3);
+        BufferPool<Frame> pool = Frame.newPool(2);
+        try (FrameReplaySource source = new FrameReplaySource(file)) {
+            for (int i = 0; i < 3; i++) {
+                Frame frame = source.next(pool);
+                assertEquals(W, frame.width);
+                assertEquals(i * FRAME_NANOS, frame.timestampNs);
+                for (int y = 0; y < H; y++) {
+                    for (int x = 0; x < W; x++) assertEquals(pixel(x, y, i), frame.gray.get(y * W + x));
+                }
+                pool.release(frame);
+            }
+            assertNull(source.next(pool));
+            // the shared planes are left as they were
+            assertEquals(0, source.plane(2).position());
+
+            source.setLooping(true);
+            Frame again = source.next(pool);
+            assertEquals(pixel(7, 9, 0), again.gray.get(9 * W + 7));
+            // timestamps keep going up: three frames later, one frame interval of spacing
+            assertEquals(3 * FRAME_NANOS, again.timestampNs);
+            pool.release(again);
+        }
+        assertEquals(0, pool.close());
+    }
+
+    private File record(int frames) throws IOException {
+        File file = tmp.newFile();
+        ByteBuffer plane = ByteBuffer.allocateDirect(STRIDE * H);
+        try (FrameRecorder recorder = new FrameRecorder(file, 1 << 20)) {
+            for (int i = 0; i < frames; i++) {
+                fill(plane, STRIDE, 1, i);
+                recorder.append(plane, W, H, STRIDE, 1, i * FRAME_NANOS);
+            }
+        }
+        return file;
+    }
+
+    // A square moved per frame on a gradient; padding bytes get a value of their own
+    private static void fill(ByteBuffer plane, int rowStride, int pixelStride, int index) {
+        for (int i = 0; i < plane.capacity(); i++) plane.put(i, (byte) 0x5A);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) plane.put(y * rowStride + x * pixelStride, pixel(x, y, index));
+        }
+    }
+
+    private static byte pixel(int x, int y, int index) {
+        boolean inside = x >= 5 + index * 3 && x < 20 + index * 3 && y >= 8 && y < 22;
+        return (byte) (inside ? 230 : x * 3 + y);
+    }
+
+    private static void assertPlane(ByteBuffer plane, int rowStride, int index) {
+        assertEquals((H - 1) * rowStride + W, plane.capacity());
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                assertEquals(x + "," + y, pixel(x, y, index), plane.get(y * rowStride + x));
+            }
+        }
+    }
+}
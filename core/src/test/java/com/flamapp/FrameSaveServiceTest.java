@@ -0,0 +1,182 @@
+package com.flamapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the background save service: burst capture, the bounded queue and the PNG
+ * output, decoded again with ImageIO.
+ */
+public class FrameSaveServiceTest {
+
+    private static final int W = 64;
+    private static final int H = 48;
+    private static final FilterChain CHAIN = new FilterChain().gaussianBlur(3).canny(40, 100);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void burstSavesConsecutiveFramesAsGrayPngs() throws Exception {
+        File dir = tmp.newFolder();
+        List<String> names = new CopyOnWriteArrayList<>();
+        List<Integer> batches = new CopyOnWriteArrayList<>();
+        FrameSaveService.Config config = new FrameSaveService.Config()
+                .setBackend(FrameProcessor.Backend.JAVA).setPngLevel(9);
+        try (FrameSaveService saver = new FrameSaveService(config, storage(dir, names),
+                (saved, failed, last) -> batches.add(saved))) {
+            // nothing requested: the frame path does nothing
+            assertFalse(saver.captureIfRequested(frame(0), W, H, CHAIN, ColorOutput.gray()));
+
+            saver.requestSave(3);
+            int captured = 0;
+            for (int i = 0; i < 5; i++) {
+                if (saver.captureIfRequested(frame(i), W, H, CHAIN, ColorOutput.gray())) captured++;
+            }
+            assertEquals(3, captured);
+            assertEquals(0, saver.requestedFrames());
+            assertTrue(saver.awaitIdle(10_000));
+
+            FrameSaveService.Stats stats = saver.getStats();
+            assertEquals(3, stats.saved);
+            assertEquals(0, stats.dropped);
+            assertEquals(0, stats.failed);
+            assertEquals(0, stats.queueDepth);
+            assertTrue(stats.encodeP50Nanos > 0);
+            assertEquals(3, batches.stream().mapToInt(Integer::intValue).sum());
+
+            assertEquals(3, names.size());
+            for (int i = 0; i < 3; i++) {
+                assertTrue(names.get(i), names.get(i).endsWith(".png"));
+                BufferedImage image = ImageIO.read(new File(dir, names.get(i)));
+                assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+                assertPixels(frame(i), ColorOutput.gray(), image);
+            }
+        }
+    }
+
+    @Test
+    public void colourOutputIsSavedAsRgb() throws Exception {
+        File dir = tmp.newFolder();
+        List<String> names = new CopyOnWriteArrayList<>();
+        ColorOutput overlay = ColorOutput.edgeOverlay(0xFF00FF00, 0.5);
+        FrameSaveService.Config config = new FrameSaveService.Config()
+                .setBackend(FrameProcessor.Backend.JAVA).setPngLevel(0);
+        try (FrameSaveService saver = new FrameSaveService(config, storage(dir, names), null)) {
+            saver.requestSave(1);
+            assertTrue(saver.captureIfRequested(frame(2), W, H, CHAIN, overlay));
+            assertTrue(saver.awaitIdle(10_000));
+        }
+        BufferedImage image = ImageIO.read(new File(dir, names.get(0)));
+        assertNotEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+        assertPixels(frame(2), overlay, image);
+    }
+
+    @Test
+    public void fullQueueDropsInsteadOfBlocking() throws Exception {
+        File dir = tmp.newFolder();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FrameSaveService.Storage slow = (name, format) -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new FileOutputStream(new File(dir, name));
+        };
+        FrameSaveService.Config config = new FrameSaveService.Config()
+                .setBackend(FrameProcessor.Backend.JAVA).setQueueCapacity(2).setBatchSize(1);
+        try (FrameSaveService saver = new FrameSaveService(config, slow, null)) {
+            saver.requestSave(5);
+            assertTrue(saver.captureIfRequested(frame(0), W, H, CHAIN, ColorOutput.gray()));
+            // the worker is stuck writing the first one
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            boolean[] queued = new boolean[4];
+            for (int i = 0; i < 4; i++) {
+                queued[i] = saver.captureIfRequested(frame(i + 1), W, H, CHAIN, ColorOutput.gray());
+            }
+            assertArrayEquals(new boolean[]{true, true, false, false}, queued);
+
+            FrameSaveService.Stats stats = saver.getStats();
+            assertEquals(2, stats.queueDepth);
+            assertEquals(2, stats.maxQueueDepth);
+            assertEquals(3, stats.captured);
+            assertEquals(2, stats.dropped);
+            assertTrue(stats.toJson(), stats.toJson().contains("\"captured\":3,\"saved\":0,\"failed\":0,\"dropped\":2"));
+
+            release.countDown();
+            assertTrue(saver.awaitIdle(10_000));
+            assertEquals(3, saver.getStats().saved);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jpegNeedsAPlatformEncoder() {
+        new FrameSaveService(new FrameSaveService.Config().setFormat(FrameSaveService.Format.JPEG),
+                (name, format) -> null, null);
+    }
+
+    private static FrameSaveService.Storage storage(File dir, List<String> names) {
+        return (name, format) -> {
+            names.add(name);
+            return new FileOutputStream(new File(dir, name));
+        };
+    }
+
+    // A bright square on a gradient, moved per frame
+    private static ByteBuffer frame(int index) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(W * H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                boolean inside = x >= 10 + index * 4 && x < 30 + index * 4 && y >= 12 && y < 36;
+                plane.put(y * W + x, (byte) (inside ? 220 : x * 2));
+            }
+        }
+        return plane;
+    }
+
+    // The image holds what a processor with the same chain and colours writes for the frame
+    private static void assertPixels(ByteBuffer frame, ColorOutput color, BufferedImage image) {
+        assertEquals(W, image.getWidth());
+        assertEquals(H, image.getHeight());
+        ByteBuffer pixels = FrameProcessor.allocatePixels(W, H, ColorOutput.Format.ARGB_8888);
+        try (FrameProcessor processor = FrameProcessor.create(W, H, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA).setJavaPool(null)
+                .setFilterChain(CHAIN).setColorOutput(color))) {
+            assertTrue(processor.processToPixels(frame, W, 1, pixels));
+        }
+        int edges = 0;
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                int p = (y * W + x) * 4;
+                int expected = ((pixels.get(p) & 0xFF) << 16) | ((pixels.get(p + 1) & 0xFF) << 8)
+                        | (pixels.get(p + 2) & 0xFF);
+                // getRGB would run gray samples through a linear colour space, read them raw
+                int actual = image.getType() == BufferedImage.TYPE_BYTE_GRAY
+                        ? image.getRaster().getSample(x, y, 0) * 0x010101
+                        : image.getRGB(x, y) & 0xFFFFFF;
+                assertEquals("pixel " + x + "," + y, expected, actual);
+                if (expected == 0xFFFFFF || expected == 0x00FF00) edges++;
+            }
+        }
+        // the square's outline, so the comparison isn't of two blank pictures
+        assertTrue("edges: " + edges, edges > 40);
+    }
+}
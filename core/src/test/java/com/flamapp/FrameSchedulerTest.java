@@ -0,0 +1,303 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the shared worker pool: ordering, one worker per stream, priority shares,
+ * frame-rate caps and closing streams.
+ */
+public class FrameSchedulerTest {
+
+    @Test
+    public void streamsRunInOrderOnOneWorkerAtATime() throws Exception {
+        int streamCount = 6;
+        int perStream = 200;
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicLong dropped = new AtomicLong();
+        List<List<Integer>> seen = new ArrayList<>();
+        List<FrameScheduler.Stream<Integer>> streams = new ArrayList<>();
+        try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(4))) {
+            scheduler.start();
+            for (int i = 0; i < streamCount; i++) {
+                List<Integer> order = new ArrayList<>();
+                AtomicInteger inside = new AtomicInteger();
+                seen.add(order);
+                streams.add(scheduler.register("s" + i, new FrameScheduler.StreamConfig().setQueueCapacity(256),
+                        frame -> {
+                            // processor state is per stream: never two workers on one stream
+                            if (inside.incrementAndGet() != 1) failed.set(true);
+                            order.add(frame);
+                            inside.decrementAndGet();
+                            return null;
+                        }, frame -> dropped.incrementAndGet(), null, null));
+            }
+            for (int f = 0; f < perStream; f++) {
+                for (FrameScheduler.Stream<Integer> stream : streams) assertTrue(stream.submit(f));
+            }
+            for (FrameScheduler.Stream<Integer> stream : streams) awaitProcessed(stream, perStream);
+            assertFalse(failed.get());
+            assertEquals(0, dropped.get());
+            for (FrameScheduler.StreamStats stats : scheduler.getStats()) {
+                assertEquals(perStream, stats.submitted);
+                assertEquals(perStream, stats.service.count);
+            }
+            for (FrameScheduler.Stream<Integer> stream : streams) stream.close();
+        }
+        for (List<Integer> order : seen) {
+            for (int f = 0; f < perStream; f++) assertEquals(f, (int) order.get(f));
+        }
+    }
+
+    @Test
+    public void busyStreamsShareTheWorkerByPriority() throws Exception {
+        int total = 400;
+        AtomicInteger processed = new AtomicInteger();
+        int[] counts = new int[2];
+        List<FrameScheduler.Stream<Integer>> streams = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        // held until both streams have a frame, so neither gets a head start
+        CountDownLatch go = new CountDownLatch(1);
+        try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(1))) {
+            scheduler.start();
+            for (int i = 0; i < 2; i++) {
+                int index = i;
+                streams.add(scheduler.register("p" + (i == 0 ? 3 : 1),
+                        new FrameScheduler.StreamConfig().setPriority(i == 0 ? 3 : 1).setQueueCapacity(4), frame -> {
+                            go.await();
+                            int n = processed.incrementAndGet();
+                            // the other stream's last frame, after the count is complete
+                            if (n > total) return null;
+                            counts[index]++;
+                            // always one more waiting: both streams stay busy until the end
+                            if (n < total) {
+                                streams.get(index).submit(frame);
+                            } else {
+                                done.countDown();
+                            }
+                            return null;
+                        }, frame -> { }, null, null));
+            }
+            streams.get(0).submit(0);
+            streams.get(1).submit(0);
+            go.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (FrameScheduler.Stream<Integer> stream : streams) stream.close();
+        }
+        // stride scheduling: 3 frames of the priority-3 stream for each of the other
+        assertEquals(total, counts[0] + counts[1]);
+        assertEquals(3.0, (double) counts[0] / counts[1], 0.1);
+    }
+
+    @Test
+    public void idleStreamGetsNoBacklogOfCredit() throws Exception {
+        AtomicInteger order = new AtomicInteger();
+        List<String> log = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        List<FrameScheduler.Stream<Integer>> streams = new ArrayList<>();
+        try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(1))) {
+            scheduler.start();
+            streams.add(scheduler.register("busy", new FrameScheduler.StreamConfig(), frame -> {
+                log.add("busy");
+                int n = order.incrementAndGet();
+                if (n == 100) {
+                    // the other stream wakes up after 100 frames of this one
+                    for (int i = 0; i < 4; i++) streams.get(1).submit(i);
+                }
+                if (n < 120) streams.get(0).submit(frame); else done.countDown();
+                return null;
+            }, frame -> { }, null, null));
+            streams.add(scheduler.register("late", new FrameScheduler.StreamConfig().setQueueCapacity(4), frame -> {
+                log.add("late");
+                order.incrementAndGet();
+                return null;
+            }, frame -> { }, null, null));
+            streams.get(0).submit(0);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            streams.get(0).close();
+            streams.get(1).close();
+        }
+        // from its wake-up on the late stream alternates with the busy one instead of running
+        // 100 frames in a row to catch up
+        int firstLate = log.indexOf("late");
+        assertTrue(firstLate >= 100);
+        int run = 0;
+        int longest = 0;
+        for (int i = firstLate; i < log.size(); i++) {
+            run = "late".equals(log.get(i)) ? run + 1 : 0;
+            longest = Math.max(longest, run);
+        }
+        assertTrue("late ran " + longest + " frames in a row", longest <= 2);
+    }
+
+    @Test
+    public void frameRateCapKeepsToItsGrid() {
+        try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(1))) {
+            FrameScheduler.Stream<Integer> stream = scheduler.register("capped",
+                    new FrameScheduler.StreamConfig().setMaxFps(50), frame -> null, frame -> { }, null, null);
+            long ms = TimeUnit.MILLISECONDS.toNanos(1);
+            // 500 fps offered for 400 ms: the first frame at once, then one per 20 ms slot
+            int admitted = 0;
+            for (long t = 0; t < 400 * ms; t += 2 * ms) {
+                if (stream.admit(t)) admitted++;
+            }
+            assertEquals(21, admitted);
+            // a stall banks no burst: nothing closer than 3/4 of an interval gets in
+            assertTrue(stream.admit(1000 * ms));
+            assertFalse(stream.admit(1014 * ms));
+            assertTrue(stream.admit(1015 * ms));
+            // a frame a little late doesn't push the next slot out
+            assertTrue(stream.admit(1038 * ms));
+            assertFalse(stream.admit(1054 * ms));
+            assertTrue(stream.admit(1055 * ms));
+        }
+    }
+
+    @Test
+    public void cappedFramesNeverTakeAWorker() throws Exception {
+        AtomicLong capped = new AtomicLong();
+        try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(2))) {
+            scheduler.start();
+            // one frame a minute: everything after the first is over the cap
+            FrameScheduler.Stream<Integer> stream = scheduler.register("capped",
+                    new FrameScheduler.StreamConfig().setMaxFps(1.0 / 60), frame -> null,
+                    frame -> fail("Dropped"), frame -> capped.incrementAndGet(), null);
+            assertTrue(stream.submit(0));
+            for (int i = 1; i < 10; i++) assertFalse(stream.submit(i));
+            awaitProcessed(stream, 1);
+            FrameScheduler.StreamStats stats = stream.getStats();
+            assertEquals(10, stats.submitted);
+            assertEquals(9, stats.capped);
+            assertEquals(9, capped.get());
+            assertEquals(1, stats.processed);
+            stream.close();
+        }
+    }
+
+    @Test
+    public void closeWaitsForTheFrameOnAWorkerAndDropsTheRest() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger dropped = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(1))) {
+            scheduler.start();
+            FrameScheduler.Stream<Integer> stream = scheduler.register("slow",
+                    new FrameScheduler.StreamConfig().setQueueCapacity(4), frame -> {
+                        entered.countDown();
+                        release.await();
+                        finished.incrementAndGet();
+                        return null;
+                    }, frame -> dropped.incrementAndGet(), null, null);
+            stream.submit(1);
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            stream.submit(2);
+            stream.submit(3);
+            Thread closer = new Thread(stream::close);
+            closer.start();
+            closer.join(100);
+            assertTrue("close() returned while a frame was being processed", closer.isAlive());
+            release.countDown();
+            closer.join(5000);
+            assertFalse(closer.isAlive());
+            assertEquals(1, finished.get());
+            assertEquals(2, dropped.get());
+            // closed: frames go straight back
+            assertFalse(stream.submit(4));
+            assertEquals(3, dropped.get());
+            assertEquals(0, scheduler.getStats().length);
+        }
+    }
+
+    @Test
+    public void idleWorkersSleepUntilWorkOrClose() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger processed = new AtomicInteger();
+        FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(2)
+                .setThreadFactory(r -> {
+                    Thread t = new Thread(r);
+                    synchronized (threads) {
+                        threads.add(t);
+                    }
+                    return t;
+                }));
+        scheduler.start();
+        FrameScheduler.Stream<Integer> stream = scheduler.register("s", null, frame -> {
+            processed.incrementAndGet();
+            return null;
+        }, frame -> { }, null, null);
+        for (Thread t : threads) {
+            // parked without a timeout: a timed re-check loop would show TIMED_WAITING
+            awaitState(t, Thread.State.WAITING);
+        }
+        // a frame still wakes one
+        assertTrue(stream.submit(1));
+        awaitProcessed(stream, 1);
+        for (Thread t : threads) awaitState(t, Thread.State.WAITING);
+        stream.close();
+        // and close() wakes them to exit
+        scheduler.close();
+        for (Thread t : threads) {
+            t.join(5000);
+            assertFalse(t.isAlive());
+        }
+    }
+
+    @Test
+    public void framesAreDroppedWhileTheSchedulerIsStopped() {
+        AtomicInteger dropped = new AtomicInteger();
+        FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(1));
+        FrameScheduler.Stream<Integer> stream = scheduler.register("s", null, frame -> {
+            fail("Processed without workers");
+            return null;
+        }, frame -> dropped.incrementAndGet(), null, null);
+        assertFalse(stream.submit(1));
+        assertEquals(1, dropped.get());
+        assertEquals(1, stream.getStats().dropped);
+        scheduler.close();
+    }
+
+    @Test
+    public void rejectsBadSettings() {
+        try {
+            new FrameScheduler.Config().setWorkers(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // at least one worker
+        }
+        try {
+            new FrameScheduler.StreamConfig().setPriority(FrameScheduler.MAX_PRIORITY + 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // its stride would be 0
+        }
+        try {
+            new FrameScheduler.StreamConfig().setMaxFps(-1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // 0 is "no cap"
+        }
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        for (int i = 0; i < 5000 && thread.getState() != state; i++) Thread.sleep(1);
+        assertEquals(thread.getName(), state, thread.getState());
+    }
+
+    private static void awaitProcessed(FrameScheduler.Stream<?> stream, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (stream.getStats().processed < count) {
+            if (System.nanoTime() > deadline) fail("Timed out: " + stream.getStats());
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the headless frame session: source -> process stage -> output -> sink.
+ */
+public class FrameSessionTest {
+
+    @Test
+    public void everyFrameReachesTheSinkOrIsAccountedFor() throws Exception {
+        int width = 96, height = 64;
+        List<Frame> received = new ArrayList<>();
+        PixelBufferOutput output = new PixelBufferOutput(4);
+        FrameSession[] session = new FrameSession[1];
+        FrameSink sink = frame -> {
+            synchronized (received) {
+                received.add(frame);
+            }
+        };
+        try (SyntheticFrameSource source = new SyntheticFrameSource(width, height, 40, 30);
+             FrameSession s = new FrameSession(new FrameSession.Config()
+                     .setBackend(FrameProcessor.Backend.JAVA)
+                     .setQueueCapacity(64), output, sink)) {
+            session[0] = s;
+            s.start();
+            while (s.submitFrom(source)) {
+                // unpaced
+            }
+            assertTrue(s.awaitIdle(10_000));
+            assertEquals(40, s.submittedCount());
+            FrameMetrics.Snapshot snapshot = s.getMetrics().snapshot();
+            assertEquals(40, snapshot.frames + snapshot.drops + s.unchangedCount());
+            assertEquals(40, received.size());
+            assertEquals(FrameProcessor.Backend.JAVA, s.getBackend());
+
+            // the output holds the edges in gray, as the processor writes them
+            Frame first = received.get(0);
+            assertTrue(first.processedOk);
+            PixelBufferOutput.Pixels pixels = (PixelBufferOutput.Pixels) first.attachment;
+            assertEquals(width, pixels.width);
+            ByteBuffer edges = FrameProcessor.allocateOutput(width, height);
+            try (FrameProcessor processor = FrameProcessor.create(width, height, new FrameProcessor.Config()
+                    .setBackend(FrameProcessor.Backend.JAVA))) {
+                assertTrue(processor.process(first.gray, width, 1, edges));
+            }
+            for (int i = 0; i < width * height; i++) {
+                int v = edges.get(i) & 0xFF;
+                assertEquals(0xFF000000 | v << 16 | v << 8 | v, pixels.buffer.getInt(i * 4));
+            }
+            for (Frame frame : received) s.release(frame);
+            assertEquals(0, s.getFramePoolStats().outstanding);
+        }
+        assertEquals(0, output.close());
+    }
+
+    @Test
+    public void unchangedFramesAndEffectSwitches() throws Exception {
+        int width = 64, height = 48;
+        List<Frame> received = new ArrayList<>();
+        PixelBufferOutput output = new PixelBufferOutput(2);
+        try (FrameSession s = new FrameSession(new FrameSession.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setIncremental(16, 6)
+                .setQueueCapacity(8), output, received::add)) {
+            s.start();
+            ByteBuffer plane = FrameProcessor.allocateOutput(width, height);
+            SyntheticFrameSource.fill(plane, width, height, width, 0);
+            for (int i = 0; i < 2; i++) {
+                Frame frame = s.acquireFrame(width, height);
+                frame.copyFrom(plane.duplicate(), width, 1);
+                s.submit(frame);
+                assertTrue(s.awaitIdle(10_000));
+            }
+            // the repeat is dropped as unchanged, nothing to show for it
+            assertEquals(1, received.size());
+            assertEquals(1, s.unchangedCount());
+
+            s.setEffect(FilterChain.defaultEdges(), ColorOutput.heatMap().withFormat(ColorOutput.Format.RGB_565));
+            assertFalse(s.wantsChroma());
+            Frame frame = s.acquireFrame(width, height);
+            SyntheticFrameSource.fill(frame.gray, width, height, width, 5);
+            s.submit(frame);
+            assertTrue(s.awaitIdle(10_000));
+            assertEquals(2, received.size());
+            assertEquals(ColorOutput.Format.RGB_565, ((PixelBufferOutput.Pixels) received.get(1).attachment).format);
+            for (Frame f : received) s.release(f);
+        }
+        assertEquals(0, output.close());
+    }
+
+    @Test
+    public void framesSubmittedWhileStoppedAreDropped() {
+        PixelBufferOutput output = new PixelBufferOutput(1);
+        try (FrameSession s = new FrameSession(null, output, frame -> fail("Sink called"))) {
+            assertFalse(s.submit(s.acquireFrame(16, 16)));
+            assertTrue(s.awaitIdle(0));
+            assertEquals(1, s.getMetrics().snapshot().drops);
+            assertEquals(0, s.getFramePoolStats().outstanding);
+        }
+    }
+
+    @Test
+    public void sessionsShareASchedulerAndCappedFramesAreNotDrops() throws Exception {
+        int width = 64, height = 48;
+        List<Frame> received = new ArrayList<>();
+        PixelBufferOutput output = new PixelBufferOutput(4);
+        FrameSession[] sessions = new FrameSession[2];
+        try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(1))) {
+            scheduler.start();
+            for (int i = 0; i < 2; i++) {
+                int index = i;
+                sessions[i] = new FrameSession(new FrameSession.Config()
+                        .setName("stream-" + i)
+                        .setBackend(FrameProcessor.Backend.JAVA)
+                        .setQueueCapacity(32)
+                        // the second one takes one frame per second at most
+                        .setScheduler(scheduler, new FrameScheduler.StreamConfig().setMaxFps(i == 0 ? 0 : 1)),
+                        output, frame -> {
+                            synchronized (received) {
+                                received.add(frame);
+                            }
+                            sessions[index].release(frame);
+                        });
+                sessions[i].start();
+                assertTrue(sessions[i].isRunning());
+            }
+            for (int f = 0; f < 10; f++) {
+                for (FrameSession s : sessions) {
+                    Frame frame = s.acquireFrame(width, height);
+                    SyntheticFrameSource.fill(frame.gray, width, height, width, f);
+                    s.submit(frame);
+                }
+            }
+            for (FrameSession s : sessions) assertTrue(s.awaitIdle(10_000));
+
+            FrameScheduler.StreamStats[] stats = scheduler.getStats();
+            assertEquals(2, stats.length);
+            assertEquals("stream-0", stats[0].name);
+            assertEquals(10, stats[0].submitted);
+            assertEquals(9, stats[1].capped);
+            assertEquals(10, sessions[0].getMetrics().snapshot().frames);
+            assertEquals(1, sessions[1].getMetrics().snapshot().frames);
+            assertEquals(9, sessions[1].cappedCount());
+            assertEquals(0, sessions[1].getMetrics().snapshot().drops);
+            assertEquals(11, received.size());
+            assertEquals(9, sessions[1].getStreamStats().capped);
+
+            for (FrameSession s : sessions) s.close();
+            assertNull(sessions[0].getStreamStats());
+            assertEquals(0, scheduler.getStats().length);
+        }
+        assertEquals(0, output.close());
+    }
+
+    @Test
+    public void overlaySessionsProcessChromaFrames() throws Exception {
+        int width = 64, height = 48;
+        List<Frame> received = new ArrayList<>();
+        PixelBufferOutput output = new PixelBufferOutput(2);
+        try (SyntheticFrameSource source = new SyntheticFrameSource(width, height, 1, 30).withChroma();
+             FrameSession s = new FrameSession(new FrameSession.Config()
+                     .setBackend(FrameProcessor.Backend.JAVA)
+                     .setEffect(FilterChain.defaultEdges(), ColorOutput.edgeOverlay(0xFF00FF00, 1)), output,
+                     received::add)) {
+            assertTrue(s.wantsChroma());
+            s.start();
+            assertTrue(s.submitFrom(source));
+            assertFalse(s.submitFrom(source));
+            assertTrue(s.awaitIdle(10_000));
+            Frame frame = received.get(0);
+            assertTrue(frame.hasChroma && frame.processedOk);
+            // somewhere off the edges the camera shows through in colour, not gray
+            ByteBuffer pixels = ((PixelBufferOutput.Pixels) frame.attachment).buffer;
+            boolean colour = false;
+            for (int i = 0; i < width * height && !colour; i++) {
+                int p = pixels.getInt(i * 4);
+                colour = (p & 0xFF) != ((p >> 8) & 0xFF);
+            }
+            assertTrue(colour);
+            s.release(frame);
+        }
+        assertEquals(0, output.close());
+    }
+
+    @Test
+    public void stopWaitsForTheFrameInProcessBeforeClosingTheProcessor() throws Exception {
+        for (boolean shared : new boolean[]{false, true}) {
+            CountDownLatch entered = new CountDownLatch(1);
+            AtomicBoolean inside = new AtomicBoolean();
+            PixelBufferOutput pixels = new PixelBufferOutput(2);
+            // holds the processor for longer than one round of the stage's shutdown wait
+            FrameOutput slow = new FrameOutput() {
+                @Override
+                public boolean process(FrameProcessor processor, Frame frame, int divisor) {
+                    inside.set(true);
+                    entered.countDown();
+                    try {
+                        Thread.sleep(1500);
+                        return pixels.process(processor, frame, divisor);
+                    } catch (InterruptedException e) {
+                        return false;
+                    } finally {
+                        inside.set(false);
+                    }
+                }
+
+                @Override
+                public void showRaw(Frame frame) {
+                    pixels.showRaw(frame);
+                }
+
+                @Override
+                public void release(Frame frame) {
+                    pixels.release(frame);
+                }
+
+                @Override
+                public void trimTo(int width, int height) {
+                    pixels.trimTo(width, height);
+                }
+            };
+            FrameSession[] session = new FrameSession[1];
+            try (FrameScheduler scheduler = new FrameScheduler(new FrameScheduler.Config().setWorkers(1))) {
+                scheduler.start();
+                FrameSession.Config config = new FrameSession.Config().setBackend(FrameProcessor.Backend.JAVA);
+                if (shared) config.setScheduler(scheduler, null);
+                session[0] = new FrameSession(config, slow, frame -> session[0].release(frame));
+                session[0].start();
+                Frame frame = session[0].acquireFrame(32, 32);
+                SyntheticFrameSource.fill(frame.gray, 32, 32, 32, 0);
+                session[0].submit(frame);
+                assertTrue(entered.await(5, TimeUnit.SECONDS));
+                session[0].stop();
+                assertFalse("stop() returned with a frame inside the processor (shared=" + shared + ")", inside.get());
+            }
+            session[0].close();
+            assertEquals(0, pixels.close());
+        }
+    }
+}
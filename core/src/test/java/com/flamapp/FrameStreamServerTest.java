@@ -0,0 +1,337 @@
+package com.flamapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the frame streaming server, with a minimal WebSocket client on loopback.
+ */
+public class FrameStreamServerTest {
+
+    private static final int W = 64;
+    private static final int H = 48;
+
+    private FrameStreamServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) server.close();
+    }
+
+    @Test
+    public void acceptKeyMatchesTheRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", FrameStreamServer.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    public void nothingIsPublishedWithoutViewers() throws Exception {
+        server = start(new FrameStreamServer.Config());
+        assertFalse(server.wantsFrame());
+        assertFalse(server.publish(gray(0), W, H, FrameStreamServer.PixelFormat.GRAY8, 0, 0));
+        assertEquals(0, server.getStats().published);
+    }
+
+    @Test
+    public void viewerReceivesCompressedFramesWithTimings() throws Exception {
+        server = start(new FrameStreamServer.Config().setMaxFps(0));
+        try (Viewer viewer = new Viewer(server.getPort())) {
+            awaitClients(1);
+            assertTrue(server.wantsFrame());
+            for (int i = 0; i < 3; i++) {
+                long captured = System.nanoTime();
+                assertTrue(server.publish(gray(i), W, H, FrameStreamServer.PixelFormat.GRAY8,
+                        1_000_000_000_000L + i, captured));
+                Received frame = viewer.nextFrame();
+                assertEquals(0, frame.format);
+                assertEquals(FrameStreamServer.ENCODING_ZLIB, frame.encoding);
+                assertEquals(W, frame.width);
+                assertEquals(H, frame.height);
+                assertEquals(i + 1, frame.sequence);
+                assertEquals(1_000_000_000_000L + i, frame.timestampNs);
+                assertTrue(frame.latencyMicros >= 0);
+                assertTrue("payload " + frame.payloadBytes, frame.payloadBytes < W * H / 4);
+                assertArrayEquals(bytes(gray(i)), frame.pixels);
+            }
+            FrameStreamServer.Stats stats = server.getStats();
+            assertEquals(1, stats.clients);
+            assertEquals(3, stats.sent);
+            assertTrue(stats.compression > 4);
+        }
+    }
+
+    @Test
+    public void incompressibleFramesGoOutRaw() throws Exception {
+        server = start(new FrameStreamServer.Config().setMaxFps(0));
+        ByteBuffer noise = ByteBuffer.allocateDirect(W * H * 4);
+        byte[] random = new byte[W * H * 4];
+        new Random(7).nextBytes(random);
+        noise.put(random);
+        try (Viewer viewer = new Viewer(server.getPort())) {
+            awaitClients(1);
+            assertTrue(server.publish(noise, W, H, FrameStreamServer.PixelFormat.RGBA8888, 0, 0));
+            Received frame = viewer.nextFrame();
+            assertEquals(1, frame.format);
+            assertEquals(FrameStreamServer.ENCODING_RAW, frame.encoding);
+            assertArrayEquals(random, frame.pixels);
+        }
+        // the caller's buffer is left as it was
+        assertEquals(noise.capacity(), noise.position());
+    }
+
+    @Test
+    public void pingIsAnsweredWithPong() throws Exception {
+        server = start(new FrameStreamServer.Config());
+        try (Viewer viewer = new Viewer(server.getPort())) {
+            viewer.sendText("ping 1234.5");
+            assertEquals("pong 1234.5", viewer.nextText());
+        }
+    }
+
+    @Test
+    public void publishingIsCappedAtMaxFps() throws Exception {
+        server = start(new FrameStreamServer.Config().setMaxFps(10));
+        try (Viewer viewer = new Viewer(server.getPort())) {
+            awaitClients(1);
+            assertTrue(server.publish(gray(0), W, H, FrameStreamServer.PixelFormat.GRAY8, 0, 0));
+            // within 100 ms of the first
+            assertFalse(server.wantsFrame());
+            assertFalse(server.publish(gray(1), W, H, FrameStreamServer.PixelFormat.GRAY8, 0, 0));
+            Thread.sleep(120);
+            assertTrue(server.publish(gray(2), W, H, FrameStreamServer.PixelFormat.GRAY8, 0, 0));
+            assertEquals(1, viewer.nextFrame().sequence);
+            assertEquals(2, viewer.nextFrame().sequence);
+        }
+    }
+
+    @Test
+    public void slowViewerDropsStaleFramesWithoutHoldingUpOthers() throws Exception {
+        int width = 512;
+        int height = 512;
+        server = start(new FrameStreamServer.Config().setMaxFps(0).setDeflateLevel(0).setClientQueue(2));
+        ByteBuffer frame = ByteBuffer.allocateDirect(width * height * 4);
+        try (Viewer stalled = new Viewer(server.getPort()); Viewer fast = new Viewer(server.getPort())) {
+            awaitClients(2);
+            // 1 MB frames: the stalled viewer's socket buffers fill up, then its queue does
+            int frames = 40;
+            for (int i = 1; i <= frames; i++) {
+                frame.put(0, (byte) i);
+                assertTrue(server.publish(frame, width, height, FrameStreamServer.PixelFormat.RGBA8888, i, 0));
+                Received received = fast.nextFrame();
+                assertEquals(i, received.sequence);
+                assertEquals((byte) i, received.pixels[0]);
+            }
+            FrameStreamServer.Stats stats = server.getStats();
+            assertTrue(stats.toJson(), stats.dropped > 0);
+            assertEquals(0, stats.skipped);
+            // behind, but still connected
+            assertFalse(stalled.socket.isClosed());
+        }
+    }
+
+    @Test
+    public void extraViewersAreTurnedAway() throws Exception {
+        server = start(new FrameStreamServer.Config().setMaxClients(1));
+        try (Viewer first = new Viewer(server.getPort())) {
+            awaitClients(1);
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                String status = handshake(socket);
+                assertTrue(status, status.startsWith("HTTP/1.1 503"));
+            }
+            // the viewer already in keeps its place
+            assertFalse(first.socket.isClosed());
+        }
+    }
+
+    @Test
+    public void statsAreServedAsJson() throws Exception {
+        server = start(new FrameStreamServer.Config());
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + server.getPort() + "/stats").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("*", connection.getHeaderField("Access-Control-Allow-Origin"));
+        String body = new String(readAll(connection.getInputStream()), StandardCharsets.UTF_8);
+        assertTrue(body, body.startsWith("{\"clients\":0,\"published\":0"));
+
+        HttpURLConnection missing = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + server.getPort() + "/nothing").openConnection();
+        assertEquals(404, missing.getResponseCode());
+    }
+
+    @Test
+    public void closingDisconnectsViewers() throws Exception {
+        server = start(new FrameStreamServer.Config());
+        try (Viewer viewer = new Viewer(server.getPort())) {
+            awaitClients(1);
+            server.close();
+            assertFalse(server.hasClients());
+            assertEquals(-1, viewer.in.read());
+        }
+    }
+
+    private static FrameStreamServer start(FrameStreamServer.Config config) throws IOException {
+        FrameStreamServer server = new FrameStreamServer(config.setPort(0));
+        server.start();
+        assertTrue(server.getPort() > 0);
+        return server;
+    }
+
+    private void awaitClients(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getStats().clients < count) {
+            assertTrue("viewers never registered", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // A gradient with a bright square moved per frame
+    private static ByteBuffer gray(int index) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(W * H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                boolean inside = x >= 8 + index * 4 && x < 24 + index * 4 && y >= 10 && y < 30;
+                plane.put(y * W + x, (byte) (inside ? 255 : x));
+            }
+        }
+        return plane;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] out = new byte[buffer.capacity()];
+        for (int i = 0; i < out.length; i++) out[i] = buffer.get(i);
+        return out;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    // Sends the upgrade request and returns the response head
+    private static String handshake(Socket socket) throws IOException {
+        socket.setSoTimeout(10_000);
+        String request = "GET /stream HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        StringBuilder head = new StringBuilder();
+        InputStream in = socket.getInputStream();
+        while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) break;
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    private static final class Received {
+        int format;
+        int encoding;
+        int width;
+        int height;
+        int sequence;
+        long latencyMicros;
+        int payloadBytes;
+        long timestampNs;
+        byte[] pixels;
+    }
+
+    // The browser's side of the protocol
+    private static final class Viewer implements AutoCloseable {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+
+        Viewer(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            String status = handshake(socket);
+            assertTrue(status, status.startsWith("HTTP/1.1 101"));
+            assertTrue(status, status.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        Received nextFrame() throws Exception {
+            byte[] message = nextMessage(0x2);
+            ByteBuffer b = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+            Received r = new Received();
+            assertEquals(FrameStreamServer.VERSION, b.get(0));
+            r.format = b.get(1);
+            r.encoding = b.get(2);
+            r.width = b.getInt(4);
+            r.height = b.getInt(8);
+            r.sequence = b.getInt(12);
+            r.latencyMicros = b.getInt(16) & 0xFFFFFFFFL;
+            r.payloadBytes = b.getInt(20);
+            r.timestampNs = b.getLong(24);
+            assertEquals(FrameStreamServer.HEADER_BYTES + r.payloadBytes, message.length);
+            int size = r.width * r.height * (r.format == 0 ? 1 : 4);
+            if (r.encoding == FrameStreamServer.ENCODING_ZLIB) {
+                Inflater inflater = new Inflater();
+                inflater.setInput(message, FrameStreamServer.HEADER_BYTES, r.payloadBytes);
+                r.pixels = new byte[size];
+                assertEquals(size, inflater.inflate(r.pixels));
+                assertTrue(inflater.finished());
+                inflater.end();
+            } else {
+                assertEquals(size, r.payloadBytes);
+                r.pixels = new byte[size];
+                System.arraycopy(message, FrameStreamServer.HEADER_BYTES, r.pixels, 0, size);
+            }
+            return r;
+        }
+
+        String nextText() throws IOException {
+            return new String(nextMessage(0x1), StandardCharsets.UTF_8);
+        }
+
+        // The next unfragmented, unmasked server message of that opcode
+        byte[] nextMessage(int opcode) throws IOException {
+            int b0 = in.readUnsignedByte();
+            int b1 = in.readUnsignedByte();
+            assertEquals("FIN + opcode", 0x80 | opcode, b0);
+            assertEquals("server frames are unmasked", 0, b1 & 0x80);
+            long length = b1 & 0x7F;
+            if (length == 126) length = in.readUnsignedShort();
+            else if (length == 127) length = in.readLong();
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            return payload;
+        }
+
+        void sendText(String text) throws IOException {
+            byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+            byte[] mask = {1, 2, 3, 4};
+            byte[] frame = new byte[6 + payload.length];
+            frame[0] = (byte) 0x81;
+            frame[1] = (byte) (0x80 | payload.length);
+            System.arraycopy(mask, 0, frame, 2, 4);
+            for (int i = 0; i < payload.length; i++) frame[6 + i] = (byte) (payload[i] ^ mask[i & 3]);
+            out.write(frame);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
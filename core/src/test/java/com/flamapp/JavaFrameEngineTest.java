@@ -0,0 +1,293 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the pure-Java processing backend.
+ */
+public class JavaFrameEngineTest {
+
+    private static ByteBuffer plane(int width, int height, int rowStride, java.util.function.IntBinaryOperator pixel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) buffer.put(y * rowStride + x, (byte) pixel.applyAsInt(x, y));
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer noisy(int width, int height, long seed) {
+        Random random = new Random(seed);
+        return plane(width, height, width, (x, y) -> {
+            double v = 128 + 90 * Math.sin(x / 11.0) * Math.cos(y / 7.0) + random.nextGaussian() * 8;
+            return Math.max(0, Math.min(255, (int) v));
+        });
+    }
+
+    private static FrameProcessor javaProcessor(int width, int height, FilterChain chain, ForkJoinPool pool) {
+        return FrameProcessor.create(width, height, new FrameProcessor.Config()
+                .setFilterChain(chain)
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setJavaPool(pool));
+    }
+
+    private static byte[] run(FrameProcessor processor, ByteBuffer in, int rowStride) {
+        ByteBuffer out = FrameProcessor.allocateOutput(processor.getOutputWidth(), processor.getOutputHeight());
+        assertTrue(processor.process(in, rowStride, 1, out));
+        byte[] bytes = new byte[out.capacity()];
+        out.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void autoFallsBackToJavaWithoutNativeLibrary() {
+        try (FrameProcessor processor = FrameProcessor.create(32, 32, new FrameProcessor.Config())) {
+            if (!FrameProcessor.isNativeAvailable()) {
+                assertEquals(FrameProcessor.Backend.JAVA, processor.getBackend());
+            }
+        }
+    }
+
+    @Test
+    public void flatFrameHasNoEdges() {
+        try (FrameProcessor processor = javaProcessor(64, 48, FilterChain.defaultEdges(), null)) {
+            for (byte b : run(processor, plane(64, 48, 64, (x, y) -> 100), 64)) assertEquals(0, b);
+        }
+    }
+
+    @Test
+    public void verticalStepGivesOneEdgeColumn() {
+        int w = 64, h = 48;
+        try (FrameProcessor processor = javaProcessor(w, h, FilterChain.defaultEdges(), null)) {
+            byte[] out = run(processor, plane(w, h, w, (x, y) -> x < w / 2 ? 10 : 240), w);
+            for (int y = 0; y < h; y++) {
+                int edges = 0;
+                for (int x = 0; x < w; x++) {
+                    if (out[y * w + x] != 0) {
+                        assertEquals((byte) 255, out[y * w + x]);
+                        assertTrue("edge at x=" + x, x == w / 2 - 1 || x == w / 2);
+                        edges++;
+                    }
+                }
+                assertEquals("row " + y, 1, edges);
+            }
+        }
+    }
+
+    @Test
+    public void gaussian3x3IsBitExact() {
+        int w = 9, h = 7;
+        ByteBuffer in = noisy(w, h, 1);
+        try (FrameProcessor processor = javaProcessor(w, h, new FilterChain().gaussianBlur(3), null)) {
+            byte[] out = run(processor, in, w);
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int sum = 0;
+                    for (int j = -1; j <= 1; j++) {
+                        for (int i = -1; i <= 1; i++) {
+                            int yy = Math.abs(y + j) >= h ? 2 * h - 2 - (y + j) : Math.abs(y + j);
+                            int xx = Math.abs(x + i) >= w ? 2 * w - 2 - (x + i) : Math.abs(x + i);
+                            sum += (2 - Math.abs(i)) * (2 - Math.abs(j)) * (in.get(yy * w + xx) & 0xFF);
+                        }
+                    }
+                    assertEquals((sum + 8) >> 4, out[y * w + x] & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSingleThreaded() {
+        int w = 320, h = 240;
+        ByteBuffer in = noisy(w, h, 7);
+        FilterChain chain = new FilterChain().gaussianBlur(5).canny(40, 100).dilate(3, 1);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (FrameProcessor serial = javaProcessor(w, h, chain, null);
+             FrameProcessor parallel = javaProcessor(w, h, chain, pool)) {
+            assertArrayEquals(run(serial, in, w), run(parallel, in, w));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void stridedInputMatchesPacked() {
+        int w = 100, h = 60, stride = 128;
+        ByteBuffer packed = noisy(w, h, 3);
+        ByteBuffer strided = plane(w, h, stride, (x, y) -> packed.get(y * w + x) & 0xFF);
+        // camera planes usually stop right after the last row's pixels
+        strided.limit((h - 1) * stride + w);
+        ByteBuffer tight = strided.slice();
+        try (FrameProcessor processor = javaProcessor(w, h, FilterChain.defaultEdges(), null)) {
+            assertArrayEquals(run(processor, packed, w), run(processor, tight, stride));
+        }
+    }
+
+    @Test
+    public void thresholdAndMorphology() {
+        int w = 16, h = 16;
+        ByteBuffer dot = plane(w, h, w, (x, y) -> x == 8 && y == 8 ? 200 : 20);
+        try (FrameProcessor processor = javaProcessor(w, h,
+                new FilterChain().threshold(100, 255, FilterChain.THRESH_BINARY).dilate(3, 1), null)) {
+            byte[] out = run(processor, dot, w);
+            int set = 0;
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    boolean inside = Math.abs(x - 8) <= 1 && Math.abs(y - 8) <= 1;
+                    assertEquals(inside ? (byte) 255 : 0, out[y * w + x]);
+                    if (inside) set++;
+                }
+            }
+            assertEquals(9, set);
+            processor.setFilterChain(new FilterChain().threshold(100, 255, FilterChain.THRESH_BINARY).morphOpen(3, FilterChain.MORPH_RECT));
+            for (byte b : run(processor, dot, w)) assertEquals(0, b);
+        }
+    }
+
+    // noisy frame with a bright square stamped on it
+    private static ByteBuffer withSquare(ByteBuffer base, int width, int height, int x0, int y0, int side) {
+        return plane(width, height, width, (x, y) -> x >= x0 && x < x0 + side && y >= y0 && y < y0 + side
+                ? 240 : base.get(y * width + x) & 0xFF);
+    }
+
+    @Test
+    public void incrementalMatchesFullRunForLocalChains() {
+        int w = 320, h = 240;
+        ByteBuffer first = noisy(w, h, 11);
+        ByteBuffer second = withSquare(first, w, h, 150, 100, 20);
+        FilterChain chain = new FilterChain().gaussianBlur(5).sobel(1, 0, 3, 1).dilate(3, 2)
+                .morphOpen(3, FilterChain.MORPH_RECT);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (FrameProcessor full = javaProcessor(w, h, chain, null);
+             FrameProcessor incremental = FrameProcessor.create(w, h, new FrameProcessor.Config()
+                     .setFilterChain(chain)
+                     .setBackend(FrameProcessor.Backend.JAVA)
+                     .setJavaPool(pool)
+                     .setIncremental(32, 4))) {
+            assertArrayEquals(run(full, first, w), run(incremental, first, w));
+            assertArrayEquals(run(full, second, w), run(incremental, second, w));
+            assertFalse(incremental.lastFrameUnchanged());
+
+            // same picture again: nothing reruns, the cached result comes back
+            byte[] previous = run(full, second, w);
+            assertArrayEquals(previous, run(incremental, second, w));
+            assertTrue(incremental.lastFrameUnchanged());
+
+            FrameProcessor.IncrementalStats stats = incremental.getIncrementalStats();
+            assertEquals(3, stats.frames);
+            assertEquals(1, stats.unchangedFrames);
+            assertEquals(3 * 10 * 8, stats.tilesChecked);
+            // first frame in full, then the square's tile row (rows 96-127, full width) once
+            assertEquals(80 + 10, stats.tilesReprocessed);
+            assertTrue(stats.reprocessedRatio() < 0.5);
+
+            // two separate bands, clamped at the top and bottom edges
+            ByteBuffer third = withSquare(withSquare(second, w, h, 0, 0, 12), w, h, 300, 225, 15);
+            assertArrayEquals(run(full, third, w), run(incremental, third, w));
+            assertEquals(80 + 10 + 20, incremental.getIncrementalStats().tilesReprocessed);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void incrementalCannyStaysCloseToFullRun() {
+        int w = 320, h = 240;
+        ByteBuffer first = noisy(w, h, 13);
+        ByteBuffer second = withSquare(first, w, h, 40, 150, 30);
+        try (FrameProcessor full = javaProcessor(w, h, FilterChain.defaultEdges(), null);
+             FrameProcessor incremental = FrameProcessor.create(w, h, new FrameProcessor.Config()
+                     .setBackend(FrameProcessor.Backend.JAVA)
+                     .setJavaPool(null)
+                     .setIncremental(32, 4))) {
+            run(incremental, first, w);
+            byte[] expected = run(full, second, w);
+            byte[] actual = run(incremental, second, w);
+            int differing = 0;
+            for (int i = 0; i < expected.length; i++) if (expected[i] != actual[i]) differing++;
+            // hysteresis can't reach outside the rerun band; everything else is exact
+            assertTrue("differing pixels: " + differing, differing < expected.length / 1000);
+        }
+    }
+
+    @Test
+    public void incrementalCannyIsRefreshedInFull() {
+        int w = 320, h = 240;
+        ByteBuffer base = noisy(w, h, 19);
+        try (FrameProcessor full = javaProcessor(w, h, FilterChain.defaultEdges(), null);
+             FrameProcessor incremental = FrameProcessor.create(w, h, new FrameProcessor.Config()
+                     .setBackend(FrameProcessor.Backend.JAVA)
+                     .setJavaPool(null)
+                     .setIncremental(32, 4))) {
+            run(incremental, base, w);
+            ByteBuffer frame = base;
+            for (int i = 0; i <= FilterChain.CANNY_REFRESH_RUNS; i++) {
+                // a square drifting right: a tile row or two change per frame
+                frame = withSquare(base, w, h, 20 + 8 * i, 100, 30);
+                byte[] expected = run(full, frame, w);
+                byte[] actual = run(incremental, frame, w);
+                int differing = 0;
+                for (int p = 0; p < expected.length; p++) if (expected[p] != actual[p]) differing++;
+                if (i < FilterChain.CANNY_REFRESH_RUNS) {
+                    // misses pile up only where hysteresis left a band, never beyond a small share
+                    assertTrue("frame " + i + " differing pixels: " + differing, differing < expected.length / 500);
+                } else {
+                    assertEquals("refresh after " + i + " banded runs", 0, differing);
+                }
+            }
+            // the scene settles right after a banded run: its first still frame reruns in full,
+            // after that nothing runs
+            frame = withSquare(base, w, h, 20, 100, 30);
+            run(incremental, frame, w);
+            byte[] settled = run(full, frame, w);
+            assertArrayEquals(settled, run(incremental, frame, w));
+            assertFalse(incremental.lastFrameUnchanged());
+            assertArrayEquals(settled, run(incremental, frame, w));
+            assertTrue(incremental.lastFrameUnchanged());
+        }
+    }
+
+    @Test
+    public void wholeFrameChainsRerunInFull() {
+        int w = 128, h = 96;
+        ByteBuffer first = noisy(w, h, 17);
+        ByteBuffer second = withSquare(first, w, h, 10, 10, 8);
+        FilterChain chain = new FilterChain().equalizeHistogram().threshold(0, 255, FilterChain.THRESH_OTSU);
+        try (FrameProcessor full = javaProcessor(w, h, chain, null);
+             FrameProcessor incremental = javaProcessor(w, h, chain, null)) {
+            incremental.setIncremental(16, 4);
+            run(incremental, first, w);
+            assertArrayEquals(run(full, second, w), run(incremental, second, w));
+            assertEquals(2 * 8 * 6, incremental.getIncrementalStats().tilesReprocessed);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void unsupportedOpsAreRejectedUpFront() {
+        javaProcessor(32, 32, new FilterChain().morphClose(3, FilterChain.MORPH_ELLIPSE), null);
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int w = 320, h = 240;
+        ByteBuffer in = noisy(w, h, 5);
+        ByteBuffer out = FrameProcessor.allocateOutput(w, h);
+        try (FrameProcessor processor = javaProcessor(w, h,
+                new FilterChain().gaussianBlur(3).canny(80, 150).threshold(0, 255, FilterChain.THRESH_OTSU), null)) {
+            for (int i = 0; i < 5; i++) processor.process(in, w, 1, out);
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 20; i++) processor.process(in, w, 1, out);
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            // a little slack for the measurement itself
+            assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the lock-free latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguousAndBoundValues() {
+        int previous = -1;
+        for (long v = 0; v < 1_000_000; v += 1 + v / 50) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            assertTrue(bucket >= previous);
+            assertTrue(bucket <= previous + 1);
+            assertTrue(v <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) assertTrue(v > LatencyHistogram.upperBoundOf(bucket - 1));
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1..1000 microseconds, uniformly
+        for (int i = 1; i <= 1000; i++) histogram.record(i * 1000L);
+        assertEquals(1000, histogram.count());
+        assertEquals(1_000_000L, histogram.max());
+        assertEquals(500_500L, histogram.mean());
+        assertWithin(500_000L, histogram.percentile(0.50));
+        assertWithin(950_000L, histogram.percentile(0.95));
+        assertWithin(990_000L, histogram.percentile(0.99));
+        assertEquals(1_000_000L, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void emptyAndResetHistogramsReportZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.99));
+        histogram.record(5_000_000L);
+        histogram.record(-3);
+        assertEquals(0, histogram.percentile(0.0));
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(0.5));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws Exception {
+        final int threads = 4, perThread = 100_000;
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final long offset = t;
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) histogram.record(1000 + (i % 1000) * 4 + offset);
+            }));
+        }
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join(10_000);
+        assertEquals((long) threads * perThread, histogram.count());
+        assertEquals(1000 + 999 * 4 + threads - 1, histogram.max());
+    }
+
+    // bucket upper bounds overshoot by at most 1/16
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " got " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -0,0 +1,76 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the command-line load driver.
+ */
+public class LoadDriverTest {
+
+    @Test
+    public void parsesOptions() {
+        LoadDriver.Options o = LoadDriver.Options.parse("--size", "320x240", "--frames", "12", "--fps", "0",
+                "--backend", "java", "--incremental", "32:6", "--overlay", "--json");
+        assertEquals(320, o.width);
+        assertEquals(240, o.height);
+        assertEquals(12, o.frames);
+        assertEquals(0, o.fps, 0);
+        assertEquals(FrameProcessor.Backend.JAVA, o.backend);
+        assertEquals(32, o.tileSize);
+        assertEquals(6, o.changeThreshold);
+        assertTrue(o.overlay && o.json);
+
+        assertFalse(o.scheduled());
+
+        o = LoadDriver.Options.parse("--streams", "3", "--priority", "2,1", "--cap", "0,15");
+        assertTrue(o.scheduled());
+        assertEquals(2, o.priority(0));
+        assertEquals(1, o.priority(2));
+        assertEquals(0, o.cap(0), 0);
+        assertEquals(15, o.cap(2), 0);
+
+        String[][] bad = {{"--size", "320"}, {"--frames"}, {"--fps", "-1"}, {"--threads", "0"}, {"--what"},
+                {"--workers", "0"}, {"--priority", "1,0"}, {"--cap", "-5"}};
+        for (String[] args : bad) {
+            try {
+                LoadDriver.Options.parse(args);
+                fail("Accepted " + String.join(" ", args));
+            } catch (IllegalArgumentException expected) {
+                // main() prints the usage and exits with 2
+            }
+        }
+    }
+
+    @Test
+    public void runAccountsForEveryFrame() throws Exception {
+        LoadDriver.Result result = LoadDriver.run(LoadDriver.Options.parse(
+                "--size", "160x120", "--frames", "30", "--fps", "0", "--backend", "java", "--queue", "4"));
+        assertEquals(30, result.offered);
+        assertEquals(30, result.processed + result.dropped + result.unchanged);
+        assertTrue(result.processed > 0);
+        assertEquals(FrameProcessor.Backend.JAVA, result.backend);
+        assertTrue(result.toJson().startsWith("{\"source\":\"synthetic 160x120\""));
+        assertTrue(result.toString().contains("process"));
+    }
+
+    @Test
+    public void streamsOnSharedWorkersAccountForEveryFrame() throws Exception {
+        LoadDriver.MultiResult result = LoadDriver.runStreams(LoadDriver.Options.parse(
+                "--streams", "3", "--workers", "2", "--size", "96x64", "--frames", "20", "--fps", "0",
+                "--backend", "java", "--queue", "4", "--priority", "3,1"));
+        assertEquals(2, result.workers);
+        assertEquals(3, result.streams.length);
+        for (LoadDriver.Result stream : result.streams) {
+            assertEquals(20, stream.offered);
+            assertEquals(20, stream.processed + stream.dropped + stream.unchanged + stream.capped);
+            assertNotNull(stream.schedule);
+        }
+        assertEquals(3, result.streams[0].schedule.priority);
+        assertEquals(1, result.streams[2].schedule.priority);
+        assertTrue(result.processed() > 0);
+        assertTrue(result.toJson().startsWith("{\"workers\":2,"));
+        assertTrue(result.toString().contains("[stream 2]"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the background loader. There is no native-lib on the host JVM, so AUTO
+ * resolves to the Java backend and the warm-up runs through it.
+ */
+public class NativeLoaderTest {
+
+    @Test
+    public void autoFallsBackToJavaAndWarmsItUp() throws Exception {
+        NativeLoader loader = NativeLoader.start(160, 120, new FrameProcessor.Config()
+                .setColorOutput(ColorOutput.gray())
+                .setIncremental(32, 6)
+                .setJavaPool(null));
+        NativeLoader.Result result = loader.ready().get(10, TimeUnit.SECONDS);
+        assertTrue(loader.isReady());
+        assertSame(result, loader.getResult());
+        assertEquals(FrameProcessor.Backend.JAVA, result.backend);
+        // why native isn't available
+        assertNotNull(result.error);
+        assertTrue(result.firstFrameNanos > 0 && result.lastFrameNanos > 0);
+        assertTrue(result.warmUpNanos >= result.firstFrameNanos + result.lastFrameNanos);
+        assertTrue(result.toJson().startsWith("{\"backend\":\"JAVA\""));
+    }
+
+    @Test
+    public void javaBackendLoadsWithoutError() throws Exception {
+        NativeLoader loader = NativeLoader.start(64, 48, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setJavaPool(null));
+        CountDownLatch called = new CountDownLatch(2);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        loader.whenReady(result -> {
+            thread.set(Thread.currentThread());
+            called.countDown();
+        });
+        NativeLoader.Result result = loader.ready().get(10, TimeUnit.SECONDS);
+        assertEquals(FrameProcessor.Backend.JAVA, result.backend);
+        assertNull(result.error);
+        // a listener added once it is ready runs straight away, on the caller
+        loader.whenReady(r -> called.countDown());
+        assertTrue(called.await(10, TimeUnit.SECONDS));
+        assertNotNull(thread.get());
+    }
+
+    @Test
+    public void failedWarmUpIsReported() throws Exception {
+        // a chain that changes the frame size can't have an overlay: create() throws
+        NativeLoader loader = NativeLoader.start(64, 48, new FrameProcessor.Config()
+                .setBackend(FrameProcessor.Backend.JAVA)
+                .setFilterChain(new FilterChain().scale(0.5))
+                .setColorOutput(ColorOutput.edgeOverlay(0xFF00FF00, 0.5)));
+        NativeLoader.Result result = loader.ready().get(10, TimeUnit.SECONDS);
+        assertEquals(FrameProcessor.Backend.JAVA, result.backend);
+        assertTrue(result.error instanceof RuntimeException);
+    }
+}
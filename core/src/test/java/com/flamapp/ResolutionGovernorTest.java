@@ -0,0 +1,158 @@
+package com.flamapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the resolution governor, driven by synthetic latency traces.
+ */
+public class ResolutionGovernorTest {
+
+    private static final long MS = 1_000_000L;
+
+    // a typical back camera: a 4:3 sensor with 16:9 and 4:3 stream sizes
+    private static final int[][] SIZES = {
+            {4032, 3024}, {1920, 1080}, {1440, 1080}, {1280, 720}, {960, 540},
+            {800, 600}, {640, 480}, {640, 360}, {320, 240}, {320, 180}, {176, 144},
+    };
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void levelsOrderedByProcessedPixelsPreferringSmallerCaptures() {
+        ResolutionGovernor governor = new ResolutionGovernor(SIZES, new ResolutionGovernor.Config());
+        List<String> names = new ArrayList<>();
+        for (ResolutionGovernor.Level level : governor.levels()) names.add(level.toString());
+        // 4032x3024 is over the capture cap, 4:3 sizes don't match 1920x1080, 160x90 is too small,
+        // and 1920x1080/2 loses to a native 960x540 capture
+        assertEquals("[1920x1080, 1280x720, 960x540, 640x360, 960x540/2, 320x180]", names.toString());
+        assertEquals("1280x720", governor.current().toString());
+    }
+
+    @Test
+    public void slowDeviceStepsDownUntilWithinBudget() {
+        ResolutionGovernor governor = new ResolutionGovernor(SIZES, new ResolutionGovernor.Config());
+        run(governor, 50, 2000, new Random(1));
+        // 720p takes ~46 ms, 540p ~26 ms and 720p is never predicted to fit again
+        assertEquals("960x540", governor.current().toString());
+        ResolutionGovernor.Stats stats = governor.getStats();
+        assertEquals(1, stats.stepsDown);
+        assertEquals(0, stats.stepsUp);
+        assertTrue(stats.lastWindowP90Nanos < stats.budgetNanos);
+    }
+
+    @Test
+    public void fastDeviceStepsUpOnlyAfterSustainedHeadroom() {
+        ResolutionGovernor.Config config = new ResolutionGovernor.Config();
+        ResolutionGovernor governor = new ResolutionGovernor(SIZES, config);
+        long latency = 10 * governor.current().processPixels();
+        // two full windows of headroom are needed before the first step up
+        for (int i = 1; i < 60; i++) {
+            assertEquals(ResolutionGovernor.Decision.HOLD, governor.onFrame(latency));
+        }
+        assertEquals(ResolutionGovernor.Decision.UP, governor.onFrame(latency));
+        assertEquals("1920x1080", governor.current().toString());
+        run(governor, 10, 1000, new Random(2));
+        assertEquals(1, governor.getStats().stepsUp);
+        assertEquals(0, governor.getStats().stepsDown);
+    }
+
+    @Test
+    public void isolatedSpikesDoNotStepDown() {
+        ResolutionGovernor governor = new ResolutionGovernor(SIZES, new ResolutionGovernor.Config());
+        long latency = 30 * governor.current().processPixels();
+        for (int i = 0; i < 3000; i++) {
+            // two GC-sized hiccups per 30-frame window
+            long l = i % 15 == 7 ? 200 * MS : latency;
+            assertEquals(ResolutionGovernor.Decision.HOLD, governor.onFrame(l));
+        }
+        assertEquals("1280x720", governor.current().toString());
+    }
+
+    @Test
+    public void sustainedOverrunStepsDownWithoutWaitingForTheWindow() {
+        ResolutionGovernor.Config config = new ResolutionGovernor.Config().setCooldownFrames(5);
+        ResolutionGovernor governor = new ResolutionGovernor(SIZES, config);
+        assertEquals(ResolutionGovernor.Decision.HOLD, governor.onFrame(80 * MS));
+        assertEquals(ResolutionGovernor.Decision.HOLD, governor.onFrame(80 * MS));
+        assertEquals(ResolutionGovernor.Decision.DOWN, governor.onFrame(80 * MS));
+        assertEquals("960x540", governor.current().toString());
+        // cooldown: frames queued at the old size don't count
+        for (int i = 0; i < 5; i++) {
+            assertEquals(ResolutionGovernor.Decision.HOLD, governor.onFrame(80 * MS));
+        }
+        governor.onFrame(80 * MS);
+        governor.onFrame(80 * MS);
+        assertEquals(ResolutionGovernor.Decision.DOWN, governor.onFrame(80 * MS));
+        assertEquals("640x360", governor.current().toString());
+    }
+
+    @Test
+    public void borderlineLevelBacksOffInsteadOfFlapping() {
+        ResolutionGovernor governor = new ResolutionGovernor(SIZES, new ResolutionGovernor.Config());
+        // 1080p costs far more than its pixel ratio predicts (thermal limit, memory bandwidth...)
+        int atTop = 0;
+        for (int i = 0; i < 20000; i++) {
+            boolean top = governor.current().captureWidth == 1920;
+            if (top) atTop++;
+            governor.onFrame(top ? 40 * MS : 10 * MS);
+        }
+        ResolutionGovernor.Stats stats = governor.getStats();
+        assertTrue("too many retries: " + stats, stats.stepsDown <= 10);
+        assertTrue(stats.stepsUp >= stats.stepsDown);
+        assertTrue("too long over budget: " + atTop, atTop < 20000 / 20);
+    }
+
+    @Test
+    public void sameTraceSameDecisions() {
+        assertEquals(trace(42), trace(42));
+    }
+
+    @Test
+    public void statsAreExportedAsAMetricsSection() throws Exception {
+        ResolutionGovernor governor = new ResolutionGovernor(SIZES, new ResolutionGovernor.Config());
+        run(governor, 50, 200, new Random(3));
+        File file = new File(tmp.getRoot(), "metrics.jsonl");
+        MetricsExporter exporter = new MetricsExporter(new FrameMetrics(), file, 1000, 0);
+        exporter.addSection("governor", () -> governor.getStats().toJson());
+        exporter.export();
+
+        String line = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).get(0);
+        assertTrue(line, line.contains(",\"governor\":{\"capture\":\"960x540\",\"divisor\":1,\"level\":2,"));
+        assertTrue(line, line.contains("\"frames\":200,\"stepsUp\":0,\"stepsDown\":1}"));
+        assertTrue(line.endsWith("}}"));
+    }
+
+    // Feeds frames costing nsPerPixel of the current level's processed pixels, +-10% noise
+    private static void run(ResolutionGovernor governor, int nsPerPixel, int frames, Random random) {
+        for (int i = 0; i < frames; i++) {
+            long cost = nsPerPixel * governor.current().processPixels();
+            governor.onFrame(cost + (long) (cost * 0.2 * (random.nextDouble() - 0.5)));
+        }
+    }
+
+    private static List<String> trace(long seed) {
+        ResolutionGovernor governor = new ResolutionGovernor(SIZES, new ResolutionGovernor.Config());
+        Random random = new Random(seed);
+        List<String> decisions = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // load that drifts between light and heavy
+            double nsPerPixel = 20 + 25 * Math.sin(i / 400.0) + 10 * random.nextDouble();
+            ResolutionGovernor.Decision d = governor.onFrame((long) (nsPerPixel * governor.current().processPixels()));
+            if (d != ResolutionGovernor.Decision.HOLD) decisions.add(i + " " + d + " " + governor.current());
+        }
+        decisions.add(governor.getStats().toString());
+        return decisions;
+    }
+}
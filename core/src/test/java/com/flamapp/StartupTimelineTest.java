@@ -0,0 +1,33 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the cold start timeline.
+ */
+public class StartupTimelineTest {
+
+    @Test
+    public void keepsFirstMarkRelativeToOrigin() {
+        StartupTimeline timeline = new StartupTimeline(1_000_000L);
+        assertFalse(timeline.reached(StartupTimeline.Milestone.FIRST_FRAME));
+        assertEquals(-1, timeline.sinceStart(StartupTimeline.Milestone.FIRST_FRAME));
+
+        assertTrue(timeline.mark(StartupTimeline.Milestone.FIRST_FRAME, 251_000_000L));
+        assertFalse(timeline.mark(StartupTimeline.Milestone.FIRST_FRAME, 400_000_000L));
+        assertTrue(timeline.reached(StartupTimeline.Milestone.FIRST_FRAME));
+        assertEquals(250_000_000L, timeline.sinceStart(StartupTimeline.Milestone.FIRST_FRAME));
+    }
+
+    @Test
+    public void jsonListsEveryMilestone() {
+        StartupTimeline timeline = new StartupTimeline(0);
+        timeline.mark(StartupTimeline.Milestone.ACTIVITY_CREATED, 120_500_000L);
+        timeline.mark(StartupTimeline.Milestone.FIRST_PROCESSED_FRAME, 612_250_000L);
+        assertEquals("{\"activityCreatedMs\":120.50,\"nativeLoadedMs\":null,\"nativeWarmMs\":null,"
+                + "\"cameraOpenedMs\":null,\"firstFrameMs\":null,\"firstProcessedFrameMs\":612.25}", timeline.toJson());
+        assertEquals("activityCreated=120.5ms firstProcessedFrame=612.3ms", timeline.toString());
+    }
+}
@@ -0,0 +1,81 @@
+package com.flamapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the sampled per-tile change detection behind incremental processing.
+ */
+public class TileChangesTest {
+
+    private static final int W = 100;
+    private static final int H = 70;
+
+    @Test
+    public void everythingChangedUntilAFullFrameIsAccepted() {
+        TileChanges changes = new TileChanges(W, H, 32, 4);
+        assertEquals(4, changes.tilesX);
+        assertEquals(3, changes.tilesY);
+        byte[] frame = new byte[W * H];
+        assertEquals(12, changes.detect(frame));
+        changes.accept(frame, 0, H);
+        assertEquals(0, changes.detect(frame));
+    }
+
+    @Test
+    public void onlyTheTouchedTileChanges() {
+        TileChanges changes = new TileChanges(W, H, 32, 4);
+        byte[] frame = new byte[W * H];
+        changes.accept(frame, 0, H);
+        // a blob inside tile (1, 1)
+        for (int y = 40; y < 56; y++) Arrays.fill(frame, y * W + 40, y * W + 56, (byte) 200);
+        assertEquals(1, changes.detect(frame));
+        assertTrue(changes.isChanged(1, 1));
+        assertTrue(changes.rowChanged(1));
+        assertFalse(changes.rowChanged(0));
+        assertFalse(changes.rowChanged(2));
+    }
+
+    @Test
+    public void thinEdgeTilesAreSampledToo() {
+        // 70 rows of 32: the last tile row is 6 rows high, 100 columns leave a 4-wide last column
+        TileChanges changes = new TileChanges(W, H, 32, 4);
+        byte[] frame = new byte[W * H];
+        changes.accept(frame, 0, H);
+        for (int y = 64; y < H; y++) Arrays.fill(frame, y * W + 96, y * W + W, (byte) 255);
+        assertEquals(1, changes.detect(frame));
+        assertTrue(changes.isChanged(3, 2));
+    }
+
+    @Test
+    public void noiseBelowThresholdIsIgnoredButDriftAddsUp() {
+        TileChanges changes = new TileChanges(W, H, 32, 4);
+        byte[] frame = new byte[W * H];
+        Arrays.fill(frame, (byte) 100);
+        changes.accept(frame, 0, H);
+        // the scene brightens by 1 per frame; the reference stays put, so the 5th frame trips it
+        for (int step = 1; step <= 4; step++) {
+            Arrays.fill(frame, (byte) (100 + step));
+            assertEquals("step " + step, 0, changes.detect(frame));
+        }
+        Arrays.fill(frame, (byte) 105);
+        assertEquals(12, changes.detect(frame));
+    }
+
+    @Test
+    public void acceptedRowsBecomeTheReference() {
+        TileChanges changes = new TileChanges(W, H, 32, 0);
+        byte[] frame = new byte[W * H];
+        changes.accept(frame, 0, H);
+        Arrays.fill(frame, (byte) 9);
+        assertEquals(12, changes.detect(frame));
+        changes.accept(frame, 32, 64);
+        assertEquals(8, changes.detect(frame));
+        assertFalse(changes.rowChanged(1));
+        changes.invalidate();
+        assertEquals(12, changes.detect(frame));
+    }
+}
@@ -1,21 +1,169 @@
-function loadBase64Image() {
-    fetch("image_b64.txt")
-        .then(res => res.text())
-        .then(base64 => {
-            const img = document.getElementById("image") as HTMLImageElement;
-            img.src = "data:image/png;base64," + base64.trim();
-        })
-        .catch(err => console.error("Failed to load base64 image:", err));
+// Live viewer for the app's FrameStreamServer: one binary WebSocket message per processed frame,
+// decoded (zlib via DecompressionStream) and drawn into a canvas. Stats are measured here:
+// FPS from frames actually drawn, latency = the device's capture-to-send time from the frame
+// header + half the ping round trip + our own decode and draw time.
+//
+// Server address: ?server=host:port, else the page's own host when served over HTTP, else
+// localhost:8080 (adb forward tcp:8080 tcp:8080).
+
+declare const DecompressionStream: any;
+
+const HEADER_BYTES = 32;
+const FORMAT_GRAY8 = 0;
+const ENCODING_ZLIB = 1;
+const PING_INTERVAL_MS = 1000;
+const STATS_INTERVAL_MS = 500;
+const RECONNECT_MS = 2000;
+
+interface FrameHeader {
+    format: number;
+    encoding: number;
+    width: number;
+    height: number;
+    sequence: number;
+    latencyMs: number;
+    payloadBytes: number;
+    timestampNs: number;
 }
 
-// Fake FPS update
+const canvas = document.getElementById("frame") as HTMLCanvasElement;
+const context = canvas.getContext("2d");
 const fpsSpan = document.getElementById("fps") as HTMLElement;
-let fps = 12;
-setInterval(() => {
-    fps += (Math.random() > 0.5 ? 1 : -1);
-    if (fps < 5) fps = 5;
-    fpsSpan.innerText = fps.toString();
-}, 800);
-
-// Load the base64 file on start
-loadBase64Image();
+const resolutionSpan = document.getElementById("resolution") as HTMLElement;
+const latencySpan = document.getElementById("latency") as HTMLElement;
+const detailSpan = document.getElementById("detail") as HTMLElement;
+const statusSpan = document.getElementById("status") as HTMLElement;
+
+let image: ImageData = null;
+// newest message not decoded yet; older ones are dropped while a decode is running
+let pending: ArrayBuffer = null;
+let decoding = false;
+let lastSequence = 0;
+let missed = 0;
+let drawTimes: number[] = [];
+let bytesReceived = 0;
+let lastHeader: FrameHeader = null;
+let decodeMs = 0;
+let rttMs = NaN;
+
+function serverAddress(): string {
+    const param = new URLSearchParams(location.search).get("server");
+    if (param) return param;
+    if (location.protocol === "http:" || location.protocol === "https:") return location.host;
+    return "localhost:8080";
+}
+
+function parseHeader(view: DataView): FrameHeader {
+    return {
+        format: view.getUint8(1),
+        encoding: view.getUint8(2),
+        width: view.getUint32(4, true),
+        height: view.getUint32(8, true),
+        sequence: view.getUint32(12, true),
+        latencyMs: view.getUint32(16, true) / 1000,
+        payloadBytes: view.getUint32(20, true),
+        timestampNs: view.getUint32(24, true) + view.getUint32(28, true) * 4294967296,
+    };
+}
+
+async function inflate(data: Uint8Array): Promise<Uint8Array> {
+    const stream = (new Blob([data]) as any).stream().pipeThrough(new DecompressionStream("deflate"));
+    return new Uint8Array(await new Response(stream).arrayBuffer());
+}
+
+async function decodeAndDraw(message: ArrayBuffer): Promise<void> {
+    const start = performance.now();
+    const header = parseHeader(new DataView(message));
+    let pixels = new Uint8Array(message, HEADER_BYTES, header.payloadBytes);
+    if (header.encoding === ENCODING_ZLIB) pixels = await inflate(pixels);
+
+    if (image === null || image.width !== header.width || image.height !== header.height) {
+        canvas.width = header.width;
+        canvas.height = header.height;
+        image = context.createImageData(header.width, header.height);
+    }
+    const out = image.data;
+    if (header.format === FORMAT_GRAY8) {
+        for (let i = 0, p = 0; i < pixels.length; i++, p += 4) {
+            const v = pixels[i];
+            out[p] = v;
+            out[p + 1] = v;
+            out[p + 2] = v;
+            out[p + 3] = 255;
+        }
+    } else {
+        out.set(pixels);
+    }
+    context.putImageData(image, 0, 0);
+
+    if (lastSequence !== 0 && header.sequence > lastSequence + 1) missed += header.sequence - lastSequence - 1;
+    lastSequence = header.sequence;
+    lastHeader = header;
+    const now = performance.now();
+    decodeMs = now - start;
+    drawTimes.push(now);
+}
+
+// Decodes the newest message; anything that arrived meanwhile replaces what is waiting
+async function pump(): Promise<void> {
+    if (decoding) return;
+    decoding = true;
+    try {
+        while (pending !== null) {
+            const message = pending;
+            pending = null;
+            try {
+                await decodeAndDraw(message);
+            } catch (err) {
+                console.error("Bad frame:", err);
+            }
+        }
+    } finally {
+        decoding = false;
+    }
+}
+
+function updateStats(): void {
+    const now = performance.now();
+    drawTimes = drawTimes.filter(t => now - t <= 1000);
+    fpsSpan.innerText = drawTimes.length.toString();
+    if (lastHeader !== null) {
+        resolutionSpan.innerText = lastHeader.width + "×" + lastHeader.height;
+        const network = isNaN(rttMs) ? 0 : rttMs / 2;
+        latencySpan.innerText = (lastHeader.latencyMs + network + decodeMs).toFixed(1) + " ms";
+        detailSpan.innerText = "device " + lastHeader.latencyMs.toFixed(1) + " ms • rtt "
+            + (isNaN(rttMs) ? "–" : rttMs.toFixed(1) + " ms") + " • decode " + decodeMs.toFixed(1) + " ms • "
+            + (bytesReceived / 1024 / (STATS_INTERVAL_MS / 1000)).toFixed(0) + " KB/s • missed " + missed;
+    }
+    bytesReceived = 0;
+}
+
+function connect(): void {
+    const url = "ws://" + serverAddress() + "/stream";
+    const socket = new WebSocket(url);
+    socket.binaryType = "arraybuffer";
+    let pinger = 0;
+
+    socket.onopen = () => {
+        statusSpan.innerText = "connected to " + url;
+        lastSequence = 0;
+        pinger = window.setInterval(() => socket.send("ping " + performance.now()), PING_INTERVAL_MS);
+    };
+    socket.onmessage = (event: MessageEvent) => {
+        if (typeof event.data === "string") {
+            if (event.data.indexOf("pong ") === 0) rttMs = performance.now() - parseFloat(event.data.substring(5));
+            return;
+        }
+        bytesReceived += event.data.byteLength;
+        pending = event.data;
+        pump();
+    };
+    socket.onclose = () => {
+        window.clearInterval(pinger);
+        statusSpan.innerText = "disconnected from " + url + ", retrying…";
+        window.setTimeout(connect, RECONNECT_MS);
+    };
+}
+
+window.setInterval(updateStats, STATS_INTERVAL_MS);
+connect();